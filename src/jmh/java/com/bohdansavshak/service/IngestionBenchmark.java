@@ -0,0 +1,75 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.model.ConfluenceResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-batch cost of the ingestion steps on a synthetic 25-page /rest/api/content listing (body.storage,space)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestionBenchmark {
+    private static final int CHUNK_MAX_CHARS = 4000;
+
+    private byte[] contentListing;
+    private ObjectMapper objectMapper;
+    private ConfluenceContentParser contentParser;
+    private StorageFormatExtractor extractor;
+    private DocumentChunker chunker;
+    private List<String> storageValues;
+    private List<StorageFormatExtractor.ExtractedText> extractedTexts;
+
+    @Setup
+    public void setUp() {
+        contentListing = SamplePayloads.read(SamplePayloads.CONTENT_LISTING);
+        objectMapper = new ObjectMapper();
+        contentParser = new ConfluenceContentParser();
+        extractor = new StorageFormatExtractor();
+        chunker = new DocumentChunker();
+
+        storageValues = new ArrayList<>();
+        extractedTexts = new ArrayList<>();
+        for (ConfluencePage page : SamplePayloads.contentListingPages()) {
+            String storage = page.getBody().getStorage().getValue();
+            storageValues.add(storage);
+            extractedTexts.add(extractor.extract(storage));
+        }
+    }
+
+    // The previous client: the whole listing is bound into ConfluenceResponse before any page is processed
+    @Benchmark
+    public ConfluenceResponse deserializeConfluenceResponse() throws IOException {
+        return objectMapper.readValue(contentListing, ConfluenceResponse.class);
+    }
+
+    @Benchmark
+    public int streamConfluenceContent(Blackhole blackhole) throws IOException {
+        return contentParser.parseResults(new ByteArrayInputStream(contentListing), blackhole::consume);
+    }
+
+    // What EmbeddingService.extractTextContent does for every page of the batch
+    @Benchmark
+    public void extractTextContent(Blackhole blackhole) {
+        for (String storage : storageValues) {
+            blackhole.consume(extractor.extract(storage));
+        }
+    }
+
+    @Benchmark
+    public void chunk(Blackhole blackhole) {
+        for (StorageFormatExtractor.ExtractedText extracted : extractedTexts) {
+            blackhole.consume(chunker.chunk(extracted, CHUNK_MAX_CHARS));
+        }
+    }
+}
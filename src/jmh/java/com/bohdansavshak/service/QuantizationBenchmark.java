@@ -0,0 +1,199 @@
+package com.bohdansavshak.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Coarse search over quantized vectors plus exact re-scoring, the way QuantizedVectorStore queries pgvector.
+// Quantization follows pgvector: halfvec is IEEE float16, binary_quantize sets a bit for every positive component
+// and is compared by Hamming distance. Scans are brute force, so the numbers compare per-candidate cost and
+// recall, not HNSW latency. Recall@k against the full-precision ranking is printed at setup.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuantizationBenchmark {
+    private static final int DIMENSIONS = 768;
+    private static final int CORPUS = 10_000;
+    private static final int TOPICS = 200;
+    private static final int QUERIES = 100;
+    private static final int TOP_K = 5;
+
+    @Param({"full", "halfvec", "binary"})
+    private String mode;
+
+    @Param({"1", "4", "10"})
+    private int candidateMultiplier;
+
+    private float[][] vectors;
+    private short[][] halfVectors;
+    private long[][] bitVectors;
+    private float[][] queries;
+    private int nextQuery;
+
+    @Setup
+    public void setUp() {
+        // Embeddings cluster by topic; queries are perturbed corpus vectors, so each has true neighbours
+        SplittableRandom random = new SplittableRandom(42);
+        float[][] topics = new float[TOPICS][];
+        for (int i = 0; i < TOPICS; i++) {
+            topics[i] = gaussian(random, 1.0);
+        }
+        vectors = new float[CORPUS][];
+        halfVectors = new short[CORPUS][];
+        bitVectors = new long[CORPUS][];
+        for (int i = 0; i < CORPUS; i++) {
+            vectors[i] = normalize(add(topics[random.nextInt(TOPICS)], gaussian(random, 0.6)));
+            halfVectors[i] = toHalf(vectors[i]);
+            bitVectors[i] = toBits(vectors[i]);
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = normalize(add(vectors[random.nextInt(CORPUS)], gaussian(random, 0.3)));
+        }
+
+        double recall = 0;
+        for (float[] query : queries) {
+            recall += overlap(search(query, "full", 1), search(query, mode, candidateMultiplier)) / (double) TOP_K;
+        }
+        System.out.printf("%nrecall@%d mode=%s candidateMultiplier=%d: %.3f%n", TOP_K, mode, candidateMultiplier, recall / QUERIES);
+    }
+
+    @Benchmark
+    public int[] search() {
+        float[] query = queries[nextQuery++ % QUERIES];
+        return search(query, mode, candidateMultiplier);
+    }
+
+    private int[] search(float[] query, String searchMode, int multiplier) {
+        if (searchMode.equals("full")) {
+            return top(TOP_K, i -> cosineDistance(query, vectors[i]), CORPUS, null);
+        }
+
+        int[] candidates;
+        if (searchMode.equals("halfvec")) {
+            short[] halfQuery = toHalf(query);
+            candidates = top(TOP_K * multiplier, i -> halfCosineDistance(halfQuery, halfVectors[i]), CORPUS, null);
+        } else {
+            long[] bitQuery = toBits(query);
+            candidates = top(TOP_K * multiplier, i -> hamming(bitQuery, bitVectors[i]), CORPUS, null);
+        }
+        // Re-score the candidates against the full-precision vectors
+        return top(TOP_K, i -> cosineDistance(query, vectors[i]), candidates.length, candidates);
+    }
+
+    private interface Distance {
+        double of(int index);
+    }
+
+    // Indices of the n smallest distances, nearest first; ids maps positions to corpus indices when re-scoring
+    private static int[] top(int n, Distance distance, int size, int[] ids) {
+        PriorityQueue<double[]> heap = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+        for (int position = 0; position < size; position++) {
+            int index = ids != null ? ids[position] : position;
+            double d = distance.of(index);
+            if (heap.size() < n) {
+                heap.add(new double[]{d, index});
+            } else if (d < heap.peek()[0]) {
+                heap.poll();
+                heap.add(new double[]{d, index});
+            }
+        }
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = (int) heap.poll()[1];
+        }
+        return result;
+    }
+
+    private static int overlap(int[] expected, int[] actual) {
+        int found = 0;
+        for (int id : actual) {
+            if (Arrays.stream(expected).anyMatch(e -> e == id)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static double cosineDistance(float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return 1 - dot / Math.sqrt(normA * normB);
+    }
+
+    private static double halfCosineDistance(short[] a, short[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            float x = Float.float16ToFloat(a[i]);
+            float y = Float.float16ToFloat(b[i]);
+            dot += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        return 1 - dot / Math.sqrt(normA * normB);
+    }
+
+    private static double hamming(long[] a, long[] b) {
+        int bits = 0;
+        for (int i = 0; i < a.length; i++) {
+            bits += Long.bitCount(a[i] ^ b[i]);
+        }
+        return bits;
+    }
+
+    private static short[] toHalf(float[] vector) {
+        short[] half = new short[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            half[i] = Float.floatToFloat16(vector[i]);
+        }
+        return half;
+    }
+
+    private static long[] toBits(float[] vector) {
+        long[] bits = new long[(vector.length + 63) / 64];
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                bits[i / 64] |= 1L << (i % 64);
+            }
+        }
+        return bits;
+    }
+
+    private static float[] gaussian(SplittableRandom random, double scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() * scale);
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
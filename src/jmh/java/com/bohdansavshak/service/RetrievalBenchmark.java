@@ -0,0 +1,79 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.model.ConfluencePage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Request-side work that runs in the JVM after pgvector returns: mapping retrieved chunks to source pages.
+// Similarity scoring happens inside pgvector, so it isn't measured here.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RetrievalBenchmark {
+    private static final String BASE_URL = "https://confluence.example.com";
+
+    @Param({"5", "50"})
+    private int candidates;
+
+    private List<Document> documents;
+    private PageCatalog catalog;
+
+    @Setup
+    public void setUp() {
+        // Retrieved chunks as EmbeddingService stores them, built from the sample listing
+        List<ConfluencePage> pages = SamplePayloads.contentListingPages();
+        StorageFormatExtractor extractor = new StorageFormatExtractor();
+        documents = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            ConfluencePage page = pages.get(i % pages.size());
+            documents.add(Document.builder()
+                    .text(extractor.extract(page.getBody().getStorage().getValue()).getText())
+                    .metadata(Map.of(
+                            "id", page.getId(),
+                            "title", page.getTitle(),
+                            "spaceKey", page.getSpace().getKey(),
+                            "spaceName", page.getSpace().getName(),
+                            "type", "confluence-page",
+                            "chunk", i / pages.size()))
+                    .build());
+        }
+
+        ConfluenceProperties properties = new ConfluenceProperties();
+        properties.setBaseUrl(BASE_URL);
+        catalog = new PageCatalog(properties, new IngestionProperties(), null);
+        List<DocumentEmbedding> stored = new ArrayList<>(pages.size());
+        for (ConfluencePage page : pages) {
+            stored.add(DocumentEmbedding.create(page.getId(), page.getTitle(), null, page.getSpace().getKey(), page.getSpace().getName()));
+        }
+        catalog.putAll(stored);
+    }
+
+    // Building every source from chunk metadata, as before the page catalog
+    @Benchmark
+    public List<RagService.SourcePage> sourcePagesFromMetadata() {
+        List<RagService.SourcePage> sources = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            RagService.SourcePage source = PageCatalog.fromMetadata(document, BASE_URL);
+            if (sources.stream().noneMatch(existing -> existing.getPageId().equals(source.getPageId()))) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    @Benchmark
+    public List<RagService.SourcePage> sourcePagesFromCatalog() {
+        return catalog.sourcesFor(documents);
+    }
+}
@@ -0,0 +1,39 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.model.ConfluencePage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Synthetic Confluence responses from src/test/resources/confluence, shared by the benchmarks
+final class SamplePayloads {
+    static final String CONTENT_LISTING = "/confluence/content-listing.json";
+
+    private SamplePayloads() {
+    }
+
+    static byte[] read(String resource) {
+        try (InputStream inputStream = SamplePayloads.class.getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing sample payload " + resource);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<ConfluencePage> contentListingPages() {
+        List<ConfluencePage> pages = new ArrayList<>();
+        try {
+            new ConfluenceContentParser().parseResults(new ByteArrayInputStream(read(CONTENT_LISTING)), pages::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return pages;
+    }
+}
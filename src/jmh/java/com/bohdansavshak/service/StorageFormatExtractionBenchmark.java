@@ -0,0 +1,54 @@
+package com.bohdansavshak.service;
+
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Compares the previous Jsoup DOM extraction with StorageFormatExtractor. Run with -prof gc to compare allocation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageFormatExtractionBenchmark {
+
+    @Param({"10", "100"})
+    private int sections;
+
+    private String storageFormat;
+    private StorageFormatExtractor extractor;
+
+    @Setup
+    public void setUp() {
+        extractor = new StorageFormatExtractor();
+
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < sections; i++) {
+            page.append("<h2>Section ").append(i).append("</h2>")
+                    .append("<p>Deployment notes for service ").append(i)
+                    .append(" covering rollout, rollback&nbsp;and monitoring. See <ac:link><ri:page ri:content-title=\"Runbook\" />")
+                    .append("<ac:plain-text-link-body><![CDATA[the runbook]]></ac:plain-text-link-body></ac:link>.</p>")
+                    .append("<ac:structured-macro ac:name=\"info\" ac:schema-version=\"1\"><ac:parameter ac:name=\"title\">Note</ac:parameter>")
+                    .append("<ac:rich-text-body><p>Requires VPN access &amp; an approved change request.</p></ac:rich-text-body></ac:structured-macro>")
+                    .append("<table><tbody><tr><th>Setting</th><th>Value</th></tr>")
+                    .append("<tr><td><p>replicas</p></td><td><p>3</p></td></tr>")
+                    .append("<tr><td><p>timeout</p></td><td><p>30s</p></td></tr></tbody></table>")
+                    .append("<ac:structured-macro ac:name=\"code\"><ac:parameter ac:name=\"language\">bash</ac:parameter>")
+                    .append("<ac:plain-text-body><![CDATA[kubectl rollout status deploy/service-").append(i)
+                    .append("\nkubectl get pods -l app=service-").append(i).append("]]></ac:plain-text-body></ac:structured-macro>");
+        }
+        storageFormat = page.toString();
+    }
+
+    @Benchmark
+    public String jsoupText() {
+        return Jsoup.parse(storageFormat).text();
+    }
+
+    @Benchmark
+    public StorageFormatExtractor.ExtractedText storageFormatExtractor() {
+        return extractor.extract(storageFormat);
+    }
+}
@@ -0,0 +1,186 @@
+package com.bohdansavshak.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+
+// Serves synthetic spaces through the subset of the Confluence REST API the client uses: content listings by
+// space or type, single pages and (empty) attachment listings. Page bodies are generated from the page id,
+// so every run sees the same content.
+class FakeConfluenceServer implements AutoCloseable {
+    static final List<String> WORDS = List.of(
+            "service", "cluster", "rollout", "rollback", "monitoring", "alert", "dashboard", "approval", "change",
+            "ticket", "owner", "team", "latency", "capacity", "backup", "restore", "schema", "migration", "review",
+            "pipeline", "artifact", "staging", "production", "access", "policy", "vacation", "benefit", "laptop",
+            "badge", "incident", "postmortem", "runbook", "deployment", "database", "network", "certificate");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final int spaces;
+    private final int pagesPerSpace;
+    private final int sectionsPerPage;
+    private final long latencyMillis;
+
+    FakeConfluenceServer(int spaces, int pagesPerSpace, int sectionsPerPage, long latencyMillis) throws IOException {
+        this.spaces = spaces;
+        this.pagesPerSpace = pagesPerSpace;
+        this.sectionsPerPage = sectionsPerPage;
+        this.latencyMillis = latencyMillis;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/rest/api/content", this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    int totalPages() {
+        return spaces * pagesPerSpace;
+    }
+
+    String spaceKeys() {
+        List<String> keys = new ArrayList<>();
+        for (int space = 0; space < spaces; space++) {
+            keys.add(spaceKey(space));
+        }
+        return String.join(",", keys);
+    }
+
+    // A sentence that occurs in the given page, usable as a question that retrieves it
+    static String sentenceOf(int pageNumber) {
+        return sentence(new SplittableRandom(pageNumber), 12);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            sleep(latencyMillis);
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            Object body;
+            if (path.endsWith("/child/attachment")) {
+                body = Map.of("results", List.of(), "start", 0, "limit", 0, "size", 0);
+            } else if (path.equals("/rest/api/content")) {
+                body = listing(query);
+            } else {
+                body = page(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1)));
+            }
+
+            byte[] bytes = objectMapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private Map<String, Object> listing(Map<String, String> query) {
+        int start = Integer.parseInt(query.getOrDefault("start", "0"));
+        int limit = Integer.parseInt(query.getOrDefault("limit", "25"));
+
+        int first = 0;
+        int count = totalPages();
+        String spaceKey = query.get("space");
+        if (spaceKey != null) {
+            first = Integer.parseInt(spaceKey.substring(2)) * pagesPerSpace;
+            count = pagesPerSpace;
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = start; i < Math.min(count, start + limit); i++) {
+            results.add(page(first + i));
+        }
+        return Map.of("results", results, "start", start, "limit", limit, "size", results.size());
+    }
+
+    private Map<String, Object> page(int pageNumber) {
+        int space = pageNumber / pagesPerSpace;
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("id", String.valueOf(pageNumber));
+        page.put("type", "page");
+        page.put("status", "current");
+        page.put("title", "Load test page " + pageNumber);
+        page.put("space", Map.of("key", spaceKey(space), "name", "Load test space " + space));
+        page.put("body", Map.of("storage", Map.of("value", storageFormat(pageNumber), "representation", "storage")));
+        page.put("_links", Map.of("webui", "/pages/viewpage.action?pageId=" + pageNumber));
+        return page;
+    }
+
+    private String storageFormat(int pageNumber) {
+        SplittableRandom random = new SplittableRandom(pageNumber);
+        StringBuilder storage = new StringBuilder("<p>").append(sentence(random, 12)).append("</p>");
+        for (int section = 0; section < sectionsPerPage; section++) {
+            storage.append("<h2>Section ").append(section).append("</h2><p>");
+            for (int i = 0; i < 4; i++) {
+                storage.append(sentence(random, 10 + random.nextInt(10))).append(' ');
+            }
+            storage.append("</p><table><tbody><tr><th>Setting</th><th>Value</th></tr><tr><td>")
+                    .append(WORDS.get(random.nextInt(WORDS.size()))).append("</td><td>")
+                    .append(random.nextInt(1000)).append("</td></tr></tbody></table>");
+        }
+        return storage.toString();
+    }
+
+    private static String sentence(SplittableRandom random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS.get(random.nextInt(WORDS.size())));
+        }
+        return sentence.append('.').toString();
+    }
+
+    private static String spaceKey(int space) {
+        return "LT" + space;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
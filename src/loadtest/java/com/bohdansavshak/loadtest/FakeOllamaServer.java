@@ -0,0 +1,150 @@
+package com.bohdansavshak.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+// Stands in for Ollama's /api/embed and /api/chat. Embeddings are hashed bags of words, so texts sharing words
+// are similar and retrieval returns real matches; chat answers are a fixed number of tokens, streamed as NDJSON
+// with a configurable delay between tokens.
+class FakeOllamaServer implements AutoCloseable {
+    private static final int DIMENSIONS = 768;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final long embedLatencyMillis;
+    private final int answerTokens;
+    private final long tokenLatencyMillis;
+
+    FakeOllamaServer(long embedLatencyMillis, int answerTokens, long tokenLatencyMillis) throws IOException {
+        this.embedLatencyMillis = embedLatencyMillis;
+        this.answerTokens = answerTokens;
+        this.tokenLatencyMillis = tokenLatencyMillis;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/embed", this::embed);
+        server.createContext("/api/chat", this::chat);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            FakeConfluenceServer.sleep(embedLatencyMillis);
+
+            List<float[]> embeddings = new ArrayList<>();
+            for (JsonNode input : request.path("input")) {
+                embeddings.add(embedding(input.asText()));
+            }
+            writeJson(exchange, Map.of("model", request.path("model").asText(), "embeddings", embeddings));
+        }
+    }
+
+    private void chat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String model = request.path("model").asText();
+
+            if (!request.path("stream").asBoolean(false)) {
+                FakeConfluenceServer.sleep(tokenLatencyMillis * answerTokens);
+                writeJson(exchange, chatResponse(model, answer(), true));
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < answerTokens; i++) {
+                    FakeConfluenceServer.sleep(tokenLatencyMillis);
+                    writeLine(out, chatResponse(model, token(i), false));
+                }
+                writeLine(out, chatResponse(model, "", true));
+            }
+        }
+    }
+
+    private Map<String, Object> chatResponse(String model, String content, boolean done) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("model", model);
+        response.put("created_at", "2025-01-01T00:00:00Z");
+        response.put("message", Map.of("role", "assistant", "content", content));
+        response.put("done", done);
+        if (done) {
+            response.put("done_reason", "stop");
+            response.put("prompt_eval_count", 512);
+            response.put("eval_count", answerTokens);
+        }
+        return response;
+    }
+
+    private String answer() {
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < answerTokens; i++) {
+            answer.append(token(i));
+        }
+        return answer.toString();
+    }
+
+    private static String token(int index) {
+        return (index == 0 ? "" : " ") + FakeConfluenceServer.WORDS.get(index % FakeConfluenceServer.WORDS.size());
+    }
+
+    static float[] embedding(String text) {
+        float[] vector = new float[DIMENSIONS];
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+            if (!word.isEmpty()) {
+                vector[Math.floorMod(word.hashCode(), DIMENSIONS)] += 1f;
+            }
+        }
+
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            vector[0] = 1f;
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private void writeJson(HttpExchange exchange, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void writeLine(OutputStream out, Object body) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(body));
+        out.write('\n');
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
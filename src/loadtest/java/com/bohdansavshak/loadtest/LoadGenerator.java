@@ -0,0 +1,89 @@
+package com.bohdansavshak.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Closed-loop driver: `concurrency` virtual threads issue requests back to back until `requests` have been sent.
+// Latencies are recorded in microseconds into HdrHistograms, one per named measurement.
+class LoadGenerator {
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    @FunctionalInterface
+    interface Request {
+        // Records its own measurements; the end-to-end latency is recorded by the generator
+        void execute(int index, Measurements measurements) throws Exception;
+    }
+
+    static class Measurements {
+        private final List<String> names = new ArrayList<>();
+        private final List<Histogram> histograms = new ArrayList<>();
+
+        synchronized Histogram histogram(String name) {
+            int index = names.indexOf(name);
+            if (index >= 0) {
+                return histograms.get(index);
+            }
+            Histogram histogram = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+            names.add(name);
+            histograms.add(histogram);
+            return histogram;
+        }
+
+        void record(String name, long startNanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            histogram(name).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+        }
+    }
+
+    record Result(String report, int errors) {
+    }
+
+    static Result run(String name, int concurrency, int requests, Request request) throws InterruptedException {
+        Measurements measurements = new Measurements();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(Thread.ofVirtual().name(name + "-", i).start(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < requests) {
+                    long requestStart = System.nanoTime();
+                    try {
+                        request.execute(index, measurements);
+                        measurements.record("latency", requestStart);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        StringBuilder report = new StringBuilder()
+                .append(String.format("%n== %s: %d requests, concurrency %d, %d errors, %.1f s, %.2f req/s%n",
+                        name, requests, concurrency, errors.get(), seconds, (requests - errors.get()) / seconds));
+        report.append(String.format("   %-22s %9s %9s %9s %9s %9s %9s%n", "", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (int i = 0; i < measurements.names.size(); i++) {
+            Histogram histogram = measurements.histograms.get(i);
+            report.append(String.format("   %-22s %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f  ms%n",
+                    measurements.names.get(i),
+                    histogram.getMean() / 1000,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0));
+        }
+        return new Result(report.toString(), errors.get());
+    }
+}
@@ -0,0 +1,249 @@
+package com.bohdansavshak.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs the whole application against FakeConfluenceServer, FakeOllamaServer and a pgvector container, then
+// drives ingestion, /ask, /ask-stream and a second ingestion under /ask load, and prints throughput and latency
+// percentiles. Only built and run with the load-test profile; sizes and latencies are system properties, see README.
+@Tag("load")
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RagLoadTest {
+    private static final int SPACES = Integer.getInteger("loadtest.spaces", 3);
+    private static final int PAGES_PER_SPACE = Integer.getInteger("loadtest.pages-per-space", 200);
+    private static final int SECTIONS_PER_PAGE = Integer.getInteger("loadtest.sections-per-page", 5);
+    private static final long CONFLUENCE_LATENCY_MS = Long.getLong("loadtest.confluence-latency-ms", 20);
+    private static final long EMBED_LATENCY_MS = Long.getLong("loadtest.embed-latency-ms", 10);
+    private static final int ANSWER_TOKENS = Integer.getInteger("loadtest.answer-tokens", 64);
+    private static final long TOKEN_LATENCY_MS = Long.getLong("loadtest.token-latency-ms", 15);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 16);
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 200);
+    private static final Duration INGESTION_TIMEOUT = Duration.ofMinutes(Long.getLong("loadtest.ingestion-timeout-minutes", 15));
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            DockerImageName.parse("pgvector/pgvector:pg16").asCompatibleSubstituteFor("postgres"));
+
+    private static final FakeConfluenceServer confluence;
+    private static final FakeOllamaServer ollama;
+
+    static {
+        try {
+            confluence = new FakeConfluenceServer(SPACES, PAGES_PER_SPACE, SECTIONS_PER_PAGE, CONFLUENCE_LATENCY_MS);
+            ollama = new FakeOllamaServer(EMBED_LATENCY_MS, ANSWER_TOKENS, TOKEN_LATENCY_MS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("spring.jpa.show-sql", () -> "false");
+        registry.add("spring.ai.vectorstore.pgvector.initialize-schema", () -> "true");
+        registry.add("spring.ai.ollama.base-url", ollama::baseUrl);
+        registry.add("confluence.base-url", confluence::baseUrl);
+        registry.add("confluence.username", () -> "load");
+        registry.add("confluence.password", () -> "test");
+        registry.add("confluence.space-keys", confluence::spaceKeys);
+    }
+
+    @AfterAll
+    static void stopStubs() {
+        confluence.close();
+        ollama.close();
+    }
+
+    @Test
+    @Order(1)
+    void ingestAllPages() throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> started = httpClient.send(HttpRequest.newBuilder(url("/api/embeddings/process-all"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, started.statusCode());
+
+        long documents = 0;
+        long deadline = start + INGESTION_TIMEOUT.toNanos();
+        while (documents < confluence.totalPages() && System.nanoTime() < deadline) {
+            Thread.sleep(500);
+            JsonNode status = getJson("/api/embeddings/status");
+            documents = status.path("totalDocuments").asLong();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%n== process-all: %d of %d pages in %.1f s, %.1f pages/s%n",
+                documents, confluence.totalPages(), seconds, documents / seconds);
+        assertEquals(confluence.totalPages(), documents, "ingestion did not finish within " + INGESTION_TIMEOUT);
+    }
+
+    @Test
+    @Order(2)
+    void ask() throws Exception {
+        LoadGenerator.Result result = LoadGenerator.run("ask", CONCURRENCY, REQUESTS, this::ask);
+        System.out.print(result.report());
+        assertEquals(0, result.errors(), result.report());
+    }
+
+    private void ask(int index, LoadGenerator.Measurements measurements) throws Exception {
+        String body = objectMapper.writeValueAsString(Map.of("question", question(index)));
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(url("/api/chat/ask"))
+                .header("Content-Type", "application/json")
+                .header("X-Client-Id", clientId())
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode());
+        }
+    }
+
+    @Test
+    @Order(3)
+    void askStream() throws Exception {
+        LoadGenerator.Result result = LoadGenerator.run("ask-stream", CONCURRENCY, REQUESTS, (index, measurements) -> {
+            long start = System.nanoTime();
+            String encoded = URLEncoder.encode(question(index), StandardCharsets.UTF_8);
+            HttpResponse<Stream<String>> response = httpClient.send(HttpRequest.newBuilder(url("/api/chat/ask-stream?question=" + encoded))
+                    .header("Accept", "text/event-stream")
+                    .header("X-Client-Id", clientId())
+                    .GET().build(), HttpResponse.BodyHandlers.ofLines());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("HTTP " + response.statusCode());
+            }
+
+            boolean firstChunk = true;
+            boolean completed = false;
+            try (Stream<String> lines = response.body()) {
+                Iterator<String> iterator = lines.iterator();
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    if (line.equals("event:chunk") && firstChunk) {
+                        measurements.record("time-to-first-token", start);
+                        firstChunk = false;
+                    } else if (line.equals("event:complete")) {
+                        completed = true;
+                    } else if (line.equals("event:error")) {
+                        throw new IllegalStateException("stream reported an error");
+                    }
+                }
+            }
+            if (!completed) {
+                throw new IllegalStateException("stream ended without a complete event");
+            }
+        });
+        System.out.print(result.report());
+        assertEquals(0, result.errors(), result.report());
+    }
+
+    // A second full crawl (every page is fetched, embedded and upserted again) while /ask runs at full concurrency,
+    // so ingestion throughput and chat latency are measured while they compete for Ollama and Postgres
+    @Test
+    @Order(4)
+    void processAllUnderChatLoad() throws Exception {
+        double storedBefore = ingestedItems("metadata");
+        long start = System.nanoTime();
+        HttpResponse<String> started = httpClient.send(HttpRequest.newBuilder(url("/api/embeddings/process-all"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, started.statusCode());
+
+        AtomicLong ingestionNanos = new AtomicLong(-1);
+        Thread ingestionWatcher = Thread.ofVirtual().start(() -> {
+            long deadline = start + INGESTION_TIMEOUT.toNanos();
+            try {
+                while (System.nanoTime() < deadline) {
+                    if (ingestedItems("metadata") - storedBefore >= confluence.totalPages()) {
+                        ingestionNanos.set(System.nanoTime() - start);
+                        return;
+                    }
+                    Thread.sleep(200);
+                }
+            } catch (Exception e) {
+                // Reported as not finished below
+            }
+        });
+
+        LoadGenerator.Result chat = LoadGenerator.run("ask-during-process-all", CONCURRENCY, REQUESTS, this::ask);
+        ingestionWatcher.join();
+
+        System.out.print(chat.report());
+        double seconds = ingestionNanos.get() / 1e9;
+        System.out.printf("== process-all under chat load: %d pages in %.1f s, %.1f pages/s%n",
+                confluence.totalPages(), seconds, confluence.totalPages() / seconds);
+        assertEquals(0, chat.errors(), chat.report());
+        assertTrue(ingestionNanos.get() > 0, "ingestion did not finish within " + INGESTION_TIMEOUT);
+    }
+
+    // Every worker is its own client, as distinct users would be; all of them connect from 127.0.0.1, so without the
+    // header they would share one client's chat.admission.max-queued-per-client and most requests would get 429
+    private static String clientId() {
+        return "loadtest-" + Thread.currentThread().getName();
+    }
+
+    // Questions are sentences from the synthetic pages, so retrieval returns context for the prompt
+    private static String question(int index) {
+        return FakeConfluenceServer.sentenceOf(index % confluence.totalPages());
+    }
+
+    // rag.ingestion.items for one stage; the metadata stage counts pages upserted into document_embeddings
+    private double ingestedItems(String stage) throws IOException, InterruptedException {
+        JsonNode metric = getJson("/actuator/metrics/rag.ingestion.items?tag=stage:" + stage);
+        for (JsonNode measurement : metric.path("measurements")) {
+            if ("COUNT".equals(measurement.path("statistic").asText())) {
+                return measurement.path("value").asDouble();
+            }
+        }
+        return 0;
+    }
+
+    private JsonNode getJson(String path) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = httpClient.send(HttpRequest.newBuilder(url(path)).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            return objectMapper.readTree(body);
+        }
+    }
+
+    private URI url(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,47 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "chat.admission")
+public class AdmissionProperties {
+    private int maxConcurrent = 2;
+    private int maxQueued = 32;
+    private int maxQueuedPerClient = 4;
+    private Duration maxWait = Duration.ofSeconds(20);
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    public int getMaxQueuedPerClient() {
+        return maxQueuedPerClient;
+    }
+
+    public void setMaxQueuedPerClient(int maxQueuedPerClient) {
+        this.maxQueuedPerClient = maxQueuedPerClient;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+}
@@ -0,0 +1,65 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "chat.batch")
+public class BatchProperties {
+    private int maxQuestions = 1000;
+    private int maxConcurrentBatches = 2;
+    private int searchConcurrency = 8;
+    private int generationConcurrency = 2;
+    private Duration admissionRetryDelay = Duration.ofSeconds(5);
+    private Duration maxAdmissionWait = Duration.ofMinutes(30);
+
+    public int getMaxQuestions() {
+        return maxQuestions;
+    }
+
+    public void setMaxQuestions(int maxQuestions) {
+        this.maxQuestions = maxQuestions;
+    }
+
+    public int getMaxConcurrentBatches() {
+        return maxConcurrentBatches;
+    }
+
+    public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    public int getSearchConcurrency() {
+        return searchConcurrency;
+    }
+
+    public void setSearchConcurrency(int searchConcurrency) {
+        this.searchConcurrency = searchConcurrency;
+    }
+
+    public int getGenerationConcurrency() {
+        return generationConcurrency;
+    }
+
+    public void setGenerationConcurrency(int generationConcurrency) {
+        this.generationConcurrency = generationConcurrency;
+    }
+
+    public Duration getAdmissionRetryDelay() {
+        return admissionRetryDelay;
+    }
+
+    public void setAdmissionRetryDelay(Duration admissionRetryDelay) {
+        this.admissionRetryDelay = admissionRetryDelay;
+    }
+
+    public Duration getMaxAdmissionWait() {
+        return maxAdmissionWait;
+    }
+
+    public void setMaxAdmissionWait(Duration maxAdmissionWait) {
+        this.maxAdmissionWait = maxAdmissionWait;
+    }
+}
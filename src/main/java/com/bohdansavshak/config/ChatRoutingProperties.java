@@ -0,0 +1,49 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "chat.routing")
+public class ChatRoutingProperties {
+    private boolean enabled = false;
+    private String fastModel = "llama3.2:1b";
+    private int maxFastWords = 12;
+    private List<String> synthesisKeywords = List.of(
+            "why", "compare", "comparison", "difference", "differences", "explain", "summarize", "summary",
+            "overview", "pros", "cons", "tradeoffs", "recommend", "plan", "design", "analyze", "steps");
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFastModel() {
+        return fastModel;
+    }
+
+    public void setFastModel(String fastModel) {
+        this.fastModel = fastModel;
+    }
+
+    public int getMaxFastWords() {
+        return maxFastWords;
+    }
+
+    public void setMaxFastWords(int maxFastWords) {
+        this.maxFastWords = maxFastWords;
+    }
+
+    public List<String> getSynthesisKeywords() {
+        return synthesisKeywords;
+    }
+
+    public void setSynthesisKeywords(List<String> synthesisKeywords) {
+        this.synthesisKeywords = synthesisKeywords;
+    }
+}
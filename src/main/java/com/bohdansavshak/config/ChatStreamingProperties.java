@@ -0,0 +1,38 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "chat.streaming")
+public class ChatStreamingProperties {
+    private Duration coalesceWindow = Duration.ofMillis(50);
+    private int maxFrameTokens = 32;
+    private int maxReplayFrames = 512;
+
+    public Duration getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public void setCoalesceWindow(Duration coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    public int getMaxFrameTokens() {
+        return maxFrameTokens;
+    }
+
+    public void setMaxFrameTokens(int maxFrameTokens) {
+        this.maxFrameTokens = maxFrameTokens;
+    }
+
+    public int getMaxReplayFrames() {
+        return maxReplayFrames;
+    }
+
+    public void setMaxReplayFrames(int maxReplayFrames) {
+        this.maxReplayFrames = maxReplayFrames;
+    }
+}
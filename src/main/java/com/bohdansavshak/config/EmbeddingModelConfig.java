@@ -0,0 +1,21 @@
+package com.bohdansavshak.config;
+
+import com.bohdansavshak.service.IngestionEmbeddingModel;
+import com.bohdansavshak.service.PooledEmbeddingModel;
+import com.bohdansavshak.service.PrecomputedEmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+@Configuration
+public class EmbeddingModelConfig {
+
+    // Fronts the embedding pool; vector stores embed queries through this one, so batch questions
+    // embedded in one call are found there. Documents being ingested are embedded by the ingestion model.
+    @Bean
+    @Primary
+    public PrecomputedEmbeddingModel precomputedEmbeddingModel(PooledEmbeddingModel pooledEmbeddingModel,
+                                                               IngestionEmbeddingModel ingestionEmbeddingModel) {
+        return new PrecomputedEmbeddingModel(pooledEmbeddingModel, ingestionEmbeddingModel);
+    }
+}
@@ -0,0 +1,189 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "ingestion")
+public class IngestionProperties {
+    private int batchSize = 200;
+    private int chunkMaxChars = 4000;
+    private boolean attachmentsEnabled = true;
+    private int attachmentWorkers = 2;
+    private int attachmentQueueCapacity = 1000;
+    private long attachmentMaxBytes = 50L * 1024 * 1024;
+    private int attachmentMaxChars = 500_000;
+    private List<String> attachmentMediaTypes = List.of(
+            "application/pdf",
+            "application/msword",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "text/plain",
+            "text/markdown",
+            "text/csv");
+    private boolean queueEnabled = false;
+    private int queueWorkers = 2;
+    private int queueClaimSize = 50;
+    private Duration queueLease = Duration.ofMinutes(2);
+    private Duration queueMaxLeaseAge = Duration.ofMinutes(30);
+    private int queueMaxAttempts = 5;
+    private Duration queuePollInterval = Duration.ofSeconds(2);
+    private Duration journalReplayAfter = Duration.ofMinutes(10);
+    private Duration catalogRefreshInterval = Duration.ofSeconds(30);
+    private String snapshotDir = "snapshots";
+    private String snapshotBootstrap;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getChunkMaxChars() {
+        return chunkMaxChars;
+    }
+
+    public void setChunkMaxChars(int chunkMaxChars) {
+        this.chunkMaxChars = chunkMaxChars;
+    }
+
+    public boolean isAttachmentsEnabled() {
+        return attachmentsEnabled;
+    }
+
+    public void setAttachmentsEnabled(boolean attachmentsEnabled) {
+        this.attachmentsEnabled = attachmentsEnabled;
+    }
+
+    public int getAttachmentWorkers() {
+        return attachmentWorkers;
+    }
+
+    public void setAttachmentWorkers(int attachmentWorkers) {
+        this.attachmentWorkers = attachmentWorkers;
+    }
+
+    public int getAttachmentQueueCapacity() {
+        return attachmentQueueCapacity;
+    }
+
+    public void setAttachmentQueueCapacity(int attachmentQueueCapacity) {
+        this.attachmentQueueCapacity = attachmentQueueCapacity;
+    }
+
+    public long getAttachmentMaxBytes() {
+        return attachmentMaxBytes;
+    }
+
+    public void setAttachmentMaxBytes(long attachmentMaxBytes) {
+        this.attachmentMaxBytes = attachmentMaxBytes;
+    }
+
+    public int getAttachmentMaxChars() {
+        return attachmentMaxChars;
+    }
+
+    public void setAttachmentMaxChars(int attachmentMaxChars) {
+        this.attachmentMaxChars = attachmentMaxChars;
+    }
+
+    public List<String> getAttachmentMediaTypes() {
+        return attachmentMediaTypes;
+    }
+
+    public void setAttachmentMediaTypes(List<String> attachmentMediaTypes) {
+        this.attachmentMediaTypes = attachmentMediaTypes;
+    }
+
+    public boolean isQueueEnabled() {
+        return queueEnabled;
+    }
+
+    public void setQueueEnabled(boolean queueEnabled) {
+        this.queueEnabled = queueEnabled;
+    }
+
+    public int getQueueWorkers() {
+        return queueWorkers;
+    }
+
+    public void setQueueWorkers(int queueWorkers) {
+        this.queueWorkers = queueWorkers;
+    }
+
+    public int getQueueClaimSize() {
+        return queueClaimSize;
+    }
+
+    public void setQueueClaimSize(int queueClaimSize) {
+        this.queueClaimSize = queueClaimSize;
+    }
+
+    public Duration getQueueLease() {
+        return queueLease;
+    }
+
+    public void setQueueLease(Duration queueLease) {
+        this.queueLease = queueLease;
+    }
+
+    public Duration getQueueMaxLeaseAge() {
+        return queueMaxLeaseAge;
+    }
+
+    public void setQueueMaxLeaseAge(Duration queueMaxLeaseAge) {
+        this.queueMaxLeaseAge = queueMaxLeaseAge;
+    }
+
+    public int getQueueMaxAttempts() {
+        return queueMaxAttempts;
+    }
+
+    public void setQueueMaxAttempts(int queueMaxAttempts) {
+        this.queueMaxAttempts = queueMaxAttempts;
+    }
+
+    public Duration getQueuePollInterval() {
+        return queuePollInterval;
+    }
+
+    public void setQueuePollInterval(Duration queuePollInterval) {
+        this.queuePollInterval = queuePollInterval;
+    }
+
+    public Duration getJournalReplayAfter() {
+        return journalReplayAfter;
+    }
+
+    public void setJournalReplayAfter(Duration journalReplayAfter) {
+        this.journalReplayAfter = journalReplayAfter;
+    }
+
+    public Duration getCatalogRefreshInterval() {
+        return catalogRefreshInterval;
+    }
+
+    public void setCatalogRefreshInterval(Duration catalogRefreshInterval) {
+        this.catalogRefreshInterval = catalogRefreshInterval;
+    }
+
+    public String getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    public void setSnapshotDir(String snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+
+    public String getSnapshotBootstrap() {
+        return snapshotBootstrap;
+    }
+
+    public void setSnapshotBootstrap(String snapshotBootstrap) {
+        this.snapshotBootstrap = snapshotBootstrap;
+    }
+}
@@ -0,0 +1,128 @@
+package com.bohdansavshak.config;
+
+import com.bohdansavshak.service.IngestionEmbeddingModel;
+import com.bohdansavshak.service.OllamaEndpointPool;
+import com.bohdansavshak.service.PooledChatModel;
+import com.bohdansavshak.service.PooledEmbeddingModel;
+import com.bohdansavshak.service.RagMetrics;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.model.ollama.autoconfigure.OllamaChatProperties;
+import org.springframework.ai.model.ollama.autoconfigure.OllamaConnectionProperties;
+import org.springframework.ai.model.ollama.autoconfigure.OllamaEmbeddingProperties;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+import java.util.function.Function;
+
+// Separate pools of Ollama nodes for embeddings and chat, so bulk re-embedding and generation never compete for
+// the same GPU unless a node is listed in both. Bulk embedding can get a third pool of its own (ingestion-urls).
+// Every node gets the model and options of spring.ai.ollama.chat or .embedding; without spring.ai.ollama.pool URLs
+// each pool is the auto-configured model on base-url alone.
+@Configuration
+public class OllamaPoolConfig {
+
+    @Bean
+    public PooledEmbeddingModel pooledEmbeddingModel(OllamaPoolProperties poolProperties,
+                                                     OllamaConnectionProperties connectionProperties,
+                                                     OllamaEmbeddingModel ollamaEmbeddingModel,
+                                                     OllamaEmbeddingProperties embeddingProperties,
+                                                     ObjectProvider<RestClient.Builder> restClientBuilder,
+                                                     ObjectProvider<WebClient.Builder> webClientBuilder,
+                                                     ObjectProvider<ObservationRegistry> observationRegistry,
+                                                     RagMetrics ragMetrics) {
+        return embeddingPool("embedding", poolProperties.getEmbeddingUrls(), poolProperties, connectionProperties,
+                ollamaEmbeddingModel, embeddingProperties, restClientBuilder, webClientBuilder, observationRegistry,
+                ragMetrics);
+    }
+
+    // Bulk embedding for ingestion, kept from taking every slot the query embeddings need
+    @Bean
+    public IngestionEmbeddingModel ingestionEmbeddingModel(OllamaPoolProperties poolProperties,
+                                                           OllamaConnectionProperties connectionProperties,
+                                                           OllamaEmbeddingModel ollamaEmbeddingModel,
+                                                           OllamaEmbeddingProperties embeddingProperties,
+                                                           PooledEmbeddingModel pooledEmbeddingModel,
+                                                           ObjectProvider<RestClient.Builder> restClientBuilder,
+                                                           ObjectProvider<WebClient.Builder> webClientBuilder,
+                                                           ObjectProvider<ObservationRegistry> observationRegistry,
+                                                           RagMetrics ragMetrics) {
+        if (poolProperties.getIngestionUrls().isEmpty()) {
+            return IngestionEmbeddingModel.shared(pooledEmbeddingModel, poolProperties.getIngestionMaxInFlight());
+        }
+        return IngestionEmbeddingModel.dedicated(embeddingPool("ingestion", poolProperties.getIngestionUrls(),
+                poolProperties, connectionProperties, ollamaEmbeddingModel, embeddingProperties, restClientBuilder,
+                webClientBuilder, observationRegistry, ragMetrics));
+    }
+
+    private static PooledEmbeddingModel embeddingPool(String name, List<String> urls,
+                                                      OllamaPoolProperties poolProperties,
+                                                      OllamaConnectionProperties connectionProperties,
+                                                      OllamaEmbeddingModel ollamaEmbeddingModel,
+                                                      OllamaEmbeddingProperties embeddingProperties,
+                                                      ObjectProvider<RestClient.Builder> restClientBuilder,
+                                                      ObjectProvider<WebClient.Builder> webClientBuilder,
+                                                      ObjectProvider<ObservationRegistry> observationRegistry,
+                                                      RagMetrics ragMetrics) {
+        List<OllamaEndpointPool.Endpoint<EmbeddingModel>> endpoints = endpoints(urls,
+                connectionProperties, ollamaEmbeddingModel, restClientBuilder, webClientBuilder,
+                api -> OllamaEmbeddingModel.builder()
+                        .ollamaApi(api)
+                        .defaultOptions(embeddingProperties.getOptions())
+                        .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+                        .build());
+        return new PooledEmbeddingModel(new OllamaEndpointPool<>(name, endpoints,
+                poolProperties.getHealthCheckInterval(), poolProperties.getHealthCheckTimeout(), ragMetrics));
+    }
+
+    // The ChatClient and everything else asking for a ChatModel get this one
+    @Bean
+    @Primary
+    public PooledChatModel pooledChatModel(OllamaPoolProperties poolProperties,
+                                           OllamaConnectionProperties connectionProperties,
+                                           OllamaChatModel ollamaChatModel, OllamaChatProperties chatProperties,
+                                           ToolCallingManager toolCallingManager,
+                                           ObjectProvider<RestClient.Builder> restClientBuilder,
+                                           ObjectProvider<WebClient.Builder> webClientBuilder,
+                                           ObjectProvider<ObservationRegistry> observationRegistry,
+                                           RagMetrics ragMetrics) {
+        List<OllamaEndpointPool.Endpoint<ChatModel>> endpoints = endpoints(poolProperties.getChatUrls(),
+                connectionProperties, ollamaChatModel, restClientBuilder, webClientBuilder,
+                api -> OllamaChatModel.builder()
+                        .ollamaApi(api)
+                        .defaultOptions(chatProperties.getOptions())
+                        .toolCallingManager(toolCallingManager)
+                        .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+                        .build());
+        return new PooledChatModel(new OllamaEndpointPool<>("chat", endpoints,
+                poolProperties.getHealthCheckInterval(), poolProperties.getHealthCheckTimeout(), ragMetrics));
+    }
+
+    private static <M> List<OllamaEndpointPool.Endpoint<M>> endpoints(List<String> urls,
+                                                                      OllamaConnectionProperties connectionProperties,
+                                                                      M autoConfigured,
+                                                                      ObjectProvider<RestClient.Builder> restClientBuilder,
+                                                                      ObjectProvider<WebClient.Builder> webClientBuilder,
+                                                                      Function<OllamaApi, M> modelFactory) {
+        if (urls.isEmpty()) {
+            return List.of(new OllamaEndpointPool.Endpoint<>(connectionProperties.getBaseUrl(), autoConfigured));
+        }
+        return urls.stream()
+                .map(url -> new OllamaEndpointPool.Endpoint<>(url, modelFactory.apply(OllamaApi.builder()
+                        .baseUrl(url)
+                        .restClientBuilder(restClientBuilder.getIfAvailable(RestClient::builder))
+                        .webClientBuilder(webClientBuilder.getIfAvailable(WebClient::builder))
+                        .build())))
+                .toList();
+    }
+}
@@ -0,0 +1,69 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "spring.ai.ollama.pool")
+public class OllamaPoolProperties {
+    // Ollama base URLs serving embeddings and chat; an empty list uses spring.ai.ollama.base-url alone
+    private List<String> embeddingUrls = new ArrayList<>();
+    private List<String> chatUrls = new ArrayList<>();
+    // Nodes for bulk embedding only; while empty, ingestion shares embedding-urls with at most ingestionMaxInFlight calls
+    private List<String> ingestionUrls = new ArrayList<>();
+    private int ingestionMaxInFlight = 2;
+    private Duration healthCheckInterval = Duration.ofSeconds(10);
+    private Duration healthCheckTimeout = Duration.ofSeconds(2);
+
+    public List<String> getEmbeddingUrls() {
+        return embeddingUrls;
+    }
+
+    public void setEmbeddingUrls(List<String> embeddingUrls) {
+        this.embeddingUrls = embeddingUrls;
+    }
+
+    public List<String> getChatUrls() {
+        return chatUrls;
+    }
+
+    public void setChatUrls(List<String> chatUrls) {
+        this.chatUrls = chatUrls;
+    }
+
+    public List<String> getIngestionUrls() {
+        return ingestionUrls;
+    }
+
+    public void setIngestionUrls(List<String> ingestionUrls) {
+        this.ingestionUrls = ingestionUrls;
+    }
+
+    public int getIngestionMaxInFlight() {
+        return ingestionMaxInFlight;
+    }
+
+    public void setIngestionMaxInFlight(int ingestionMaxInFlight) {
+        this.ingestionMaxInFlight = ingestionMaxInFlight;
+    }
+
+    public Duration getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(Duration healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public Duration getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    public void setHealthCheckTimeout(Duration healthCheckTimeout) {
+        this.healthCheckTimeout = healthCheckTimeout;
+    }
+}
@@ -0,0 +1,33 @@
+package com.bohdansavshak.config;
+
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.model.ConfluenceAttachment;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.model.ConfluenceResponse;
+import com.bohdansavshak.service.RagService;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+@Configuration
+@ImportRuntimeHints(RuntimeHintsConfig.ApplicationHints.class)
+public class RuntimeHintsConfig {
+
+    // A native image keeps reflection metadata only for the types listed here or found by AOT processing. The
+    // Confluence DTOs and the chat responses are bound by Jackson (nested types included), but only reach it
+    // inside maps and parsers AOT can't see through; the entity is instantiated and populated by Hibernate.
+    static class ApplicationHints implements RuntimeHintsRegistrar {
+        private final BindingReflectionHintsRegistrar bindingHints = new BindingReflectionHintsRegistrar();
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            bindingHints.registerReflectionHints(hints.reflection(), ConfluenceResponse.class, ConfluencePage.class,
+                    ConfluenceAttachment.class, RagService.ChatWithSourcesResponse.class, RagService.SourcePage.class);
+            hints.reflection().registerType(DocumentEmbedding.class, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_DECLARED_METHODS, MemberCategory.DECLARED_FIELDS);
+        }
+    }
+}
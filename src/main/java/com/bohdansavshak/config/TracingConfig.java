@@ -0,0 +1,18 @@
+package com.bohdansavshak.config;
+
+import io.opentelemetry.exporter.logging.LoggingSpanExporter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TracingConfig {
+
+    // Writes finished spans to the application log, so traces can be inspected without a collector.
+    // Registered next to the OTLP exporter; Boot's OpenTelemetry setup exports to every SpanExporter bean.
+    @Bean
+    @ConditionalOnProperty(name = "tracing.log-spans", havingValue = "true")
+    public LoggingSpanExporter loggingSpanExporter() {
+        return LoggingSpanExporter.create();
+    }
+}
@@ -0,0 +1,29 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "spring.ai.vectorstore.pgvector.generations")
+public class VectorGenerationProperties {
+    private Duration pollInterval = Duration.ofSeconds(15);
+    private Duration dropAfter = Duration.ofMinutes(5);
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public Duration getDropAfter() {
+        return dropAfter;
+    }
+
+    public void setDropAfter(Duration dropAfter) {
+        this.dropAfter = dropAfter;
+    }
+}
@@ -0,0 +1,46 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "spring.ai.vectorstore.pgvector.quantization")
+public class VectorQuantizationProperties {
+
+    public enum Mode {
+        // Search the full-precision vector column directly
+        NONE,
+        // HNSW over embedding::halfvec (2 bytes per dimension)
+        HALFVEC,
+        // HNSW over binary_quantize(embedding) compared by Hamming distance (1 bit per dimension)
+        BINARY
+    }
+
+    private Mode mode = Mode.NONE;
+    private int candidateMultiplier = 4;
+    private int maxCandidates = 400;
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getCandidateMultiplier() {
+        return candidateMultiplier;
+    }
+
+    public void setCandidateMultiplier(int candidateMultiplier) {
+        this.candidateMultiplier = candidateMultiplier;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    public void setMaxCandidates(int maxCandidates) {
+        this.maxCandidates = maxCandidates;
+    }
+}
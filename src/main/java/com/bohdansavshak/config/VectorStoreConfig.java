@@ -0,0 +1,52 @@
+package com.bohdansavshak.config;
+
+import com.bohdansavshak.repository.GenerationalVectorStore;
+import com.bohdansavshak.repository.SpacePartitionedVectorStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@Configuration
+public class VectorStoreConfig {
+
+    // Fronts the auto-configured PgVectorStore so full rebuilds can fill a new table and switch to it, and applies
+    // the quantization mode. RagService and the answer advisor both get this one.
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "spring.ai.vectorstore.pgvector.partitioning.by-space", havingValue = "false", matchIfMissing = true)
+    public GenerationalVectorStore generationalVectorStore(PgVectorStore pgVectorStore, EmbeddingModel embeddingModel,
+                                                           JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                                           ObjectMapper objectMapper, ObservationRegistry observationRegistry,
+                                                           VectorQuantizationProperties quantizationProperties,
+                                                           VectorGenerationProperties generationProperties,
+                                                           PgVectorStoreProperties pgVectorStoreProperties) {
+        return new GenerationalVectorStore(pgVectorStore, embeddingModel, jdbcTemplate, transactionTemplate, objectMapper,
+                observationRegistry, quantizationProperties, generationProperties, pgVectorStoreProperties.getSchemaName(),
+                pgVectorStoreProperties.getTableName(), pgVectorStoreProperties.getDimensions());
+    }
+
+    // Replaces the single vector_store table with one table per space; applies the quantization mode to each and
+    // rebuilds through per-space staging tables
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "spring.ai.vectorstore.pgvector.partitioning.by-space", havingValue = "true")
+    public SpacePartitionedVectorStore spacePartitionedVectorStore(EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                                                                   TransactionTemplate transactionTemplate,
+                                                                   ObjectMapper objectMapper,
+                                                                   ObservationRegistry observationRegistry,
+                                                                   VectorQuantizationProperties quantizationProperties,
+                                                                   PgVectorStoreProperties pgVectorStoreProperties) {
+        return new SpacePartitionedVectorStore(embeddingModel, jdbcTemplate, transactionTemplate, objectMapper,
+                observationRegistry, quantizationProperties, pgVectorStoreProperties.getSchemaName(),
+                pgVectorStoreProperties.getTableName(), pgVectorStoreProperties.getDimensions(),
+                pgVectorStoreProperties.getDistanceType());
+    }
+}
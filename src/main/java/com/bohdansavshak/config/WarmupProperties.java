@@ -0,0 +1,68 @@
+package com.bohdansavshak.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "chat.warmup")
+public class WarmupProperties {
+    private boolean enabled = true;
+    private boolean prewarmIndex = true;
+    private int sampleSearches = 20;
+    private int iterations = 3;
+    private List<String> queries = List.of(
+            "How do I get access to the VPN?",
+            "Explain the release process and who approves a deployment");
+    private Duration timeout = Duration.ofMinutes(5);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isPrewarmIndex() {
+        return prewarmIndex;
+    }
+
+    public void setPrewarmIndex(boolean prewarmIndex) {
+        this.prewarmIndex = prewarmIndex;
+    }
+
+    public int getSampleSearches() {
+        return sampleSearches;
+    }
+
+    public void setSampleSearches(int sampleSearches) {
+        this.sampleSearches = sampleSearches;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public List<String> getQueries() {
+        return queries;
+    }
+
+    public void setQueries(List<String> queries) {
+        this.queries = queries;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -1,8 +1,15 @@
 package com.bohdansavshak.controller;
 
+import com.bohdansavshak.service.AdmissionRejectedException;
+import com.bohdansavshak.service.BatchAnswerService;
+import com.bohdansavshak.service.ChatAdmissionService;
 import com.bohdansavshak.service.RagService;
+import com.bohdansavshak.service.RetrievalPrefetchService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
@@ -11,20 +18,32 @@ import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/chat")
 public class ChatController {
     private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
 
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    // Confluence space keys; anything else is rejected before it reaches the metadata filter
+    private static final Pattern SPACE_KEY = Pattern.compile("[A-Za-z0-9_~-]{1,255}");
+
     private final RagService ragService;
+    private final ChatAdmissionService admissionService;
+    private final BatchAnswerService batchAnswerService;
+    private final RetrievalPrefetchService prefetchService;
 
-    public ChatController(RagService ragService) {
+    public ChatController(RagService ragService, ChatAdmissionService admissionService,
+                          BatchAnswerService batchAnswerService, RetrievalPrefetchService prefetchService) {
         this.ragService = ragService;
+        this.admissionService = admissionService;
+        this.batchAnswerService = batchAnswerService;
+        this.prefetchService = prefetchService;
     }
 
     @PostMapping("/ask")
-    public ResponseEntity<Map<String, Object>> askQuestion(@RequestBody ChatRequest request) {
+    public ResponseEntity<Map<String, Object>> askQuestion(@RequestBody ChatRequest request, HttpServletRequest servletRequest) {
         try {
             logger.info("Received chat question: {}", request.getQuestion());
 
@@ -35,7 +54,10 @@ public class ChatController {
                 ));
             }
 
-            var response = ragService.chatWithSources(request.getQuestion());
+            RagService.ChatWithSourcesResponse response;
+            try (var permit = admissionService.acquire(clientId(servletRequest), ChatAdmissionService.Priority.STANDARD)) {
+                response = ragService.chatWithSources(request.getQuestion());
+            }
 
             return ResponseEntity.ok(Map.of(
                     "status", "success",
@@ -44,6 +66,8 @@ public class ChatController {
                     "sourcePages", response.getSourcePages()
             ));
 
+        } catch (AdmissionRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing chat question: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError().body(Map.of(
@@ -54,7 +78,9 @@ public class ChatController {
     }
 
     @GetMapping(value = "/ask-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ServerSentEvent<Object>> askQuestionStream(@RequestParam String question) {
+    public Flux<ServerSentEvent<Object>> askQuestionStream(@RequestParam String question,
+                                                           @RequestParam(required = false) String sessionId,
+                                                           HttpServletRequest servletRequest) {
         try {
             logger.info("Received streaming chat question: {}", question);
 
@@ -65,8 +91,19 @@ public class ChatController {
                         .build());
             }
 
+            // Joining an identical in-flight answer generates nothing, so only a caller that starts a generation is
+            // admitted, once the response subscribes to the stream. The slot is awaited without holding a request
+            // thread; a full queue or a timed-out wait arrives as an "error" event carrying retryAfter
+            String clientId = clientId(servletRequest);
+            Flux<ServerSentEvent<Object>> stream = ragService.chatWithSourcesStream(question, prefetchService.take(sessionId, question),
+                    () -> admissionService.awaitPermit(admissionService.enqueue(clientId, ChatAdmissionService.Priority.INTERACTIVE)));
+
             // Process streaming response using reactive approach
-            return ragService.chatWithSourcesStream(question)
+            return stream
+                    .onErrorResume(AdmissionRejectedException.class, error -> Flux.just(ServerSentEvent.builder()
+                            .event("error")
+                            .data(Map.of("message", error.getMessage(), "retryAfter", error.getRetryAfterSeconds()))
+                            .build()))
                     .onErrorResume(error -> {
                         logger.error("Error processing streaming chat question: {}", error.getMessage(), error);
                         return Flux.just(ServerSentEvent.builder()
@@ -75,6 +112,8 @@ public class ChatController {
                                 .build());
                     });
 
+        } catch (AdmissionRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error setting up streaming chat question: {}", e.getMessage(), e);
             return Flux.just(ServerSentEvent.builder()
@@ -84,8 +123,26 @@ public class ChatController {
         }
     }
 
+    // One JSON answer per line, in the order they finish; a failed question gets a line with "error" set
+    @PostMapping(value = "/ask-batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchAnswerService.BatchAnswer> askBatch(@RequestBody BatchRequest request, HttpServletRequest servletRequest) {
+        logger.info("Received batch of {} questions", request.getQuestions() != null ? request.getQuestions().size() : 0);
+        String spaceKey = request.getSpaceKey() == null || request.getSpaceKey().isBlank() ? null : request.getSpaceKey().trim();
+        if (spaceKey != null && !isValidSpaceKey(spaceKey)) {
+            throw new IllegalArgumentException("Invalid space key");
+        }
+        return batchAnswerService.answerAll(request.getQuestions(), spaceKey, clientId(servletRequest));
+    }
+
+    // Called by the chat page while the user types; the answer to a matching /ask-stream reuses the retrieval
+    @PostMapping("/prefetch")
+    public ResponseEntity<Map<String, Object>> prefetch(@RequestBody PrefetchRequest request) {
+        boolean accepted = prefetchService.prefetch(request.getSessionId(), request.getQuestion());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("status", accepted ? "accepted" : "ignored"));
+    }
+
     @PostMapping("/relevant-docs")
-    public ResponseEntity<Map<String, Object>> getRelevantDocuments(@RequestBody ChatRequest request) {
+    public ResponseEntity<Map<String, Object>> getRelevantDocuments(@RequestBody ChatRequest request, HttpServletRequest servletRequest) {
         try {
             logger.info("Getting relevant documents for query: {}", request.getQuestion());
 
@@ -96,7 +153,20 @@ public class ChatController {
                 ));
             }
 
-            List<String> relevantTitles = ragService.getRelevantDocumentTitles(request.getQuestion());
+            String spaceKey = request.getSpaceKey() == null || request.getSpaceKey().isBlank() ? null : request.getSpaceKey().trim();
+            if (spaceKey != null && !isValidSpaceKey(spaceKey)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "status", "error",
+                        "message", "Invalid space key"
+                ));
+            }
+
+            List<String> relevantTitles;
+            try (var permit = admissionService.acquire(clientId(servletRequest), ChatAdmissionService.Priority.BATCH)) {
+                relevantTitles = spaceKey == null
+                        ? ragService.getRelevantDocumentTitles(request.getQuestion())
+                        : ragService.getRelevantDocumentTitles(request.getQuestion(), spaceKey);
+            }
 
             return ResponseEntity.ok(Map.of(
                     "status", "success",
@@ -104,6 +174,8 @@ public class ChatController {
                     "relevantDocuments", relevantTitles
             ));
 
+        } catch (AdmissionRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error getting relevant documents: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError().body(Map.of(
@@ -113,6 +185,34 @@ public class ChatController {
         }
     }
 
+    // 429 when rejected on arrival, 503 when the wait for a slot timed out. /ask-stream is admitted after the 200
+    // and the SSE headers are sent, so its rejections arrive as an "error" event carrying retryAfter instead.
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<Map<String, Object>> handleAdmissionRejected(AdmissionRejectedException e) {
+        return ResponseEntity.status(e.isQueueFull() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                        "status", "error",
+                        "message", e.getMessage(),
+                        "retryAfter", e.getRetryAfterSeconds()
+                ));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleInvalidRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                        "status", "error",
+                        "message", e.getMessage()
+                ));
+    }
+
+    static boolean isValidSpaceKey(String spaceKey) {
+        return SPACE_KEY.matcher(spaceKey).matches();
+    }
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, String>> health() {
         return ResponseEntity.ok(Map.of(
@@ -122,9 +222,16 @@ public class ChatController {
         ));
     }
 
+    // Clients behind one proxy can identify themselves; otherwise fairness is per remote address
+    private static String clientId(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return clientId != null && !clientId.isBlank() ? clientId : request.getRemoteAddr();
+    }
+
     // Request DTOs
     public static class ChatRequest {
         private String question;
+        private String spaceKey;
 
         public String getQuestion() {
             return question;
@@ -133,6 +240,56 @@ public class ChatController {
         public void setQuestion(String question) {
             this.question = question;
         }
+
+        public String getSpaceKey() {
+            return spaceKey;
+        }
+
+        public void setSpaceKey(String spaceKey) {
+            this.spaceKey = spaceKey;
+        }
+    }
+
+    public static class BatchRequest {
+        private List<String> questions;
+        private String spaceKey;
+
+        public List<String> getQuestions() {
+            return questions;
+        }
+
+        public void setQuestions(List<String> questions) {
+            this.questions = questions;
+        }
+
+        public String getSpaceKey() {
+            return spaceKey;
+        }
+
+        public void setSpaceKey(String spaceKey) {
+            this.spaceKey = spaceKey;
+        }
+    }
+
+    public static class PrefetchRequest {
+        private String question;
+        private String sessionId;
+
+        public String getQuestion() {
+            return question;
+        }
+
+        public void setQuestion(String question) {
+            this.question = question;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public void setSessionId(String sessionId) {
+            this.sessionId = sessionId;
+        }
     }
 
     public static class AdvancedChatRequest {
@@ -1,13 +1,18 @@
 package com.bohdansavshak.controller;
 
+import com.bohdansavshak.repository.IndexSnapshot;
 import com.bohdansavshak.service.EmbeddingOrchestrationService;
 import com.bohdansavshak.service.EmbeddingService;
+import com.bohdansavshak.service.IndexSnapshotService;
+import com.bohdansavshak.service.IngestionQueueWorker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Map;
@@ -19,10 +24,15 @@ public class EmbeddingController {
 
     private final EmbeddingOrchestrationService orchestrationService;
     private final EmbeddingService embeddingService;
+    private final IngestionQueueWorker queueWorker;
+    private final IndexSnapshotService snapshotService;
 
-    public EmbeddingController(EmbeddingOrchestrationService orchestrationService, EmbeddingService embeddingService) {
+    public EmbeddingController(EmbeddingOrchestrationService orchestrationService, EmbeddingService embeddingService,
+                               IngestionQueueWorker queueWorker, IndexSnapshotService snapshotService) {
         this.orchestrationService = orchestrationService;
         this.embeddingService = embeddingService;
+        this.queueWorker = queueWorker;
+        this.snapshotService = snapshotService;
     }
 
     @PostMapping("/process-all")
@@ -45,6 +55,96 @@ public class EmbeddingController {
         }
     }
 
+    @PostMapping("/rebuild")
+    public ResponseEntity<Map<String, String>> rebuildAll() {
+        try {
+            logger.info("Manual trigger: Rebuilding the vector index");
+            new Thread(orchestrationService::rebuildAll).start();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "started",
+                    "message", "Vector index rebuild started in background"
+            ));
+        } catch (Exception e) {
+            logger.error("Error starting rebuild: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "status", "error",
+                    "message", "Failed to start rebuild: " + e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/spaces/{spaceKey}/reindex")
+    public ResponseEntity<Map<String, String>> reindexSpace(@PathVariable String spaceKey) {
+        try {
+            logger.info("Manual trigger: Reindexing space {}", spaceKey);
+            new Thread(() -> orchestrationService.reindexSpace(spaceKey)).start();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "started",
+                    "message", "Reindex of space " + spaceKey + " started in background"
+            ));
+        } catch (Exception e) {
+            logger.error("Error starting reindex: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "status", "error",
+                    "message", "Failed to start reindex: " + e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/snapshot/export")
+    public ResponseEntity<Map<String, String>> exportSnapshot(@RequestParam String file,
+                                                              @RequestParam(defaultValue = "float32") String precision) {
+        try {
+            snapshotService.resolve(file);
+            IndexSnapshot.Precision elementType = IndexSnapshot.Precision.valueOf(precision.toUpperCase());
+            logger.info("Manual trigger: Exporting index snapshot {} ({})", file, elementType);
+            new Thread(() -> {
+                try {
+                    snapshotService.exportSnapshot(file, elementType);
+                } catch (Exception e) {
+                    logger.error("Snapshot export failed: {}", e.getMessage(), e);
+                }
+            }).start();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "started",
+                    "message", "Export of snapshot " + file + " started in background"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/snapshot/import")
+    public ResponseEntity<Map<String, String>> importSnapshot(@RequestParam String file) {
+        try {
+            snapshotService.resolve(file);
+            logger.info("Manual trigger: Importing index snapshot {}", file);
+            new Thread(() -> {
+                try {
+                    snapshotService.importSnapshot(file);
+                } catch (Exception e) {
+                    logger.error("Snapshot import failed: {}", e.getMessage(), e);
+                }
+            }).start();
+
+            return ResponseEntity.ok(Map.of(
+                    "status", "started",
+                    "message", "Import of snapshot " + file + " started in background"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
     @GetMapping("/status")
     public ResponseEntity<Map<String, Object>> getStatus() {
         try {
@@ -63,4 +163,17 @@ public class EmbeddingController {
             ));
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/queue")
+    public ResponseEntity<Map<String, Object>> getQueueStatus() {
+        try {
+            return ResponseEntity.ok(queueWorker.getQueueStatus());
+        } catch (Exception e) {
+            logger.error("Error getting queue status: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "status", "error",
+                    "message", "Failed to get queue status: " + e.getMessage()
+            ));
+        }
+    }
+}
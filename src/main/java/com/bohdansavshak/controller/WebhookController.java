@@ -0,0 +1,120 @@
+package com.bohdansavshak.controller;
+
+import com.bohdansavshak.config.WebhookProperties;
+import com.bohdansavshak.service.PageChangeService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/webhooks")
+public class WebhookController {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookController.class);
+    private static final String SIGNATURE_PREFIX = "sha256=";
+
+    private final PageChangeService pageChangeService;
+    private final WebhookProperties webhookProperties;
+    private final ObjectMapper objectMapper;
+
+    public WebhookController(PageChangeService pageChangeService, WebhookProperties webhookProperties, ObjectMapper objectMapper) {
+        this.pageChangeService = pageChangeService;
+        this.webhookProperties = webhookProperties;
+        this.objectMapper = objectMapper;
+        if (!hasSecret()) {
+            logger.warn("confluence.webhook.secret is not set, Confluence webhooks are refused");
+        }
+    }
+
+    // Confluence page_created/updated/restored/removed/trashed events; the page itself is fetched when it is re-indexed
+    @PostMapping("/confluence")
+    public ResponseEntity<Map<String, String>> onConfluenceEvent(
+            @RequestBody String body,
+            @RequestHeader(value = "X-Hub-Signature", required = false) String signature) {
+        if (!hasSecret()) {
+            return ResponseEntity.status(403).body(Map.of(
+                    "status", "error",
+                    "message", "Webhooks are disabled, confluence.webhook.secret is not set"
+            ));
+        }
+        if (!signatureMatches(body, signature)) {
+            logger.warn("Rejected Confluence webhook with missing or invalid signature");
+            return ResponseEntity.status(401).body(Map.of(
+                    "status", "error",
+                    "message", "Invalid signature"
+            ));
+        }
+
+        JsonNode event;
+        try {
+            event = objectMapper.readTree(body);
+        } catch (JsonProcessingException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", "Malformed event"
+            ));
+        }
+
+        // Data Center sends "event", Cloud "webhookEvent"
+        String eventType = event.path("event").asText(event.path("webhookEvent").asText(""));
+        String pageId = event.path("page").path("id").asText("");
+        PageChangeService.Change change = switch (eventType) {
+            case "page_created", "page_updated", "page_restored" -> PageChangeService.Change.UPSERT;
+            case "page_removed", "page_trashed" -> PageChangeService.Change.DELETE;
+            default -> null;
+        };
+
+        if (change == null || pageId.isEmpty()) {
+            logger.debug("Ignoring Confluence webhook event '{}'", eventType);
+            return ResponseEntity.accepted().body(Map.of(
+                    "status", "ignored",
+                    "event", eventType
+            ));
+        }
+
+        logger.info("Confluence webhook: {} for page {}", eventType, pageId);
+        pageChangeService.submit(pageId, change);
+        return ResponseEntity.accepted().body(Map.of(
+                "status", "accepted",
+                "event", eventType,
+                "pageId", pageId
+        ));
+    }
+
+    private boolean hasSecret() {
+        return webhookProperties.getSecret() != null && !webhookProperties.getSecret().isEmpty();
+    }
+
+    // X-Hub-Signature must be the secret's HMAC of the body
+    private boolean signatureMatches(String body, String signature) {
+        String secret = webhookProperties.getSecret();
+        if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] expected = mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+            byte[] actual = HexFormat.of().parseHex(signature.substring(SIGNATURE_PREFIX.length()));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return false;
+        }
+    }
+}
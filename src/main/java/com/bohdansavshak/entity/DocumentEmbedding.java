@@ -8,10 +8,12 @@ import java.util.List;
 import java.util.Map;
 
 @Entity
-@Table(name = "document_embeddings")
+// updated_at is indexed for the page catalog's incremental refresh
+@Table(name = "document_embeddings", indexes = @Index(name = "idx_document_embeddings_updated_at", columnList = "updated_at"))
 public class DocumentEmbedding {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "document_embeddings_seq")
+    @SequenceGenerator(name = "document_embeddings_seq", sequenceName = "document_embeddings_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "confluence_page_id", unique = true, nullable = false)
@@ -29,6 +31,13 @@ public class DocumentEmbedding {
     @Column(name = "space_name")
     private String spaceName;
 
+    @Column(name = "version")
+    private Integer version;
+
+    // Set for attachments: the page they are attached to, which their source links point at
+    @Column(name = "parent_page_id")
+    private String parentPageId;
+
     @Column(name = "embedding", columnDefinition = "vector(768)")
     private List<Float> embedding;
 
@@ -39,10 +48,14 @@ public class DocumentEmbedding {
     private LocalDateTime updatedAt;
 
     public static DocumentEmbedding fromDocument(Document document, String confluencePageId, String title, String spaceKey, String spaceName) {
+        return create(confluencePageId, title, document.getText(), spaceKey, spaceName);
+    }
+
+    public static DocumentEmbedding create(String confluencePageId, String title, String content, String spaceKey, String spaceName) {
         DocumentEmbedding embedding = new DocumentEmbedding();
         embedding.setConfluencePageId(confluencePageId);
         embedding.setTitle(title);
-        embedding.setContent(document.getText());
+        embedding.setContent(content);
         embedding.setSpaceKey(spaceKey);
         embedding.setSpaceName(spaceName);
         return embedding;
@@ -119,6 +132,22 @@ public class DocumentEmbedding {
         this.spaceName = spaceName;
     }
 
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public String getParentPageId() {
+        return parentPageId;
+    }
+
+    public void setParentPageId(String parentPageId) {
+        this.parentPageId = parentPageId;
+    }
+
     public List<Float> getEmbedding() {
         return embedding;
     }
@@ -9,6 +9,9 @@ public class ConfluencePage {
     private String type;
     private Body body;
     private Space space;
+    private Version version;
+    // From the children.attachment expansion; null when the listing didn't include it
+    private Integer attachmentCount;
 
     public String getId() {
         return id;
@@ -50,6 +53,22 @@ public class ConfluencePage {
         this.space = space;
     }
 
+    public Version getVersion() {
+        return version;
+    }
+
+    public void setVersion(Version version) {
+        this.version = version;
+    }
+
+    public Integer getAttachmentCount() {
+        return attachmentCount;
+    }
+
+    public void setAttachmentCount(Integer attachmentCount) {
+        this.attachmentCount = attachmentCount;
+    }
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Body {
         private Storage storage;
@@ -85,6 +104,19 @@ public class ConfluencePage {
         }
     }
 
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Version {
+        private int number;
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int number) {
+            this.number = number;
+        }
+    }
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Space {
         private String key;
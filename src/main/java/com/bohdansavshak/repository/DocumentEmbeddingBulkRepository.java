@@ -0,0 +1,148 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.entity.DocumentEmbedding;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Repository
+public class DocumentEmbeddingBulkRepository {
+    private static final String UPSERT_SQL = """
+            INSERT INTO document_embeddings
+                (id, confluence_page_id, title, content, space_key, space_name, version, parent_page_id, created_at, updated_at)
+            VALUES (nextval('document_embeddings_seq'), ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (confluence_page_id) DO UPDATE SET
+                title = EXCLUDED.title,
+                content = EXCLUDED.content,
+                space_key = EXCLUDED.space_key,
+                space_name = EXCLUDED.space_name,
+                version = EXCLUDED.version,
+                parent_page_id = EXCLUDED.parent_page_id,
+                updated_at = EXCLUDED.updated_at
+            """;
+    private static final String CATALOG_SQL = """
+            SELECT confluence_page_id, title, space_key, space_name, version, parent_page_id, updated_at
+            FROM document_embeddings
+            """;
+    private static final String CHANGED_SINCE_SQL = CATALOG_SQL + "WHERE updated_at > ?\n";
+    private static final String IDS_SQL = "SELECT confluence_page_id FROM document_embeddings";
+    // One row per removed page or attachment, so instances can drop them from their catalogs without listing every id
+    private static final String CREATE_DELETIONS_SQL = """
+            CREATE TABLE IF NOT EXISTS document_embeddings_deletions (
+                confluence_page_id text NOT NULL,
+                deleted_at timestamp NOT NULL)
+            """;
+    private static final String CREATE_DELETIONS_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS document_embeddings_deletions_at_idx ON document_embeddings_deletions (deleted_at)";
+    private static final String RECORD_DELETIONS_SQL =
+            "INSERT INTO document_embeddings_deletions (confluence_page_id, deleted_at) SELECT unnest(?::text[]), ?";
+    private static final String DELETED_SINCE_SQL =
+            "SELECT DISTINCT confluence_page_id FROM document_embeddings_deletions WHERE deleted_at > ?";
+    private static final String SPACE_KEYS_SQL =
+            "SELECT DISTINCT space_key FROM document_embeddings WHERE confluence_page_id = ANY (?) AND space_key IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObservationRegistry observationRegistry;
+
+    public DocumentEmbeddingBulkRepository(JdbcTemplate jdbcTemplate, ObservationRegistry observationRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.observationRegistry = observationRegistry;
+    }
+
+    public void upsertAll(List<DocumentEmbedding> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        // A multi-row ON CONFLICT can't update the same row twice, so only the last row per page id is sent
+        Map<String, DocumentEmbedding> distinct = new LinkedHashMap<>();
+        rows.forEach(row -> distinct.put(row.getConfluencePageId(), row));
+        List<DocumentEmbedding> documents = List.copyOf(distinct.values());
+
+        // Sent as a single JDBC batch; with reWriteBatchedInserts the driver turns it into multi-row inserts
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Observation.createNotStarted("rag.db.upsert", observationRegistry)
+                .lowCardinalityKeyValue("db.table", "document_embeddings")
+                .highCardinalityKeyValue("db.rows", String.valueOf(documents.size()))
+                .observe(() -> jdbcTemplate.batchUpdate(UPSERT_SQL, documents, documents.size(), (ps, document) -> {
+                    ps.setString(1, document.getConfluencePageId());
+                    ps.setString(2, document.getTitle());
+                    ps.setString(3, document.getContent());
+                    ps.setString(4, document.getSpaceKey());
+                    ps.setString(5, document.getSpaceName());
+                    ps.setObject(6, document.getVersion(), Types.INTEGER);
+                    ps.setString(7, document.getParentPageId());
+                    ps.setTimestamp(8, now);
+                    ps.setTimestamp(9, now);
+                }));
+    }
+
+    // Everything but the content, for the in-memory page catalog
+    public List<DocumentEmbedding> findAllWithoutContent() {
+        return jdbcTemplate.query(CATALOG_SQL, this::withoutContent);
+    }
+
+    // Rows stored or updated after the given time, by any instance
+    public List<DocumentEmbedding> findChangedSinceWithoutContent(LocalDateTime since) {
+        return jdbcTemplate.query(CHANGED_SINCE_SQL, this::withoutContent, Timestamp.valueOf(since));
+    }
+
+    public Set<String> findAllPageIds() {
+        return new HashSet<>(jdbcTemplate.queryForList(IDS_SQL, String.class));
+    }
+
+    public void createDeletionsTableIfMissing() {
+        jdbcTemplate.execute(CREATE_DELETIONS_SQL);
+        jdbcTemplate.execute(CREATE_DELETIONS_INDEX_SQL);
+    }
+
+    // Joins the caller's transaction, so the tombstones commit together with the delete
+    public void recordDeletions(List<String> contentIds) {
+        if (contentIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            var ps = connection.prepareStatement(RECORD_DELETIONS_SQL);
+            ps.setArray(1, connection.createArrayOf("text", contentIds.toArray()));
+            ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+            return ps;
+        });
+    }
+
+    // Content ids removed after the given time, by any instance
+    public Set<String> findDeletedSince(LocalDateTime since) {
+        return new HashSet<>(jdbcTemplate.queryForList(DELETED_SINCE_SQL, String.class, Timestamp.valueOf(since)));
+    }
+
+    public int pruneDeletions(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM document_embeddings_deletions WHERE deleted_at < ?", Timestamp.valueOf(before));
+    }
+
+    // The spaces the given pages and attachments are stored under
+    public Set<String> findSpaceKeys(List<String> contentIds) {
+        return new HashSet<>(jdbcTemplate.query(SPACE_KEYS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", contentIds.toArray())),
+                (rs, rowNum) -> rs.getString(1)));
+    }
+
+    private DocumentEmbedding withoutContent(ResultSet rs, int rowNum) throws SQLException {
+        DocumentEmbedding document = DocumentEmbedding.create(rs.getString("confluence_page_id"), rs.getString("title"),
+                null, rs.getString("space_key"), rs.getString("space_name"));
+        document.setVersion(rs.getObject("version", Integer.class));
+        document.setParentPageId(rs.getString("parent_page_id"));
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        document.setUpdatedAt(updatedAt != null ? updatedAt.toLocalDateTime() : null);
+        return document;
+    }
+}
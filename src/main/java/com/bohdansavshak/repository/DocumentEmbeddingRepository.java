@@ -23,9 +23,14 @@ public interface DocumentEmbeddingRepository extends JpaRepository<DocumentEmbed
 
     void deleteByConfluencePageId(String confluencePageId);
 
-    @Query("SELECT COUNT(d) FROM DocumentEmbedding d")
+    List<DocumentEmbedding> findByParentPageId(String parentPageId);
+
+    void deleteByConfluencePageIdIn(List<String> confluencePageIds);
+
+    // Pages only; attachment rows carry the id of the page they belong to
+    @Query("SELECT COUNT(d) FROM DocumentEmbedding d WHERE d.parentPageId IS NULL")
     long countAllDocuments();
 
-    @Query("SELECT COUNT(d) FROM DocumentEmbedding d WHERE d.spaceKey = :spaceKey")
+    @Query("SELECT COUNT(d) FROM DocumentEmbedding d WHERE d.spaceKey = :spaceKey AND d.parentPageId IS NULL")
     long countBySpaceKey(@Param("spaceKey") String spaceKey);
 }
\ No newline at end of file
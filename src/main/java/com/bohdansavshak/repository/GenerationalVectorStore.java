@@ -0,0 +1,330 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorGenerationProperties;
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Serves searches from the active generation of vectors: vector_store itself (generation 0) or vector_store_g<n>.
+// A full rebuild fills the next generation's table without a search index and without touching the active one,
+// indexes it once complete, then moves the pointer in <table>_generation. Every instance polls the pointer and
+// switches to the generation it names; the previous table is kept for generations.drop-after, so instances that
+// haven't polled yet keep searching it, and then dropped by whichever instance polls first. A running rebuild is
+// published in the same row, so while it runs every instance writes to both the active and the new table: an
+// aborted rebuild leaves the active table complete, and a commit loses no update made elsewhere in the meantime.
+public class GenerationalVectorStore implements RebuildableVectorStore {
+    private static final Logger logger = LoggerFactory.getLogger(GenerationalVectorStore.class);
+
+    private final PgVectorStore baseStore;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final ObservationRegistry observationRegistry;
+    private final VectorQuantizationProperties quantizationProperties;
+    private final VectorGenerationProperties generationProperties;
+    private final PgVectorSearch search;
+    private final String schemaName;
+    private final String baseTableName;
+    private final String pointerTable;
+    private final int dimensions;
+    private final ScheduledExecutorService poller =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("vector-generation-poll-"));
+
+    private final AtomicReference<Generation> active = new AtomicReference<>();
+    private volatile Generation building;
+    // A rebuild another instance published in the pointer row
+    private volatile Generation remoteBuilding;
+
+    private record Generation(int number, String tableName, VectorStore store) {
+    }
+
+    public GenerationalVectorStore(PgVectorStore baseStore, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                                   ObservationRegistry observationRegistry, VectorQuantizationProperties quantizationProperties,
+                                   VectorGenerationProperties generationProperties,
+                                   String schemaName, String tableName, int dimensions) {
+        this.baseStore = baseStore;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.observationRegistry = observationRegistry;
+        this.quantizationProperties = quantizationProperties;
+        this.generationProperties = generationProperties;
+        this.search = new PgVectorSearch(embeddingModel, jdbcTemplate, transactionTemplate, objectMapper,
+                quantizationProperties, baseStore.getDistanceType(), dimensions);
+        this.schemaName = schemaName;
+        this.baseTableName = tableName;
+        this.pointerTable = schemaName + "." + tableName + "_generation";
+        this.dimensions = dimensions;
+    }
+
+    // Before every other startup listener, most of which use the store; not during context refresh, which has
+    // to complete without a database for AOT processing and CDS training runs
+    @EventListener(ApplicationStartedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void initialize() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + pointerTable
+                + " (id boolean PRIMARY KEY DEFAULT true CHECK (id), generation int NOT NULL, table_name text NOT NULL)");
+        // The table to drop once every instance has switched away from it
+        jdbcTemplate.execute("ALTER TABLE " + pointerTable
+                + " ADD COLUMN IF NOT EXISTS previous_table text, ADD COLUMN IF NOT EXISTS switched_at timestamptz");
+        jdbcTemplate.execute("ALTER TABLE " + pointerTable
+                + " ADD COLUMN IF NOT EXISTS building_generation int, ADD COLUMN IF NOT EXISTS building_table text");
+        Map<String, Object> pointer = pointer();
+        Generation current = storedGeneration(pointer);
+        if (quantizationProperties.getMode() != VectorQuantizationProperties.Mode.NONE) {
+            jdbcTemplate.execute(search.indexSql(qualified(current.tableName()), current.tableName()));
+        }
+        active.set(current);
+        logger.info("Serving vector generation {} from {}", current.number(), current.tableName());
+        followRebuild(pointer);
+
+        long intervalMillis = generationProperties.getPollInterval().toMillis();
+        poller.scheduleWithFixedDelay(this::poll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    // Follows switches and rebuilds of other instances, and drops the previous table once drop-after has passed
+    void poll() {
+        try {
+            Map<String, Object> pointer = pointer();
+            if (pointer != null && generationOf(pointer) != active.get().number()) {
+                Generation switched = generation(generationOf(pointer), (String) pointer.get("table_name"));
+                active.set(switched);
+                logger.info("Switched to vector generation {} ({}) committed by another instance", switched.number(), switched.tableName());
+            }
+            followRebuild(pointer);
+
+            // Cleared by the same statement that reads it, so only one instance drops it
+            List<String> expired = jdbcTemplate.queryForList("""
+                    WITH expired AS (
+                        SELECT previous_table FROM %1$s
+                        WHERE previous_table IS NOT NULL AND switched_at < now() - make_interval(secs => ?)
+                        FOR UPDATE
+                    )
+                    UPDATE %1$s SET previous_table = NULL FROM expired RETURNING expired.previous_table
+                    """.formatted(pointerTable), String.class, (double) generationProperties.getDropAfter().toSeconds());
+            expired.forEach(this::dropTable);
+        } catch (Exception e) {
+            logger.warn("Could not poll the vector generation: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return active.get().store().similaritySearch(request);
+    }
+
+    // While a rebuild runs, here or on another instance, updates go to the active generation and the one being built
+    @Override
+    public void add(List<Document> documents) {
+        writeTargets().forEach(store -> store.add(documents));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        writeTargets().forEach(store -> store.delete(idList));
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        writeTargets().forEach(store -> store.delete(filterExpression));
+    }
+
+    @Override
+    public synchronized void beginFullRebuild() {
+        if (building != null) {
+            throw new IllegalStateException("A rebuild is already running");
+        }
+        int number = active.get().number() + 1;
+        String tableName = baseTableName + "_g" + number;
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(tableName));
+        jdbcTemplate.execute(search.tableSql(qualified(tableName)));
+        Generation current = active.get();
+        jdbcTemplate.update("""
+                INSERT INTO %s (id, generation, table_name, building_generation, building_table) VALUES (true, ?, ?, ?, ?)
+                ON CONFLICT (id) DO UPDATE SET building_generation = EXCLUDED.building_generation,
+                    building_table = EXCLUDED.building_table
+                """.formatted(pointerTable), current.number(), current.tableName(), number, tableName);
+        building = generation(number, tableName);
+        logger.info("Building vector generation {} in {}", number, tableName);
+    }
+
+    @Override
+    public synchronized void commitFullRebuild() {
+        Generation next = building;
+        if (next == null) {
+            throw new IllegalStateException("No rebuild is running");
+        }
+
+        // One index build over the finished table is much cheaper than maintaining HNSW through every insert
+        long startNanos = System.nanoTime();
+        jdbcTemplate.execute(search.indexSql(qualified(next.tableName()), next.tableName()));
+        logger.info("Indexed {} in {} ms", next.tableName(), (System.nanoTime() - startNanos) / 1_000_000);
+
+        Generation previous = active.get();
+        List<String> superseded = transactionTemplate.execute(status -> {
+            List<String> waiting = jdbcTemplate.queryForList(
+                    "SELECT previous_table FROM " + pointerTable + " WHERE previous_table IS NOT NULL FOR UPDATE", String.class);
+            jdbcTemplate.update("""
+                    INSERT INTO %s (id, generation, table_name, previous_table, switched_at) VALUES (true, ?, ?, ?, now())
+                    ON CONFLICT (id) DO UPDATE SET generation = EXCLUDED.generation, table_name = EXCLUDED.table_name,
+                        previous_table = EXCLUDED.previous_table, switched_at = EXCLUDED.switched_at,
+                        building_generation = NULL, building_table = NULL
+                    """.formatted(pointerTable), next.number(), next.tableName(), previous.tableName());
+            return waiting;
+        });
+        active.set(next);
+        building = null;
+        logger.info("Switched to vector generation {} ({}); {} is dropped after {}",
+                next.number(), next.tableName(), previous.tableName(), generationProperties.getDropAfter());
+
+        // A table still waiting from the switch before is two generations old now and no instance should serve it
+        if (superseded != null) {
+            superseded.stream().filter(table -> !table.equals(previous.tableName()) && !table.equals(next.tableName()))
+                    .forEach(this::dropTable);
+        }
+    }
+
+    @Override
+    public synchronized void abortFullRebuild() {
+        Generation abandoned = building;
+        building = null;
+        if (abandoned != null) {
+            try {
+                jdbcTemplate.update("UPDATE " + pointerTable + " SET building_generation = NULL, building_table = NULL"
+                        + " WHERE building_table = ?", abandoned.tableName());
+            } catch (Exception e) {
+                logger.warn("Could not clear the rebuild from the vector generation pointer: {}", e.getMessage());
+            }
+            dropTable(abandoned.tableName());
+            logger.info("Discarded vector generation {}", abandoned.number());
+        }
+    }
+
+    @Override
+    public List<String> servingTables() {
+        return List.of(qualified(active.get().tableName()));
+    }
+
+    @Override
+    public String writeTable(String spaceKey) {
+        Generation target = building;
+        return qualified((target != null ? target : active.get()).tableName());
+    }
+
+    private List<VectorStore> writeTargets() {
+        Generation current = active.get();
+        Generation target = building != null ? building : remoteBuilding;
+        if (target == null || target.number() == current.number()) {
+            return List.of(current.store());
+        }
+        return List.of(current.store(), target.store());
+    }
+
+    // Starts or stops writing to a rebuild another instance runs; this instance's own rebuild is tracked in building
+    private void followRebuild(Map<String, Object> pointer) {
+        Object table = pointer != null ? pointer.get("building_table") : null;
+        if (table == null || building != null) {
+            if (remoteBuilding != null) {
+                logger.info("Vector generation {} is no longer being built elsewhere", remoteBuilding.number());
+            }
+            remoteBuilding = null;
+            return;
+        }
+        int number = ((Number) pointer.get("building_generation")).intValue();
+        Generation current = remoteBuilding;
+        if (current == null || current.number() != number) {
+            remoteBuilding = generation(number, (String) table);
+            logger.info("Another instance is building vector generation {} in {}; writing to it too", number, table);
+        }
+    }
+
+    private Map<String, Object> pointer() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT generation, table_name, building_generation, building_table FROM " + pointerTable);
+        return rows.isEmpty() ? null : rows.getFirst();
+    }
+
+    private Generation storedGeneration(Map<String, Object> pointer) {
+        return pointer == null ? generation(0, baseTableName) : generation(generationOf(pointer), (String) pointer.get("table_name"));
+    }
+
+    private static int generationOf(Map<String, Object> pointer) {
+        return ((Number) pointer.get("generation")).intValue();
+    }
+
+    private void dropTable(String tableName) {
+        try {
+            // vector_store is created by init-db.sql and expected by Spring AI, so it is emptied instead of dropped
+            if (tableName.equals(baseTableName)) {
+                jdbcTemplate.execute("TRUNCATE " + qualified(baseTableName));
+            } else {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(tableName));
+            }
+            logger.info("Dropped vector table {}", tableName);
+        } catch (Exception e) {
+            logger.warn("Could not drop vector table {}: {}", tableName, e.getMessage());
+        }
+    }
+
+    private Generation generation(int number, String tableName) {
+        PgVectorStore pgVectorStore = tableName.equals(baseTableName) ? baseStore : PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .schemaName(schemaName)
+                .vectorTableName(tableName)
+                .dimensions(dimensions)
+                .distanceType(baseStore.getDistanceType())
+                .initializeSchema(false)
+                .observationRegistry(observationRegistry)
+                .build();
+        if (quantizationProperties.getMode() == VectorQuantizationProperties.Mode.NONE) {
+            return new Generation(number, tableName, pgVectorStore);
+        }
+        return new Generation(number, tableName, new QuantizedVectorStore(pgVectorStore, embeddingModel, jdbcTemplate,
+                transactionTemplate, objectMapper, observationRegistry, quantizationProperties, schemaName, tableName, dimensions));
+    }
+
+    private String qualified(String tableName) {
+        return schemaName + "." + tableName;
+    }
+
+    @Override
+    public String getName() {
+        return baseStore.getName();
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return baseStore.getNativeClient();
+    }
+}
@@ -0,0 +1,53 @@
+package com.bohdansavshak.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Loads vector tables and their indexes (the HNSW graph above all) into shared buffers with pg_prewarm, so the first
+// searches after a restart don't read the graph from disk page by page
+@Repository
+public class IndexPrewarmRepository {
+    private static final Logger logger = LoggerFactory.getLogger(IndexPrewarmRepository.class);
+    private static final String INDEXES_SQL = "SELECT indexrelid::regclass::text FROM pg_index WHERE indrelid = ?::regclass";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IndexPrewarmRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Blocks loaded, or -1 when pg_prewarm is not available (not installed, or the user may not create extensions)
+    public long prewarm(List<String> tables) {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_prewarm");
+        } catch (DataAccessException e) {
+            logger.info("pg_prewarm is not available: {}", e.getMessage());
+            return -1;
+        }
+
+        long blocks = 0;
+        for (String table : tables) {
+            for (String index : jdbcTemplate.queryForList(INDEXES_SQL, String.class, table)) {
+                blocks += load(index);
+            }
+            blocks += load(table);
+        }
+        return blocks;
+    }
+
+    // Titles of random pages, used as search queries when the index can't be loaded directly
+    public List<String> sampleTitles(int limit) {
+        return jdbcTemplate.queryForList(
+                "SELECT title FROM document_embeddings WHERE title IS NOT NULL ORDER BY random() LIMIT ?", String.class, limit);
+    }
+
+    private long load(String relation) {
+        Long blocks = jdbcTemplate.queryForObject("SELECT pg_prewarm(?::regclass)", Long.class, relation);
+        return blocks != null ? blocks : 0;
+    }
+}
@@ -0,0 +1,397 @@
+package com.bohdansavshak.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+
+// Binary snapshot of the index: every chunk's vector, text and metadata plus the page metadata rows, so an
+// environment can be filled without calling the embedding model. All numbers are little-endian.
+//
+//   0   "RAGSNAP1"
+//   8   int32 format version, int32 dimensions, int32 precision (0 float32, 1 float16), int32 model name length
+//   24  int64 chunk count, int64 page count
+//   40  int64 vectors offset, int64 chunk offset table offset, int64 page offset table offset
+//   64  embedding model name (UTF-8), padded to a multiple of 64
+//   vectors: chunk count x dimensions elements, one fixed-size row per chunk, so they can be memory-mapped as is
+//   chunk offset table: chunk count + 1 int64 file offsets; record i spans [offset i, offset i + 1)
+//   chunk records: uuid (two int64), content, metadata JSON
+//   page offset table and page records: page id, title, content, space key, space name, parent page id, version
+//
+// Strings are an int32 byte length (-1 for null) followed by UTF-8 bytes.
+public final class IndexSnapshot {
+    static final byte[] MAGIC = "RAGSNAP1".getBytes(StandardCharsets.US_ASCII);
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    // Keeps memory-mapped windows well below the 2 GB limit of a single mapping
+    private static final long MAX_WINDOW_BYTES = 256L * 1024 * 1024;
+
+    public enum Precision {
+        FLOAT32(4),
+        FLOAT16(2);
+
+        private final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    public record Chunk(UUID id, String content, String metadata, float[] embedding) {
+    }
+
+    public record Page(String pageId, String title, String content, String spaceKey, String spaceName,
+                       String parentPageId, Integer version) {
+    }
+
+    private IndexSnapshot() {
+    }
+
+    // Vectors are written in place; records go to temporary files that are appended after the offset tables
+    // once all counts are final
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int dimensions;
+        private final Precision precision;
+        private final byte[] modelName;
+        private final long vectorsOffset;
+        private final Records chunks;
+        private final Records pages;
+        private final ByteBuffer vectorBuffer;
+        private long chunkCount;
+
+        public Writer(Path target, int dimensions, Precision precision, String modelName) throws IOException {
+            this.channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.READ);
+            this.dimensions = dimensions;
+            this.precision = precision;
+            this.modelName = String.valueOf(modelName).getBytes(StandardCharsets.UTF_8);
+            this.vectorsOffset = align(HEADER_SIZE + this.modelName.length);
+            this.chunks = new Records(target, "chunks");
+            this.pages = new Records(target, "pages");
+            this.vectorBuffer = ByteBuffer.allocate(dimensions * precision.bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public void writeChunk(Chunk chunk) throws IOException {
+            if (chunk.embedding().length != dimensions) {
+                throw new IllegalArgumentException("Chunk " + chunk.id() + " has " + chunk.embedding().length
+                        + " dimensions, expected " + dimensions);
+            }
+
+            vectorBuffer.clear();
+            for (float value : chunk.embedding()) {
+                if (precision == Precision.FLOAT16) {
+                    vectorBuffer.putShort(Float.floatToFloat16(value));
+                } else {
+                    vectorBuffer.putFloat(value);
+                }
+            }
+            vectorBuffer.flip();
+            long position = vectorsOffset + chunkCount * vectorBuffer.capacity();
+            while (vectorBuffer.hasRemaining()) {
+                position += channel.write(vectorBuffer, position);
+            }
+
+            chunks.start();
+            chunks.writeLong(chunk.id().getMostSignificantBits());
+            chunks.writeLong(chunk.id().getLeastSignificantBits());
+            chunks.writeString(chunk.content());
+            chunks.writeString(chunk.metadata());
+            chunkCount++;
+        }
+
+        public void writePage(Page page) throws IOException {
+            pages.start();
+            pages.writeString(page.pageId());
+            pages.writeString(page.title());
+            pages.writeString(page.content());
+            pages.writeString(page.spaceKey());
+            pages.writeString(page.spaceName());
+            pages.writeString(page.parentPageId());
+            pages.writeInt(page.version() != null ? page.version() : Integer.MIN_VALUE);
+        }
+
+        public long getChunkCount() {
+            return chunkCount;
+        }
+
+        public long getPageCount() {
+            return pages.count();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long chunkTableOffset = vectorsOffset + chunkCount * (long) dimensions * precision.bytes;
+                long chunkRecordsOffset = chunkTableOffset + (chunks.count() + 1) * 8L;
+                long pageTableOffset = chunkRecordsOffset + chunks.size();
+                long pageRecordsOffset = pageTableOffset + (pages.count() + 1) * 8L;
+
+                channel.position(chunkTableOffset);
+                chunks.writeTable(channel, chunkRecordsOffset);
+                chunks.appendTo(channel);
+                pages.writeTable(channel, pageRecordsOffset);
+                pages.appendTo(channel);
+
+                ByteBuffer header = ByteBuffer.allocate((int) vectorsOffset).order(ByteOrder.LITTLE_ENDIAN);
+                header.put(MAGIC)
+                        .putInt(FORMAT_VERSION)
+                        .putInt(dimensions)
+                        .putInt(precision.ordinal())
+                        .putInt(modelName.length)
+                        .putLong(chunkCount)
+                        .putLong(pages.count())
+                        .putLong(vectorsOffset)
+                        .putLong(chunkTableOffset)
+                        .putLong(pageTableOffset)
+                        .put(HEADER_SIZE, modelName);
+                header.clear();
+                channel.write(header, 0);
+                channel.force(true);
+            } finally {
+                channel.close();
+                chunks.delete();
+                pages.delete();
+            }
+        }
+
+        private static long align(long offset) {
+            return (offset + 63) / 64 * 64;
+        }
+    }
+
+    // Records in a temporary file, with the start offset of each relative to the first
+    private static final class Records {
+        private final Path file;
+        private final OutputStream out;
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private long[] offsets = new long[1024];
+        private int count;
+        private long position;
+
+        Records(Path target, String name) throws IOException {
+            this.file = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + "." + name, ".tmp");
+            this.out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        }
+
+        void start() {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+        }
+
+        void writeLong(long value) throws IOException {
+            scratch.clear().putLong(value);
+            out.write(scratch.array(), 0, 8);
+            position += 8;
+        }
+
+        void writeInt(int value) throws IOException {
+            scratch.clear().putInt(value);
+            out.write(scratch.array(), 0, 4);
+            position += 4;
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long size() {
+            return position;
+        }
+
+        void writeTable(FileChannel channel, long recordsOffset) throws IOException {
+            ByteBuffer table = ByteBuffer.allocate((count + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                table.putLong(recordsOffset + offsets[i]);
+            }
+            table.putLong(recordsOffset + position);
+            table.flip();
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+        }
+
+        void appendTo(FileChannel channel) throws IOException {
+            out.close();
+            try (FileChannel records = FileChannel.open(file, StandardOpenOption.READ)) {
+                long transferred = 0;
+                long size = records.size();
+                while (transferred < size) {
+                    transferred += records.transferTo(transferred, size - transferred, channel);
+                }
+            }
+        }
+
+        void delete() throws IOException {
+            out.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Memory-maps the snapshot in windows; vectors and records are decoded straight from the mapping. Sequential
+    // reads stay within one window at a time. Not thread-safe.
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final int dimensions;
+        private final Precision precision;
+        private final String modelName;
+        private final long chunkCount;
+        private final long pageCount;
+        private final long vectorsOffset;
+        private final long chunkTableOffset;
+        private final long pageTableOffset;
+        private final Window vectors = new Window();
+        private final Window chunkTable = new Window();
+        private final Window chunkRecords = new Window();
+        private final Window pageTable = new Window();
+        private final Window pageRecords = new Window();
+
+        public Reader(Path source) throws IOException {
+            this.channel = FileChannel.open(source, StandardOpenOption.READ);
+            try {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException(source + " is not an index snapshot");
+                }
+                ByteBuffer header = map(0, HEADER_SIZE);
+                byte[] magic = new byte[MAGIC.length];
+                header.get(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException(source + " is not an index snapshot");
+                }
+                int version = header.getInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported snapshot format version " + version);
+                }
+                this.dimensions = header.getInt();
+                this.precision = Precision.values()[header.getInt()];
+                int modelNameLength = header.getInt();
+                this.chunkCount = header.getLong();
+                this.pageCount = header.getLong();
+                this.vectorsOffset = header.getLong();
+                this.chunkTableOffset = header.getLong();
+                this.pageTableOffset = header.getLong();
+                byte[] model = new byte[modelNameLength];
+                map(HEADER_SIZE, modelNameLength).get(model);
+                this.modelName = new String(model, StandardCharsets.UTF_8);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getDimensions() {
+            return dimensions;
+        }
+
+        public Precision getPrecision() {
+            return precision;
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        public long getChunkCount() {
+            return chunkCount;
+        }
+
+        public long getPageCount() {
+            return pageCount;
+        }
+
+        public float[] vector(long index) throws IOException {
+            int rowBytes = dimensions * precision.bytes;
+            ByteBuffer row = vectors.slice(vectorsOffset + index * rowBytes, rowBytes);
+            float[] vector = new float[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = precision == Precision.FLOAT16 ? Float.float16ToFloat(row.getShort()) : row.getFloat();
+            }
+            return vector;
+        }
+
+        public Chunk chunk(long index) throws IOException {
+            ByteBuffer record = record(chunkTable, chunkRecords, chunkTableOffset, index);
+            UUID id = new UUID(record.getLong(), record.getLong());
+            return new Chunk(id, readString(record), readString(record), vector(index));
+        }
+
+        public Page page(long index) throws IOException {
+            ByteBuffer record = record(pageTable, pageRecords, pageTableOffset, index);
+            String pageId = readString(record);
+            String title = readString(record);
+            String content = readString(record);
+            String spaceKey = readString(record);
+            String spaceName = readString(record);
+            String parentPageId = readString(record);
+            int version = record.getInt();
+            return new Page(pageId, title, content, spaceKey, spaceName, parentPageId,
+                    version == Integer.MIN_VALUE ? null : version);
+        }
+
+        private ByteBuffer record(Window table, Window records, long tableOffset, long index) throws IOException {
+            ByteBuffer bounds = table.slice(tableOffset + index * 8, 16);
+            long start = bounds.getLong();
+            long end = bounds.getLong();
+            return records.slice(start, end - start);
+        }
+
+        private MappedByteBuffer map(long position, long size) throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        // A mapped region that is moved forward when a read falls outside of it
+        private final class Window {
+            private MappedByteBuffer buffer;
+            private long start;
+
+            ByteBuffer slice(long position, long length) throws IOException {
+                if (buffer == null || position < start || position + length > start + buffer.capacity()) {
+                    long size = Math.max(length, Math.min(MAX_WINDOW_BYTES, channel.size() - position));
+                    buffer = map(position, size);
+                    start = position;
+                }
+                return buffer.slice((int) (position - start), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,234 @@
+package com.bohdansavshak.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Write-ahead journal of content mutations. An intent is committed as pending before any embedding work starts and
+// is marked applied in the same transaction that writes vector_store and document_embeddings, so a pending entry
+// means the mutation may not have happened. Replaying one is idempotent: vector ids are derived from the content id
+// and chunk number, and the metadata row is an upsert.
+@Repository
+public class IngestionJournalRepository {
+    public static final String KIND_PAGE = "page";
+    public static final String KIND_ATTACHMENTS = "attachments";
+    public static final String UPSERT = "upsert";
+    public static final String DELETE = "delete";
+
+    private static final String CREATE_JOURNAL_SQL = """
+            CREATE TABLE IF NOT EXISTS ingestion_journal (
+                content_id text NOT NULL,
+                kind text NOT NULL,
+                operation text NOT NULL,
+                version int,
+                state text NOT NULL,
+                recorded_at timestamptz NOT NULL DEFAULT now(),
+                applied_at timestamptz,
+                PRIMARY KEY (content_id, kind))
+            """;
+    private static final String CREATE_PENDING_INDEX_SQL = """
+            CREATE INDEX IF NOT EXISTS ingestion_journal_pending_idx
+                ON ingestion_journal (recorded_at) WHERE state = 'pending'
+            """;
+    private static final String CREATE_RUNS_SQL = """
+            CREATE TABLE IF NOT EXISTS ingestion_runs (
+                id bigserial PRIMARY KEY,
+                scope text NOT NULL,
+                started_at timestamptz NOT NULL DEFAULT now(),
+                finished_at timestamptz)
+            """;
+    // Listing offset per query up to which the run stored every page
+    private static final String CREATE_CURSORS_SQL = """
+            CREATE TABLE IF NOT EXISTS ingestion_run_cursors (
+                run_id bigint NOT NULL REFERENCES ingestion_runs (id) ON DELETE CASCADE,
+                query text NOT NULL,
+                next_start int NOT NULL,
+                PRIMARY KEY (run_id, query))
+            """;
+    private static final String SAVE_CURSOR_SQL = """
+            INSERT INTO ingestion_run_cursors (run_id, query, next_start) VALUES (?, ?, ?)
+            ON CONFLICT (run_id, query) DO UPDATE SET next_start = GREATEST(ingestion_run_cursors.next_start, EXCLUDED.next_start)
+            """;
+    private static final String RECORD_SQL = """
+            INSERT INTO ingestion_journal (content_id, kind, operation, version, state)
+            VALUES (?, ?, ?, ?, 'pending')
+            ON CONFLICT (content_id, kind) DO UPDATE SET
+                operation = EXCLUDED.operation,
+                version = EXCLUDED.version,
+                state = 'pending',
+                recorded_at = now(),
+                applied_at = NULL
+            """;
+    // For content that was looked at but had nothing to store, so neither the replayer nor a resumed run fetches it again
+    private static final String RECORD_APPLIED_SQL = """
+            INSERT INTO ingestion_journal (content_id, kind, operation, version, state, applied_at)
+            VALUES (?, ?, ?, ?, 'applied', now())
+            ON CONFLICT (content_id, kind) DO UPDATE SET
+                operation = EXCLUDED.operation,
+                version = EXCLUDED.version,
+                state = 'applied',
+                applied_at = now()
+            """;
+    private static final String APPLIED_SQL = """
+            UPDATE ingestion_journal SET state = 'applied', applied_at = now()
+            WHERE kind = ? AND content_id = ANY(?) AND state = 'pending'
+            """;
+    private static final String APPLIED_SINCE_SQL = """
+            SELECT content_id, version FROM ingestion_journal
+            WHERE kind = ? AND content_id = ANY(?) AND state = 'applied' AND applied_at >= ?
+            """;
+    // Claiming an entry pushes its recorded_at forward, so another instance replaying at the same time skips it
+    private static final String CLAIM_STALE_SQL = """
+            WITH stale AS (
+                SELECT content_id, kind FROM ingestion_journal
+                WHERE state = 'pending' AND recorded_at < now() - make_interval(secs => ?)
+                ORDER BY recorded_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED)
+            UPDATE ingestion_journal j SET recorded_at = now()
+            FROM stale s
+            WHERE j.content_id = s.content_id AND j.kind = s.kind
+            RETURNING j.content_id, j.kind, j.operation, j.version
+            """;
+
+    public record Entry(String contentId, String kind, String operation, Integer version) {
+    }
+
+    public record Run(long id, Instant startedAt, boolean resumed) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    // Intents must be durable even when the caller's transaction later rolls back
+    private final TransactionTemplate requiresNew;
+
+    public IngestionJournalRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public void createTablesIfMissing() {
+        jdbcTemplate.execute(CREATE_JOURNAL_SQL);
+        jdbcTemplate.execute(CREATE_PENDING_INDEX_SQL);
+        jdbcTemplate.execute(CREATE_RUNS_SQL);
+        jdbcTemplate.execute(CREATE_CURSORS_SQL);
+    }
+
+    public void recordPending(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        requiresNew.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(RECORD_SQL, entries, entries.size(), (ps, entry) -> {
+                    ps.setString(1, entry.contentId());
+                    ps.setString(2, entry.kind());
+                    ps.setString(3, entry.operation());
+                    ps.setObject(4, entry.version(), Types.INTEGER);
+                }));
+    }
+
+    public void recordApplied(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(RECORD_APPLIED_SQL, entries, entries.size(), (ps, entry) -> {
+            ps.setString(1, entry.contentId());
+            ps.setString(2, entry.kind());
+            ps.setString(3, entry.operation());
+            ps.setObject(4, entry.version(), Types.INTEGER);
+        });
+    }
+
+    // Joins the caller's transaction, so the entry only becomes applied together with the writes it describes
+    public void markApplied(String kind, List<String> contentIds) {
+        if (contentIds.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update(connection -> {
+            var ps = connection.prepareStatement(APPLIED_SQL);
+            ps.setString(1, kind);
+            ps.setArray(2, connection.createArrayOf("text", contentIds.toArray()));
+            return ps;
+        });
+    }
+
+    // Content ids applied since the given time, with the version that was applied
+    public Map<String, Integer> appliedSince(String kind, List<String> contentIds, Instant since) {
+        Map<String, Integer> applied = new HashMap<>();
+        if (contentIds.isEmpty()) {
+            return applied;
+        }
+
+        jdbcTemplate.query(connection -> {
+            var ps = connection.prepareStatement(APPLIED_SINCE_SQL);
+            ps.setString(1, kind);
+            ps.setArray(2, connection.createArrayOf("text", contentIds.toArray()));
+            ps.setTimestamp(3, Timestamp.from(since));
+            return ps;
+        }, (RowCallbackHandler) rs -> applied.put(rs.getString("content_id"), rs.getObject("version", Integer.class)));
+        return applied;
+    }
+
+    public List<Entry> claimStale(Duration staleAfter, int limit) {
+        return jdbcTemplate.query(CLAIM_STALE_SQL,
+                (rs, rowNum) -> new Entry(rs.getString("content_id"), rs.getString("kind"), rs.getString("operation"),
+                        rs.getObject("version", Integer.class)),
+                staleAfter.toMillis() / 1000.0, limit);
+    }
+
+    public long countPending() {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM ingestion_journal WHERE state = 'pending'", Long.class);
+        return count != null ? count : 0;
+    }
+
+    // A crawl of the same scope that never finished is continued rather than started over
+    public Run startOrResumeRun(String scope) {
+        List<Run> unfinished = jdbcTemplate.query(
+                "SELECT id, started_at FROM ingestion_runs WHERE scope = ? AND finished_at IS NULL ORDER BY id DESC LIMIT 1",
+                (rs, rowNum) -> new Run(rs.getLong("id"), rs.getTimestamp("started_at").toInstant(), true), scope);
+        if (!unfinished.isEmpty()) {
+            return unfinished.getFirst();
+        }
+        return jdbcTemplate.queryForObject("INSERT INTO ingestion_runs (scope) VALUES (?) RETURNING id, started_at",
+                (rs, rowNum) -> new Run(rs.getLong("id"), rs.getTimestamp("started_at").toInstant(), false), scope);
+    }
+
+    public void finishRun(long runId) {
+        jdbcTemplate.update("UPDATE ingestion_runs SET finished_at = now() WHERE id = ?", runId);
+        jdbcTemplate.update("DELETE FROM ingestion_run_cursors WHERE run_id = ?", runId);
+    }
+
+    public Map<String, Integer> crawlCursors(long runId) {
+        Map<String, Integer> cursors = new HashMap<>();
+        jdbcTemplate.query("SELECT query, next_start FROM ingestion_run_cursors WHERE run_id = ?",
+                (RowCallbackHandler) rs -> cursors.put(rs.getString("query"), rs.getInt("next_start")), runId);
+        return cursors;
+    }
+
+    public void saveCrawlCursors(long runId, Map<String, Integer> cursors) {
+        if (cursors.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<String, Integer>> rows = List.copyOf(cursors.entrySet());
+        jdbcTemplate.batchUpdate(SAVE_CURSOR_SQL, rows, rows.size(), (ps, cursor) -> {
+            ps.setLong(1, runId);
+            ps.setString(2, cursor.getKey());
+            ps.setInt(3, cursor.getValue());
+        });
+    }
+}
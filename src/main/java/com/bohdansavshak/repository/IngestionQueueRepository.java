@@ -0,0 +1,229 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.model.ConfluencePage;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Durable page work queue shared by every application instance. Workers claim batches with FOR UPDATE SKIP LOCKED,
+// so concurrent claims never block on or return the same rows. A claim is a lease: rows whose lease expired
+// (the owner crashed or stalled) become claimable again, and each claim counts as an attempt. The owner renews the
+// leases of the pages it is still working on, up to a maximum age counted from the claim.
+@Repository
+public class IngestionQueueRepository {
+    private static final String TABLE = "ingestion_work_queue";
+
+    private static final String CREATE_SQL = """
+            CREATE TABLE IF NOT EXISTS ingestion_work_queue (
+                page_id text PRIMARY KEY,
+                space_key text,
+                version int,
+                state text NOT NULL,
+                attempts int NOT NULL DEFAULT 0,
+                dirty boolean NOT NULL DEFAULT false,
+                lease_owner text,
+                leased_at timestamptz,
+                lease_expires_at timestamptz,
+                available_at timestamptz NOT NULL DEFAULT now(),
+                last_error text,
+                enqueued_at timestamptz NOT NULL DEFAULT now(),
+                updated_at timestamptz NOT NULL DEFAULT now())
+            """;
+    // Tables created before leases had a maximum age
+    private static final String ADD_LEASED_AT_SQL = "ALTER TABLE ingestion_work_queue ADD COLUMN IF NOT EXISTS leased_at timestamptz";
+    private static final String CREATE_INDEX_SQL = """
+            CREATE INDEX IF NOT EXISTS ingestion_work_queue_claimable_idx
+                ON ingestion_work_queue (enqueued_at) WHERE state IN ('pending', 'leased')
+            """;
+    // A page that is being worked on keeps its lease; it is marked dirty and goes back to pending when completed
+    private static final String ENQUEUE_SQL = """
+            INSERT INTO ingestion_work_queue (page_id, space_key, version, state)
+            VALUES (?, ?, ?, 'pending')
+            ON CONFLICT (page_id) DO UPDATE SET
+                space_key = EXCLUDED.space_key,
+                version = EXCLUDED.version,
+                state = CASE WHEN ingestion_work_queue.state = 'leased' THEN 'leased' ELSE 'pending' END,
+                dirty = ingestion_work_queue.state = 'leased',
+                attempts = CASE WHEN ingestion_work_queue.state = 'leased' THEN ingestion_work_queue.attempts ELSE 0 END,
+                available_at = now(),
+                last_error = NULL,
+                enqueued_at = now(),
+                updated_at = now()
+            """;
+    private static final String CLAIM_SQL = """
+            WITH claimable AS (
+                SELECT page_id FROM ingestion_work_queue
+                WHERE ((state = 'pending' AND available_at <= now()) OR (state = 'leased' AND lease_expires_at < now()))
+                  AND attempts < ?
+                ORDER BY enqueued_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED)
+            UPDATE ingestion_work_queue q SET
+                state = 'leased',
+                lease_owner = ?,
+                leased_at = now(),
+                lease_expires_at = now() + make_interval(secs => ?),
+                attempts = q.attempts + 1,
+                updated_at = now()
+            FROM claimable c
+            WHERE q.page_id = c.page_id
+            RETURNING q.page_id, q.space_key, q.attempts
+            """;
+    // Only the given pages, and only while their claim is younger than the maximum age: a batch that hangs stops
+    // being renewed and its pages go to another node once the lease runs out
+    private static final String HEARTBEAT_SQL = """
+            UPDATE ingestion_work_queue SET lease_expires_at = now() + make_interval(secs => ?)
+            WHERE page_id = ANY(?) AND state = 'leased' AND lease_owner = ?
+              AND leased_at > now() - make_interval(secs => ?)
+            """;
+    private static final String COMPLETE_SQL = """
+            UPDATE ingestion_work_queue SET
+                state = CASE WHEN dirty THEN 'pending' ELSE 'done' END,
+                attempts = CASE WHEN dirty THEN 0 ELSE attempts END,
+                dirty = false,
+                lease_owner = NULL,
+                lease_expires_at = NULL,
+                last_error = NULL,
+                updated_at = now()
+            WHERE page_id = ANY(?) AND state = 'leased' AND lease_owner = ?
+            """;
+    // Retries back off exponentially from the given base delay
+    private static final String FAIL_SQL = """
+            UPDATE ingestion_work_queue SET
+                state = CASE WHEN attempts >= ? THEN 'failed' ELSE 'pending' END,
+                lease_owner = NULL,
+                lease_expires_at = NULL,
+                available_at = now() + make_interval(secs => ? * power(2, attempts - 1)),
+                last_error = ?,
+                updated_at = now()
+            WHERE page_id = ANY(?) AND state = 'leased' AND lease_owner = ?
+            """;
+    // Leases that expired on their last attempt are never claimed again; record them as failed
+    private static final String EXPIRE_SQL = """
+            UPDATE ingestion_work_queue SET
+                state = 'failed',
+                lease_owner = NULL,
+                lease_expires_at = NULL,
+                last_error = 'Lease expired on the last attempt',
+                updated_at = now()
+            WHERE state = 'leased' AND lease_expires_at < now() AND attempts >= ?
+            """;
+    // On shutdown the node's claims are handed back without counting as an attempt
+    private static final String RELEASE_SQL = """
+            UPDATE ingestion_work_queue SET
+                state = 'pending',
+                attempts = greatest(attempts - 1, 0),
+                dirty = false,
+                lease_owner = NULL,
+                lease_expires_at = NULL,
+                updated_at = now()
+            WHERE state = 'leased' AND lease_owner = ?
+            """;
+
+    public record QueuedPage(String pageId, String spaceKey, int attempts) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IngestionQueueRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void createTableIfMissing() {
+        jdbcTemplate.execute(CREATE_SQL);
+        jdbcTemplate.execute(ADD_LEASED_AT_SQL);
+        jdbcTemplate.execute(CREATE_INDEX_SQL);
+    }
+
+    public void enqueue(List<ConfluencePage> pages) {
+        if (pages.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(ENQUEUE_SQL, pages, pages.size(), (ps, page) -> {
+            ps.setString(1, page.getId());
+            ps.setString(2, page.getSpace() != null ? page.getSpace().getKey() : null);
+            ps.setObject(3, page.getVersion() != null ? page.getVersion().getNumber() : null, Types.INTEGER);
+        });
+    }
+
+    public List<QueuedPage> claim(String owner, int limit, Duration lease, int maxAttempts) {
+        return jdbcTemplate.query(CLAIM_SQL,
+                (rs, rowNum) -> new QueuedPage(rs.getString("page_id"), rs.getString("space_key"), rs.getInt("attempts")),
+                maxAttempts, limit, owner, seconds(lease));
+    }
+
+    public int heartbeat(String owner, Collection<String> pageIds, Duration lease, Duration maxLeaseAge) {
+        if (pageIds.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(connection -> {
+            var ps = connection.prepareStatement(HEARTBEAT_SQL);
+            ps.setDouble(1, seconds(lease));
+            ps.setArray(2, textArray(connection, pageIds));
+            ps.setString(3, owner);
+            ps.setDouble(4, seconds(maxLeaseAge));
+            return ps;
+        });
+    }
+
+    public void complete(String owner, List<String> pageIds) {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            var ps = connection.prepareStatement(COMPLETE_SQL);
+            ps.setArray(1, textArray(connection, pageIds));
+            ps.setString(2, owner);
+            return ps;
+        });
+    }
+
+    public void fail(String owner, List<String> pageIds, String error, int maxAttempts, Duration retryBackoff) {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            var ps = connection.prepareStatement(FAIL_SQL);
+            ps.setInt(1, maxAttempts);
+            ps.setDouble(2, seconds(retryBackoff));
+            ps.setString(3, error);
+            ps.setArray(4, textArray(connection, pageIds));
+            ps.setString(5, owner);
+            return ps;
+        });
+    }
+
+    public int failExpired(int maxAttempts) {
+        return jdbcTemplate.update(EXPIRE_SQL, maxAttempts);
+    }
+
+    public int release(String owner) {
+        return jdbcTemplate.update(RELEASE_SQL, owner);
+    }
+
+    public Map<String, Long> countsByState() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT state, count(*) AS n FROM " + TABLE + " GROUP BY state ORDER BY state",
+                (RowCallbackHandler) rs -> counts.put(rs.getString("state"), rs.getLong("n")));
+        return counts;
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+
+    private static Array textArray(Connection connection, Collection<String> values) throws SQLException {
+        return connection.createArrayOf("text", values.toArray());
+    }
+}
@@ -0,0 +1,167 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Similarity search over one or more vector tables with the vector_store layout. Every table is searched in its
+// own UNION ALL branch, so each uses its own HNSW index. With quantization the branch walks the quantized index
+// for topK * candidate-multiplier rows, and only those get an exact distance for the final ranking.
+class PgVectorSearch {
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final VectorQuantizationProperties properties;
+    private final PgVectorStore.PgDistanceType distanceType;
+    private final int dimensions;
+
+    PgVectorSearch(EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                   ObjectMapper objectMapper, VectorQuantizationProperties properties,
+                   PgVectorStore.PgDistanceType distanceType, int dimensions) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.distanceType = distanceType;
+        this.dimensions = dimensions;
+    }
+
+    // Same layout as vector_store in init-db.sql, without the search index
+    String tableSql(String table) {
+        return """
+                CREATE TABLE IF NOT EXISTS %s (
+                    id uuid DEFAULT gen_random_uuid() PRIMARY KEY,
+                    content text,
+                    metadata json,
+                    embedding vector(%d)
+                )""".formatted(table, dimensions);
+    }
+
+    // The search index for a table in the configured mode; quantized ones are expression indexes over the
+    // full-precision column, so existing rows are covered without a new column
+    String indexSql(String table, String tableName) {
+        return switch (properties.getMode()) {
+            case NONE -> "CREATE INDEX IF NOT EXISTS %s_index ON %s USING hnsw (embedding %s)"
+                    .formatted(tableName, table, operatorClass("vector"));
+            case HALFVEC -> "CREATE INDEX IF NOT EXISTS %s_embedding_halfvec_idx ON %s USING hnsw ((embedding::halfvec(%d)) %s)"
+                    .formatted(tableName, table, dimensions, operatorClass("halfvec"));
+            case BINARY -> "CREATE INDEX IF NOT EXISTS %s_embedding_binary_idx ON %s USING hnsw ((binary_quantize(embedding)::bit(%d)) bit_hamming_ops)"
+                    .formatted(tableName, table, dimensions);
+        };
+    }
+
+    List<Document> search(List<String> tables, SearchRequest request, String filter) {
+        if (tables.isEmpty()) {
+            return List.of();
+        }
+
+        int candidates = candidates(request.getTopK());
+        PGvector query = new PGvector(embeddingModel.embed(request.getQuery()));
+        List<Object> parameters = new ArrayList<>();
+        List<String> branches = new ArrayList<>(tables.size());
+        for (String table : tables) {
+            branches.add(branchSql(table, filter));
+            parameters.add(query);
+            if (filter != null) {
+                parameters.add(filter);
+            }
+            parameters.add(query);
+            parameters.add(candidates);
+        }
+        parameters.add(1 - request.getSimilarityThreshold());
+        parameters.add(request.getTopK());
+
+        String sql = """
+                SELECT id, content, metadata, distance FROM (
+                %s
+                ) candidates
+                WHERE distance < ?
+                ORDER BY distance
+                LIMIT ?
+                """.formatted(String.join("\nUNION ALL\n", branches));
+        // HNSW returns at most ef_search rows per index scan, so it has to cover the candidate count
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + Math.max(40, candidates));
+            return jdbcTemplate.query(sql, this::toDocument, parameters.toArray());
+        });
+    }
+
+    int candidates(int topK) {
+        if (properties.getMode() == VectorQuantizationProperties.Mode.NONE) {
+            return topK;
+        }
+        return Math.min(Math.max(topK * properties.getCandidateMultiplier(), topK), properties.getMaxCandidates());
+    }
+
+    String branchSql(String table, String filter) {
+        String order = switch (properties.getMode()) {
+            case NONE -> "embedding %s ?".formatted(distanceOperator());
+            case HALFVEC -> "embedding::halfvec(%1$d) %2$s ?::halfvec(%1$d)".formatted(dimensions, distanceOperator());
+            case BINARY -> "binary_quantize(embedding)::bit(%1$d) <~> binary_quantize(?::vector)::bit(%1$d)".formatted(dimensions);
+        };
+        // The filter is bound, so values taken from a request can't change the statement
+        String where = filter != null ? "WHERE metadata::jsonb @@ ?::jsonpath" : "";
+        return """
+                (SELECT id, content, metadata, embedding %s ? AS distance
+                FROM %s
+                %s
+                ORDER BY %s
+                LIMIT ?)""".formatted(distanceOperator(), table, where, order);
+    }
+
+    private Document toDocument(ResultSet rs, int rowNum) throws SQLException {
+        Map<String, Object> metadata = new HashMap<>();
+        String json = rs.getString("metadata");
+        if (json != null) {
+            try {
+                metadata.putAll(objectMapper.readValue(json, METADATA_TYPE));
+            } catch (JsonProcessingException e) {
+                throw new SQLException("Invalid metadata for vector " + rs.getString("id"), e);
+            }
+        }
+        double distance = rs.getDouble("distance");
+        metadata.put("distance", distance);
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(1 - distance)
+                .build();
+    }
+
+    private String distanceOperator() {
+        return switch (distanceType) {
+            case EUCLIDEAN_DISTANCE -> "<->";
+            case NEGATIVE_INNER_PRODUCT -> "<#>";
+            case COSINE_DISTANCE -> "<=>";
+        };
+    }
+
+    private String operatorClass(String type) {
+        return switch (distanceType) {
+            case EUCLIDEAN_DISTANCE -> type + "_l2_ops";
+            case NEGATIVE_INNER_PRODUCT -> type + "_ip_ops";
+            case COSINE_DISTANCE -> type + "_cosine_ops";
+        };
+    }
+}
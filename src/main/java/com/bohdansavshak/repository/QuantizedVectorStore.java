@@ -0,0 +1,76 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+
+// Searches an HNSW index over a quantized copy of the embedding (halfvec or binary) for topK * candidate-multiplier
+// candidates, then re-scores those against the full-precision column and keeps the best topK. Writes, deletes and
+// schema handling stay with the PgVectorStore it wraps; the quantized index is created by GenerationalVectorStore.
+public class QuantizedVectorStore implements VectorStore {
+    private final PgVectorStore delegate;
+    private final ObservationRegistry observationRegistry;
+    private final VectorQuantizationProperties properties;
+    private final PgVectorSearch search;
+    private final String table;
+
+    public QuantizedVectorStore(PgVectorStore delegate, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                                TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                                ObservationRegistry observationRegistry, VectorQuantizationProperties properties,
+                                String schemaName, String tableName, int dimensions) {
+        this.delegate = delegate;
+        this.observationRegistry = observationRegistry;
+        this.properties = properties;
+        this.search = new PgVectorSearch(embeddingModel, jdbcTemplate, transactionTemplate, objectMapper, properties,
+                delegate.getDistanceType(), dimensions);
+        this.table = schemaName + "." + tableName;
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        String filter = request.hasFilterExpression()
+                ? delegate.filterExpressionConverter.convertExpression(request.getFilterExpression())
+                : null;
+        return Observation.createNotStarted("rag.vector.search", observationRegistry)
+                .lowCardinalityKeyValue("quantization", properties.getMode().name().toLowerCase())
+                .highCardinalityKeyValue("candidates", String.valueOf(search.candidates(request.getTopK())))
+                .observe(() -> search.search(List.of(table), request, filter));
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+}
@@ -0,0 +1,22 @@
+package com.bohdansavshak.repository;
+
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+
+// A vector store that can be re-filled from scratch next to the vectors it serves. Between begin and commit every
+// write reaches the new vectors and searches keep reading the old ones; commit switches searches over atomically.
+public interface RebuildableVectorStore extends VectorStore {
+
+    void beginFullRebuild();
+
+    void commitFullRebuild();
+
+    void abortFullRebuild();
+
+    // Schema-qualified tables that searches currently read
+    List<String> servingTables();
+
+    // Schema-qualified table that vectors of the given space are currently written to, created if needed
+    String writeTable(String spaceKey);
+}
@@ -0,0 +1,374 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// One vector table per Confluence space (vector_store_<space>), each with its own HNSW index. Documents are routed
+// by their spaceKey metadata; searches filtered to spaces only read those tables, unfiltered ones read every table in
+// a single UNION ALL query. A space, or every space at once, can be rebuilt into staging tables that replace the live
+// ones in one transaction.
+public class SpacePartitionedVectorStore implements RebuildableVectorStore {
+    private static final Logger logger = LoggerFactory.getLogger(SpacePartitionedVectorStore.class);
+    private static final String SPACE_KEY = "spaceKey";
+    private static final String STAGING_SUFFIX = "_next";
+    private static final int MAX_SPACE_KEY_LENGTH = 40;
+    private static final int MAX_HASHED_KEY_LENGTH = 20;
+    private static final Pattern PLAIN_SPACE_KEY = Pattern.compile("[A-Z0-9]{1," + MAX_SPACE_KEY_LENGTH + "}");
+
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObservationRegistry observationRegistry;
+    private final PgVectorSearch search;
+    private final FilterExpressionConverter filterExpressionConverter = new PgVectorFilterExpressionConverter();
+    private final String schemaName;
+    private final String tablePrefix;
+    private final String registryTable;
+    private final int dimensions;
+    private final PgVectorStore.PgDistanceType distanceType;
+
+    // Space key -> its live table's name, as stored in the registry
+    private final Map<String, String> tableNames = new ConcurrentHashMap<>();
+    // Space key -> store on its live table, and on its staging table while the space is being rebuilt
+    private final Map<String, PgVectorStore> partitions = new ConcurrentHashMap<>();
+    private final Map<String, PgVectorStore> rebuilding = new ConcurrentHashMap<>();
+    // During a full rebuild every space, including ones without a live table yet, is written to staging
+    private volatile boolean fullRebuild;
+
+    public SpacePartitionedVectorStore(EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                                       TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                                       ObservationRegistry observationRegistry, VectorQuantizationProperties quantizationProperties,
+                                       String schemaName, String tableName, int dimensions,
+                                       PgVectorStore.PgDistanceType distanceType) {
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.observationRegistry = observationRegistry;
+        this.search = new PgVectorSearch(embeddingModel, jdbcTemplate, transactionTemplate, objectMapper,
+                quantizationProperties, distanceType, dimensions);
+        this.schemaName = schemaName;
+        this.tablePrefix = tableName + "_";
+        this.registryTable = schemaName + "." + tableName + "_partitions";
+        this.dimensions = dimensions;
+        this.distanceType = distanceType;
+    }
+
+    // Before every other startup listener, most of which use the store; not during context refresh, which has
+    // to complete without a database for AOT processing and CDS training runs
+    @EventListener(ApplicationStartedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void initialize() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + registryTable + " (space_key text PRIMARY KEY, table_name text NOT NULL)");
+        jdbcTemplate.query("SELECT space_key, table_name FROM " + registryTable, rs -> {
+            String tableName = rs.getString("table_name");
+            // Covers a changed quantization mode: the index for the current mode is built if missing
+            jdbcTemplate.execute(search.indexSql(qualified(tableName), tableName));
+            tableNames.put(rs.getString("space_key"), tableName);
+            partitions.put(rs.getString("space_key"), store(tableName));
+        });
+        logger.info("Loaded {} space partitions", partitions.size());
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Map<String, List<Document>> bySpace = new LinkedHashMap<>();
+        for (Document document : documents) {
+            String spaceKey = document.getMetadata().getOrDefault(SPACE_KEY, "UNKNOWN").toString();
+            bySpace.computeIfAbsent(spaceKey, key -> new ArrayList<>()).add(document);
+        }
+        bySpace.forEach((spaceKey, spaceDocuments) -> writeTarget(spaceKey).add(spaceDocuments));
+    }
+
+    // Vector ids don't tell the space, so every partition is asked
+    @Override
+    public void delete(List<String> idList) {
+        writableStores(null).forEach(store -> store.delete(idList));
+    }
+
+    // A filter restricted to spaces only deletes from their partitions
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        writableStores(spacesOf(filterExpression)).forEach(store -> store.delete(filterExpression));
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        Set<String> spaces = request.hasFilterExpression() ? spacesOf(request.getFilterExpression()) : null;
+        List<String> tables = partitions.entrySet().stream()
+                .filter(partition -> spaces == null || spaces.contains(partition.getKey()))
+                .map(partition -> qualified(tableName(partition.getKey())))
+                .toList();
+        String filter = request.hasFilterExpression()
+                ? filterExpressionConverter.convertExpression(request.getFilterExpression())
+                : null;
+        return Observation.createNotStarted("rag.vector.search", observationRegistry)
+                .lowCardinalityKeyValue("partitioned", String.valueOf(spaces != null))
+                .highCardinalityKeyValue("partitions", String.valueOf(tables.size()))
+                .observe(() -> search.search(tables, request, filter));
+    }
+
+    // Until commitRebuild, writes for the space go to an empty staging table while searches keep reading the live one
+    public synchronized void beginRebuild(String spaceKey) {
+        if (fullRebuild || rebuilding.containsKey(spaceKey)) {
+            throw new IllegalStateException("Space " + spaceKey + " is already being rebuilt");
+        }
+        rebuilding.put(spaceKey, createStaging(spaceKey));
+    }
+
+    public synchronized void commitRebuild(String spaceKey) {
+        indexStaging(List.of(spaceKey));
+        transactionTemplate.executeWithoutResult(status -> swap(spaceKey));
+        partitions.put(spaceKey, store(tableName(spaceKey)));
+        rebuilding.remove(spaceKey);
+        logger.info("Swapped rebuilt partition of space {} into {}", spaceKey, tableName(spaceKey));
+    }
+
+    public synchronized void abortRebuild(String spaceKey) {
+        rebuilding.remove(spaceKey);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(tableName(spaceKey) + STAGING_SUFFIX));
+        logger.info("Discarded rebuild of space {}", spaceKey);
+    }
+
+    @Override
+    public synchronized void beginFullRebuild() {
+        if (fullRebuild || !rebuilding.isEmpty()) {
+            throw new IllegalStateException("A rebuild is already running");
+        }
+        fullRebuild = true;
+        logger.info("Rebuilding all spaces into staging tables");
+    }
+
+    // All spaces switch in one transaction; spaces the rebuild did not see any more are dropped with it
+    @Override
+    public synchronized void commitFullRebuild() {
+        List<String> rebuilt = List.copyOf(rebuilding.keySet());
+        List<String> removed = partitions.keySet().stream().filter(spaceKey -> !rebuilding.containsKey(spaceKey)).toList();
+        indexStaging(rebuilt);
+        transactionTemplate.executeWithoutResult(status -> {
+            rebuilt.forEach(this::swap);
+            for (String spaceKey : removed) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(tableName(spaceKey)));
+                jdbcTemplate.update("DELETE FROM " + registryTable + " WHERE space_key = ?", spaceKey);
+            }
+        });
+        removed.forEach(partitions::remove);
+        removed.forEach(tableNames::remove);
+        rebuilt.forEach(spaceKey -> partitions.put(spaceKey, store(tableName(spaceKey))));
+        rebuilding.clear();
+        fullRebuild = false;
+        logger.info("Swapped {} rebuilt space partitions, dropped {}", rebuilt.size(), removed.size());
+    }
+
+    @Override
+    public synchronized void abortFullRebuild() {
+        for (String spaceKey : List.copyOf(rebuilding.keySet())) {
+            abortRebuild(spaceKey);
+        }
+        fullRebuild = false;
+    }
+
+    private PgVectorStore createStaging(String spaceKey) {
+        String staging = tableName(spaceKey) + STAGING_SUFFIX;
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(staging));
+        // Filled without a search index, which is built once over the complete table before the swap
+        jdbcTemplate.execute(search.tableSql(qualified(staging)));
+        logger.info("Rebuilding space {} into {}", spaceKey, staging);
+        return store(staging);
+    }
+
+    private void indexStaging(List<String> spaceKeys) {
+        for (String spaceKey : spaceKeys) {
+            String staging = tableName(spaceKey) + STAGING_SUFFIX;
+            jdbcTemplate.execute(search.indexSql(qualified(staging), staging));
+        }
+    }
+
+    private void swap(String spaceKey) {
+        String live = tableName(spaceKey);
+        String staging = live + STAGING_SUFFIX;
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(live));
+        jdbcTemplate.execute("ALTER TABLE " + qualified(staging) + " RENAME TO " + live);
+        // Index names are derived from the table name, so the next rebuild can create them again
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE schemaname = ? AND tablename = ?", String.class, schemaName, live);
+        for (String index : indexes) {
+            if (index.startsWith(staging)) {
+                jdbcTemplate.execute("ALTER INDEX " + qualified(index) + " RENAME TO " + live + index.substring(staging.length()));
+            }
+        }
+        register(spaceKey, live);
+    }
+
+    @Override
+    public List<String> servingTables() {
+        return partitions.keySet().stream().map(spaceKey -> qualified(tableName(spaceKey))).toList();
+    }
+
+    @Override
+    public String writeTable(String spaceKey) {
+        writeTarget(spaceKey);
+        return qualified(rebuilding.containsKey(spaceKey) ? tableName(spaceKey) + STAGING_SUFFIX : tableName(spaceKey));
+    }
+
+    public Set<String> getSpaceKeys() {
+        return Set.copyOf(partitions.keySet());
+    }
+
+    private PgVectorStore writeTarget(String spaceKey) {
+        if (fullRebuild) {
+            return rebuilding.computeIfAbsent(spaceKey, this::createStaging);
+        }
+        PgVectorStore staging = rebuilding.get(spaceKey);
+        if (staging != null) {
+            return staging;
+        }
+        return partitions.computeIfAbsent(spaceKey, key -> {
+            String tableName = tableName(key);
+            createTable(tableName);
+            register(key, tableName);
+            logger.info("Created partition {} for space {}", tableName, key);
+            return store(tableName);
+        });
+    }
+
+    // A space being rebuilt only changes in its staging table; the live one stays as it was until the swap.
+    // Null spaces means every space.
+    private Collection<PgVectorStore> writableStores(Set<String> spaces) {
+        List<PgVectorStore> stores = new ArrayList<>();
+        rebuilding.forEach((spaceKey, store) -> {
+            if (spaces == null || spaces.contains(spaceKey)) {
+                stores.add(store);
+            }
+        });
+        if (fullRebuild) {
+            return stores;
+        }
+        partitions.forEach((spaceKey, store) -> {
+            if (!rebuilding.containsKey(spaceKey) && (spaces == null || spaces.contains(spaceKey))) {
+                stores.add(store);
+            }
+        });
+        return stores;
+    }
+
+    private void createTable(String tableName) {
+        jdbcTemplate.execute(search.tableSql(qualified(tableName)));
+        jdbcTemplate.execute(search.indexSql(qualified(tableName), tableName));
+    }
+
+    private void register(String spaceKey, String tableName) {
+        jdbcTemplate.update("INSERT INTO " + registryTable + " (space_key, table_name) VALUES (?, ?) "
+                + "ON CONFLICT (space_key) DO UPDATE SET table_name = EXCLUDED.table_name", spaceKey, tableName);
+    }
+
+    private PgVectorStore store(String tableName) {
+        return PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .schemaName(schemaName)
+                .vectorTableName(tableName)
+                .dimensions(dimensions)
+                .distanceType(distanceType)
+                .initializeSchema(false)
+                .observationRegistry(observationRegistry)
+                .build();
+    }
+
+    // The registered table of a space; a space without one gets a name that is registered with the table
+    String tableName(String spaceKey) {
+        return tableNames.computeIfAbsent(spaceKey, this::assignTableName);
+    }
+
+    // Another instance may have registered the space already. Otherwise global space keys (upper-case letters and
+    // digits) map to their lower-case form; any other key (personal spaces start with '~' and can hold any
+    // character) is shortened and gets a hash of the full key, so two keys can't share a table.
+    private String assignTableName(String spaceKey) {
+        List<String> registered = jdbcTemplate.queryForList(
+                "SELECT table_name FROM " + registryTable + " WHERE space_key = ?", String.class, spaceKey);
+        if (!registered.isEmpty()) {
+            return registered.getFirst();
+        }
+        String name = candidateTableName(spaceKey);
+        // Tables named by an earlier scheme may be in the way
+        for (int suffix = 2; isTaken(name); suffix++) {
+            name = candidateTableName(spaceKey) + "_" + suffix;
+        }
+        return name;
+    }
+
+    String candidateTableName(String spaceKey) {
+        if (PLAIN_SPACE_KEY.matcher(spaceKey).matches()) {
+            return tablePrefix + spaceKey.toLowerCase(Locale.ROOT);
+        }
+        String key = spaceKey.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "_");
+        return tablePrefix + key.substring(0, Math.min(key.length(), MAX_HASHED_KEY_LENGTH)) + "_" + hash(spaceKey);
+    }
+
+    private boolean isTaken(String tableName) {
+        return tableNames.containsValue(tableName) || !jdbcTemplate.queryForList(
+                "SELECT space_key FROM " + registryTable + " WHERE table_name = ?", String.class, tableName).isEmpty();
+    }
+
+    private static String hash(String spaceKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(spaceKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String qualified(String name) {
+        return schemaName + "." + name;
+    }
+
+    // The spaces a filter restricts results to, or null when it can match any space
+    static Set<String> spacesOf(Filter.Expression expression) {
+        return switch (expression.type()) {
+            case EQ -> isSpaceKey(expression.left()) && expression.right() instanceof Filter.Value value
+                    ? Set.of(value.value().toString()) : null;
+            case IN -> isSpaceKey(expression.left()) && expression.right() instanceof Filter.Value value
+                    && value.value() instanceof List<?> keys
+                    ? keys.stream().map(Object::toString).collect(Collectors.toSet()) : null;
+            case AND -> {
+                Set<String> left = expression.left() instanceof Filter.Expression l ? spacesOf(l) : null;
+                yield left != null ? left : expression.right() instanceof Filter.Expression r ? spacesOf(r) : null;
+            }
+            default -> null;
+        };
+    }
+
+    private static boolean isSpaceKey(Filter.Operand operand) {
+        return operand instanceof Filter.Key key && SPACE_KEY.equals(key.key());
+    }
+}
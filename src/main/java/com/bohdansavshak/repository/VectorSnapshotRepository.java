@@ -0,0 +1,278 @@
+package com.bohdansavshak.repository;
+
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+// Bulk reads and writes for index snapshots: a streamed, consistent read of the vector tables and page metadata,
+// and binary COPY into a vector table, which skips SQL parsing and the embedding model altogether
+@Repository
+public class VectorSnapshotRepository {
+    private static final String PAGES_SQL = """
+            SELECT confluence_page_id, title, content, space_key, space_name, parent_page_id, version
+            FROM document_embeddings
+            """;
+    // Page metadata of a snapshot being imported; it replaces document_embeddings only once the vectors are switched
+    private static final String CREATE_STAGING_SQL = """
+            CREATE UNLOGGED TABLE document_embeddings_import (
+                confluence_page_id text PRIMARY KEY,
+                title text,
+                content text,
+                space_key text,
+                space_name text,
+                parent_page_id text,
+                version int)
+            """;
+    private static final String STAGE_PAGE_SQL = """
+            INSERT INTO document_embeddings_import
+                (confluence_page_id, title, content, space_key, space_name, parent_page_id, version)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (confluence_page_id) DO UPDATE SET
+                title = EXCLUDED.title,
+                content = EXCLUDED.content,
+                space_key = EXCLUDED.space_key,
+                space_name = EXCLUDED.space_name,
+                parent_page_id = EXCLUDED.parent_page_id,
+                version = EXCLUDED.version
+            """;
+    private static final String APPLY_STAGED_SQL = """
+            INSERT INTO document_embeddings
+                (id, confluence_page_id, title, content, space_key, space_name, version, parent_page_id, created_at, updated_at)
+            SELECT nextval('document_embeddings_seq'), confluence_page_id, title, content, space_key, space_name, version,
+                parent_page_id, ?, ?
+            FROM document_embeddings_import
+            ON CONFLICT (confluence_page_id) DO UPDATE SET
+                title = EXCLUDED.title,
+                content = EXCLUDED.content,
+                space_key = EXCLUDED.space_key,
+                space_name = EXCLUDED.space_name,
+                version = EXCLUDED.version,
+                parent_page_id = EXCLUDED.parent_page_id,
+                updated_at = EXCLUDED.updated_at
+            """;
+    // Tombstones let other instances drop the deleted pages from their catalogs
+    private static final String DELETE_UNSTAGED_SQL = """
+            WITH deleted AS (
+                DELETE FROM document_embeddings d
+                WHERE NOT EXISTS (SELECT 1 FROM document_embeddings_import i WHERE i.confluence_page_id = d.confluence_page_id)
+                RETURNING d.confluence_page_id)
+            INSERT INTO document_embeddings_deletions (confluence_page_id, deleted_at)
+            SELECT confluence_page_id, ? FROM deleted
+            """;
+    // Advisory lock key ("snapshot")
+    private static final long IMPORT_LOCK = 0x736e617073686f74L;
+    private static final byte[] COPY_SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    public interface ChunkConsumer {
+        void accept(IndexSnapshot.Chunk chunk) throws IOException;
+    }
+
+    public interface PageConsumer {
+        void accept(IndexSnapshot.Page page) throws IOException;
+    }
+
+    public interface ImportAction<T> {
+        T run() throws IOException;
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingTemplate;
+    private final TransactionTemplate snapshotTransaction;
+    private final TransactionTemplate writeTransaction;
+
+    public VectorSnapshotRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        // The driver only streams results with a fetch size inside a transaction; otherwise it buffers every row
+        this.streamingTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingTemplate.setFetchSize(1000);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTransaction.setReadOnly(true);
+        this.writeTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    // Vectors and pages are read from the same database snapshot, so concurrent ingestion can't make them disagree
+    public void read(List<String> tables, ChunkConsumer chunks, PageConsumer pages) {
+        String chunksSql = tables.stream()
+                .map(table -> "SELECT id, content, metadata::text AS metadata, embedding::real[] AS embedding FROM " + table)
+                .collect(Collectors.joining(" UNION ALL "));
+
+        snapshotTransaction.executeWithoutResult(status -> {
+            streamingTemplate.query(chunksSql, (RowCallbackHandler) rs -> {
+                Array array = rs.getArray("embedding");
+                Float[] values = (Float[]) array.getArray();
+                float[] embedding = new float[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    embedding[i] = values[i];
+                }
+                array.free();
+                IndexSnapshot.Chunk chunk = new IndexSnapshot.Chunk(rs.getObject("id", UUID.class), rs.getString("content"),
+                        rs.getString("metadata"), embedding);
+                write(() -> chunks.accept(chunk));
+            });
+            streamingTemplate.query(PAGES_SQL, (RowCallbackHandler) rs -> {
+                IndexSnapshot.Page page = new IndexSnapshot.Page(rs.getString("confluence_page_id"), rs.getString("title"),
+                        rs.getString("content"), rs.getString("space_key"), rs.getString("space_name"),
+                        rs.getString("parent_page_id"), rs.getObject("version", Integer.class));
+                write(() -> pages.accept(page));
+            });
+        });
+    }
+
+    public boolean isEmpty(List<String> tables) {
+        for (String table : tables) {
+            Boolean rows = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM " + table + ")", Boolean.class);
+            if (Boolean.TRUE.equals(rows)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs the action while holding a session advisory lock on one pooled connection, so imports (and the
+    // emptiness check before a bootstrap) run on one instance at a time
+    public <T> T withImportLock(ImportAction<T> action) throws IOException {
+        try {
+            return jdbcTemplate.execute((ConnectionCallback<T>) connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT pg_advisory_lock(" + IMPORT_LOCK + ")");
+                }
+                try {
+                    return action.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SELECT pg_advisory_unlock(" + IMPORT_LOCK + ")");
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void beginPageImport() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS document_embeddings_import");
+        jdbcTemplate.execute(CREATE_STAGING_SQL);
+    }
+
+    public void stagePages(List<IndexSnapshot.Page> pages) {
+        if (pages.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(STAGE_PAGE_SQL, pages, pages.size(), (ps, page) -> {
+            ps.setString(1, page.pageId());
+            ps.setString(2, page.title());
+            ps.setString(3, page.content());
+            ps.setString(4, page.spaceKey());
+            ps.setString(5, page.spaceName());
+            ps.setString(6, page.parentPageId());
+            ps.setObject(7, page.version(), Types.INTEGER);
+        });
+    }
+
+    // Replaces document_embeddings with the staged pages in one transaction; rows the snapshot doesn't have are deleted
+    public void commitPageImport() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        writeTransaction.executeWithoutResult(status -> {
+            jdbcTemplate.update(APPLY_STAGED_SQL, now, now);
+            jdbcTemplate.update(DELETE_UNSTAGED_SQL, now);
+        });
+        jdbcTemplate.execute("DROP TABLE IF EXISTS document_embeddings_import");
+    }
+
+    public void abortPageImport() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS document_embeddings_import");
+    }
+
+    // One binary COPY per call; rows use PostgreSQL's binary send formats (uuid, text, json as text, pgvector's
+    // int16 dimensions + int16 unused + float4 values), all big-endian
+    public void copy(String table, List<IndexSnapshot.Chunk> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        byte[] data = encode(chunks);
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "COPY " + table + " (id, content, metadata, embedding) FROM STDIN WITH (FORMAT binary)",
+                        new ByteArrayInputStream(data));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static byte[] encode(List<IndexSnapshot.Chunk> chunks) {
+        int dimensions = chunks.getFirst().embedding().length;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunks.size() * (dimensions * 4 + 512));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(COPY_SIGNATURE);
+            out.writeInt(0);
+            out.writeInt(0);
+            for (IndexSnapshot.Chunk chunk : chunks) {
+                out.writeShort(4);
+                out.writeInt(16);
+                out.writeLong(chunk.id().getMostSignificantBits());
+                out.writeLong(chunk.id().getLeastSignificantBits());
+                writeText(out, chunk.content());
+                writeText(out, chunk.metadata());
+                out.writeInt(4 + dimensions * 4);
+                out.writeShort(dimensions);
+                out.writeShort(0);
+                for (float value : chunk.embedding()) {
+                    out.writeFloat(value);
+                }
+            }
+            out.writeShort(-1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static void write(IoAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.bohdansavshak.service;
+
+public class AdmissionRejectedException extends RuntimeException {
+    private final boolean queueFull;
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, boolean queueFull, long retryAfterSeconds) {
+        super(message);
+        this.queueFull = queueFull;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    // true when rejected on arrival (too many requests), false when the wait for a slot timed out (overloaded)
+    public boolean isQueueFull() {
+        return queueFull;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,200 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.model.ConfluenceAttachment;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class AttachmentIngestionService {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentIngestionService.class);
+
+    private final ConfluenceClient confluenceClient;
+    private final EmbeddingService embeddingService;
+    private final AttachmentTextExtractor attachmentTextExtractor;
+    private final IngestionProperties ingestionProperties;
+    private final RagMetrics ragMetrics;
+    private final ObservationRegistry observationRegistry;
+    private final IngestionJournalRepository journal;
+    private final ThreadPoolExecutor executor;
+    // Submitted and not finished; counted around the task, so a task between the queue and a worker is included
+    private final AtomicInteger pending = new AtomicInteger();
+    // Pages whose attachments were rejected or failed, and attachments that failed, since startup
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public AttachmentIngestionService(ConfluenceClient confluenceClient,
+                                      EmbeddingService embeddingService,
+                                      AttachmentTextExtractor attachmentTextExtractor,
+                                      IngestionProperties ingestionProperties,
+                                      RagMetrics ragMetrics,
+                                      ObservationRegistry observationRegistry,
+                                      IngestionJournalRepository journal) {
+        this.confluenceClient = confluenceClient;
+        this.embeddingService = embeddingService;
+        this.attachmentTextExtractor = attachmentTextExtractor;
+        this.ingestionProperties = ingestionProperties;
+        this.ragMetrics = ragMetrics;
+        this.observationRegistry = observationRegistry;
+        this.journal = journal;
+
+        // Bounded pool and queue of its own: slow downloads or huge documents only ever occupy these workers. A full
+        // queue makes the submitter wait for room instead of dropping the page's attachments.
+        this.executor = new ThreadPoolExecutor(
+                ingestionProperties.getAttachmentWorkers(),
+                ingestionProperties.getAttachmentWorkers(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(ingestionProperties.getAttachmentQueueCapacity()),
+                new CustomizableThreadFactory("attachment-ingest-"),
+                AttachmentIngestionService::waitForRoom);
+    }
+
+    // The page's attachments are listed and processed on the attachment pool; the caller only waits while
+    // ingestion.attachment-queue-capacity tasks are queued already, which slows a crawl down to the pace the pool
+    // keeps up with. The intent is journaled first, so attachments still queued or in progress when the process
+    // stops are picked up again. Pages the listing reported without attachments are skipped.
+    public void submit(ConfluencePage page) {
+        if (!ingestionProperties.isAttachmentsEnabled()) {
+            return;
+        }
+        if (page.getAttachmentCount() != null && page.getAttachmentCount() == 0) {
+            return;
+        }
+        journal.recordPending(List.of(new IngestionJournalRepository.Entry(page.getId(),
+                IngestionJournalRepository.KIND_ATTACHMENTS, IngestionJournalRepository.UPSERT, null)));
+
+        // Keep only what the task needs, so queued tasks don't pin page bodies in memory
+        ConfluencePage parent = new ConfluencePage();
+        parent.setId(page.getId());
+        parent.setTitle(page.getTitle());
+        parent.setSpace(page.getSpace());
+
+        // Attachment work stays in the submitting crawl's trace even though it runs later on the pool
+        Observation observation = Observation.createNotStarted("rag.ingestion.attachments", observationRegistry)
+                .parentObservation(observationRegistry.getCurrentObservation())
+                .highCardinalityKeyValue("page.id", String.valueOf(page.getId()));
+
+        pending.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    observation.observe(() -> processAttachments(parent));
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Only while shutting down; the pending journal entry makes another run pick the page up
+            pending.decrementAndGet();
+            failedCount.incrementAndGet();
+            logger.warn("Attachment pool is stopped, leaving attachments of page {} to the journal replay", page.getId());
+        }
+    }
+
+    private static void waitForRoom(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Attachment pool is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in the attachment queue", e);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void processAttachments(ConfluencePage page) {
+        try {
+            List<ConfluenceAttachment> attachments = confluenceClient.getAttachments(page.getId());
+            for (ConfluenceAttachment attachment : attachments) {
+                if (isSupported(attachment)) {
+                    processAttachment(page, attachment);
+                }
+            }
+            journal.markApplied(IngestionJournalRepository.KIND_ATTACHMENTS, List.of(page.getId()));
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            logger.error("Error processing attachments of page {}: {}", page.getId(), e.getMessage(), e);
+        }
+    }
+
+    private boolean isSupported(ConfluenceAttachment attachment) {
+        if (attachment.getDownloadPath() == null || attachment.getMediaType() == null) {
+            return false;
+        }
+        if (!ingestionProperties.getAttachmentMediaTypes().contains(attachment.getMediaType())) {
+            return false;
+        }
+        if (attachment.getFileSize() > ingestionProperties.getAttachmentMaxBytes()) {
+            logger.info("Skipping attachment {} - {}: {} bytes exceeds limit",
+                    attachment.getId(), attachment.getTitle(), attachment.getFileSize());
+            return false;
+        }
+        return true;
+    }
+
+    private void processAttachment(ConfluencePage page, ConfluenceAttachment attachment) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("confluence-attachment-", ".tmp");
+            long downloadStart = System.nanoTime();
+            confluenceClient.downloadAttachment(attachment, file, ingestionProperties.getAttachmentMaxBytes());
+            ragMetrics.recordIngestionStage("attachment-download", 1, downloadStart);
+
+            long extractStart = System.nanoTime();
+            String text = attachmentTextExtractor.extract(file, attachment.getMediaType(), ingestionProperties.getAttachmentMaxChars());
+            ragMetrics.recordIngestionStage("attachment-extract", 1, extractStart);
+            if (text.isEmpty()) {
+                logger.warn("No content found for attachment: {} - {}", attachment.getId(), attachment.getTitle());
+                return;
+            }
+
+            embeddingService.processAndStoreAttachment(page, attachment, text);
+
+        } catch (AttachmentTooLargeException e) {
+            logger.info("Skipping attachment {} - {}: download exceeds {} bytes",
+                    attachment.getId(), attachment.getTitle(), ingestionProperties.getAttachmentMaxBytes());
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            logger.error("Error processing attachment {} of page {}: {}", attachment.getId(), page.getId(), e.getMessage(), e);
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    logger.warn("Could not delete temporary file {}: {}", file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package com.bohdansavshak.service;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+
+@Component
+public class AttachmentTextExtractor {
+    private final Parser parser = new AutoDetectParser();
+
+    // Reads from the file through TikaInputStream, so parsers that need random access (PDF, OLE2) work on the
+    // file instead of loading it. The text handler stops the parse once maxChars have been written.
+    public String extract(Path file, String mediaType, int maxChars) throws IOException {
+        StringWriter writer = new StringWriter();
+        Metadata metadata = new Metadata();
+        if (mediaType != null) {
+            metadata.set(Metadata.CONTENT_TYPE, mediaType);
+        }
+
+        try (TikaInputStream stream = TikaInputStream.get(file, metadata)) {
+            parser.parse(stream, new BodyContentHandler(new WriteOutContentHandler(writer, maxChars)), metadata, new ParseContext());
+        } catch (SAXException e) {
+            if (!WriteLimitReachedException.isWriteLimitReached(e)) {
+                throw new IOException("Failed to extract text from " + file.getFileName() + ": " + e.getMessage(), e);
+            }
+        } catch (TikaException e) {
+            throw new IOException("Failed to extract text from " + file.getFileName() + ": " + e.getMessage(), e);
+        }
+
+        return writer.toString().replaceAll("\\n{3,}", "\n\n").trim();
+    }
+}
@@ -0,0 +1,14 @@
+package com.bohdansavshak.service;
+
+public class AttachmentTooLargeException extends RuntimeException {
+    private final String attachmentId;
+
+    public AttachmentTooLargeException(String attachmentId, long maxBytes) {
+        super("Attachment " + attachmentId + " is larger than " + maxBytes + " bytes");
+        this.attachmentId = attachmentId;
+    }
+
+    public String getAttachmentId() {
+        return attachmentId;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.BatchProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+// Answers many independent questions as a pipeline: all questions are embedded in one model call, searches run
+// chat.batch.search-concurrency at a time and keep ahead of generation, and generation-concurrency answers are
+// generated or waiting for an admission slot at any moment, so the model always has the next prompt ready.
+// Answers are emitted as they finish, each with the index of its question.
+@Service
+public class BatchAnswerService {
+    private static final Logger logger = LoggerFactory.getLogger(BatchAnswerService.class);
+
+    public record BatchAnswer(int index, String question, String answer, List<RagService.SourcePage> sourcePages,
+                              String error, long millis) {
+    }
+
+    private record Retrieved(int index, String question, List<Document> documents, String error, long startNanos) {
+    }
+
+    private final RagService ragService;
+    private final PrecomputedEmbeddingModel embeddingModel;
+    private final ChatAdmissionService admissionService;
+    private final BatchProperties properties;
+    private final Semaphore runningBatches;
+
+    public BatchAnswerService(RagService ragService, PrecomputedEmbeddingModel embeddingModel,
+                              ChatAdmissionService admissionService, BatchProperties properties) {
+        this.ragService = ragService;
+        this.embeddingModel = embeddingModel;
+        this.admissionService = admissionService;
+        this.properties = properties;
+        this.runningBatches = new Semaphore(properties.getMaxConcurrentBatches());
+    }
+
+    // The size is checked here, the number of running batches once the response subscribes, so a batch that is
+    // never subscribed holds no slot. Both are rejected before the first answer line is written.
+    public Flux<BatchAnswer> answerAll(List<String> questions, String spaceKey, String clientId) {
+        if (questions == null || questions.isEmpty()) {
+            throw new IllegalArgumentException("Questions cannot be empty");
+        }
+        if (questions.size() > properties.getMaxQuestions()) {
+            throw new IllegalArgumentException("At most " + properties.getMaxQuestions() + " questions per batch");
+        }
+
+        return Flux.defer(() -> {
+            if (!runningBatches.tryAcquire()) {
+                return Flux.error(new AdmissionRejectedException("Too many batches running, please retry later", true, 60));
+            }
+
+            long startNanos = System.nanoTime();
+            logger.info("Answering batch of {} questions", questions.size());
+            List<String> queries = questions.stream().filter(question -> question != null && !question.isBlank()).toList();
+            return Mono.fromRunnable(() -> embeddingModel.precompute(queries))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .thenMany(Flux.range(0, questions.size()))
+                    .flatMap(index -> retrieve(index, questions.get(index), spaceKey), properties.getSearchConcurrency())
+                    .flatMap(retrieved -> generate(retrieved, clientId), properties.getGenerationConcurrency())
+                    .doFinally(signal -> {
+                        embeddingModel.forget(queries);
+                        runningBatches.release();
+                        logger.info("Batch of {} questions ended ({}) after {} ms", questions.size(), signal,
+                                (System.nanoTime() - startNanos) / 1_000_000);
+                    });
+        });
+    }
+
+    private Mono<Retrieved> retrieve(int index, String question, String spaceKey) {
+        long startNanos = System.nanoTime();
+        if (question == null || question.isBlank()) {
+            return Mono.just(new Retrieved(index, question, null, "Question cannot be empty", startNanos));
+        }
+        return Mono.fromCallable(() -> new Retrieved(index, question, ragService.retrieve(question, spaceKey), null, startNanos))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(error -> Mono.just(new Retrieved(index, question, null,
+                        "Retrieval failed: " + error.getMessage(), startNanos)));
+    }
+
+    // Generation takes a BATCH admission slot like any other answer, so interactive users go first. A full queue
+    // or a timed-out wait is retried every admission-retry-delay; only after max-admission-wait does the question fail.
+    private Mono<BatchAnswer> generate(Retrieved retrieved, String clientId) {
+        if (retrieved.error() != null) {
+            return Mono.just(failed(retrieved, retrieved.error()));
+        }
+        long deadline = System.nanoTime() + properties.getMaxAdmissionWait().toNanos();
+        Mono<ChatAdmissionService.Permit> admission = Mono.defer(() ->
+                        admissionService.awaitPermit(admissionService.enqueue(clientId, ChatAdmissionService.Priority.BATCH)))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, properties.getAdmissionRetryDelay())
+                        .filter(error -> error instanceof AdmissionRejectedException && System.nanoTime() < deadline));
+        return Mono.usingWhen(admission,
+                        permit -> Mono.fromCallable(() -> ragService.answerFromContext(retrieved.question(), retrieved.documents()))
+                                .subscribeOn(Schedulers.boundedElastic()),
+                        permit -> Mono.fromRunnable(permit::close))
+                .map(response -> new BatchAnswer(retrieved.index(), retrieved.question(), response.getAnswer(),
+                        response.getSourcePages(), null, elapsedMillis(retrieved)))
+                .onErrorResume(error -> Mono.just(failed(retrieved, "Generation failed: " + error.getMessage())));
+    }
+
+    private static BatchAnswer failed(Retrieved retrieved, String error) {
+        return new BatchAnswer(retrieved.index(), retrieved.question(), null, List.of(), error, elapsedMillis(retrieved));
+    }
+
+    private static long elapsedMillis(Retrieved retrieved) {
+        return (System.nanoTime() - retrieved.startNanos()) / 1_000_000;
+    }
+}
@@ -0,0 +1,224 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.AdmissionProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Admission control in front of generation: at most chat.admission.max-concurrent requests hold a slot, up to
+// max-queued wait for one, and the rest are rejected on arrival. Waiting requests are served by priority, and
+// round-robin between clients within a priority, so one client's burst cannot starve everyone else.
+@Service
+public class ChatAdmissionService {
+    private static final Logger logger = LoggerFactory.getLogger(ChatAdmissionService.class);
+    // Until the first slots are released, Retry-After assumes a generation takes this long
+    private static final double INITIAL_HOLD_SECONDS = 5;
+
+    public enum Priority {
+        INTERACTIVE, // streaming answers a user is watching
+        STANDARD,    // blocking /ask
+        BATCH        // retrieval-only calls
+    }
+
+    private final AdmissionProperties properties;
+    private final RagMetrics ragMetrics;
+    private final List<LinkedHashMap<String, ArrayDeque<Ticket>>> waiting = new ArrayList<>();
+    private int inFlight = 0;
+    private int queued = 0;
+    // Moving average over released permits; guarded by the service lock like the counters
+    private double averageHoldSeconds = INITIAL_HOLD_SECONDS;
+
+    public ChatAdmissionService(AdmissionProperties properties, RagMetrics ragMetrics) {
+        this.properties = properties;
+        this.ragMetrics = ragMetrics;
+        for (int i = 0; i < Priority.values().length; i++) {
+            waiting.add(new LinkedHashMap<>());
+        }
+        ragMetrics.registerGauge("rag.admission.in_flight", this::getInFlightCount);
+        ragMetrics.registerGauge("rag.admission.queued", this::getQueuedCount);
+    }
+
+    // Blocks the calling thread until a slot is free or chat.admission.max-wait has passed
+    public Permit acquire(String clientId, Priority priority) {
+        Ticket ticket = enqueue(clientId, priority);
+        try {
+            return ticket.future.get(properties.getMaxWait().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            ticket.cancel();
+            throw timedOut(priority);
+        } catch (InterruptedException e) {
+            ticket.cancel();
+            Thread.currentThread().interrupt();
+            throw timedOut(priority);
+        } catch (ExecutionException e) {
+            ticket.cancel();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Non-blocking variant for streaming responses: enqueue() rejects a full queue before the response starts,
+    // awaitPermit() then waits without holding a thread
+    public Ticket enqueue(String clientId, Priority priority) {
+        Ticket ticket = new Ticket(clientId, priority);
+        Permit granted = null;
+
+        synchronized (this) {
+            if (inFlight < properties.getMaxConcurrent() && queued == 0) {
+                inFlight++;
+                granted = ticket.grant();
+            } else {
+                ArrayDeque<Ticket> clientQueue = waiting.get(priority.ordinal()).get(clientId);
+                int clientQueued = clientQueue != null ? clientQueue.size() : 0;
+                if (queued >= properties.getMaxQueued() || clientQueued >= properties.getMaxQueuedPerClient()) {
+                    ragMetrics.countAdmissionRejected(priority.name(), "queue_full");
+                    throw new AdmissionRejectedException("Too many pending requests, please retry later", true, retryAfterSeconds());
+                }
+                waiting.get(priority.ordinal()).computeIfAbsent(clientId, key -> new ArrayDeque<>()).add(ticket);
+                queued++;
+            }
+        }
+
+        if (granted != null) {
+            ticket.future.complete(granted);
+        }
+        return ticket;
+    }
+
+    public Mono<Permit> awaitPermit(Ticket ticket) {
+        // Cancellation is handled by the ticket, which also releases a slot granted in the meantime
+        return Mono.fromFuture(ticket.future, true)
+                .doOnCancel(ticket::cancel)
+                .timeout(properties.getMaxWait())
+                .onErrorMap(TimeoutException.class, e -> timedOut(ticket.priority));
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    private void release(Permit permit) {
+        double heldSeconds = (System.nanoTime() - permit.grantedNanos) / 1e9;
+
+        Ticket next;
+        Permit granted = null;
+        synchronized (this) {
+            averageHoldSeconds = 0.8 * averageHoldSeconds + 0.2 * heldSeconds;
+            next = pollNext();
+            if (next == null) {
+                inFlight--;
+            } else {
+                // The slot passes straight to the next waiter
+                granted = next.grant();
+            }
+        }
+
+        if (next != null) {
+            next.future.complete(granted);
+        }
+    }
+
+    // Highest priority first; within a priority the client at the head is served once and moved to the back
+    private Ticket pollNext() {
+        for (LinkedHashMap<String, ArrayDeque<Ticket>> clients : waiting) {
+            Iterator<Map.Entry<String, ArrayDeque<Ticket>>> iterator = clients.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, ArrayDeque<Ticket>> client = iterator.next();
+            iterator.remove();
+            Ticket ticket = client.getValue().poll();
+            if (!client.getValue().isEmpty()) {
+                clients.put(client.getKey(), client.getValue());
+            }
+            queued--;
+            return ticket;
+        }
+        return null;
+    }
+
+    private AdmissionRejectedException timedOut(Priority priority) {
+        ragMetrics.countAdmissionRejected(priority.name(), "timeout");
+        logger.warn("Request waited {} for a generation slot, rejecting", properties.getMaxWait());
+        return new AdmissionRejectedException("The service is busy, please retry later", false, retryAfterSeconds());
+    }
+
+    // Time for everything ahead of a new request to drain at the current concurrency
+    private long retryAfterSeconds() {
+        double seconds;
+        synchronized (this) {
+            seconds = averageHoldSeconds * (queued + inFlight) / Math.max(1, properties.getMaxConcurrent());
+        }
+        return Math.max(1, (long) Math.ceil(seconds));
+    }
+
+    public final class Ticket {
+        private final String clientId;
+        private final Priority priority;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private Permit permit;
+
+        private Ticket(String clientId, Priority priority) {
+            this.clientId = clientId;
+            this.priority = priority;
+        }
+
+        // Called with the service lock held
+        private Permit grant() {
+            ragMetrics.recordAdmissionWait(priority.name(), enqueuedNanos);
+            permit = new Permit();
+            return permit;
+        }
+
+        // Leaves the queue; if a slot was granted concurrently, it is given back
+        void cancel() {
+            Permit granted;
+            synchronized (ChatAdmissionService.this) {
+                ArrayDeque<Ticket> clientQueue = waiting.get(priority.ordinal()).get(clientId);
+                if (clientQueue != null && clientQueue.remove(this)) {
+                    if (clientQueue.isEmpty()) {
+                        waiting.get(priority.ordinal()).remove(clientId);
+                    }
+                    queued--;
+                    return;
+                }
+                granted = permit;
+            }
+            if (granted != null) {
+                granted.close();
+            }
+        }
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final long grantedNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ChatRoutingProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+// Sends short lookup questions ("where is the VPN guide?") to a smaller model and everything else, including any
+// question asking for synthesis, to spring.ai.ollama.chat.model
+@Component
+public class ChatModelRouter {
+    private final ChatRoutingProperties properties;
+
+    public ChatModelRouter(ChatRoutingProperties properties) {
+        this.properties = properties;
+    }
+
+    // The model to use instead of the default, or null to keep the default
+    public String route(String question) {
+        if (!properties.isEnabled() || question == null) {
+            return null;
+        }
+
+        String[] words = question.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        int wordCount = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (properties.getSynthesisKeywords().contains(word)) {
+                return null;
+            }
+            wordCount++;
+        }
+        return wordCount <= properties.getMaxFastWords() ? properties.getFastModel() : null;
+    }
+}
@@ -1,127 +1,440 @@
 package com.bohdansavshak.service;
 
 import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.model.ConfluenceAttachment;
 import com.bohdansavshak.model.ConfluencePage;
-import com.bohdansavshak.model.ConfluenceResponse;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 @Service
 public class ConfluenceClient {
     private static final Logger logger = LoggerFactory.getLogger(ConfluenceClient.class);
-    private final RestTemplate restTemplate;
+    private static final String CONTENT_ENDPOINT = "/rest/api/content";
+    // children.attachment tells which pages have attachments, so the others never get a listing request
+    private static final String PAGE_EXPAND = "body.storage,space,version,children.attachment";
+    // Enough to enqueue a page for ingestion without transferring its body
+    private static final String SUMMARY_EXPAND = "space,version";
+
+    private final HttpClient httpClient;
     private final ConfluenceProperties confluenceProperties;
-    private final HttpEntity<String> httpEntity;
+    private final ConfluenceContentParser contentParser;
+    private final ObservationRegistry observationRegistry;
+    private final String authorizationHeader;
+    // Closes response bodies that stall; see DeadlineInputStream
+    private final ScheduledExecutorService bodyWatchdog =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("confluence-body-watchdog-"));
 
-    public ConfluenceClient(ConfluenceProperties confluenceProperties) {
+    public ConfluenceClient(ConfluenceProperties confluenceProperties, ConfluenceContentParser contentParser,
+                            ObservationRegistry observationRegistry) {
         this.confluenceProperties = confluenceProperties;
-        this.restTemplate = new RestTemplate();
+        this.contentParser = contentParser;
+        this.observationRegistry = observationRegistry;
+
+        // The JDK client keeps connections alive and pools them per host. Over TLS, HTTP/2 is negotiated via ALPN
+        // and multiplexes concurrent space crawls over one connection when the server supports it; plain http stays
+        // on HTTP/1.1, since servers behind a TLS-terminating proxy often mishandle the h2c upgrade request
+        boolean tls = confluenceProperties.getBaseUrl() != null && confluenceProperties.getBaseUrl().startsWith("https:");
+        this.httpClient = HttpClient.newBuilder()
+                .version(tls ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(confluenceProperties.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
 
         String auth = confluenceProperties.getUsername() + ":" + confluenceProperties.getPassword();
         String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+        this.authorizationHeader = "Basic " + encodedAuth;
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.AUTHORIZATION, "Basic " + encodedAuth);
-        headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+    public void forEachPage(Consumer<ConfluencePage> consumer) {
+        forEachPage(PAGE_EXPAND, consumer, CrawlCursor.NONE);
+    }
+
+    public void forEachPage(Consumer<ConfluencePage> consumer, CrawlCursor cursor) {
+        forEachPage(PAGE_EXPAND, consumer, cursor);
+    }
 
-        this.httpEntity = new HttpEntity<>(headers);
+    // Pages with id, title, space and version only; bodies are fetched later with getPages
+    public void forEachPageSummary(Consumer<ConfluencePage> consumer) {
+        forEachPage(SUMMARY_EXPAND, consumer, CrawlCursor.NONE);
     }
 
-    public List<ConfluencePage> getAllPages() {
+    private void forEachPage(String expand, Consumer<ConfluencePage> consumer, CrawlCursor cursor) {
         if (confluenceProperties.getSpaceKeys() != null && !confluenceProperties.getSpaceKeys().isEmpty()) {
-            String[] spaceKeys = confluenceProperties.getSpaceKeys().split(",");
-            List<ConfluencePage> allPages = new ArrayList<>();
-            for (String spaceKey : spaceKeys) {
-                allPages.addAll(getPagesFromSpace(spaceKey.trim()));
+            // Spaces are crawled concurrently; pages within a space are fetched in offset order
+            List<CompletableFuture<Integer>> crawls = Arrays.stream(confluenceProperties.getSpaceKeys().split(","))
+                    .map(String::trim)
+                    .map(spaceKey -> streamPagesFromSpace(spaceKey, expand, consumer, cursor))
+                    .toList();
+
+            for (CompletableFuture<Integer> crawl : crawls) {
+                await(crawl);
             }
-            return allPages;
         } else {
-            return getAllPagesFromAllSpaces();
+            await(streamPagesFromAllSpaces(expand, consumer, cursor));
         }
     }
 
-    private List<ConfluencePage> getPagesFromSpace(String spaceKey) {
-        logger.info("Fetching pages from space: {}", spaceKey);
-        return fetchPagesIteratively("/rest/api/content", "space=" + spaceKey, 0);
+    public void forEachPageInSpace(String spaceKey, Consumer<ConfluencePage> consumer) {
+        forEachPageInSpace(spaceKey, consumer, CrawlCursor.NONE);
     }
 
-    private List<ConfluencePage> getAllPagesFromAllSpaces() {
-        logger.info("Fetching pages from all spaces");
-        return fetchPagesIteratively("/rest/api/content", "type=page", 0);
+    public void forEachPageInSpace(String spaceKey, Consumer<ConfluencePage> consumer, CrawlCursor cursor) {
+        await(streamPagesFromSpace(spaceKey, PAGE_EXPAND, consumer, cursor));
     }
 
-    private List<ConfluencePage> fetchPagesIteratively(String endpoint, String query, int start) {
-        List<ConfluencePage> allPages = new ArrayList<>();
-        int currentStart = start;
+    public void forEachPageSummaryInSpace(String spaceKey, Consumer<ConfluencePage> consumer) {
+        await(streamPagesFromSpace(spaceKey, SUMMARY_EXPAND, consumer, CrawlCursor.NONE));
+    }
 
-        while (true) {
-            try {
-                String url = confluenceProperties.getBaseUrl() + endpoint + "?expand=body.storage,space&" + query + "&start=" + currentStart + "&limit=50";
-
-                ResponseEntity<ConfluenceResponse> response = restTemplate.exchange(
-                        url,
-                        HttpMethod.GET,
-                        httpEntity,
-                        ConfluenceResponse.class
-                );
-
-                ConfluenceResponse confluenceResponse = response.getBody();
-                if (confluenceResponse == null || confluenceResponse.getResults() == null) {
-                    break;
-                }
+    private CompletableFuture<Integer> streamPagesFromSpace(String spaceKey, String expand, Consumer<ConfluencePage> consumer,
+                                                            CrawlCursor cursor) {
+        String query = "space=" + spaceKey;
+        int start = resumeOffset(cursor, query);
+        logger.info("Fetching pages from space: {}{}", spaceKey, start > 0 ? " starting at " + start : "");
+        return streamPagesFrom(query, expand, start, 0, consumer, cursor, observationRegistry.getCurrentObservation());
+    }
+
+    // Pages deleted since the offset was saved shift later pages forward, so one page of results is listed again;
+    // pages listed twice are skipped by the resumed run
+    private int resumeOffset(CrawlCursor cursor, String query) {
+        return Math.max(0, cursor.startOf(query) - confluenceProperties.getPageSize());
+    }
 
-                List<ConfluencePage> pages = confluenceResponse.getResults();
-                logger.debug("Fetched {} pages, start: {}", confluenceResponse.getSize(), confluenceResponse.getStart());
+    private CompletableFuture<Integer> streamPagesFromAllSpaces(String expand, Consumer<ConfluencePage> consumer,
+                                                                CrawlCursor cursor) {
+        String query = "type=page";
+        int start = resumeOffset(cursor, query);
+        logger.info("Fetching pages from all spaces{}", start > 0 ? " starting at " + start : "");
+        return streamPagesFrom(query, expand, start, 0, consumer, cursor, observationRegistry.getCurrentObservation());
+    }
 
-                allPages.addAll(pages);
+    // Each results page (confluence.page-size pages) is read in full before its pages are handed to the consumer.
+    // The consumer may be called from several crawl threads at once.
+    public CompletableFuture<Integer> streamPagesIteratively(String query, int start, Consumer<ConfluencePage> consumer) {
+        // Later offsets are requested from HTTP client threads, so the caller's observation is carried along explicitly
+        return streamPagesFrom(query, PAGE_EXPAND, start, 0, consumer, CrawlCursor.NONE, observationRegistry.getCurrentObservation());
+    }
 
-                // If we got a full page of results, there might be more
-                if (confluenceResponse.getSize() == 50) {
-                    currentStart += 50;
-                } else {
-                    break;
-                }
+    private CompletableFuture<Integer> streamPagesFrom(String query, String expand, int start, int fetchedSoFar,
+                                                       Consumer<ConfluencePage> consumer, CrawlCursor cursor,
+                                                       Observation parent) {
+        int pageSize = confluenceProperties.getPageSize();
+        URI uri = URI.create(confluenceProperties.getBaseUrl() + CONTENT_ENDPOINT + "?expand=" + expand + "&" + query
+                + "&start=" + start + "&limit=" + pageSize);
 
-            } catch (Exception error) {
-                logger.error("Error fetching pages: {}", error.getMessage());
-                break;
-            }
-        }
+        return get("content", uri, ConfluenceClient.this::readPages, parent)
+                .exceptionally(error -> {
+                    // Retries are exhausted; report the offset so the crawl can be resumed from it
+                    throw new ConfluenceFetchException(query, start, unwrap(error));
+                })
+                .thenApply(pages -> {
+                    // The body is closed by now, so a consumer that embeds (and blocks other crawls on its lock) never
+                    // holds a connection open; running it in the parent's scope keeps its spans in the same trace
+                    try (Observation.Scope scope = parent != null ? parent.openScope() : null) {
+                        pages.forEach(consumer);
+                    }
+                    return pages.size();
+                })
+                .thenCompose(count -> {
+                    logger.debug("Fetched {} pages, start: {}", count, start);
 
-        return allPages;
+                    // If we got a full page of results, there might be more
+                    if (count == pageSize) {
+                        // Every page before the next offset has been handed to the consumer
+                        cursor.advance(query, start + pageSize);
+                        return streamPagesFrom(query, expand, start + pageSize, fetchedSoFar + count, consumer, cursor, parent);
+                    }
+                    return CompletableFuture.completedFuture(fetchedSoFar + count);
+                });
     }
 
     public ConfluencePage getPageById(String pageId) {
         try {
-            String url = confluenceProperties.getBaseUrl() + "/rest/api/content/" + pageId + "?expand=body.storage,space";
-
-            ResponseEntity<ConfluencePage> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    httpEntity,
-                    ConfluencePage.class
-            );
+            return findPageById(pageId).orElse(null);
+        } catch (Exception error) {
+            logger.error("Error fetching page {}: {}", pageId, error.getMessage());
+            return null;
+        }
+    }
 
-            ConfluencePage page = response.getBody();
+    // Empty when Confluence answers 404: the page was deleted or trashed, or this user can no longer see it. Any
+    // other failure is thrown, so a page that is gone can be told apart from one that could not be fetched.
+    public Optional<ConfluencePage> findPageById(String pageId) {
+        URI uri = URI.create(confluenceProperties.getBaseUrl() + CONTENT_ENDPOINT + "/" + pageId + "?expand=" + PAGE_EXPAND);
+        try {
+            ConfluencePage page = get("page", uri, contentParser::parsePage, observationRegistry.getCurrentObservation()).join();
             if (page != null) {
                 logger.debug("Fetched page: {} - {}", page.getId(), page.getTitle());
             }
-            return page;
+            return Optional.ofNullable(page);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ConfluenceHttpStatusException status && status.getStatusCode() == 404) {
+                logger.debug("Page {} not found", pageId);
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
 
-        } catch (Exception error) {
-            logger.error("Error fetching page {}: {}", pageId, error.getMessage());
-            return null;
+    // Full pages for a set of ids in one CQL search request. Pages the search index doesn't return (yet) are fetched
+    // one by one; ids that no longer exist are simply missing from the result.
+    public List<ConfluencePage> getPages(List<String> pageIds) {
+        if (pageIds.isEmpty()) {
+            return List.of();
+        }
+
+        String cql = URLEncoder.encode("id in (" + String.join(",", pageIds) + ")", StandardCharsets.UTF_8);
+        URI uri = URI.create(confluenceProperties.getBaseUrl() + CONTENT_ENDPOINT + "/search?cql=" + cql
+                + "&expand=" + PAGE_EXPAND + "&limit=" + pageIds.size());
+        List<ConfluencePage> pages = new ArrayList<>(pageIds.size());
+        await(get("search", uri, body -> contentParser.parseResults(body, pages::add), observationRegistry.getCurrentObservation()));
+
+        Set<String> found = pages.stream().map(ConfluencePage::getId).collect(Collectors.toSet());
+        for (String pageId : pageIds) {
+            if (!found.contains(pageId)) {
+                ConfluencePage page = getPageById(pageId);
+                if (page != null) {
+                    pages.add(page);
+                }
+            }
+        }
+        return pages;
+    }
+
+    public List<ConfluenceAttachment> getAttachments(String pageId) {
+        int pageSize = confluenceProperties.getPageSize();
+        List<ConfluenceAttachment> attachments = new ArrayList<>();
+        int start = 0;
+
+        while (true) {
+            URI uri = URI.create(confluenceProperties.getBaseUrl() + CONTENT_ENDPOINT + "/" + pageId + "/child/attachment"
+                    + "?start=" + start + "&limit=" + pageSize);
+            int count = await(get("attachments", uri, body -> contentParser.parseAttachments(body, attachments::add),
+                    observationRegistry.getCurrentObservation()));
+            if (count < pageSize) {
+                return attachments;
+            }
+            start += pageSize;
+        }
+    }
+
+    // Streams the attachment straight to the given file; the bytes are never held in memory. The limit is checked
+    // while copying, since the listed file size may be missing or wrong.
+    public void downloadAttachment(ConfluenceAttachment attachment, Path target, long maxBytes) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(confluenceProperties.getBaseUrl() + attachment.getDownloadPath()))
+                .GET()
+                .timeout(confluenceProperties.getReadTimeout())
+                .header(HttpHeaders.AUTHORIZATION, authorizationHeader)
+                .build();
+
+        await(sendWithRetry("download", request, body -> copy(body, target, maxBytes, attachment), 0,
+                observationRegistry.getCurrentObservation()));
+    }
+
+    private static long copy(InputStream body, Path target, long maxBytes, ConfluenceAttachment attachment) throws IOException {
+        long copied = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                copied += read;
+                if (copied > maxBytes) {
+                    throw new AttachmentTooLargeException(attachment.getId(), maxBytes);
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        return copied;
+    }
+
+    private <T> CompletableFuture<T> get(String operation, URI uri, BodyReader<T> reader, Observation parent) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .GET()
+                .timeout(confluenceProperties.getReadTimeout())
+                .header(HttpHeaders.AUTHORIZATION, authorizationHeader)
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .build();
+
+        return sendWithRetry(operation, request, reader, 0, parent);
+    }
+
+    private List<ConfluencePage> readPages(InputStream body) throws IOException {
+        List<ConfluencePage> pages = new ArrayList<>(confluenceProperties.getPageSize());
+        contentParser.parseResults(body, pages::add);
+        return pages;
+    }
+
+    // Each attempt is its own observation (span and confluence.http.client.requests timer), measured until the
+    // response body is read. A connection that breaks while the body is read is retried like one that fails earlier.
+    private <T> CompletableFuture<T> sendWithRetry(String operation, HttpRequest request, BodyReader<T> reader,
+                                                   int attempt, Observation parent) {
+        Observation observation = Observation.createNotStarted("confluence.http.client.requests", observationRegistry)
+                .contextualName("confluence " + operation)
+                .parentObservation(parent)
+                .lowCardinalityKeyValue("operation", operation)
+                .highCardinalityKeyValue("http.url", request.uri().toString())
+                .highCardinalityKeyValue("retry.attempt", String.valueOf(attempt))
+                .start();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .handle((response, error) -> {
+                    Throwable failure = error != null ? unwrap(error) : null;
+                    if (failure == null && response.statusCode() < 400) {
+                        try (InputStream body = decodedBody(response, limited(response.body()))) {
+                            T result = reader.read(body);
+                            observation.lowCardinalityKeyValue("status", String.valueOf(response.statusCode()));
+                            observation.stop();
+                            return CompletableFuture.completedFuture(result);
+                        } catch (IOException e) {
+                            failure = e;
+                        } catch (RuntimeException e) {
+                            observation.error(e);
+                            observation.stop();
+                            throw e;
+                        }
+                    }
+
+                    observation.lowCardinalityKeyValue("status", failure != null ? "IO_ERROR" : String.valueOf(response.statusCode()));
+                    boolean retryable;
+                    if (failure != null) {
+                        observation.error(failure);
+                        retryable = failure instanceof IOException;
+                    } else {
+                        closeQuietly(response.body());
+                        failure = new ConfluenceHttpStatusException(response.statusCode(), request.uri());
+                        retryable = response.statusCode() == 429 || response.statusCode() >= 500;
+                    }
+                    observation.stop();
+
+                    if (!retryable || attempt >= confluenceProperties.getMaxRetries()) {
+                        return CompletableFuture.<T>failedFuture(failure);
+                    }
+
+                    long delayMillis = retryDelayMillis(attempt, response);
+                    logger.warn("Confluence request {} failed ({}), retrying in {} ms (attempt {}/{})",
+                            request.uri(), failure.getMessage(), delayMillis, attempt + 1, confluenceProperties.getMaxRetries());
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> sendWithRetry(operation, request, reader, attempt + 1, parent));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private long retryDelayMillis(int attempt, HttpResponse<?> response) {
+        // Exponential backoff with equal jitter, so concurrent crawls don't retry in lockstep
+        long base = confluenceProperties.getRetryBackoff().toMillis();
+        long cap = Math.min(confluenceProperties.getMaxRetryBackoff().toMillis(), base << Math.min(attempt, 20));
+        long delay = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+
+        if (response != null) {
+            long retryAfter = response.headers().firstValue(HttpHeaders.RETRY_AFTER)
+                    .map(ConfluenceClient::parseRetryAfterSeconds)
+                    .orElse(0L);
+            delay = Math.max(delay, Duration.ofSeconds(retryAfter).toMillis());
+        }
+        return delay;
+    }
+
+    private static long parseRetryAfterSeconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    // HttpRequest.timeout stops applying once the headers are in; the body gets its own idle and total limits
+    private InputStream limited(InputStream body) {
+        return new DeadlineInputStream(body, confluenceProperties.getReadTimeout(), confluenceProperties.getBodyTimeout(),
+                bodyWatchdog);
+    }
+
+    private static InputStream decodedBody(HttpResponse<?> response, InputStream body) throws IOException {
+        String encoding = response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse("");
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // The response is discarded anyway
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bodyWatchdog.shutdownNow();
+    }
+
+    // Where a listing starts and how far it got, so a crawl that failed can continue instead of listing everything again
+    public interface CrawlCursor {
+        CrawlCursor NONE = new CrawlCursor() {
+        };
+
+        default int startOf(String query) {
+            return 0;
+        }
+
+        default void advance(String query, int nextStart) {
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
         }
     }
 }
@@ -0,0 +1,230 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.model.ConfluenceAttachment;
+import com.bohdansavshak.model.ConfluencePage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+@Component
+public class ConfluenceContentParser {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    // Walks a /rest/api/content listing token by token and hands each page to the consumer as soon as its
+    // closing brace is read, so at most one page body is held in memory. Returns the number of pages emitted.
+    public int parseResults(InputStream inputStream, Consumer<ConfluencePage> consumer) throws IOException {
+        int count = 0;
+        try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                if ("results".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(readPage(parser));
+                        count++;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return count;
+    }
+
+    public int parseAttachments(InputStream inputStream, Consumer<ConfluenceAttachment> consumer) throws IOException {
+        int count = 0;
+        try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                if ("results".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(readAttachment(parser));
+                        count++;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return count;
+    }
+
+    public ConfluencePage parsePage(InputStream inputStream) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            return readPage(parser);
+        }
+    }
+
+    // Expects the parser to be positioned on the page's START_OBJECT. Only the fields the ingestion pipeline
+    // uses are materialized; links, history and other expansions are skipped without building nodes.
+    private ConfluencePage readPage(JsonParser parser) throws IOException {
+        ConfluencePage page = new ConfluencePage();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "id" -> page.setId(parser.getValueAsString());
+                case "title" -> page.setTitle(parser.getValueAsString());
+                case "type" -> page.setType(parser.getValueAsString());
+                case "space" -> page.setSpace(value == JsonToken.START_OBJECT ? readSpace(parser) : null);
+                case "body" -> page.setBody(value == JsonToken.START_OBJECT ? readBody(parser) : null);
+                case "version" -> page.setVersion(value == JsonToken.START_OBJECT ? readVersion(parser) : null);
+                case "children" -> page.setAttachmentCount(value == JsonToken.START_OBJECT ? readAttachmentCount(parser) : null);
+                default -> parser.skipChildren();
+            }
+        }
+        return page;
+    }
+
+    private ConfluenceAttachment readAttachment(JsonParser parser) throws IOException {
+        ConfluenceAttachment attachment = new ConfluenceAttachment();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "id" -> attachment.setId(parser.getValueAsString());
+                case "title" -> attachment.setTitle(parser.getValueAsString());
+                case "version" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        attachment.setVersion(readVersion(parser).getNumber());
+                    }
+                }
+                case "metadata", "extensions", "_links" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        readAttachmentDetails(parser, attachment);
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return attachment;
+    }
+
+    // metadata.mediaType, extensions.mediaType/fileSize and _links.download all live one level down
+    private void readAttachmentDetails(JsonParser parser, ConfluenceAttachment attachment) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "mediaType" -> attachment.setMediaType(parser.getValueAsString());
+                case "fileSize" -> attachment.setFileSize(parser.getValueAsLong(-1));
+                case "download" -> attachment.setDownloadPath(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    // "children": {"attachment": {"results": [...], "size": n}}; size counts the attachments of the first listing
+    // page, which is enough to tell pages without any
+    private Integer readAttachmentCount(JsonParser parser) throws IOException {
+        Integer count = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if ("attachment".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String attachmentField = parser.currentName();
+                    parser.nextToken();
+                    if ("size".equals(attachmentField)) {
+                        count = parser.getValueAsInt();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return count;
+    }
+
+    private ConfluencePage.Space readSpace(JsonParser parser) throws IOException {
+        ConfluencePage.Space space = new ConfluencePage.Space();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "key" -> space.setKey(parser.getValueAsString());
+                case "name" -> space.setName(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+        return space;
+    }
+
+    private ConfluencePage.Version readVersion(JsonParser parser) throws IOException {
+        ConfluencePage.Version version = new ConfluencePage.Version();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            if ("number".equals(field)) {
+                version.setNumber(parser.getValueAsInt());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return version;
+    }
+
+    private ConfluencePage.Body readBody(JsonParser parser) throws IOException {
+        ConfluencePage.Body body = new ConfluencePage.Body();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if ("storage".equals(field) && value == JsonToken.START_OBJECT) {
+                body.setStorage(readStorage(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return body;
+    }
+
+    private ConfluencePage.Storage readStorage(JsonParser parser) throws IOException {
+        ConfluencePage.Storage storage = new ConfluencePage.Storage();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "value" -> storage.setValue(parser.getValueAsString());
+                case "representation" -> storage.setRepresentation(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+        return storage;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected Confluence response: expected " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.bohdansavshak.service;
+
+public class ConfluenceFetchException extends RuntimeException {
+    private final String query;
+    private final int failedStart;
+
+    public ConfluenceFetchException(String query, int failedStart, Throwable cause) {
+        super("Failed to fetch Confluence pages for '" + query + "' at start=" + failedStart + ": " + cause.getMessage(), cause);
+        this.query = query;
+        this.failedStart = failedStart;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public int getFailedStart() {
+        return failedStart;
+    }
+}
@@ -0,0 +1,18 @@
+package com.bohdansavshak.service;
+
+import java.io.IOException;
+import java.net.URI;
+
+// Confluence answered with an error status; an IOException like the transport failures it is retried with
+public class ConfluenceHttpStatusException extends IOException {
+    private final int statusCode;
+
+    public ConfluenceHttpStatusException(int statusCode, URI uri) {
+        super("Confluence returned HTTP " + statusCode + " for " + uri);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
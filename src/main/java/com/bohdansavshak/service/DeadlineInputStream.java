@@ -0,0 +1,90 @@
+package com.bohdansavshak.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A response body with time limits. HttpRequest.timeout only covers the wait for the response headers; this closes
+// the body when no byte arrived for idleTimeout or the whole body took longer than totalTimeout, which makes a read
+// blocked on a stalled connection fail with HttpTimeoutException instead of hanging.
+class DeadlineInputStream extends FilterInputStream {
+    private final Duration idleTimeout;
+    private final Duration totalTimeout;
+    private final long deadlineNanos;
+    private final ScheduledFuture<?> watchdog;
+    private volatile long lastProgressNanos;
+    private volatile String timedOut;
+
+    DeadlineInputStream(InputStream body, Duration idleTimeout, Duration totalTimeout, ScheduledExecutorService scheduler) {
+        super(body);
+        this.idleTimeout = idleTimeout;
+        this.totalTimeout = totalTimeout;
+        this.lastProgressNanos = System.nanoTime();
+        this.deadlineNanos = lastProgressNanos + totalTimeout.toNanos();
+        long checkMillis = Math.max(10, Math.min(idleTimeout.toMillis(), totalTimeout.toMillis()) / 4);
+        this.watchdog = scheduler.scheduleWithFixedDelay(this::check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int read() throws IOException {
+        try {
+            int value = super.read();
+            lastProgressNanos = System.nanoTime();
+            return value;
+        } catch (IOException e) {
+            throw timeoutOr(e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        try {
+            int count = super.read(buffer, offset, length);
+            lastProgressNanos = System.nanoTime();
+            return count;
+        } catch (IOException e) {
+            throw timeoutOr(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchdog.cancel(false);
+        super.close();
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        if (now - lastProgressNanos > idleTimeout.toNanos()) {
+            expire("no data for " + idleTimeout);
+        } else if (now > deadlineNanos) {
+            expire("body not complete after " + totalTimeout);
+        }
+    }
+
+    private void expire(String reason) {
+        timedOut = reason;
+        watchdog.cancel(false);
+        try {
+            // Unblocks the reader, which then fails with the reason
+            in.close();
+        } catch (IOException ignored) {
+            // The body is abandoned anyway
+        }
+    }
+
+    private IOException timeoutOr(IOException error) {
+        String reason = timedOut;
+        if (reason == null) {
+            return error;
+        }
+        HttpTimeoutException timeout = new HttpTimeoutException("Confluence response " + reason);
+        timeout.initCause(error);
+        return timeout;
+    }
+}
@@ -0,0 +1,83 @@
+package com.bohdansavshak.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+public class DocumentChunker {
+
+    // Splits extracted text at heading offsets and packs consecutive sections into chunks of at most maxChars.
+    // A section that is larger than maxChars on its own is cut at the last line break (or space) before the limit.
+    public List<Chunk> chunk(StorageFormatExtractor.ExtractedText extracted, int maxChars) {
+        String text = extracted.getText();
+        List<StorageFormatExtractor.Heading> headings = extracted.getHeadings();
+        List<Chunk> chunks = new ArrayList<>();
+
+        int chunkStart = 0;
+        String chunkSection = null;
+        int sectionCount = headings.size() + 1;
+
+        for (int i = 0; i < sectionCount; i++) {
+            int sectionStart = i == 0 ? 0 : headings.get(i - 1).getOffset();
+            int sectionEnd = i < headings.size() ? headings.get(i).getOffset() : text.length();
+            String sectionTitle = i == 0 ? null : headings.get(i - 1).getTitle();
+
+            if (sectionEnd - chunkStart > maxChars && sectionStart > chunkStart) {
+                // Adding this section would overflow the current chunk, so close it at the section boundary
+                addChunk(chunks, text, chunkStart, sectionStart, chunkSection);
+                chunkStart = sectionStart;
+                chunkSection = sectionTitle;
+            } else if (chunkStart == sectionStart) {
+                chunkSection = sectionTitle;
+            }
+
+            while (sectionEnd - chunkStart > maxChars) {
+                int cut = cutPoint(text, chunkStart, chunkStart + maxChars);
+                addChunk(chunks, text, chunkStart, cut, chunkSection);
+                chunkStart = cut;
+            }
+        }
+
+        addChunk(chunks, text, chunkStart, text.length(), chunkSection);
+        return chunks;
+    }
+
+    private static int cutPoint(String text, int from, int limit) {
+        int newline = text.lastIndexOf('\n', limit - 1);
+        if (newline > from) {
+            return newline + 1;
+        }
+        int space = text.lastIndexOf(' ', limit - 1);
+        if (space > from) {
+            return space + 1;
+        }
+        return limit;
+    }
+
+    private static void addChunk(List<Chunk> chunks, String text, int start, int end, String sectionTitle) {
+        String chunkText = text.substring(start, end).trim();
+        if (!chunkText.isEmpty()) {
+            chunks.add(new Chunk(chunkText, sectionTitle));
+        }
+    }
+
+    public static class Chunk {
+        private final String text;
+        private final String sectionTitle;
+
+        public Chunk(String text, String sectionTitle) {
+            this.text = text;
+            this.sectionTitle = sectionTitle;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getSectionTitle() {
+            return sectionTitle;
+        }
+    }
+}
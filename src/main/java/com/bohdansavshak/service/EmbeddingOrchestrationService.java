@@ -1,11 +1,25 @@
 package com.bohdansavshak.service;
 
+import com.bohdansavshak.config.IngestionProperties;
 import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import com.bohdansavshak.repository.IngestionQueueRepository;
+import com.bohdansavshak.repository.RebuildableVectorStore;
+import com.bohdansavshak.repository.SpacePartitionedVectorStore;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 @Service
 public class EmbeddingOrchestrationService {
@@ -13,113 +27,369 @@ public class EmbeddingOrchestrationService {
 
     private final ConfluenceClient confluenceClient;
     private final EmbeddingService embeddingService;
+    private final AttachmentIngestionService attachmentIngestionService;
+    private final IngestionProperties ingestionProperties;
+    private final RagMetrics ragMetrics;
+    private final ObservationRegistry observationRegistry;
+    private final ObjectProvider<SpacePartitionedVectorStore> partitionedVectorStore;
+    private final RebuildableVectorStore rebuildableVectorStore;
+    private final IngestionQueueRepository queueRepository;
+    private final IngestionJournalRepository journal;
 
-    public EmbeddingOrchestrationService(ConfluenceClient confluenceClient, EmbeddingService embeddingService) {
+    public EmbeddingOrchestrationService(ConfluenceClient confluenceClient, EmbeddingService embeddingService,
+                                         AttachmentIngestionService attachmentIngestionService,
+                                         IngestionProperties ingestionProperties, RagMetrics ragMetrics,
+                                         ObservationRegistry observationRegistry,
+                                         ObjectProvider<SpacePartitionedVectorStore> partitionedVectorStore,
+                                         RebuildableVectorStore rebuildableVectorStore,
+                                         IngestionQueueRepository queueRepository,
+                                         IngestionJournalRepository journal) {
         this.confluenceClient = confluenceClient;
         this.embeddingService = embeddingService;
+        this.attachmentIngestionService = attachmentIngestionService;
+        this.ingestionProperties = ingestionProperties;
+        this.ragMetrics = ragMetrics;
+        this.observationRegistry = observationRegistry;
+        this.partitionedVectorStore = partitionedVectorStore;
+        this.rebuildableVectorStore = rebuildableVectorStore;
+        this.queueRepository = queueRepository;
+        this.journal = journal;
     }
 
     public void processAllPages() {
+        if (ingestionProperties.isQueueEnabled()) {
+            enqueue("all", confluenceClient::forEachPageSummary);
+            return;
+        }
         logger.info("Starting Confluence content embedding process");
 
-        int processedCount = 0;
-        int errorCount = 0;
-
+        IngestionJournalRepository.Run run = journal.startOrResumeRun("all");
+        PageBatcher batcher = new PageBatcher(run);
         long startTime = System.currentTimeMillis();
 
-        try {
-            List<ConfluencePage> pages = confluenceClient.getAllPages();
-
-            for (ConfluencePage page : pages) {
-                try {
-                    logger.info("Processing page: {} - {}", page.getId(), page.getTitle());
-                    embeddingService.processAndStoreConfluencePage(page);
-                    processedCount++;
+        if (crawl("all", batcher, () -> confluenceClient.forEachPage(batcher, batcher))) {
+            batcher.finishRun();
+        }
 
-                    if (processedCount % 10 == 0) {
-                        logger.info("Processed {} pages so far...", processedCount);
-                    }
+        long endTime = System.currentTimeMillis();
+        long duration = endTime - startTime;
 
-                    // Rate limiting to avoid overwhelming the API
-                    Thread.sleep(100);
+        logger.info("Confluence content embedding process completed!");
+        logger.info("Total pages processed: {}", batcher.processedCount);
+        logger.info("Pages skipped (already stored by the interrupted run): {}", batcher.skippedCount);
+        logger.info("Total errors: {}", batcher.errorCount);
+        logger.info("Total time: {} ms ({} seconds)", duration, duration / 1000.0);
+        logger.info("Total documents in database: {}", embeddingService.getDocumentCount());
+    }
 
-                } catch (Exception e) {
-                    errorCount++;
-                    logger.error("Error processing page {}: {}", page.getId(), e.getMessage(), e);
-                }
+    public void processSpecificSpace(String spaceKey) {
+        if (ingestionProperties.isQueueEnabled()) {
+            if (spaceKey != null && !spaceKey.trim().isEmpty()) {
+                enqueue(spaceKey.trim(), pages -> confluenceClient.forEachPageSummaryInSpace(spaceKey.trim(), pages));
+            } else {
+                enqueue("all", confluenceClient::forEachPageSummary);
             }
+            return;
+        }
+        logger.info("Starting Confluence content embedding process for space: {}", spaceKey);
 
-        } catch (Exception error) {
-            logger.error("Error in processing: {}", error.getMessage(), error);
+        boolean singleSpace = spaceKey != null && !spaceKey.trim().isEmpty();
+        IngestionJournalRepository.Run run = journal.startOrResumeRun(singleSpace ? "space:" + spaceKey.trim() : "all");
+        PageBatcher batcher = new PageBatcher(run);
+        long startTime = System.currentTimeMillis();
+
+        boolean crawled;
+        if (singleSpace) {
+            // Crawl only the requested space instead of filtering a full crawl
+            crawled = crawl(spaceKey.trim(), batcher, () -> confluenceClient.forEachPageInSpace(spaceKey.trim(), batcher, batcher));
+        } else {
+            crawled = crawl("all", batcher, () -> confluenceClient.forEachPage(batcher, batcher));
+        }
+        if (crawled) {
+            batcher.finishRun();
         }
 
         long endTime = System.currentTimeMillis();
         long duration = endTime - startTime;
 
-        logger.info("Confluence content embedding process completed!");
-        logger.info("Total pages processed: {}", processedCount);
-        logger.info("Total errors: {}", errorCount);
+        logger.info("Confluence content embedding process completed for space: {}", spaceKey);
+        logger.info("Total pages processed: {}", batcher.processedCount);
+        logger.info("Pages skipped (already stored by the interrupted run): {}", batcher.skippedCount);
+        logger.info("Total errors: {}", batcher.errorCount);
         logger.info("Total time: {} ms ({} seconds)", duration, duration / 1000.0);
-        logger.info("Total documents in database: {}", embeddingService.getDocumentCount());
+        logger.info("Documents in space {}: {}", spaceKey, embeddingService.getDocumentCountBySpace(spaceKey));
     }
 
-    public void processSpecificSpace(String spaceKey) {
-        logger.info("Starting Confluence content embedding process for space: {}", spaceKey);
+    // With the work queue enabled this node only lists pages (without bodies) and enqueues them; the queue workers of
+    // every instance then fetch and embed them in parallel.
+    private void enqueue(String space, Consumer<Consumer<ConfluencePage>> listPages) {
+        logger.info("Enqueueing pages of '{}' for ingestion", space);
+        PageEnqueuer enqueuer = new PageEnqueuer();
+        if (crawl(space, enqueuer, () -> listPages.accept(enqueuer))) {
+            logger.info("Enqueued {} pages of '{}'", enqueuer.enqueuedCount, space);
+        } else {
+            logger.warn("Listing pages of '{}' failed after enqueueing {}", space, enqueuer.enqueuedCount);
+        }
+    }
 
-        int processedCount = 0;
-        int errorCount = 0;
+    // Re-embeds everything into a new generation of vectors (e.g. after changing the embedding model) while
+    // searches keep using the current one, then switches over in one step. Nothing changes if the crawl fails.
+    public void rebuildAll() {
+        logger.info("Starting full rebuild of the vector index");
 
+        PageBatcher batcher = new PageBatcher(null);
         long startTime = System.currentTimeMillis();
+        // Counted for the whole service, so an attachment failing in a concurrent ingestion fails the rebuild too
+        long attachmentFailuresBefore = attachmentIngestionService.getFailedCount();
+        rebuildableVectorStore.beginFullRebuild();
 
-        try {
-            List<ConfluencePage> allPages = confluenceClient.getAllPages();
-            List<ConfluencePage> pages;
+        boolean crawled = crawl("all", batcher, () -> confluenceClient.forEachPage(batcher));
+        boolean attachmentsStored = crawled && awaitAttachments();
+        long attachmentFailures = attachmentIngestionService.getFailedCount() - attachmentFailuresBefore;
+        if (crawled && batcher.errorCount == 0 && attachmentsStored && attachmentFailures == 0) {
+            rebuildableVectorStore.commitFullRebuild();
+            logger.info("Full rebuild completed: {} pages in {} ms", batcher.processedCount, System.currentTimeMillis() - startTime);
+        } else {
+            rebuildableVectorStore.abortFullRebuild();
+            logger.warn("Full rebuild failed ({} page errors, {} attachment failures), keeping the current vectors",
+                    batcher.errorCount, attachmentFailures);
+        }
+    }
 
-            if (spaceKey != null && !spaceKey.trim().isEmpty()) {
-                // Filter pages for specific space
-                pages = allPages.stream()
-                        .filter(page -> page.getSpace() != null && spaceKey.equals(page.getSpace().getKey()))
-                        .toList();
-            } else {
-                pages = allPages;
+    // Attachments of crawled pages are still being embedded on their own pool; they belong to the new generation
+    private boolean awaitAttachments() {
+        try {
+            while (attachmentIngestionService.getPendingCount() > 0) {
+                Thread.sleep(1000);
             }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            for (ConfluencePage page : pages) {
-                try {
-                    logger.debug("Processing page: {} - {}", page.getId(), page.getTitle());
-                    embeddingService.processAndStoreConfluencePage(page);
-                    processedCount++;
+    // With per-space vector tables the space is crawled into a fresh table that replaces the live one only once
+    // every page was stored; searches keep using the old vectors meanwhile. Otherwise pages are updated in place.
+    public void reindexSpace(String spaceKey) {
+        SpacePartitionedVectorStore partitions = partitionedVectorStore.getIfAvailable();
+        if (partitions == null) {
+            processSpecificSpace(spaceKey);
+            return;
+        }
+
+        logger.info("Starting reindex of space: {}", spaceKey);
+        PageBatcher batcher = new PageBatcher(null);
+        partitions.beginRebuild(spaceKey);
+        boolean crawled = crawl(spaceKey, batcher, () -> confluenceClient.forEachPageInSpace(spaceKey, batcher));
 
-                    if (processedCount % 10 == 0) {
-                        logger.info("Processed {} pages so far...", processedCount);
+        if (crawled && batcher.errorCount == 0) {
+            partitions.commitRebuild(spaceKey);
+            logger.info("Reindex of space {} completed: {} pages", spaceKey, batcher.processedCount);
+        } else {
+            partitions.abortRebuild(spaceKey);
+            logger.warn("Reindex of space {} failed ({} page errors), keeping the previous vectors", spaceKey, batcher.errorCount);
+        }
+    }
+
+    // One trace per run: Confluence requests, embedding batches and database writes are all children of it
+    private boolean crawl(String space, PageSink sink, Runnable fetch) {
+        return Boolean.TRUE.equals(Observation.createNotStarted("rag.ingestion", observationRegistry)
+                .lowCardinalityKeyValue("space", space)
+                .observe(() -> {
+                    try {
+                        fetch.run();
+                        return true;
+                    } catch (ConfluenceFetchException error) {
+                        logger.error("Confluence crawl for '{}' failed at start={} after retries",
+                                error.getQuery(), error.getFailedStart(), error);
+                        return false;
+                    } catch (Exception error) {
+                        logger.error("Error in processing: {}", error.getMessage(), error);
+                        return false;
+                    } finally {
+                        sink.flush();
                     }
+                }));
+    }
+
+    public void getProcessingStatus() {
+        long totalDocuments = embeddingService.getDocumentCount();
+        logger.info("Current status:");
+        logger.info("Total documents in database: {}", totalDocuments);
+        logger.info("Pending attachment tasks: {}", attachmentIngestionService.getPendingCount());
+        logger.info("Unfinished journal entries: {}", journal.countPending());
+    }
+
+    private interface PageSink extends Consumer<ConfluencePage> {
+        void flush();
+    }
+
+    // Collects crawled pages into batches of ingestion.batch-size. Concurrent space crawls share one batcher;
+    // embedding a full batch holds the lock, which also throttles the crawls feeding it. When the crawl belongs to
+    // a journaled run, pages (and attachments) the run already stored at the same version are skipped, so a crawl
+    // that was killed picks up where it stopped. The batcher is also the crawl's cursor: listing offsets are saved
+    // to the run once every page before them was stored, and a resumed run starts listing from there.
+    private class PageBatcher implements PageSink, ConfluenceClient.CrawlCursor {
+        private final List<ConfluencePage> batch = new ArrayList<>();
+        private final IngestionJournalRepository.Run run;
+        private final Instant resumeFrom;
+        private final Map<String, Integer> savedCursors;
+        // Offsets reached by the listing whose pages are not all stored yet
+        private final Map<String, Integer> pendingCursors = new HashMap<>();
+        private final List<ConfluencePage> failedPages = new ArrayList<>();
+        private int processedCount = 0;
+        private int skippedCount = 0;
+        private int errorCount = 0;
+
+        PageBatcher(IngestionJournalRepository.Run run) {
+            this.run = run;
+            this.resumeFrom = run != null && run.resumed() ? run.startedAt() : null;
+            this.savedCursors = resumeFrom != null ? journal.crawlCursors(run.id()) : Map.of();
+            if (resumeFrom != null) {
+                logger.info("Resuming ingestion run {} started at {}", run.id(), resumeFrom);
+            }
+        }
+
+        @Override
+        public int startOf(String query) {
+            return savedCursors.getOrDefault(query, 0);
+        }
+
+        @Override
+        public synchronized void advance(String query, int nextStart) {
+            if (run != null) {
+                pendingCursors.put(query, nextStart);
+            }
+        }
 
-                    // Rate limiting to avoid overwhelming the API
-                    Thread.sleep(100);
+        @Override
+        public synchronized void accept(ConfluencePage page) {
+            ragMetrics.countIngested("fetch", 1);
+            if (resumeFrom == null) {
+                attachmentIngestionService.submit(page);
+            }
+            batch.add(page);
+            if (batch.size() >= ingestionProperties.getBatchSize()) {
+                flush();
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (batch.isEmpty()) {
+                saveCursors();
+                return;
+            }
+
+            List<ConfluencePage> pages = List.of();
+            try {
+                pages = resumeFrom != null ? notYetStored(batch) : List.copyOf(batch);
+                skippedCount += batch.size() - pages.size();
+                if (pages.isEmpty()) {
+                    return;
+                }
+                List<ConfluencePage> toStore = pages;
+                Observation.createNotStarted("rag.ingestion.batch", observationRegistry)
+                        .highCardinalityKeyValue("pages", String.valueOf(toStore.size()))
+                        .observe(() -> embeddingService.processAndStoreConfluencePages(toStore));
+                processedCount += pages.size();
+                logger.info("Processed {} pages so far...", processedCount);
+
+            } catch (Exception e) {
+                logger.error("Error processing batch starting at page {}, retrying its pages one by one: {}",
+                        batch.getFirst().getId(), e.getMessage(), e);
+                if (pages.isEmpty()) {
+                    errorCount += batch.size();
+                    failedPages.addAll(batch);
+                } else {
+                    storeOneByOne(pages);
+                }
+            } finally {
+                batch.clear();
+                saveCursors();
+            }
+        }
+
+        // Called once the listing went through to the end. Pages that failed are left to the journal replayer as
+        // pending entries instead of keeping the run open, which would make every later crawl a resume of this one.
+        synchronized void finishRun() {
+            if (!failedPages.isEmpty()) {
+                journal.recordPending(failedPages.stream()
+                        .map(page -> new IngestionJournalRepository.Entry(page.getId(), IngestionJournalRepository.KIND_PAGE,
+                                IngestionJournalRepository.UPSERT, page.getVersion() != null ? page.getVersion().getNumber() : null))
+                        .toList());
+                logger.warn("Closing ingestion run {} with {} failed pages, the journal replayer retries them", run.id(), failedPages.size());
+            }
+            journal.finishRun(run.id());
+        }
 
+        // A page that failed must be listed again when the run is resumed, so offsets stop moving after an error
+        private void saveCursors() {
+            if (pendingCursors.isEmpty() || errorCount > 0) {
+                return;
+            }
+            try {
+                journal.saveCrawlCursors(run.id(), pendingCursors);
+                pendingCursors.clear();
+            } catch (Exception e) {
+                logger.warn("Could not save crawl progress of run {}: {}", run.id(), e.getMessage());
+            }
+        }
+
+        // Only the pages that fail on their own count as errors
+        private void storeOneByOne(List<ConfluencePage> pages) {
+            for (ConfluencePage page : pages) {
+                try {
+                    embeddingService.processAndStoreConfluencePages(List.of(page));
+                    processedCount++;
                 } catch (Exception e) {
                     errorCount++;
+                    failedPages.add(page);
                     logger.error("Error processing page {}: {}", page.getId(), e.getMessage(), e);
                 }
             }
-
-        } catch (Exception error) {
-            logger.error("Error in processing: {}", error.getMessage(), error);
         }
 
-        long endTime = System.currentTimeMillis();
-        long duration = endTime - startTime;
+        private List<ConfluencePage> notYetStored(List<ConfluencePage> candidates) {
+            List<String> ids = candidates.stream().map(ConfluencePage::getId).toList();
+            Map<String, Integer> storedPages = journal.appliedSince(IngestionJournalRepository.KIND_PAGE, ids, resumeFrom);
+            Map<String, Integer> storedAttachments = journal.appliedSince(IngestionJournalRepository.KIND_ATTACHMENTS, ids, resumeFrom);
 
-        logger.info("Confluence content embedding process completed for space: {}", spaceKey);
-        logger.info("Total pages processed: {}", processedCount);
-        logger.info("Total errors: {}", errorCount);
-        logger.info("Total time: {} ms ({} seconds)", duration, duration / 1000.0);
-        logger.info("Documents in space {}: {}", spaceKey, embeddingService.getDocumentCountBySpace(spaceKey));
+            List<ConfluencePage> pages = new ArrayList<>(candidates.size());
+            for (ConfluencePage page : candidates) {
+                if (!storedAttachments.containsKey(page.getId())) {
+                    attachmentIngestionService.submit(page);
+                }
+                Integer version = page.getVersion() != null ? page.getVersion().getNumber() : null;
+                if (!storedPages.containsKey(page.getId()) || !Objects.equals(storedPages.get(page.getId()), version)) {
+                    pages.add(page);
+                }
+            }
+            return pages;
+        }
     }
 
-    public void getProcessingStatus() {
-        long totalDocuments = embeddingService.getDocumentCount();
-        logger.info("Current status:");
-        logger.info("Total documents in database: {}", totalDocuments);
+    private class PageEnqueuer implements PageSink {
+        private final List<ConfluencePage> batch = new ArrayList<>();
+        private int enqueuedCount = 0;
+
+        @Override
+        public synchronized void accept(ConfluencePage page) {
+            batch.add(page);
+            if (batch.size() >= ingestionProperties.getBatchSize()) {
+                flush();
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            queueRepository.enqueue(List.copyOf(batch));
+            enqueuedCount += batch.size();
+            batch.clear();
+        }
     }
 }
@@ -1,128 +1,244 @@
 package com.bohdansavshak.service;
 
+import com.bohdansavshak.config.IngestionProperties;
 import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.model.ConfluenceAttachment;
 import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.DocumentEmbeddingBulkRepository;
 import com.bohdansavshak.repository.DocumentEmbeddingRepository;
-import org.jsoup.Jsoup;
+import com.bohdansavshak.repository.IngestionJournalRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
+// Embedding calls run outside any database transaction: a batch is embedded first, then its vectors and metadata
+// are written in one short transaction
 @Service
-@Transactional
 public class EmbeddingService {
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
+    private static final String PAGE_TYPE = "confluence-page";
+    private static final String ATTACHMENT_TYPE = "confluence-attachment";
 
     private final DocumentEmbeddingRepository documentRepository;
-    private final EmbeddingModel embeddingModel;
+    private final DocumentEmbeddingBulkRepository bulkRepository;
     private final VectorStore vectorStore;
+    private final PrecomputedEmbeddingModel embeddingModel;
+    private final TransactionTemplate transactionTemplate;
+    private final StorageFormatExtractor storageFormatExtractor;
+    private final DocumentChunker documentChunker;
+    private final IngestionProperties ingestionProperties;
+    private final RagMetrics ragMetrics;
+    private final PageCatalog pageCatalog;
+    private final IngestionJournalRepository journal;
 
     public EmbeddingService(DocumentEmbeddingRepository documentRepository,
-                            EmbeddingModel embeddingModel,
-                            VectorStore vectorStore) {
+                            DocumentEmbeddingBulkRepository bulkRepository,
+                            VectorStore vectorStore,
+                            PrecomputedEmbeddingModel embeddingModel,
+                            TransactionTemplate transactionTemplate,
+                            StorageFormatExtractor storageFormatExtractor,
+                            DocumentChunker documentChunker,
+                            IngestionProperties ingestionProperties,
+                            RagMetrics ragMetrics,
+                            PageCatalog pageCatalog,
+                            IngestionJournalRepository journal) {
         this.documentRepository = documentRepository;
-        this.embeddingModel = embeddingModel;
+        this.bulkRepository = bulkRepository;
         this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.transactionTemplate = transactionTemplate;
+        this.storageFormatExtractor = storageFormatExtractor;
+        this.documentChunker = documentChunker;
+        this.ingestionProperties = ingestionProperties;
+        this.ragMetrics = ragMetrics;
+        this.pageCatalog = pageCatalog;
+        this.journal = journal;
     }
 
     public void processAndStoreConfluencePage(ConfluencePage confluencePage) {
-        try {
-            String pageId = confluencePage.getId();
-            String title = confluencePage.getTitle();
-            String spaceKey = confluencePage.getSpace() != null ? confluencePage.getSpace().getKey() : "UNKNOWN";
-            String spaceName = confluencePage.getSpace() != null ? confluencePage.getSpace().getName() : "Unknown Space";
-
-            // Extract and clean content
-            String content = extractTextContent(confluencePage);
-            if (content == null || content.trim().isEmpty()) {
-                logger.warn("No content found for page: {} - {}", pageId, title);
-                return;
-            }
+        processAndStoreConfluencePages(List.of(confluencePage));
+    }
+
+    public int processAndStoreConfluencePages(List<ConfluencePage> pages) {
+        // A page listed twice in one batch would make the multi-row upserts touch the same row twice; the later copy wins
+        Map<String, ConfluencePage> distinctPages = new LinkedHashMap<>();
+        pages.forEach(page -> distinctPages.put(page.getId(), page));
+        List<ConfluencePage> confluencePages = List.copyOf(distinctPages.values());
+
+        List<String> pageIds = new ArrayList<>(confluencePages.size());
+        List<Document> documents = new ArrayList<>();
+        List<DocumentEmbedding> entities = new ArrayList<>(confluencePages.size());
+        List<IngestionJournalRepository.Entry> intents = new ArrayList<>(confluencePages.size());
+        List<IngestionJournalRepository.Entry> skipped = new ArrayList<>();
+        long extractStart = System.nanoTime();
+
+        for (ConfluencePage confluencePage : confluencePages) {
+            try {
+                String pageId = confluencePage.getId();
+                String title = confluencePage.getTitle();
+                String spaceKey = confluencePage.getSpace() != null ? confluencePage.getSpace().getKey() : "UNKNOWN";
+                String spaceName = confluencePage.getSpace() != null ? confluencePage.getSpace().getName() : "Unknown Space";
+
+                // Extract and clean content
+                StorageFormatExtractor.ExtractedText extracted = extractTextContent(confluencePage);
+                if (extracted == null || extracted.getText().isEmpty()) {
+                    logger.warn("No content found for page: {} - {}", pageId, title);
+                    skipped.add(journalEntry(confluencePage));
+                    continue;
+                }
 
-            // Check if page already exists
-            Optional<DocumentEmbedding> existingDoc = documentRepository.findByConfluencePageId(pageId);
-            if (existingDoc.isPresent()) {
-                logger.info("Page already exists, updating: {} - {}", pageId, title);
-                updateExistingDocument(existingDoc.get(), content, title, spaceKey, spaceName);
-            } else {
-                logger.info("Processing new page: {} - {}", pageId, title);
-                createNewDocument(pageId, title, content, spaceKey, spaceName);
+                List<DocumentChunker.Chunk> chunks = documentChunker.chunk(extracted, ingestionProperties.getChunkMaxChars());
+                for (int i = 0; i < chunks.size(); i++) {
+                    documents.add(toDocument(PAGE_TYPE, pageId, i, chunks.get(i), title, spaceKey, spaceName, Map.of()));
+                }
+                pageIds.add(pageId);
+
+                // Add title to the content for better context
+                DocumentEmbedding entity = DocumentEmbedding.create(pageId, title, title + "\n\n" + extracted.getText(), spaceKey, spaceName);
+                entity.setVersion(confluencePage.getVersion() != null ? confluencePage.getVersion().getNumber() : null);
+                entities.add(entity);
+                intents.add(journalEntry(confluencePage));
+
+            } catch (Exception e) {
+                logger.error("Error processing Confluence page {}: {}", confluencePage.getId(), e.getMessage(), e);
+                skipped.add(journalEntry(confluencePage));
             }
+        }
+
+        ragMetrics.recordIngestionStage("extract", confluencePages.size(), extractStart);
+        // Fetching these again would give the same result; a later edit journals them anew
+        journal.recordApplied(skipped);
+
+        if (pageIds.isEmpty()) {
+            return 0;
+        }
+
+        // Committed before the slow embedding calls: if the process dies before the writes below commit, the
+        // journal replayer re-runs these pages
+        journal.recordPending(intents);
+
+        // A page may have had a different number of chunks before, so its old vectors are removed by page id. The
+        // filter matches the page id in the vectors' metadata, which also finds vectors stored under other ids.
+        store(documents, pageIds, () -> {
+            ragMetrics.timeIngestionStage("metadata", entities.size(), () -> bulkRepository.upsertAll(entities));
+            journal.markApplied(IngestionJournalRepository.KIND_PAGE, pageIds);
+        });
+        pageCatalog.putAll(entities);
+
+        logger.info("Successfully stored batch of {} pages ({} chunks)", pageIds.size(), documents.size());
+        return pageIds.size();
+    }
+
+    // Attachments go through the same chunk/embed/store path as pages and are keyed by their own content id
+    public void processAndStoreAttachment(ConfluencePage page, ConfluenceAttachment attachment, String text) {
+        String spaceKey = page.getSpace() != null ? page.getSpace().getKey() : "UNKNOWN";
+        String spaceName = page.getSpace() != null ? page.getSpace().getName() : "Unknown Space";
+        String title = attachment.getTitle();
 
-        } catch (Exception e) {
-            logger.error("Error processing Confluence page {}: {}", confluencePage.getId(), e.getMessage(), e);
+        StorageFormatExtractor.ExtractedText extracted = new StorageFormatExtractor.ExtractedText(text, List.of());
+        List<DocumentChunker.Chunk> chunks = documentChunker.chunk(extracted, ingestionProperties.getChunkMaxChars());
+        List<Document> documents = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            documents.add(toDocument(ATTACHMENT_TYPE, attachment.getId(), i, chunks.get(i), title, spaceKey, spaceName,
+                    Map.of("pageId", page.getId(), "pageTitle", page.getTitle())));
         }
+
+        DocumentEmbedding entity = DocumentEmbedding.create(attachment.getId(), title, text, spaceKey, spaceName);
+        entity.setVersion(attachment.getVersion());
+        entity.setParentPageId(page.getId());
+        store(documents, List.of(attachment.getId()), () -> bulkRepository.upsertAll(List.of(entity)));
+        pageCatalog.putAll(List.of(entity));
+
+        logger.info("Successfully stored attachment {} - {} of page {} ({} chunks)",
+                attachment.getId(), title, page.getId(), documents.size());
+    }
+
+    // Embeds first, then replaces the content's vectors and runs the metadata writes in one transaction; the store
+    // finds the embeddings in the precomputed model instead of calling Ollama inside the transaction
+    private void store(List<Document> documents, List<String> contentIds, Runnable metadataWrites) {
+        try {
+            ragMetrics.timeIngestionStage("embed", documents.size(), () -> embeddingModel.precomputeDocuments(documents));
+            transactionTemplate.executeWithoutResult(status -> {
+                ragMetrics.timeIngestionStage("store", documents.size(), () -> {
+                    Set<String> spaceKeys = new HashSet<>(bulkRepository.findSpaceKeys(contentIds));
+                    documents.forEach(document -> spaceKeys.add(document.getMetadata().get("spaceKey").toString()));
+                    vectorStore.delete(byContentIds(contentIds, spaceKeys));
+                    vectorStore.add(documents);
+                });
+                metadataWrites.run();
+            });
+        } finally {
+            embeddingModel.forget(documents.stream().map(Document::getText).toList());
+        }
+    }
+
+    private static IngestionJournalRepository.Entry journalEntry(ConfluencePage page) {
+        return new IngestionJournalRepository.Entry(page.getId(), IngestionJournalRepository.KIND_PAGE,
+                IngestionJournalRepository.UPSERT, page.getVersion() != null ? page.getVersion().getNumber() : null);
     }
 
-    private String extractTextContent(ConfluencePage confluencePage) {
+    private StorageFormatExtractor.ExtractedText extractTextContent(ConfluencePage confluencePage) {
         if (confluencePage.getBody() == null ||
                 confluencePage.getBody().getStorage() == null ||
                 confluencePage.getBody().getStorage().getValue() == null) {
             return null;
         }
 
-        String htmlContent = confluencePage.getBody().getStorage().getValue();
-
-        // Use Jsoup to extract plain text from HTML
-        String plainText = Jsoup.parse(htmlContent).text();
-
-        // Add title to the content for better context
-        String title = confluencePage.getTitle();
-        return title + "\n\n" + plainText;
+        return storageFormatExtractor.extract(confluencePage.getBody().getStorage().getValue());
     }
 
-    private void createNewDocument(String pageId, String title, String content, String spaceKey, String spaceName) {
-        // Create Spring AI Document
-        Document document = new Document(content, Map.of(
-                "id", pageId,
-                "title", title,
-                "spaceKey", spaceKey,
-                "spaceName", spaceName,
-                "type", "confluence-page"
-        ));
+    private Document toDocument(String type, String contentId, int chunkIndex, DocumentChunker.Chunk chunk, String title,
+                                String spaceKey, String spaceName, Map<String, Object> extraMetadata) {
+        Map<String, Object> metadata = new HashMap<>(extraMetadata);
+        metadata.put("id", contentId);
+        metadata.put("title", title);
+        metadata.put("spaceKey", spaceKey);
+        metadata.put("spaceName", spaceName);
+        metadata.put("type", type);
+        metadata.put("chunk", chunkIndex);
 
-        // Store in vector store (this will generate embeddings)
-        vectorStore.add(List.of(document));
+        // Prefix every chunk with the page title (and section) so it stays meaningful on its own
+        String header = title;
+        if (chunk.getSectionTitle() != null) {
+            metadata.put("section", chunk.getSectionTitle());
+            header = title + " > " + chunk.getSectionTitle();
+        }
 
-        // Create and save entity
-        DocumentEmbedding documentEmbedding = DocumentEmbedding.fromDocument(document, pageId, title, spaceKey, spaceName);
-        documentRepository.save(documentEmbedding);
+        return Document.builder()
+                .id(vectorDocumentId(type, contentId, chunkIndex))
+                .text(header + "\n\n" + chunk.getText())
+                .metadata(metadata)
+                .build();
+    }
 
-        logger.info("Successfully stored new document: {} - {}", pageId, title);
+    static String vectorDocumentId(String type, String contentId, int chunkIndex) {
+        String key = type + ":" + contentId + "#" + chunkIndex;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
     }
 
-    private void updateExistingDocument(DocumentEmbedding existingDoc, String content, String title, String spaceKey, String spaceName) {
-        // Update the existing document
-        existingDoc.setTitle(title);
-        existingDoc.setContent(content);
-        existingDoc.setSpaceKey(spaceKey);
-        existingDoc.setSpaceName(spaceName);
-
-        // Create updated Spring AI Document
-        Document document = new Document(content, Map.of(
-                "id", existingDoc.getConfluencePageId(),
-                "title", title,
-                "spaceKey", spaceKey,
-                "spaceName", spaceName,
-                "type", "confluence-page"
-        ));
-
-        // Update in vector store
-        vectorStore.delete(List.of(existingDoc.getConfluencePageId()));
-        vectorStore.add(List.of(document));
-
-        // Save updated entity
-        documentRepository.save(existingDoc);
-
-        logger.info("Successfully updated document: {} - {}", existingDoc.getConfluencePageId(), title);
+    // Also restricted to the spaces the content is stored in (and, on a re-ingest, the space it is moving to), so a
+    // space-partitioned store deletes from those partitions only
+    static Filter.Expression byContentIds(List<String> contentIds, Set<String> spaceKeys) {
+        FilterExpressionBuilder filter = new FilterExpressionBuilder();
+        if (spaceKeys.isEmpty()) {
+            return filter.in("id", contentIds.toArray()).build();
+        }
+        return filter.and(filter.in("spaceKey", spaceKeys.toArray()), filter.in("id", contentIds.toArray())).build();
     }
 
     public long getDocumentCount() {
@@ -138,8 +254,30 @@ public class EmbeddingService {
     }
 
     public void deleteDocument(String confluencePageId) {
-        vectorStore.delete(List.of(confluencePageId));
-        documentRepository.deleteByConfluencePageId(confluencePageId);
+        transactionTemplate.executeWithoutResult(status -> {
+            List<String> contentIds = List.of(confluencePageId);
+            vectorStore.delete(byContentIds(contentIds, bulkRepository.findSpaceKeys(contentIds)));
+            documentRepository.deleteByConfluencePageId(confluencePageId);
+            bulkRepository.recordDeletions(contentIds);
+            journal.markApplied(IngestionJournalRepository.KIND_PAGE, List.of(confluencePageId));
+        });
+        pageCatalog.remove(confluencePageId);
         logger.info("Deleted document: {}", confluencePageId);
     }
+
+    // A removed page takes the attachments stored under it along
+    public void deletePage(String pageId) {
+        List<String> contentIds = new ArrayList<>();
+        contentIds.add(pageId);
+        documentRepository.findByParentPageId(pageId).forEach(attachment -> contentIds.add(attachment.getConfluencePageId()));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            vectorStore.delete(byContentIds(contentIds, bulkRepository.findSpaceKeys(contentIds)));
+            documentRepository.deleteByConfluencePageIdIn(contentIds);
+            bulkRepository.recordDeletions(contentIds);
+            journal.markApplied(IngestionJournalRepository.KIND_PAGE, List.of(pageId));
+        });
+        contentIds.forEach(pageCatalog::remove);
+        logger.info("Deleted page {} and {} attachments", pageId, contentIds.size() - 1);
+    }
 }
\ No newline at end of file
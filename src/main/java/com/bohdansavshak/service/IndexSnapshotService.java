@@ -0,0 +1,188 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.repository.IndexSnapshot;
+import com.bohdansavshak.repository.RebuildableVectorStore;
+import com.bohdansavshak.repository.VectorSnapshotRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.model.ollama.autoconfigure.OllamaEmbeddingProperties;
+import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreProperties;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Exports the served vectors and page metadata into an IndexSnapshot file, and loads such a file into a fresh
+// generation of the vector store with binary COPY. A new environment is filled from a snapshot without any
+// Confluence or embedding calls; the search index is built once after loading, as in a full rebuild.
+@Service
+public class IndexSnapshotService {
+    private static final Logger logger = LoggerFactory.getLogger(IndexSnapshotService.class);
+    private static final int COPY_BATCH_SIZE = 1000;
+
+    public record Result(long chunks, long pages, long millis) {
+    }
+
+    private final VectorSnapshotRepository snapshotRepository;
+    private final RebuildableVectorStore vectorStore;
+    private final PageCatalog pageCatalog;
+    private final IngestionProperties ingestionProperties;
+    private final PgVectorStoreProperties vectorStoreProperties;
+    private final OllamaEmbeddingProperties embeddingProperties;
+    private final ObjectMapper objectMapper;
+    private final RagMetrics ragMetrics;
+
+    public IndexSnapshotService(VectorSnapshotRepository snapshotRepository, RebuildableVectorStore vectorStore,
+                                PageCatalog pageCatalog, IngestionProperties ingestionProperties,
+                                PgVectorStoreProperties vectorStoreProperties, OllamaEmbeddingProperties embeddingProperties,
+                                ObjectMapper objectMapper, RagMetrics ragMetrics) {
+        this.snapshotRepository = snapshotRepository;
+        this.vectorStore = vectorStore;
+        this.pageCatalog = pageCatalog;
+        this.ingestionProperties = ingestionProperties;
+        this.vectorStoreProperties = vectorStoreProperties;
+        this.embeddingProperties = embeddingProperties;
+        this.objectMapper = objectMapper;
+        this.ragMetrics = ragMetrics;
+    }
+
+    // Fills an empty index from ingestion.snapshot-bootstrap before the application reports ready
+    @EventListener(ApplicationStartedEvent.class)
+    public void bootstrap() throws IOException {
+        String fileName = ingestionProperties.getSnapshotBootstrap();
+        if (fileName == null || fileName.isBlank()) {
+            return;
+        }
+        Path file = resolve(fileName);
+        if (!Files.exists(file)) {
+            logger.warn("Bootstrap snapshot {} does not exist, starting with the current index", file);
+            return;
+        }
+        // Instances starting together wait for the first one's import and then find the index filled
+        snapshotRepository.withImportLock(() -> {
+            if (!snapshotRepository.isEmpty(vectorStore.servingTables())) {
+                logger.info("Vector index is not empty, skipping bootstrap from {}", file);
+                return null;
+            }
+            return load(fileName);
+        });
+    }
+
+    public Result exportSnapshot(String fileName, IndexSnapshot.Precision precision) throws IOException {
+        Path target = resolve(fileName);
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        long startNanos = System.nanoTime();
+
+        IndexSnapshot.Writer writer = new IndexSnapshot.Writer(partial, vectorStoreProperties.getDimensions(), precision,
+                embeddingProperties.getModel());
+        try {
+            try (writer) {
+                snapshotRepository.read(vectorStore.servingTables(), writer::writeChunk, writer::writePage);
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+
+        ragMetrics.recordIngestionStage("snapshot-export", (int) writer.getChunkCount(), startNanos);
+        Result result = new Result(writer.getChunkCount(), writer.getPageCount(), (System.nanoTime() - startNanos) / 1_000_000);
+        logger.info("Exported {} chunks and {} pages to {} ({} bytes) in {} ms",
+                result.chunks(), result.pages(), target, Files.size(target), result.millis());
+        return result;
+    }
+
+    // Replaces the served vectors and page metadata with the snapshot's; if loading fails both stay as they were
+    public Result importSnapshot(String fileName) throws IOException {
+        return snapshotRepository.withImportLock(() -> load(fileName));
+    }
+
+    private Result load(String fileName) throws IOException {
+        Path source = resolve(fileName);
+        long startNanos = System.nanoTime();
+
+        try (IndexSnapshot.Reader reader = new IndexSnapshot.Reader(source)) {
+            if (reader.getDimensions() != vectorStoreProperties.getDimensions()) {
+                throw new IllegalArgumentException("Snapshot has " + reader.getDimensions() + " dimensions, the index "
+                        + vectorStoreProperties.getDimensions());
+            }
+            if (!reader.getModelName().equals(embeddingProperties.getModel())) {
+                logger.warn("Snapshot was embedded with {}, queries are embedded with {}",
+                        reader.getModelName(), embeddingProperties.getModel());
+            }
+
+            vectorStore.beginFullRebuild();
+            snapshotRepository.beginPageImport();
+            try {
+                copyChunks(reader);
+                stagePages(reader);
+                vectorStore.commitFullRebuild();
+            } catch (IOException | RuntimeException e) {
+                vectorStore.abortFullRebuild();
+                snapshotRepository.abortPageImport();
+                throw e;
+            }
+            // Right after the switch; the metadata is written in one transaction, deleting pages the snapshot lacks
+            snapshotRepository.commitPageImport();
+            pageCatalog.refresh();
+
+            ragMetrics.recordIngestionStage("snapshot-import", (int) reader.getChunkCount(), startNanos);
+            Result result = new Result(reader.getChunkCount(), reader.getPageCount(), (System.nanoTime() - startNanos) / 1_000_000);
+            logger.info("Imported {} chunks and {} pages from {} in {} ms", result.chunks(), result.pages(), source, result.millis());
+            return result;
+        }
+    }
+
+    private void copyChunks(IndexSnapshot.Reader reader) throws IOException {
+        // Grouped by target table, which differs per space when the store is partitioned
+        Map<String, List<IndexSnapshot.Chunk>> byTable = new LinkedHashMap<>();
+        int buffered = 0;
+        for (long i = 0; i < reader.getChunkCount(); i++) {
+            IndexSnapshot.Chunk chunk = reader.chunk(i);
+            byTable.computeIfAbsent(vectorStore.writeTable(spaceKey(chunk)), table -> new ArrayList<>()).add(chunk);
+            if (++buffered >= COPY_BATCH_SIZE) {
+                byTable.forEach(snapshotRepository::copy);
+                byTable.clear();
+                buffered = 0;
+            }
+        }
+        byTable.forEach(snapshotRepository::copy);
+    }
+
+    private void stagePages(IndexSnapshot.Reader reader) throws IOException {
+        List<IndexSnapshot.Page> batch = new ArrayList<>(ingestionProperties.getBatchSize());
+        for (long i = 0; i < reader.getPageCount(); i++) {
+            batch.add(reader.page(i));
+            if (batch.size() >= ingestionProperties.getBatchSize()) {
+                snapshotRepository.stagePages(batch);
+                batch.clear();
+            }
+        }
+        snapshotRepository.stagePages(batch);
+    }
+
+    private String spaceKey(IndexSnapshot.Chunk chunk) throws IOException {
+        return chunk.metadata() == null ? "UNKNOWN" : objectMapper.readTree(chunk.metadata()).path("spaceKey").asText("UNKNOWN");
+    }
+
+    // Snapshot files are only read and written inside ingestion.snapshot-dir
+    public Path resolve(String fileName) {
+        Path directory = Path.of(ingestionProperties.getSnapshotDir()).toAbsolutePath().normalize();
+        Path file = directory.resolve(fileName).normalize();
+        if (fileName.isBlank() || !file.startsWith(directory) || file.equals(directory)) {
+            throw new IllegalArgumentException("Snapshot file must be a name inside " + directory);
+        }
+        return file;
+    }
+}
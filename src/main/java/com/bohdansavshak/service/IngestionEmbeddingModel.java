@@ -0,0 +1,72 @@
+package com.bohdansavshak.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+// Embeds content being ingested. On its own nodes (spring.ai.ollama.pool.ingestion-urls) calls are not limited;
+// sharing the embedding pool with query embeddings, at most ingestion-max-in-flight calls run at once, so a
+// question's embedding finds a free slot instead of queuing behind a bulk re-embed.
+public class IngestionEmbeddingModel implements EmbeddingModel, AutoCloseable {
+    private final EmbeddingModel delegate;
+    private final Semaphore inFlight;
+    private final boolean ownsDelegate;
+
+    private IngestionEmbeddingModel(EmbeddingModel delegate, Semaphore inFlight, boolean ownsDelegate) {
+        this.delegate = delegate;
+        this.inFlight = inFlight;
+        this.ownsDelegate = ownsDelegate;
+    }
+
+    public static IngestionEmbeddingModel dedicated(PooledEmbeddingModel pool) {
+        return new IngestionEmbeddingModel(pool, null, true);
+    }
+
+    public static IngestionEmbeddingModel shared(EmbeddingModel queryModel, int maxInFlight) {
+        return new IngestionEmbeddingModel(queryModel, maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null, false);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return limited(() -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return limited(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private <T> T limited(Supplier<T> call) {
+        if (inFlight == null) {
+            return call.get();
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an ingestion embedding slot", e);
+        }
+        try {
+            return call.get();
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    // The shared pool is closed by its own bean
+    @Override
+    public void close() throws Exception {
+        if (ownsDelegate && delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import com.bohdansavshak.repository.IngestionJournalRepository.Entry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Finishes mutations that were journaled but never applied, e.g. because the instance was killed mid-crawl or while
+// webhook changes were still being debounced. Entries are only replayed once they have been pending for
+// ingestion.journal-replay-after, so work that another live instance is still doing is left alone.
+@Service
+public class IngestionJournalReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(IngestionJournalReplayer.class);
+    private static final int REPLAY_BATCH_SIZE = 50;
+
+    private final IngestionJournalRepository journal;
+    private final ConfluenceClient confluenceClient;
+    private final EmbeddingService embeddingService;
+    private final AttachmentIngestionService attachmentIngestionService;
+    private final ConfluenceProperties confluenceProperties;
+    private final IngestionProperties ingestionProperties;
+    private final RagMetrics ragMetrics;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("journal-replay-"));
+
+    public IngestionJournalReplayer(IngestionJournalRepository journal, ConfluenceClient confluenceClient,
+                                    EmbeddingService embeddingService, AttachmentIngestionService attachmentIngestionService,
+                                    ConfluenceProperties confluenceProperties, IngestionProperties ingestionProperties,
+                                    RagMetrics ragMetrics) {
+        this.journal = journal;
+        this.confluenceClient = confluenceClient;
+        this.embeddingService = embeddingService;
+        this.attachmentIngestionService = attachmentIngestionService;
+        this.confluenceProperties = confluenceProperties;
+        this.ingestionProperties = ingestionProperties;
+        this.ragMetrics = ragMetrics;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        journal.createTablesIfMissing();
+        long intervalMillis = Math.max(1000, ingestionProperties.getJournalReplayAfter().toMillis() / 2);
+        scheduler.scheduleWithFixedDelay(this::replay, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void replay() {
+        try {
+            List<Entry> entries;
+            while (!(entries = journal.claimStale(ingestionProperties.getJournalReplayAfter(), REPLAY_BATCH_SIZE)).isEmpty()) {
+                logger.info("Replaying {} unfinished journal entries", entries.size());
+                List<String> upserts = new ArrayList<>(
+                        contentIds(entries, IngestionJournalRepository.KIND_PAGE, IngestionJournalRepository.UPSERT));
+                // As for webhooks, a delete is only applied once Confluence confirms the page is gone
+                for (String pageId : contentIds(entries, IngestionJournalRepository.KIND_PAGE, IngestionJournalRepository.DELETE)) {
+                    if (confluenceClient.findPageById(pageId).isPresent()) {
+                        upserts.add(pageId);
+                    } else {
+                        embeddingService.deletePage(pageId);
+                    }
+                }
+                replayPageUpserts(upserts);
+                replayAttachments(contentIds(entries, IngestionJournalRepository.KIND_ATTACHMENTS, IngestionJournalRepository.UPSERT));
+                ragMetrics.countIngested("journal-replay", entries.size());
+            }
+        } catch (Exception e) {
+            // Whatever was not applied stays pending and is claimed again on a later run
+            logger.error("Journal replay failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void replayPageUpserts(List<String> pageIds) {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+
+        List<ConfluencePage> pages = indexable(pageIds, confluenceClient.getPages(pageIds));
+        embeddingService.processAndStoreConfluencePages(pages);
+    }
+
+    private void replayAttachments(List<String> pageIds) {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+
+        List<ConfluencePage> pages = confluenceClient.getPages(pageIds);
+        List<ConfluencePage> indexable = indexable(pageIds, pages);
+        indexable.forEach(attachmentIngestionService::submit);
+        Set<String> submitted = indexable.stream().map(ConfluencePage::getId).collect(Collectors.toSet());
+        journal.markApplied(IngestionJournalRepository.KIND_ATTACHMENTS,
+                pageIds.stream().filter(id -> !submitted.contains(id)).toList());
+    }
+
+    // Pages gone from Confluence or outside confluence.space-keys are deleted, as for webhooks, with the
+    // attachments stored under them; the rest are returned to be indexed
+    private List<ConfluencePage> indexable(List<String> pageIds, List<ConfluencePage> pages) {
+        Set<String> found = pages.stream().map(ConfluencePage::getId).collect(Collectors.toSet());
+        List<String> missing = pageIds.stream().filter(id -> !found.contains(id)).toList();
+        if (!missing.isEmpty()) {
+            logger.warn("Pages {} no longer exist in Confluence, deleting them", missing);
+        }
+        missing.forEach(embeddingService::deletePage);
+
+        List<ConfluencePage> indexable = new ArrayList<>();
+        for (ConfluencePage page : pages) {
+            if (PageChangeService.isInConfiguredSpaces(confluenceProperties, page)) {
+                indexable.add(page);
+            } else {
+                logger.info("Page {} is not in confluence.space-keys, deleting it", page.getId());
+                embeddingService.deletePage(page.getId());
+            }
+        }
+        return indexable;
+    }
+
+    private static List<String> contentIds(List<Entry> entries, String kind, String operation) {
+        return entries.stream()
+                .filter(entry -> entry.kind().equals(kind) && entry.operation().equals(operation))
+                .map(Entry::contentId)
+                .toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,198 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionQueueRepository;
+import com.bohdansavshak.repository.IngestionQueueRepository.QueuedPage;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Drains the shared ingestion queue (ingestion.queue-enabled). Every instance runs queue-workers loops that claim
+// batches of page ids, fetch the pages and embed them, so adding instances adds ingestion throughput. A heartbeat
+// renews the leases of the pages a worker is processing, until ingestion.queue-max-lease-age; if the node dies or a
+// batch hangs they expire and other nodes pick the pages up.
+@Service
+public class IngestionQueueWorker {
+    private static final Logger logger = LoggerFactory.getLogger(IngestionQueueWorker.class);
+
+    private final IngestionQueueRepository queueRepository;
+    private final ConfluenceClient confluenceClient;
+    private final EmbeddingService embeddingService;
+    private final AttachmentIngestionService attachmentIngestionService;
+    private final IngestionProperties ingestionProperties;
+    private final RagMetrics ragMetrics;
+    private final ObservationRegistry observationRegistry;
+    private final String nodeId = nodeName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    // Pages of the batches the workers are processing right now; only their leases are renewed
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    private ExecutorService workers;
+    private ScheduledExecutorService heartbeat;
+
+    public IngestionQueueWorker(IngestionQueueRepository queueRepository, ConfluenceClient confluenceClient,
+                                EmbeddingService embeddingService, AttachmentIngestionService attachmentIngestionService,
+                                IngestionProperties ingestionProperties, RagMetrics ragMetrics,
+                                ObservationRegistry observationRegistry) {
+        this.queueRepository = queueRepository;
+        this.confluenceClient = confluenceClient;
+        this.embeddingService = embeddingService;
+        this.attachmentIngestionService = attachmentIngestionService;
+        this.ingestionProperties = ingestionProperties;
+        this.ragMetrics = ragMetrics;
+        this.observationRegistry = observationRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!ingestionProperties.isQueueEnabled()) {
+            return;
+        }
+
+        queueRepository.createTableIfMissing();
+        ragMetrics.registerGauge("rag.ingestion.queue.claimed", inFlight::size);
+        running = true;
+
+        // Renew well before expiry, so one slow heartbeat doesn't hand this node's pages to another
+        long heartbeatMillis = Math.max(1000, ingestionProperties.getQueueLease().toMillis() / 3);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ingestion-heartbeat-"));
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+
+        int workerCount = ingestionProperties.getQueueWorkers();
+        workers = Executors.newFixedThreadPool(Math.max(1, workerCount), new CustomizableThreadFactory("ingestion-worker-"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+        logger.info("Ingestion queue worker {} started with {} workers", nodeId, workerCount);
+    }
+
+    public Map<String, Object> getQueueStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", ingestionProperties.isQueueEnabled());
+        if (ingestionProperties.isQueueEnabled()) {
+            status.put("node", nodeId);
+            status.put("claimedByThisNode", inFlight.size());
+            status.put("pages", queueRepository.countsByState());
+        }
+        return status;
+    }
+
+    private void work() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                List<QueuedPage> batch = queueRepository.claim(nodeId, ingestionProperties.getQueueClaimSize(),
+                        ingestionProperties.getQueueLease(), ingestionProperties.getQueueMaxAttempts());
+                if (batch.isEmpty()) {
+                    Thread.sleep(ingestionProperties.getQueuePollInterval().toMillis());
+                    continue;
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Ingestion queue worker error: {}", e.getMessage(), e);
+                pause();
+            }
+        }
+    }
+
+    private void process(List<QueuedPage> batch) {
+        List<String> pageIds = batch.stream().map(QueuedPage::pageId).toList();
+        inFlight.addAll(pageIds);
+        long startNanos = System.nanoTime();
+        try {
+            Observation.createNotStarted("rag.ingestion.queue.batch", observationRegistry)
+                    .highCardinalityKeyValue("pages", String.valueOf(pageIds.size()))
+                    .observe(() -> {
+                        List<ConfluencePage> pages = confluenceClient.getPages(pageIds);
+                        embeddingService.processAndStoreConfluencePages(pages);
+                        pages.forEach(attachmentIngestionService::submit);
+
+                        Set<String> stored = pages.stream().map(ConfluencePage::getId).collect(Collectors.toSet());
+                        queueRepository.complete(nodeId, List.copyOf(stored));
+                        queueRepository.fail(nodeId, pageIds.stream().filter(id -> !stored.contains(id)).toList(),
+                                "Page could not be fetched from Confluence", ingestionProperties.getQueueMaxAttempts(),
+                                ingestionProperties.getQueuePollInterval());
+                    });
+            ragMetrics.recordIngestionStage("queue", pageIds.size(), startNanos);
+
+        } catch (Exception e) {
+            logger.error("Error processing queued batch starting at page {}: {}", pageIds.getFirst(), e.getMessage(), e);
+            queueRepository.fail(nodeId, pageIds, String.valueOf(e.getMessage()), ingestionProperties.getQueueMaxAttempts(),
+                    ingestionProperties.getQueuePollInterval());
+        } finally {
+            pageIds.forEach(inFlight::remove);
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            queueRepository.heartbeat(nodeId, List.copyOf(inFlight), ingestionProperties.getQueueLease(),
+                    ingestionProperties.getQueueMaxLeaseAge());
+            int expired = queueRepository.failExpired(ingestionProperties.getQueueMaxAttempts());
+            if (expired > 0) {
+                logger.warn("{} queued pages failed: their lease expired on the last attempt", expired);
+            }
+        } catch (Exception e) {
+            logger.warn("Ingestion queue heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(ingestionProperties.getQueuePollInterval().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        workers.shutdownNow();
+        heartbeat.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+            // Hand unfinished claims back right away instead of letting them wait for the lease to expire
+            int released = queueRepository.release(nodeId);
+            logger.info("Ingestion queue worker {} stopped, released {} pages", nodeId, released);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Could not release claimed pages of {}: {}", nodeId, e.getMessage());
+        }
+    }
+
+    private static String nodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "node";
+        }
+    }
+}
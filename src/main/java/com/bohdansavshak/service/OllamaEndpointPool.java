@@ -0,0 +1,203 @@
+package com.bohdansavshak.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// A set of Ollama nodes serving the same model. Each call goes to the healthy node with the fewest calls in flight,
+// so a node that is slow, or busy with long generations, gets less new work. A node that can't be connected to is
+// taken out until its next successful health check (GET /api/tags), and the call is retried on another node;
+// streams are only retried before their first element. With every node down, calls still try them all.
+public class OllamaEndpointPool<M> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(OllamaEndpointPool.class);
+
+    public static final class Endpoint<M> {
+        private final String baseUrl;
+        private final M model;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        public Endpoint(String baseUrl, M model) {
+            this.baseUrl = baseUrl;
+            this.model = model;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+    }
+
+    private final String name;
+    private final List<Endpoint<M>> endpoints;
+    private final HttpClient httpClient;
+    private final Duration healthCheckTimeout;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecks;
+
+    public OllamaEndpointPool(String name, List<Endpoint<M>> endpoints, Duration healthCheckInterval,
+                              Duration healthCheckTimeout, RagMetrics ragMetrics) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Ollama " + name + " pool needs at least one endpoint");
+        }
+        this.name = name;
+        this.endpoints = List.copyOf(endpoints);
+        this.healthCheckTimeout = healthCheckTimeout;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(healthCheckTimeout).build();
+        for (Endpoint<M> endpoint : this.endpoints) {
+            ragMetrics.registerGauge("rag.ollama.outstanding", endpoint::getOutstanding, "pool", name, "endpoint", endpoint.baseUrl);
+            ragMetrics.registerGauge("rag.ollama.healthy", () -> endpoint.healthy ? 1 : 0, "pool", name, "endpoint", endpoint.baseUrl);
+        }
+
+        // A single node has nowhere else to send calls, so it isn't checked
+        if (this.endpoints.size() > 1 && !healthCheckInterval.isZero()) {
+            healthChecks = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ollama-" + name + "-health-"));
+            healthChecks.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            healthChecks = null;
+        }
+    }
+
+    public List<Endpoint<M>> getEndpoints() {
+        return endpoints;
+    }
+
+    // For settings that are the same on every node, such as default options
+    public M anyModel() {
+        return endpoints.getFirst().model;
+    }
+
+    public <T> T execute(Function<M, T> call) {
+        Set<Endpoint<M>> tried = new HashSet<>();
+        while (true) {
+            Endpoint<M> endpoint = acquire(tried);
+            try {
+                return call.apply(endpoint.model);
+            } catch (RuntimeException e) {
+                if (!failOver(endpoint, e, tried)) {
+                    throw e;
+                }
+            } finally {
+                endpoint.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    public <T> Flux<T> stream(Function<M, Flux<T>> call) {
+        return stream(call, new HashSet<>());
+    }
+
+    private <T> Flux<T> stream(Function<M, Flux<T>> call, Set<Endpoint<M>> tried) {
+        return Flux.defer(() -> {
+            Endpoint<M> endpoint = acquire(tried);
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> call.apply(endpoint.model))
+                    .doOnNext(element -> emitted.set(true))
+                    .doFinally(signal -> endpoint.outstanding.decrementAndGet())
+                    .onErrorResume(error -> !emitted.get() && failOver(endpoint, error, tried), error -> stream(call, tried));
+        });
+    }
+
+    private Endpoint<M> acquire(Set<Endpoint<M>> tried) {
+        List<Endpoint<M>> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint<M> endpoint : endpoints) {
+            if (endpoint.healthy && !tried.contains(endpoint)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            endpoints.stream().filter(endpoint -> !tried.contains(endpoint)).forEach(candidates::add);
+        }
+
+        // Ties go round-robin, so idle nodes share the load instead of the first one taking all of it
+        int start = Math.floorMod(next.getAndIncrement(), candidates.size());
+        Endpoint<M> chosen = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Endpoint<M> candidate = candidates.get((start + i) % candidates.size());
+            if (chosen == null || candidate.getOutstanding() < chosen.getOutstanding()) {
+                chosen = candidate;
+            }
+        }
+        chosen.outstanding.incrementAndGet();
+        return chosen;
+    }
+
+    // Only connection failures say anything about the node; the call is retried if another node is left to try
+    private boolean failOver(Endpoint<M> endpoint, Throwable error, Set<Endpoint<M>> tried) {
+        if (!(error instanceof ResourceAccessException) && !(error instanceof WebClientRequestException)) {
+            return false;
+        }
+        markDown(endpoint, error.getMessage());
+        tried.add(endpoint);
+        return tried.size() < endpoints.size();
+    }
+
+    public void checkHealth() {
+        for (Endpoint<M> endpoint : endpoints) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint.baseUrl.replaceAll("/+$", "") + "/api/tags"))
+                        .timeout(healthCheckTimeout)
+                        .GET()
+                        .build();
+                int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status == 200) {
+                    markUp(endpoint);
+                } else {
+                    markDown(endpoint, "health check returned " + status);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                markDown(endpoint, e.toString());
+            }
+        }
+    }
+
+    private void markUp(Endpoint<M> endpoint) {
+        if (!endpoint.healthy) {
+            endpoint.healthy = true;
+            logger.info("Ollama {} endpoint {} is back", name, endpoint.baseUrl);
+        }
+    }
+
+    private void markDown(Endpoint<M> endpoint, String reason) {
+        if (endpoint.healthy) {
+            endpoint.healthy = false;
+            logger.warn("Ollama {} endpoint {} is down: {}", name, endpoint.baseUrl, reason);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.repository.DocumentEmbeddingBulkRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Content id -> prebuilt SourcePage for every stored page and attachment. Loaded from document_embeddings at
+// startup, updated by this instance's ingestion and refreshed incrementally for what other instances stored
+// (rows by updated_at) or removed (tombstones in document_embeddings_deletions), so mapping retrieval hits to
+// sources is a lookup per hit.
+@Component
+public class PageCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(PageCatalog.class);
+    private static final String VIEW_PAGE_PATH = "/pages/viewpage.action?pageId=";
+    // updated_at is taken before the upsert commits, so rows can become visible with an older timestamp than
+    // ones already read; each refresh reads again from this far before the newest timestamp seen
+    private static final Duration LATE_COMMIT_OVERLAP = Duration.ofMinutes(2);
+    // Tombstones are kept this long; an instance that couldn't refresh for longer lists every id once instead
+    private static final Duration TOMBSTONE_RETENTION = Duration.ofDays(1);
+
+    private final Map<String, RagService.SourcePage> pages = new ConcurrentHashMap<>();
+    private final ConfluenceProperties confluenceProperties;
+    private final IngestionProperties ingestionProperties;
+    private final DocumentEmbeddingBulkRepository bulkRepository;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("page-catalog-refresh-"));
+    private volatile LocalDateTime newestSeen;
+    private volatile LocalDateTime lastRefresh;
+
+    public PageCatalog(ConfluenceProperties confluenceProperties, IngestionProperties ingestionProperties,
+                       DocumentEmbeddingBulkRepository bulkRepository) {
+        this.confluenceProperties = confluenceProperties;
+        this.ingestionProperties = ingestionProperties;
+        this.bulkRepository = bulkRepository;
+    }
+
+    // Right after the vector store, before the listeners that start ingestion and may delete pages
+    @EventListener(ApplicationStartedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void load() {
+        try {
+            bulkRepository.createDeletionsTableIfMissing();
+            lastRefresh = LocalDateTime.now();
+            List<DocumentEmbedding> documents = bulkRepository.findAllWithoutContent();
+            putAll(documents);
+            logger.info("Loaded {} pages into the page catalog", documents.size());
+        } catch (Exception e) {
+            // Sources are still resolved from chunk metadata until a refresh succeeds
+            logger.warn("Could not load the page catalog: {}", e.getMessage());
+        }
+        long intervalMillis = ingestionProperties.getCatalogRefreshInterval().toMillis();
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::refresh, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // Tombstones and rows changed since the last refresh are read, both from LATE_COMMIT_OVERLAP earlier. Removals
+    // are applied first, so a page deleted and stored again in between ends up in the catalog. Entries put by this
+    // instance meanwhile are kept.
+    void refresh() {
+        try {
+            LocalDateTime startedAt = LocalDateTime.now();
+            LocalDateTime previous = lastRefresh;
+            Set<String> removed;
+            if (previous != null && previous.isAfter(startedAt.minus(TOMBSTONE_RETENTION))) {
+                removed = bulkRepository.findDeletedSince(previous.minus(LATE_COMMIT_OVERLAP));
+            } else {
+                removed = new HashSet<>(pages.keySet());
+                removed.removeAll(bulkRepository.findAllPageIds());
+            }
+            removed.forEach(pages::remove);
+
+            LocalDateTime since = newestSeen;
+            List<DocumentEmbedding> changed = since != null
+                    ? bulkRepository.findChangedSinceWithoutContent(since.minus(LATE_COMMIT_OVERLAP))
+                    : bulkRepository.findAllWithoutContent();
+            putAll(changed);
+            lastRefresh = startedAt;
+
+            bulkRepository.pruneDeletions(startedAt.minus(TOMBSTONE_RETENTION));
+            if (!changed.isEmpty() || !removed.isEmpty()) {
+                logger.debug("Page catalog refresh: {} changed, {} removed", changed.size(), removed.size());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not refresh the page catalog: {}", e.getMessage());
+        }
+    }
+
+    public void putAll(List<DocumentEmbedding> documents) {
+        for (DocumentEmbedding document : documents) {
+            String linkedPageId = document.getParentPageId() != null ? document.getParentPageId() : document.getConfluencePageId();
+            pages.put(document.getConfluencePageId(), new RagService.SourcePage(
+                    document.getConfluencePageId(),
+                    document.getTitle(),
+                    document.getSpaceKey(),
+                    document.getSpaceName(),
+                    url(confluenceProperties.getBaseUrl(), linkedPageId),
+                    document.getVersion() != null ? document.getVersion() : 0));
+            LocalDateTime updatedAt = document.getUpdatedAt();
+            if (updatedAt != null && (newestSeen == null || updatedAt.isAfter(newestSeen))) {
+                newestSeen = updatedAt;
+            }
+        }
+    }
+
+    public void remove(String contentId) {
+        pages.remove(contentId);
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    // One source per page in rank order
+    public List<RagService.SourcePage> sourcesFor(List<Document> documents) {
+        List<RagService.SourcePage> sources = new ArrayList<>(documents.size());
+        Set<String> seen = new HashSet<>();
+        for (Document document : documents) {
+            RagService.SourcePage source = resolve(document);
+            if (seen.add(source.getPageId())) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    private RagService.SourcePage resolve(Document document) {
+        Object id = document.getMetadata().get("id");
+        RagService.SourcePage source = id != null ? pages.get(id.toString()) : null;
+        if (source != null) {
+            return source;
+        }
+
+        // Not in the catalog (stored by another instance since the last refresh, or a vector without a stored row):
+        // built from the chunk's metadata and not cached, so ids that never get a row can't grow the map
+        return fromMetadata(document, confluenceProperties.getBaseUrl());
+    }
+
+    static RagService.SourcePage fromMetadata(Document document, String baseUrl) {
+        String pageId = document.getMetadata().getOrDefault("id", "").toString();
+        String title = document.getMetadata().getOrDefault("title", "Unknown").toString();
+        String spaceKey = document.getMetadata().getOrDefault("spaceKey", "").toString();
+        String spaceName = document.getMetadata().getOrDefault("spaceName", "").toString();
+
+        // Attachments link to the page they are attached to
+        String linkedPageId = document.getMetadata().getOrDefault("pageId", pageId).toString();
+        return new RagService.SourcePage(pageId, title, spaceKey, spaceName, url(baseUrl, linkedPageId), 0);
+    }
+
+    private static String url(String baseUrl, String pageId) {
+        if (baseUrl == null || pageId == null || pageId.isEmpty()) {
+            return "";
+        }
+        return baseUrl + VIEW_PAGE_PATH + pageId;
+    }
+}
@@ -0,0 +1,148 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.WebhookProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Applies single-page changes reported by Confluence webhooks. Events are debounced per page id: a burst of edits
+// becomes one fetch and re-embed once the page has been quiet for confluence.webhook.debounce (or at the latest
+// after max-delay). Events only say which page to look at: the page is fetched, re-indexed if Confluence returns it
+// from one of the configured spaces, and removed if Confluence answers 404 or it is in another space.
+@Service
+public class PageChangeService {
+    private static final Logger logger = LoggerFactory.getLogger(PageChangeService.class);
+
+    public enum Change {
+        UPSERT,
+        DELETE
+    }
+
+    private record Pending(Change change, long firstEventNanos, ScheduledFuture<?> task) {
+    }
+
+    private final ConfluenceClient confluenceClient;
+    private final ConfluenceProperties confluenceProperties;
+    private final EmbeddingService embeddingService;
+    private final AttachmentIngestionService attachmentIngestionService;
+    private final WebhookProperties webhookProperties;
+    private final RagMetrics ragMetrics;
+    private final ObservationRegistry observationRegistry;
+    private final IngestionJournalRepository journal;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    // One thread: changes are applied one page at a time, in the order their quiet periods end
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("page-change-"));
+
+    public PageChangeService(ConfluenceClient confluenceClient, ConfluenceProperties confluenceProperties,
+                             EmbeddingService embeddingService,
+                             AttachmentIngestionService attachmentIngestionService, WebhookProperties webhookProperties,
+                             RagMetrics ragMetrics, ObservationRegistry observationRegistry,
+                             IngestionJournalRepository journal) {
+        this.confluenceClient = confluenceClient;
+        this.confluenceProperties = confluenceProperties;
+        this.embeddingService = embeddingService;
+        this.attachmentIngestionService = attachmentIngestionService;
+        this.webhookProperties = webhookProperties;
+        this.ragMetrics = ragMetrics;
+        this.observationRegistry = observationRegistry;
+        this.journal = journal;
+        ragMetrics.registerGauge("rag.webhook.pending", pending::size);
+    }
+
+    public void submit(String pageId, Change change) {
+        ragMetrics.countIngested("webhook-event", 1);
+        // Debounced changes only live in memory until applied; the journal keeps them across a restart
+        journal.recordPending(List.of(new IngestionJournalRepository.Entry(pageId, IngestionJournalRepository.KIND_PAGE,
+                change == Change.DELETE ? IngestionJournalRepository.DELETE : IngestionJournalRepository.UPSERT, null)));
+        pending.compute(pageId, (id, previous) -> {
+            long now = System.nanoTime();
+            long firstEventNanos = previous != null ? previous.firstEventNanos() : now;
+            if (previous != null) {
+                previous.task().cancel(false);
+            }
+            long untilDeadline = webhookProperties.getMaxDelay().toNanos() - (now - firstEventNanos);
+            long delay = Math.max(0, Math.min(webhookProperties.getDebounce().toNanos(), untilDeadline));
+            return new Pending(change, firstEventNanos, scheduler.schedule(() -> apply(id), delay, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void apply(String pageId) {
+        Pending change = pending.remove(pageId);
+        if (change == null) {
+            return;
+        }
+
+        try {
+            Observation.createNotStarted("rag.ingestion.page_change", observationRegistry)
+                    .lowCardinalityKeyValue("change", change.change().name().toLowerCase())
+                    .highCardinalityKeyValue("page.id", pageId)
+                    .observe(() -> ragMetrics.timeIngestionStage("webhook-" + change.change().name().toLowerCase(), 1,
+                            () -> reindex(pageId)));
+        } catch (Exception e) {
+            // The journal entry stays pending and the replayer tries again
+            logger.error("Error applying {} of page {}: {}", change.change(), pageId, e.getMessage(), e);
+        }
+    }
+
+    // A removed or trashed event is not trusted on its own: it may be followed by a restore, and anyone who can reach
+    // the endpoint could send one. Only a 404 from Confluence removes the page.
+    private void reindex(String pageId) {
+        Optional<ConfluencePage> fetched = confluenceClient.findPageById(pageId);
+        if (fetched.isEmpty()) {
+            embeddingService.deletePage(pageId);
+            logger.info("Removed page {}, Confluence no longer has it", pageId);
+            return;
+        }
+
+        ConfluencePage page = fetched.get();
+        if (!isInConfiguredSpaces(confluenceProperties, page)) {
+            // Also drops a page that was moved out of the indexed spaces
+            embeddingService.deletePage(pageId);
+            logger.info("Page {} is not in confluence.space-keys, not indexing it", pageId);
+            return;
+        }
+
+        embeddingService.processAndStoreConfluencePages(List.of(page));
+        attachmentIngestionService.submit(page);
+        logger.info("Re-indexed page {} - {} from webhook", pageId, page.getTitle());
+    }
+
+    // Also used by journal replay, so replayed pages are held to the same spaces as webhook changes
+    static boolean isInConfiguredSpaces(ConfluenceProperties confluenceProperties, ConfluencePage page) {
+        String spaceKeys = confluenceProperties.getSpaceKeys();
+        if (spaceKeys == null || spaceKeys.isBlank()) {
+            return true;
+        }
+        Set<String> configured = Arrays.stream(spaceKeys.split(",")).map(String::trim).collect(Collectors.toSet());
+        return page.getSpace() != null && configured.contains(page.getSpace().getKey());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
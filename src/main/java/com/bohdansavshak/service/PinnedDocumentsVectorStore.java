@@ -0,0 +1,89 @@
+package com.bohdansavshak.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The vector store the answer advisor searches. Documents already retrieved for an answer that is being generated
+// are pinned under a token of that request and returned as they are, so the advisor doesn't embed and search a
+// second time. The advisor only hands the store its SearchRequest, so the token travels as the request's filter
+// expression (QuestionAnswerAdvisor.FILTER_EXPRESSION in the advisor context); identical questions asked at the
+// same time each find their own documents.
+class PinnedDocumentsVectorStore implements VectorStore {
+    private static final String TOKEN_KEY = "pinnedDocuments";
+
+    private final VectorStore delegate;
+    private final Map<String, List<Document>> pinned = new ConcurrentHashMap<>();
+
+    PinnedDocumentsVectorStore(VectorStore delegate) {
+        this.delegate = delegate;
+    }
+
+    // Returns the token to pass to the advisor with filterFor, and to unpin with once the answer is done
+    String pin(List<Document> documents) {
+        String token = UUID.randomUUID().toString();
+        pinned.put(token, documents);
+        return token;
+    }
+
+    void unpin(String token) {
+        pinned.remove(token);
+    }
+
+    static String filterFor(String token) {
+        return TOKEN_KEY + " == '" + token + "'";
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        String token = tokenOf(request.getFilterExpression());
+        if (token == null) {
+            return delegate.similaritySearch(request);
+        }
+        List<Document> documents = pinned.get(token);
+        // Unpinned meanwhile: search as the advisor would have without a token
+        return documents != null ? documents
+                : delegate.similaritySearch(SearchRequest.from(request).filterExpression((Filter.Expression) null).build());
+    }
+
+    private static String tokenOf(Filter.Expression filter) {
+        if (filter != null && filter.type() == Filter.ExpressionType.EQ
+                && filter.left() instanceof Filter.Key key && TOKEN_KEY.equals(key.key())
+                && filter.right() instanceof Filter.Value value && value.value() instanceof String token) {
+            return token;
+        }
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+}
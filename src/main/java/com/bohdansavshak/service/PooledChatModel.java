@@ -0,0 +1,36 @@
+package com.bohdansavshak.service;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+// Generates on the chat pool's nodes; a streamed answer stays on the node it started on
+public class PooledChatModel implements ChatModel, AutoCloseable {
+    private final OllamaEndpointPool<ChatModel> pool;
+
+    public PooledChatModel(OllamaEndpointPool<ChatModel> pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return pool.execute(model -> model.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return pool.stream(model -> model.stream(prompt));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return pool.anyModel().getDefaultOptions();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,35 @@
+package com.bohdansavshak.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+// Embeds on the embedding pool's nodes; ingestion and query embeddings never queue behind chat generations
+public class PooledEmbeddingModel implements EmbeddingModel, AutoCloseable {
+    private final OllamaEndpointPool<EmbeddingModel> pool;
+
+    public PooledEmbeddingModel(OllamaEndpointPool<EmbeddingModel> pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return pool.execute(model -> model.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return pool.execute(model -> model.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return pool.execute(EmbeddingModel::dimensions);
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
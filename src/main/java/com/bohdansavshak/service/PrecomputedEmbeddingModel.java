@@ -0,0 +1,87 @@
+package com.bohdansavshak.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The embedding model every vector store and service gets. Texts embedded ahead of time with precompute() are
+// answered from memory until forgotten, so a caller can embed many queries in one model call and then search
+// for each through the ordinary VectorStore API. Everything else goes to the model: documents being ingested to the
+// ingestion model, queries to the query model, so bulk embedding doesn't hold up the questions being asked.
+public class PrecomputedEmbeddingModel implements EmbeddingModel {
+    private final EmbeddingModel delegate;
+    private final EmbeddingModel ingestionDelegate;
+    private final Map<String, float[]> precomputed = new ConcurrentHashMap<>();
+    private final BatchingStrategy batchingStrategy = new TokenCountBatchingStrategy();
+
+    public PrecomputedEmbeddingModel(EmbeddingModel delegate) {
+        this(delegate, delegate);
+    }
+
+    public PrecomputedEmbeddingModel(EmbeddingModel delegate, EmbeddingModel ingestionDelegate) {
+        this.delegate = delegate;
+        this.ingestionDelegate = ingestionDelegate;
+    }
+
+    // One model call for all texts; the caller forgets them once its searches are done
+    public void precompute(List<String> texts) {
+        List<String> missing = texts.stream().distinct().filter(text -> !precomputed.containsKey(text)).toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = delegate.embed(missing);
+        for (int i = 0; i < missing.size(); i++) {
+            precomputed.put(missing.get(i), embeddings.get(i));
+        }
+    }
+
+    // Documents about to be added to a vector store, split into model calls the way the store itself would
+    public void precomputeDocuments(List<Document> documents) {
+        List<Document> missing = documents.stream().filter(document -> !precomputed.containsKey(document.getText())).toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = ingestionDelegate.embed(missing, EmbeddingOptionsBuilder.builder().build(), batchingStrategy);
+        for (int i = 0; i < missing.size(); i++) {
+            precomputed.put(missing.get(i).getText(), embeddings.get(i));
+        }
+    }
+
+    public void forget(Collection<String> texts) {
+        texts.forEach(precomputed::remove);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+        for (String text : request.getInstructions()) {
+            float[] embedding = precomputed.get(text);
+            if (embedding == null) {
+                return delegate.call(request);
+            }
+            embeddings.add(new Embedding(embedding, embeddings.size()));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return ingestionDelegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
@@ -0,0 +1,145 @@
+package com.bohdansavshak.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Application meters for the RAG hot path. Embedding, chat and vector store calls are additionally timed by
+// Spring AI's own observations (gen_ai.client.operation, db.vector.client.operation), Confluence calls by the
+// client's confluence.http.client.requests observation.
+@Component
+public class RagMetrics {
+    private final MeterRegistry registry;
+    private final Timer retrievalTimer;
+    private final DistributionSummary retrievalResults;
+    private final DistributionSummary promptTokens;
+    private final Timer timeToFirstToken;
+    private final DistributionSummary streamFrames;
+
+    public RagMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.retrievalTimer = Timer.builder("rag.retrieval.duration")
+                .description("Query embedding plus vector search")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.retrievalResults = DistributionSummary.builder("rag.retrieval.results")
+                .description("Documents returned by a similarity search")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.promptTokens = DistributionSummary.builder("rag.prompt.tokens")
+                .description("Estimated prompt size (question plus retrieved context, ~4 characters per token)")
+                .baseUnit("tokens")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.timeToFirstToken = Timer.builder("rag.stream.time_to_first_token")
+                .description("Time from receiving a streaming question to the first generated token")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.streamFrames = DistributionSummary.builder("rag.stream.frames")
+                .description("SSE chunk frames sent per streamed answer, after coalescing tokens")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public <T> T timeRetrieval(Supplier<T> search) {
+        return retrievalTimer.record(search);
+    }
+
+    public void recordRetrievalResults(int count) {
+        retrievalResults.record(count);
+    }
+
+    public void recordPromptSize(int characters) {
+        promptTokens.record(Math.ceil(characters / 4.0));
+    }
+
+    public void recordTimeToFirstToken(long startNanos) {
+        timeToFirstToken.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStreamFrames(int frames) {
+        streamFrames.record(frames);
+    }
+
+    public void recordGeneration(String mode, long startNanos) {
+        Timer.builder("rag.generation.duration")
+                .description("Total answer generation time")
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Per-stage ingestion timing; items/second is rag.ingestion.items divided by the stage's total time
+    public void timeIngestionStage(String stage, int items, Runnable work) {
+        long startNanos = System.nanoTime();
+        work.run();
+        recordIngestionStage(stage, items, startNanos);
+    }
+
+    public void recordIngestionStage(String stage, int items, long startNanos) {
+        Timer.builder("rag.ingestion.stage.duration")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        countIngested(stage, items);
+    }
+
+    public void countIngested(String stage, int items) {
+        Counter.builder("rag.ingestion.items")
+                .tag("stage", stage)
+                .register(registry)
+                .increment(items);
+    }
+
+    public void recordAdmissionWait(String priority, long enqueuedNanos) {
+        Timer.builder("rag.admission.wait")
+                .description("Time a chat request waited for a generation slot")
+                .tag("priority", priority)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - enqueuedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countAdmissionRejected(String priority, String reason) {
+        Counter.builder("rag.admission.rejected")
+                .tag("priority", priority)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    public void registerGauge(String name, Supplier<Number> value, String... tags) {
+        Gauge.builder(name, value).tags(tags).register(registry);
+    }
+
+    public void countCoalesced() {
+        Counter.builder("rag.stream.coalesced")
+                .description("Streaming questions answered by joining an identical in-flight generation")
+                .register(registry)
+                .increment();
+    }
+
+    public void countPrefetch(String outcome) {
+        Counter.builder("rag.prefetch.requests")
+                .description("Prefetched retrievals used (hit) or not (miss) by streaming questions, and prefetches dropped (rejected)")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public void countRouted(String model) {
+        Counter.builder("rag.routing.requests")
+                .description("Questions routed away from the default chat model")
+                .tag("model", model)
+                .register(registry)
+                .increment();
+    }
+}
@@ -1,6 +1,7 @@
 package com.bohdansavshak.service;
 
-import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.ChatStreamingProperties;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
@@ -9,15 +10,29 @@ import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvi
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.ai.template.st.StTemplateRenderer;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -25,13 +40,39 @@ public class RagService {
     private static final Logger logger = LoggerFactory.getLogger(RagService.class);
     private static final int DEFAULT_TOP_K = 5;
     private static final double DEFAULT_SIMILARITY_THRESHOLD = 0.5d;
+    private static final String WARMUP_CONVERSATION_ID = "warmup";
+    private static final String SYSTEM_PROMPT = """
+            You are a helpful assistant for Sombra company employees that answers questions based on Confluence documentation.
+            Use the provided context from Confluence pages to answer the user's question.
+            
+            Guidelines:
+            - If the context doesn't contain enough information to answer the question, say so
+            - Be concise but comprehensive in your response
+            - Include relevant page titles or spaces when referencing information
+            - If multiple documents contain relevant information, synthesize them appropriately
+            """;
     private final VectorStore vectorStore;
+    private final PinnedDocumentsVectorStore advisorVectorStore;
     private final ChatClient chatClient;
-    private final ConfluenceProperties confluenceProperties;
-
-    public RagService(VectorStore vectorStore, ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, ConfluenceProperties confluenceProperties) {
+    private final ChatClient contextChatClient;
+    private final PromptTemplate contextPromptTemplate;
+    private final ChatMemory chatMemory;
+    private final PageCatalog pageCatalog;
+    private final RagMetrics ragMetrics;
+    private final ChatModelRouter chatModelRouter;
+    private final ChatStreamingProperties streamingProperties;
+    private final Map<String, Flux<ServerSentEvent<Object>>> inFlightStreams = new ConcurrentHashMap<>();
+
+    public RagService(VectorStore vectorStore, ChatClient.Builder chatClientBuilder, ChatMemory chatMemory,
+                      PageCatalog pageCatalog, RagMetrics ragMetrics, ChatModelRouter chatModelRouter,
+                      ChatStreamingProperties streamingProperties) {
         this.vectorStore = vectorStore;
-        this.confluenceProperties = confluenceProperties;
+        this.advisorVectorStore = new PinnedDocumentsVectorStore(vectorStore);
+        this.chatMemory = chatMemory;
+        this.pageCatalog = pageCatalog;
+        this.ragMetrics = ragMetrics;
+        this.chatModelRouter = chatModelRouter;
+        this.streamingProperties = streamingProperties;
         PromptTemplate customPromptTemplate = PromptTemplate.builder()
                 .renderer(StTemplateRenderer.builder().startDelimiterToken('<').endDelimiterToken('>').build())
                 .template("""
@@ -51,8 +92,11 @@ public class RagService {
                         2. Avoid statements like "Based on the context..." or "The provided information...".
                         """)
                 .build();
+        this.contextPromptTemplate = customPromptTemplate;
+        // Without the answer and memory advisors, for answers generated from documents retrieved by the caller
+        this.contextChatClient = chatClientBuilder.clone().build();
 
-        var advisor = QuestionAnswerAdvisor.builder(vectorStore)
+        var advisor = QuestionAnswerAdvisor.builder(advisorVectorStore)
                 .searchRequest(SearchRequest.builder().similarityThreshold(DEFAULT_SIMILARITY_THRESHOLD).topK(DEFAULT_TOP_K).build())
                 .promptTemplate(customPromptTemplate)
                 .build();
@@ -62,24 +106,17 @@ public class RagService {
     }
 
     public String chat(String userQuestion) {
+        return chat(userQuestion, null);
+    }
+
+    private String chat(String userQuestion, String pinToken) {
         try {
             logger.info("Processing chat question: {}", userQuestion);
-            String userConversationId = "001";
-            String response = chatClient.prompt()
-                    .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, userConversationId))
-                    .system("""
-                            You are a helpful assistant for Sombra company employees that answers questions based on Confluence documentation.
-                            Use the provided context from Confluence pages to answer the user's question.
-                            
-                            Guidelines:
-                            - If the context doesn't contain enough information to answer the question, say so
-                            - Be concise but comprehensive in your response
-                            - Include relevant page titles or spaces when referencing information
-                            - If multiple documents contain relevant information, synthesize them appropriately
-                            """)
-                    .user(userQuestion)
+            long startNanos = System.nanoTime();
+            String response = prompt(userQuestion, pinToken)
                     .call()
                     .content();
+            ragMetrics.recordGeneration("blocking", startNanos);
 
             logger.info("Successfully generated response for question: {}", userQuestion);
             return response;
@@ -95,15 +132,22 @@ public class RagService {
     }
 
     public List<String> getRelevantDocumentTitles(String query, int topK, double similarityThreshold) {
+        return getRelevantDocumentTitles(query, topK, similarityThreshold, null);
+    }
+
+    // With per-space vector tables a space filter only searches that space's table
+    public List<String> getRelevantDocumentTitles(String query, String spaceKey) {
+        return getRelevantDocumentTitles(query, DEFAULT_TOP_K, DEFAULT_SIMILARITY_THRESHOLD,
+                new FilterExpressionBuilder().eq("spaceKey", spaceKey).build());
+    }
+
+    private List<String> getRelevantDocumentTitles(String query, int topK, double similarityThreshold, Filter.Expression filter) {
         try {
-            var documents = vectorStore.similaritySearch(
-                    SearchRequest.builder()
-                            .query(query)
-                            .topK(topK)
-                            .similarityThreshold(similarityThreshold).build());
+            var documents = search(query, topK, similarityThreshold, filter);
 
             return documents.stream()
                     .map(doc -> doc.getMetadata().getOrDefault("title", "Unknown").toString())
+                    .distinct()
                     .collect(Collectors.toList());
         } catch (Exception e) {
             logger.error("Error retrieving document titles: {}", e.getMessage(), e);
@@ -111,24 +155,55 @@ public class RagService {
         }
     }
 
+    // Retrieval on its own, for callers that then generate with answerFromContext
+    public List<Document> retrieve(String question, String spaceKey) {
+        Filter.Expression filter = spaceKey == null || spaceKey.isBlank()
+                ? null : new FilterExpressionBuilder().eq("spaceKey", spaceKey).build();
+        return search(question, DEFAULT_TOP_K, DEFAULT_SIMILARITY_THRESHOLD, filter);
+    }
+
+    // Renders the prompt the answer advisor would build from already retrieved documents, so nothing is searched
+    // twice. Chat memory is left out: independent questions of a batch job must not see each other's answers.
+    public ChatWithSourcesResponse answerFromContext(String question, List<Document> documents) {
+        long startNanos = System.nanoTime();
+        recordPromptSize(question, documents);
+        String context = documents.stream()
+                .map(Document::getText)
+                .filter(Objects::nonNull)
+                .collect(Collectors.joining(System.lineSeparator()));
+        ChatClient.ChatClientRequestSpec spec = contextChatClient.prompt()
+                .system(SYSTEM_PROMPT)
+                .user(contextPromptTemplate.render(Map.of("query", question, "question_answer_context", context)));
+
+        String model = chatModelRouter.route(question);
+        if (model != null) {
+            ragMetrics.countRouted(model);
+            spec = spec.options(OllamaOptions.builder().model(model).build());
+        }
+        String answer = spec.call().content();
+        ragMetrics.recordGeneration("batch", startNanos);
+        return new ChatWithSourcesResponse(answer, pageCatalog.sourcesFor(documents));
+    }
+
     public ChatWithSourcesResponse chatWithSources(String userQuestion) {
         try {
             logger.info("Processing chat question with sources: {}", userQuestion);
 
             // Get relevant documents first
-            var documents = vectorStore.similaritySearch(
-                    SearchRequest.builder()
-                            .query(userQuestion)
-                            .topK(DEFAULT_TOP_K)
-                            .similarityThreshold(DEFAULT_SIMILARITY_THRESHOLD).build());
+            var documents = search(userQuestion, DEFAULT_TOP_K, DEFAULT_SIMILARITY_THRESHOLD);
+            recordPromptSize(userQuestion, documents);
 
             // Extract source pages information
-            List<SourcePage> sourcePages = documents.stream()
-                    .map(this::createSourcePage)
-                    .collect(Collectors.toList());
+            List<SourcePage> sourcePages = pageCatalog.sourcesFor(documents);
 
-            // Generate the answer using the existing chat method
-            String answer = chat(userQuestion);
+            // Generate the answer using the existing chat method; the advisor reuses the documents
+            String pinToken = advisorVectorStore.pin(documents);
+            String answer;
+            try {
+                answer = chat(userQuestion, pinToken);
+            } finally {
+                advisorVectorStore.unpin(pinToken);
+            }
 
             return new ChatWithSourcesResponse(answer, sourcePages);
 
@@ -141,22 +216,64 @@ public class RagService {
         }
     }
 
-    public Flux<ServerSentEvent<Object>> chatWithSourcesStream(String userQuestion) {
+    // Concurrent identical questions share one generation: later callers join the stream in flight and get the
+    // events so far replayed. Only the caller that starts a generation is admitted. Admission runs when the shared
+    // stream is first subscribed, not here, so a stream nobody subscribes to never holds a slot; a rejection is
+    // delivered as the stream's error. The permit belongs to the shared generation and is released when it
+    // terminates or is cancelled after all subscribers have left. prefetched holds documents retrieved while the
+    // question was typed, possibly still in flight; null to search.
+    public Flux<ServerSentEvent<Object>> chatWithSourcesStream(String userQuestion, CompletableFuture<List<Document>> prefetched,
+                                                               Supplier<Mono<ChatAdmissionService.Permit>> admission) {
+        AtomicBoolean started = new AtomicBoolean();
+        Flux<ServerSentEvent<Object>> stream = inFlightStreams.computeIfAbsent(coalescingKey(userQuestion), key -> {
+            started.set(true);
+            return share(key, Flux.usingWhen(Mono.defer(admission),
+                    permit -> generateStream(userQuestion, prefetched),
+                    permit -> Mono.fromRunnable(permit::close)));
+        });
+        if (!started.get()) {
+            ragMetrics.countCoalesced();
+            logger.info("Joining in-flight answer for question: {}", userQuestion);
+        }
+        return stream;
+    }
+
+    // The replay buffer holds chat.streaming.max-replay-frames events. New callers stop joining once half of it is
+    // used, so one that looked the stream up just before still finds every event from the start when it subscribes;
+    // later identical questions start a generation of their own.
+    private Flux<ServerSentEvent<Object>> share(String key, Flux<ServerSentEvent<Object>> generation) {
+        int replayFrames = Math.max(2, streamingProperties.getMaxReplayFrames());
+        AtomicReference<Flux<ServerSentEvent<Object>>> shared = new AtomicReference<>();
+        AtomicInteger emitted = new AtomicInteger();
+        shared.set(generation
+                .doOnNext(event -> {
+                    if (emitted.incrementAndGet() == replayFrames / 2) {
+                        inFlightStreams.remove(key, shared.get());
+                    }
+                })
+                .doFinally(signal -> inFlightStreams.remove(key, shared.get()))
+                .replay(replayFrames)
+                .refCount());
+        return shared.get();
+    }
+
+    // Package-private so tests can stand in for retrieval and the model
+    Flux<ServerSentEvent<Object>> generateStream(String userQuestion, CompletableFuture<List<Document>> prefetched) {
         return Flux.create(sink -> {
             try {
                 logger.info("Processing streaming chat question with sources: {}", userQuestion);
+                long startNanos = System.nanoTime();
 
-                // Get relevant documents first
-                var documents = vectorStore.similaritySearch(
-                        SearchRequest.builder()
-                                .query(userQuestion)
-                                .topK(DEFAULT_TOP_K)
-                                .similarityThreshold(DEFAULT_SIMILARITY_THRESHOLD).build());
+                // Get relevant documents first, unless a prefetch already did; a failed prefetch falls back to searching
+                List<Document> documents = prefetched != null ? prefetched.exceptionally(error -> null).join() : null;
+                if (documents == null) {
+                    documents = search(userQuestion, DEFAULT_TOP_K, DEFAULT_SIMILARITY_THRESHOLD);
+                }
+                recordPromptSize(userQuestion, documents);
 
                 // Extract source pages information
-                List<SourcePage> sourcePages = documents.stream()
-                        .map(this::createSourcePage)
-                        .collect(Collectors.toList());
+                List<SourcePage> sourcePages = pageCatalog.sourcesFor(documents);
+                String pinToken = advisorVectorStore.pin(documents);
 
                 // Send source pages first
                 sink.next(ServerSentEvent.builder()
@@ -165,39 +282,35 @@ public class RagService {
                         .build());
 
                 // Generate streaming response
-                String userConversationId = "001";
-                StringBuilder fullResponse = new StringBuilder();
-
-                chatClient.prompt()
-                        .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, userConversationId))
-                        .system("""
-                                You are a helpful assistant for Sombra company employees that answers questions based on Confluence documentation.
-                                Use the provided context from Confluence pages to answer the user's question.
-                                
-                                Guidelines:
-                                - If the context doesn't contain enough information to answer the question, say so
-                                - Be concise but comprehensive in your response
-                                - Include relevant page titles or spaces when referencing information
-                                - If multiple documents contain relevant information, synthesize them appropriately
-                                """)
-                        .user(userQuestion)
+                AtomicInteger characters = new AtomicInteger();
+                AtomicInteger frames = new AtomicInteger();
+                AtomicBoolean firstToken = new AtomicBoolean(true);
+
+                Disposable generation = frames(prompt(userQuestion, pinToken)
                         .stream()
                         .content()
+                        .filter(content -> content != null && !content.isEmpty())
                         .doOnNext(content -> {
-                            if (content != null && !content.isEmpty()) {
-                                fullResponse.append(content);
-                                // Send each chunk as it arrives
-                                sink.next(ServerSentEvent.builder()
-                                        .event("chunk")
-                                        .data(Map.of("content", content))
-                                        .build());
+                            if (firstToken.compareAndSet(true, false)) {
+                                ragMetrics.recordTimeToFirstToken(startNanos);
                             }
+                            characters.addAndGet(content.length());
+                        }))
+                        .doOnNext(frame -> {
+                            frames.incrementAndGet();
+                            sink.next(ServerSentEvent.builder()
+                                    .event("chunk")
+                                    .data(frame)
+                                    .build());
                         })
                         .doOnComplete(() -> {
-                            // Send completion event
+                            ragMetrics.recordGeneration("streaming", startNanos);
+                            ragMetrics.recordStreamFrames(frames.get());
+                            // The client already has the answer from the chunks; completion only carries metadata
                             sink.next(ServerSentEvent.builder()
                                     .event("complete")
-                                    .data(Map.of("fullResponse", fullResponse.toString()))
+                                    .data("{\"characters\":" + characters.get() + ",\"frames\":" + frames.get()
+                                            + ",\"durationMillis\":" + (System.nanoTime() - startNanos) / 1_000_000 + "}")
                                     .build());
                             sink.complete();
                             logger.info("Successfully completed streaming response for question: {}", userQuestion);
@@ -210,7 +323,14 @@ public class RagService {
                                     .build());
                             sink.error(error);
                         })
+                        // Hands the request's observation to the chat client, so model and advisor spans join its trace
+                        .contextCapture()
                         .subscribe();
+                // Stops generating once nobody is listening any more
+                sink.onDispose(() -> {
+                    generation.dispose();
+                    advisorVectorStore.unpin(pinToken);
+                });
 
             } catch (Exception e) {
                 logger.error("Error processing streaming chat question with sources: {}", e.getMessage(), e);
@@ -223,19 +343,97 @@ public class RagService {
         });
     }
 
-    private SourcePage createSourcePage(Document document) {
-        String pageId = document.getMetadata().getOrDefault("id", "").toString();
-        String title = document.getMetadata().getOrDefault("title", "Unknown").toString();
-        String spaceKey = document.getMetadata().getOrDefault("spaceKey", "").toString();
-        String spaceName = document.getMetadata().getOrDefault("spaceName", "").toString();
+    // Runs a question through retrieval, source lookup and, when generate is set, the advisor chain and the model it
+    // routes to, stopping after one token. Neither the metrics nor the users' conversation record any of it.
+    public int warmUp(String question, boolean generate) {
+        List<Document> documents = vectorStore.similaritySearch(SearchRequest.builder()
+                .query(question)
+                .topK(DEFAULT_TOP_K)
+                .similarityThreshold(DEFAULT_SIMILARITY_THRESHOLD).build());
+        pageCatalog.sourcesFor(documents);
+
+        if (generate) {
+            OllamaOptions.Builder options = OllamaOptions.builder().numPredict(1);
+            String model = chatModelRouter.route(question);
+            if (model != null) {
+                options.model(model);
+            }
+            chatClient.prompt()
+                    .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, WARMUP_CONVERSATION_ID))
+                    .system(SYSTEM_PROMPT)
+                    .user(question)
+                    .options(options.build())
+                    .call()
+                    .content();
+            chatMemory.clear(WARMUP_CONVERSATION_ID);
+        }
+        return documents.size();
+    }
+
+    // Tokens arriving within chat.streaming.coalesce-window of the first one in a frame share that frame, up to
+    // max-frame-tokens. A frame's payload is its text as a JSON string literal, built without Jackson, and the
+    // converter writes it as-is.
+    Flux<String> frames(Flux<String> tokens) {
+        Duration window = streamingProperties.getCoalesceWindow();
+        if (window.isZero() || streamingProperties.getMaxFrameTokens() <= 1) {
+            return tokens.map(RagService::jsonString);
+        }
+        return tokens.bufferTimeout(streamingProperties.getMaxFrameTokens(), window)
+                .map(batch -> jsonString(String.join("", batch)));
+    }
+
+    static String jsonString(String text) {
+        return "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(text)) + "\"";
+    }
 
-        // Construct Confluence URL
-        String url = "";
-        if (confluenceProperties.getBaseUrl() != null && !pageId.isEmpty()) {
-            url = confluenceProperties.getBaseUrl() + "/pages/viewpage.action?pageId=" + pageId;
+    // pinToken names documents already retrieved for this request, or is null for the advisor to search
+    private ChatClient.ChatClientRequestSpec prompt(String userQuestion, String pinToken) {
+        String userConversationId = "001";
+        ChatClient.ChatClientRequestSpec spec = chatClient.prompt()
+                .advisors(a -> {
+                    a.param(ChatMemory.CONVERSATION_ID, userConversationId);
+                    if (pinToken != null) {
+                        a.param(QuestionAnswerAdvisor.FILTER_EXPRESSION, PinnedDocumentsVectorStore.filterFor(pinToken));
+                    }
+                })
+                .system(SYSTEM_PROMPT)
+                .user(userQuestion);
+
+        String model = chatModelRouter.route(userQuestion);
+        if (model != null) {
+            ragMetrics.countRouted(model);
+            spec = spec.options(OllamaOptions.builder().model(model).build());
         }
+        return spec;
+    }
 
-        return new SourcePage(pageId, title, spaceKey, spaceName, url);
+    // Case, punctuation and spacing differences don't change the question
+    static String coalescingKey(String question) {
+        return question.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private List<Document> search(String query, int topK, double similarityThreshold) {
+        return search(query, topK, similarityThreshold, null);
+    }
+
+    private List<Document> search(String query, int topK, double similarityThreshold, Filter.Expression filter) {
+        List<Document> documents = ragMetrics.timeRetrieval(() -> vectorStore.similaritySearch(
+                SearchRequest.builder()
+                        .query(query)
+                        .topK(topK)
+                        .similarityThreshold(similarityThreshold)
+                        .filterExpression(filter).build()));
+        ragMetrics.recordRetrievalResults(documents.size());
+        return documents;
+    }
+
+    // The question plus the retrieved context is what the answer advisor puts in front of the model
+    private void recordPromptSize(String question, List<Document> documents) {
+        int characters = question.length();
+        for (Document document : documents) {
+            characters += document.getText() != null ? document.getText().length() : 0;
+        }
+        ragMetrics.recordPromptSize(characters);
     }
 
     // Response DTO classes
@@ -263,13 +461,19 @@ public class RagService {
         private final String spaceKey;
         private final String spaceName;
         private final String url;
+        private final int version;
 
         public SourcePage(String pageId, String title, String spaceKey, String spaceName, String url) {
+            this(pageId, title, spaceKey, spaceName, url, 0);
+        }
+
+        public SourcePage(String pageId, String title, String spaceKey, String spaceName, String url, int version) {
             this.pageId = pageId;
             this.title = title;
             this.spaceKey = spaceKey;
             this.spaceName = spaceName;
             this.url = url;
+            this.version = version;
         }
 
         public String getPageId() {
@@ -291,5 +495,9 @@ public class RagService {
         public String getUrl() {
             return url;
         }
+
+        public int getVersion() {
+            return version;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.PrefetchProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Retrieves documents for the question a user is still typing, so that embedding and search are done, or at least
+// under way, by the time it is sent. One prefetch is kept per chat session for chat.prefetch.ttl and is used only
+// when the sent question normalizes to the same text; a newer prefetch for the session replaces it.
+@Service
+public class RetrievalPrefetchService {
+    private static final Logger logger = LoggerFactory.getLogger(RetrievalPrefetchService.class);
+
+    private record Prefetch(String key, CompletableFuture<List<Document>> documents, long expiresAtNanos) {
+    }
+
+    private final RagService ragService;
+    private final PrefetchProperties properties;
+    private final RagMetrics ragMetrics;
+    private final Map<String, Prefetch> sessions;
+    private final ThreadPoolExecutor executor;
+
+    public RetrievalPrefetchService(RagService ragService, PrefetchProperties properties, RagMetrics ragMetrics) {
+        this.ragService = ragService;
+        this.properties = properties;
+        this.ragMetrics = ragMetrics;
+        // Least recently prefetched sessions are dropped first
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prefetch> eldest) {
+                return size() > properties.getMaxSessions();
+            }
+        };
+        // Prefetches are a guess; when the queue is full they are dropped instead of delaying real questions
+        int workers = Math.max(1, properties.getWorkers());
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())),
+                new CustomizableThreadFactory("prefetch-"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Returns whether a retrieval was started or is already running for this text
+    public boolean prefetch(String sessionId, String question) {
+        if (!properties.isEnabled() || sessionId == null || sessionId.isBlank()
+                || question == null || question.trim().length() < properties.getMinChars()) {
+            return false;
+        }
+
+        String key = RagService.coalescingKey(question);
+        synchronized (sessions) {
+            Prefetch current = sessions.get(sessionId);
+            if (current != null && current.key().equals(key) && System.nanoTime() < current.expiresAtNanos()) {
+                return true;
+            }
+        }
+
+        CompletableFuture<List<Document>> documents;
+        try {
+            documents = CompletableFuture.supplyAsync(() -> ragService.retrieve(question, null), executor);
+        } catch (RejectedExecutionException e) {
+            ragMetrics.countPrefetch("rejected");
+            return false;
+        }
+        documents.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.debug("Prefetch failed for session {}: {}", sessionId, error.getMessage());
+            }
+        });
+
+        synchronized (sessions) {
+            sessions.put(sessionId, new Prefetch(key, documents, System.nanoTime() + properties.getTtl().toNanos()));
+        }
+        return true;
+    }
+
+    // The session's prefetch if it was made for this question and is still fresh, otherwise null; it is used once
+    public CompletableFuture<List<Document>> take(String sessionId, String question) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return null;
+        }
+
+        Prefetch prefetch;
+        synchronized (sessions) {
+            prefetch = sessions.remove(sessionId);
+        }
+        boolean hit = prefetch != null && prefetch.key().equals(RagService.coalescingKey(question))
+                && System.nanoTime() < prefetch.expiresAtNanos();
+        ragMetrics.countPrefetch(hit ? "hit" : "miss");
+        return hit ? prefetch.documents() : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
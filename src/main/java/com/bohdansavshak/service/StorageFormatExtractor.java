@@ -0,0 +1,359 @@
+package com.bohdansavshak.service;
+
+import org.jsoup.nodes.Entities;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Single-pass extractor for Confluence storage format (XHTML with ac:/ri: elements). It scans the markup once
+// and writes text straight into one StringBuilder without building a DOM. Macro parameters and resource
+// identifiers are dropped, code block bodies keep their whitespace, table cells are separated with " | " and
+// the offset of every heading in the output is recorded so the text can be chunked by section.
+@Component
+public class StorageFormatExtractor {
+    private static final Set<String> DROPPED_ELEMENTS = Set.of(
+            "ac:parameter", "ac:placeholder", "ac:emoticon", "style", "script");
+    private static final Set<String> PRESERVED_WHITESPACE_ELEMENTS = Set.of("pre", "ac:plain-text-body");
+    private static final Set<String> BLOCK_ELEMENTS = Set.of(
+            "p", "div", "br", "hr", "ul", "ol", "li", "table", "tbody", "thead", "tr", "blockquote", "pre",
+            "ac:structured-macro", "ac:rich-text-body", "ac:plain-text-body", "ac:layout-section", "ac:layout-cell",
+            "ac:task", "ac:task-list");
+
+    public ExtractedText extract(String storageFormat) {
+        return new Scanner(storageFormat).run();
+    }
+
+    public static class ExtractedText {
+        private final String text;
+        private final List<Heading> headings;
+
+        public ExtractedText(String text, List<Heading> headings) {
+            this.text = text;
+            this.headings = headings;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public List<Heading> getHeadings() {
+            return headings;
+        }
+    }
+
+    public static class Heading {
+        private final int level;
+        private final String title;
+        private final int offset;
+
+        public Heading(int level, String title, int offset) {
+            this.level = level;
+            this.title = title;
+            this.offset = offset;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    private static class Scanner {
+        private final String input;
+        private final StringBuilder out;
+        private final List<Heading> headings = new ArrayList<>();
+        private int pos = 0;
+        private int droppedDepth = 0;
+        private int preservedDepth = 0;
+        private boolean pendingSpace = false;
+        private int headingLevel = 0;
+        private int headingStart = -1;
+        private int cellIndex = 0;
+        private int cellDepth = 0;
+
+        Scanner(String input) {
+            this.input = input;
+            // Text is typically well under half of the markup size
+            this.out = new StringBuilder(input.length() / 2);
+        }
+
+        ExtractedText run() {
+            int length = input.length();
+            while (pos < length) {
+                char c = input.charAt(pos);
+                if (c == '<') {
+                    markup();
+                } else if (c == '&') {
+                    entity();
+                } else {
+                    text(c);
+                    pos++;
+                }
+            }
+
+            int end = out.length();
+            while (end > 0 && Character.isWhitespace(out.charAt(end - 1))) {
+                end--;
+            }
+            out.setLength(end);
+            return new ExtractedText(out.toString(), List.copyOf(headings));
+        }
+
+        private void markup() {
+            if (input.startsWith("<!--", pos)) {
+                pos = skipPast("-->", pos + 4);
+            } else if (input.startsWith("<![CDATA[", pos)) {
+                int start = pos + 9;
+                int end = input.indexOf("]]>", start);
+                if (end < 0) {
+                    end = input.length();
+                }
+                if (droppedDepth == 0) {
+                    flushSpace();
+                    out.append(input, start, end);
+                }
+                pos = Math.min(end + 3, input.length());
+            } else if (pos + 1 < input.length() && (input.charAt(pos + 1) == '!' || input.charAt(pos + 1) == '?')) {
+                pos = skipPast(">", pos + 2);
+            } else if (pos + 1 < input.length() && input.charAt(pos + 1) == '/') {
+                int nameStart = pos + 2;
+                int nameEnd = nameEnd(nameStart);
+                endTag(input.substring(nameStart, nameEnd).toLowerCase());
+                pos = skipPast(">", nameEnd);
+            } else {
+                int nameStart = pos + 1;
+                int nameEnd = nameEnd(nameStart);
+                if (nameEnd == nameStart) {
+                    // A stray '<' in text
+                    text('<');
+                    pos++;
+                    return;
+                }
+                int tagEnd = tagEnd(nameEnd);
+                boolean selfClosing = tagEnd > 0 && input.charAt(tagEnd - 1) == '/';
+                startTag(input.substring(nameStart, nameEnd).toLowerCase(), selfClosing);
+                pos = Math.min(tagEnd + 1, input.length());
+            }
+        }
+
+        private void startTag(String name, boolean selfClosing) {
+            boolean dropped = DROPPED_ELEMENTS.contains(name) || name.startsWith("ri:");
+            if (dropped || droppedDepth > 0) {
+                if (!selfClosing) {
+                    droppedDepth++;
+                }
+                return;
+            }
+
+            int level = headingLevel(name);
+            if (level > 0) {
+                paragraphBreak();
+                headingLevel = level;
+                headingStart = out.length();
+                return;
+            }
+
+            switch (name) {
+                case "tr" -> {
+                    newline();
+                    cellIndex = 0;
+                }
+                case "td", "th" -> {
+                    if (!selfClosing) {
+                        cellDepth++;
+                    }
+                    if (cellIndex++ > 0) {
+                        out.append(" | ");
+                    }
+                    pendingSpace = false;
+                }
+                case "li" -> {
+                    blockBoundary();
+                    if (cellDepth == 0) {
+                        out.append("- ");
+                    }
+                }
+                default -> {
+                    if (BLOCK_ELEMENTS.contains(name)) {
+                        blockBoundary();
+                    }
+                }
+            }
+
+            if (!selfClosing && PRESERVED_WHITESPACE_ELEMENTS.contains(name)) {
+                preservedDepth++;
+            }
+        }
+
+        private void endTag(String name) {
+            if (droppedDepth > 0) {
+                droppedDepth--;
+                return;
+            }
+
+            int level = headingLevel(name);
+            if (level > 0 && headingStart >= 0) {
+                String title = out.substring(headingStart).trim();
+                if (!title.isEmpty()) {
+                    headings.add(new Heading(headingLevel, title, headingStart));
+                }
+                headingLevel = 0;
+                headingStart = -1;
+                newline();
+                return;
+            }
+
+            if ((name.equals("td") || name.equals("th")) && cellDepth > 0) {
+                cellDepth--;
+                return;
+            }
+            if (PRESERVED_WHITESPACE_ELEMENTS.contains(name) && preservedDepth > 0) {
+                preservedDepth--;
+            }
+            if (BLOCK_ELEMENTS.contains(name)) {
+                blockBoundary();
+            }
+        }
+
+        private void entity() {
+            int end = input.indexOf(';', pos);
+            if (end < 0 || end - pos > 32) {
+                text('&');
+                pos++;
+                return;
+            }
+
+            String name = input.substring(pos + 1, end);
+            String decoded;
+            if (name.startsWith("#x") || name.startsWith("#X")) {
+                decoded = codePoint(name.substring(2), 16);
+            } else if (name.startsWith("#")) {
+                decoded = codePoint(name.substring(1), 10);
+            } else {
+                decoded = Entities.getByName(name);
+            }
+
+            if (decoded == null || decoded.isEmpty()) {
+                text('&');
+                pos++;
+                return;
+            }
+            for (int i = 0; i < decoded.length(); i++) {
+                text(decoded.charAt(i));
+            }
+            pos = end + 1;
+        }
+
+        private void text(char c) {
+            if (droppedDepth > 0) {
+                return;
+            }
+            if (preservedDepth > 0) {
+                flushSpace();
+                out.append(c);
+                return;
+            }
+            // Non-breaking spaces are treated like any other whitespace
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                pendingSpace = true;
+                return;
+            }
+            flushSpace();
+            out.append(c);
+        }
+
+        private void flushSpace() {
+            if (pendingSpace && out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                out.append(' ');
+            }
+            pendingSpace = false;
+        }
+
+        // Inside a table cell a block boundary becomes a space so each row stays on one line
+        private void blockBoundary() {
+            if (cellDepth > 0) {
+                pendingSpace = true;
+            } else {
+                newline();
+            }
+        }
+
+        private void newline() {
+            pendingSpace = false;
+            int end = out.length();
+            while (end > 0 && out.charAt(end - 1) == ' ') {
+                end--;
+            }
+            out.setLength(end);
+            if (end > 0 && out.charAt(end - 1) != '\n') {
+                out.append('\n');
+            }
+        }
+
+        private void paragraphBreak() {
+            newline();
+            if (out.length() > 1 && out.charAt(out.length() - 2) != '\n') {
+                out.append('\n');
+            }
+        }
+
+        private int nameEnd(int from) {
+            int i = from;
+            while (i < input.length()) {
+                char c = input.charAt(i);
+                if (Character.isWhitespace(c) || c == '>' || c == '/') {
+                    break;
+                }
+                i++;
+            }
+            return i;
+        }
+
+        // Index of the '>' closing a start tag, skipping over quoted attribute values
+        private int tagEnd(int from) {
+            char quote = 0;
+            for (int i = from; i < input.length(); i++) {
+                char c = input.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return i;
+                }
+            }
+            return input.length();
+        }
+
+        private int skipPast(String terminator, int from) {
+            int end = input.indexOf(terminator, from);
+            return end < 0 ? input.length() : end + terminator.length();
+        }
+
+        private static int headingLevel(String name) {
+            if (name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1' && name.charAt(1) <= '6') {
+                return name.charAt(1) - '0';
+            }
+            return 0;
+        }
+
+        private static String codePoint(String digits, int radix) {
+            try {
+                return new String(Character.toChars(Integer.parseInt(digits, radix)));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
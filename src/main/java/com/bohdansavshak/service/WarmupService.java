@@ -0,0 +1,135 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ChatRoutingProperties;
+import com.bohdansavshak.config.WarmupProperties;
+import com.bohdansavshak.repository.IndexPrewarmRepository;
+import com.bohdansavshak.repository.RebuildableVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Takes the cold start off the first users after a deploy: loads the embedding and chat models into Ollama (they
+// stay loaded for spring.ai.ollama.*.options.keep-alive), loads the vector index into Postgres' buffers and runs the
+// retrieval and prompt path a few times so it is JIT-compiled. Registered as the "warmup" health indicator, which
+// the readiness group includes, so no traffic is routed here until it has finished or chat.warmup.timeout passed.
+@Service("warmupHealthIndicator")
+public class WarmupService implements HealthIndicator {
+    private static final Logger logger = LoggerFactory.getLogger(WarmupService.class);
+
+    private final RagService ragService;
+    private final ChatModel chatModel;
+    private final EmbeddingModel embeddingModel;
+    private final RebuildableVectorStore vectorStore;
+    private final IndexPrewarmRepository prewarmRepository;
+    private final WarmupProperties warmupProperties;
+    private final ChatRoutingProperties routingProperties;
+    private volatile long deadlineNanos = Long.MAX_VALUE;
+    private volatile boolean finished;
+    private volatile String failure;
+
+    public WarmupService(RagService ragService, ChatModel chatModel, EmbeddingModel embeddingModel,
+                         RebuildableVectorStore vectorStore, IndexPrewarmRepository prewarmRepository,
+                         WarmupProperties warmupProperties, ChatRoutingProperties routingProperties) {
+        this.ragService = ragService;
+        this.chatModel = chatModel;
+        this.embeddingModel = embeddingModel;
+        this.vectorStore = vectorStore;
+        this.prewarmRepository = prewarmRepository;
+        this.warmupProperties = warmupProperties;
+        this.routingProperties = routingProperties;
+    }
+
+    // Runs on its own thread so the liveness probe and the actuator endpoints answer meanwhile
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!warmupProperties.isEnabled()) {
+            finished = true;
+            return;
+        }
+        deadlineNanos = System.nanoTime() + warmupProperties.getTimeout().toNanos();
+        new Thread(this::warmUp, "warmup").start();
+    }
+
+    void warmUp() {
+        long startNanos = System.nanoTime();
+        try {
+            step("embedding model", () -> embeddingModel.embed("warm-up"));
+            for (String model : chatModels()) {
+                step("chat model " + model, () -> chatModel.call(
+                        new Prompt("Reply with OK.", OllamaOptions.builder().model(model).numPredict(1).build())));
+            }
+            if (warmupProperties.isPrewarmIndex()) {
+                step("vector index", this::prewarmIndex);
+            }
+            step("retrieval and prompt path", this::exercise);
+            logger.info("Warm-up finished in {} ms", (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (Exception e) {
+            // Serving cold is still better than never becoming ready
+            failure = e.getMessage();
+            logger.error("Warm-up failed after {} ms, serving cold: {}", (System.nanoTime() - startNanos) / 1_000_000,
+                    e.getMessage(), e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    // The default model is loaded by the first exercised question anyway; a routed fast model only when it is asked
+    // something short, which the configured queries may not be
+    private List<String> chatModels() {
+        List<String> models = new ArrayList<>();
+        if (routingProperties.isEnabled()) {
+            models.add(routingProperties.getFastModel());
+        }
+        return models;
+    }
+
+    private void prewarmIndex() {
+        long blocks = prewarmRepository.prewarm(vectorStore.servingTables());
+        if (blocks >= 0) {
+            logger.info("Loaded {} blocks of {} into shared buffers", blocks, vectorStore.servingTables());
+            return;
+        }
+
+        // Without pg_prewarm, searches for random page titles pull the most visited part of the graph in instead
+        List<String> titles = prewarmRepository.sampleTitles(warmupProperties.getSampleSearches());
+        titles.forEach(title -> ragService.warmUp(title, false));
+        logger.info("Ran {} sampled searches", titles.size());
+    }
+
+    private void exercise() {
+        for (int i = 0; i < warmupProperties.getIterations(); i++) {
+            for (String query : warmupProperties.getQueries()) {
+                // Generating once per question loads and exercises the models; later rounds only compile the Java side
+                ragService.warmUp(query, i == 0);
+            }
+        }
+    }
+
+    private void step(String name, Runnable action) {
+        long startNanos = System.nanoTime();
+        action.run();
+        logger.info("Warmed up {} in {} ms", name, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    @Override
+    public Health health() {
+        if (finished) {
+            return failure == null ? Health.up().build() : Health.up().withDetail("failure", failure).build();
+        }
+        if (System.nanoTime() - deadlineNanos > 0) {
+            return Health.up().withDetail("timedOut", true).build();
+        }
+        return Health.outOfService().withDetail("warmingUp", true).build();
+    }
+}
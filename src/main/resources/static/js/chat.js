@@ -1,6 +1,9 @@
 // Chat application JavaScript
 class ChatApp {
     constructor() {
+        this.sessionId = this.loadSessionId();
+        this.prefetchTimer = null;
+        this.lastPrefetched = '';
         this.initializeElements();
         this.initializeEventListeners();
         this.checkServerStatus();
@@ -63,6 +66,35 @@ class ChatApp {
         
         // Auto-resize textarea
         this.autoResizeTextarea();
+
+        this.schedulePrefetch();
+    }
+
+    loadSessionId() {
+        let sessionId = sessionStorage.getItem('chatSessionId');
+        if (!sessionId) {
+            sessionId = crypto.randomUUID();
+            sessionStorage.setItem('chatSessionId', sessionId);
+        }
+        return sessionId;
+    }
+
+    // Once typing pauses, the server retrieves documents for the text so far; sending the same question reuses them
+    schedulePrefetch() {
+        clearTimeout(this.prefetchTimer);
+        const question = this.messageInput.value.trim();
+        if (question.length < 8 || question.length > 1000 || question === this.lastPrefetched) {
+            return;
+        }
+        this.prefetchTimer = setTimeout(() => {
+            this.lastPrefetched = question;
+            fetch('/api/chat/prefetch', {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/json' },
+                body: JSON.stringify({ question: question, sessionId: this.sessionId }),
+                keepalive: true
+            }).catch(() => { /* only an optimization */ });
+        }, 400);
     }
 
     handleKeyDown(e) {
@@ -82,6 +114,8 @@ class ChatApp {
         this.addMessage(message, 'user');
         
         // Clear input and reset form
+        clearTimeout(this.prefetchTimer);
+        this.lastPrefetched = '';
         this.messageInput.value = '';
         this.handleInputChange();
         
@@ -99,7 +133,8 @@ class ChatApp {
         try {
             // Use EventSource for streaming (GET request with query parameter)
             const encodedMessage = encodeURIComponent(message);
-            const eventSource = new EventSource(`/api/chat/ask-stream?question=${encodedMessage}`);
+            const eventSource = new EventSource(
+                `/api/chat/ask-stream?question=${encodedMessage}&sessionId=${encodeURIComponent(this.sessionId)}`);
 
             // Handle different event types
             eventSource.addEventListener('sources', (event) => {
@@ -111,28 +146,20 @@ class ChatApp {
                 }
             });
 
+            // Each chunk is a JSON string holding one or more coalesced tokens
             eventSource.addEventListener('chunk', (event) => {
                 try {
-                    const data = JSON.parse(event.data);
-                    const content = data.content || '';
-                    fullResponse += content;
+                    fullResponse += JSON.parse(event.data);
                     this.updateStreamingMessage(botMessageDiv, fullResponse);
                 } catch (error) {
                     console.error('Error parsing chunk:', error);
                 }
             });
 
-            eventSource.addEventListener('complete', (event) => {
-                try {
-                    const data = JSON.parse(event.data);
-                    fullResponse = data.fullResponse || fullResponse;
-                    this.finalizeStreamingMessage(botMessageDiv, fullResponse, sourcePages);
-                    eventSource.close();
-                } catch (error) {
-                    console.error('Error parsing completion:', error);
-                    this.finalizeStreamingMessage(botMessageDiv, fullResponse, sourcePages);
-                    eventSource.close();
-                }
+            // Completion only carries metadata; the answer is what the chunks added up to
+            eventSource.addEventListener('complete', () => {
+                this.finalizeStreamingMessage(botMessageDiv, fullResponse, sourcePages);
+                eventSource.close();
             });
 
             eventSource.addEventListener('error', (event) => {
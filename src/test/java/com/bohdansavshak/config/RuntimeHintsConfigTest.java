@@ -0,0 +1,34 @@
+package com.bohdansavshak.config;
+
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.service.RagService;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuntimeHintsConfigTest {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    @Test
+    void confluenceDtosAreBoundWithTheirNestedTypes() {
+        new RuntimeHintsConfig.ApplicationHints().registerHints(hints, getClass().getClassLoader());
+
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(ConfluencePage.class, "getTitle").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(ConfluencePage.Storage.class, "setValue").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(RagService.SourcePage.class, "getUrl").test(hints));
+    }
+
+    @Test
+    void entityIsFullyReflective() {
+        new RuntimeHintsConfig.ApplicationHints().registerHints(hints, getClass().getClassLoader());
+
+        assertTrue(RuntimeHintsPredicates.reflection().onType(DocumentEmbedding.class)
+                .withMemberCategories(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS)
+                .test(hints));
+    }
+}
@@ -1,6 +1,10 @@
 package com.bohdansavshak.controller;
 
+import com.bohdansavshak.service.AdmissionRejectedException;
+import com.bohdansavshak.service.BatchAnswerService;
+import com.bohdansavshak.service.ChatAdmissionService;
 import com.bohdansavshak.service.RagService;
+import com.bohdansavshak.service.RetrievalPrefetchService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,13 +12,24 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -28,9 +43,29 @@ class ChatControllerTest {
     @MockitoBean
     private RagService ragService;
 
+    @MockitoBean
+    private ChatAdmissionService admissionService;
+
+    @MockitoBean
+    private BatchAnswerService batchAnswerService;
+
+    @MockitoBean
+    private RetrievalPrefetchService prefetchService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Test
+    void prefetchIsAcceptedInTheBackground() throws Exception {
+        when(prefetchService.prefetch("session-1", "Where is the VPN guide")).thenReturn(true);
+
+        mockMvc.perform(post("/api/chat/prefetch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"question\": \"Where is the VPN guide\", \"sessionId\": \"session-1\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("accepted"));
+    }
+
     @Test
     void testHealthEndpoint() throws Exception {
         mockMvc.perform(get("/api/chat/health"))
@@ -114,4 +149,180 @@ class ChatControllerTest {
                 .andExpect(jsonPath("$.status").value("error"))
                 .andExpect(jsonPath("$.message").value("Query cannot be empty"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetRelevantDocumentsWithInvalidSpaceKey() throws Exception {
+        ChatController.ChatRequest request = new ChatController.ChatRequest();
+        request.setQuestion("How to use Confluence?");
+        request.setSpaceKey("ENG\" || $.secret == \"x");
+
+        mockMvc.perform(post("/api/chat/relevant-docs")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid space key"));
+        verify(ragService, never()).getRelevantDocumentTitles(anyString(), anyString());
+    }
+
+    @Test
+    void testAskQuestionRejectedWhenQueueIsFull() throws Exception {
+        when(admissionService.acquire(anyString(), any()))
+                .thenThrow(new AdmissionRejectedException("Too many pending requests, please retry later", true, 7));
+
+        ChatController.ChatRequest request = new ChatController.ChatRequest();
+        request.setQuestion("What is Confluence?");
+
+        mockMvc.perform(post("/api/chat/ask")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "7"))
+                .andExpect(jsonPath("$.status").value("error"))
+                .andExpect(jsonPath("$.retryAfter").value(7));
+    }
+
+    @Test
+    void testGetRelevantDocumentsRejectedWhenWaitTimesOut() throws Exception {
+        when(admissionService.acquire(anyString(), any()))
+                .thenThrow(new AdmissionRejectedException("The service is busy, please retry later", false, 3));
+
+        ChatController.ChatRequest request = new ChatController.ChatRequest();
+        request.setQuestion("How to use Confluence?");
+
+        mockMvc.perform(post("/api/chat/relevant-docs")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "3"));
+    }
+
+    // Admission runs when the stream is subscribed, after the SSE response has started
+    @Test
+    void testAskStreamReportsAFullQueueAsAnErrorEvent() throws Exception {
+        answerStreamsWith(Flux.empty());
+        when(admissionService.enqueue(anyString(), any()))
+                .thenThrow(new AdmissionRejectedException("Too many pending requests, please retry later", true, 5));
+
+        MvcResult result = mockMvc.perform(get("/api/chat/ask-stream")
+                        .param("question", "What is Confluence?")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("event:error")))
+                .andExpect(content().string(containsString("\"retryAfter\":5")));
+    }
+
+    // The SSE response has started by the time the wait for a slot times out, so there is no 503 to send
+    @Test
+    void testAskStreamReportsATimedOutWaitAsAnErrorEvent() throws Exception {
+        answerStreamsWith(Flux.empty());
+        when(admissionService.awaitPermit(any()))
+                .thenReturn(Mono.error(new AdmissionRejectedException("The service is busy, please retry later", false, 9)));
+
+        MvcResult result = mockMvc.perform(get("/api/chat/ask-stream")
+                        .param("question", "What is Confluence?")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("event:error")))
+                .andExpect(content().string(containsString("\"retryAfter\":9")));
+    }
+
+    @Test
+    void testAskStreamWritesPreSerializedFramesAsIs() throws Exception {
+        when(admissionService.awaitPermit(any())).thenReturn(Mono.empty());
+        answerStreamsWith(Flux.just(
+                ServerSentEvent.<Object>builder().event("chunk").data("\"Use the \\\"vpn\\\" app\"").build(),
+                ServerSentEvent.<Object>builder().event("complete").data("{\"characters\":17,\"frames\":1}").build()));
+
+        MvcResult result = mockMvc.perform(get("/api/chat/ask-stream")
+                        .param("question", "Which VPN?")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(
+                        "event:chunk\ndata:\"Use the \\\"vpn\\\" app\"\n\n")))
+                .andExpect(content().string(containsString(
+                        "event:complete\ndata:{\"characters\":17,\"frames\":1}\n\n")));
+    }
+
+    @Test
+    void testAskBatchStreamsOneAnswerPerLine() throws Exception {
+        when(batchAnswerService.answerAll(any(), any(), anyString())).thenReturn(Flux.just(
+                new BatchAnswerService.BatchAnswer(1, "Who approves releases?", "The release manager.", List.of(), null, 900),
+                new BatchAnswerService.BatchAnswer(0, "Where is the VPN guide?", null, List.of(), "Generation failed: timeout", 1200)));
+
+        MvcResult result = mockMvc.perform(post("/api/chat/ask-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"questions\":[\"Where is the VPN guide?\",\"Who approves releases?\"]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.trim().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("The release manager.", objectMapper.readTree(lines[0]).get("answer").asText());
+        assertEquals("Generation failed: timeout", objectMapper.readTree(lines[1]).get("error").asText());
+    }
+
+    @Test
+    void testAskBatchRejectsOversizedBatch() throws Exception {
+        when(batchAnswerService.answerAll(any(), any(), anyString()))
+                .thenThrow(new IllegalArgumentException("At most 1000 questions per batch"));
+
+        mockMvc.perform(post("/api/chat/ask-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .content("{\"questions\":[\"a\"]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("At most 1000 questions per batch"));
+    }
+
+    // The running-batch check happens on subscription, still before the first answer line
+    @Test
+    void testAskBatchRejectedWhenTooManyBatchesRun() throws Exception {
+        when(batchAnswerService.answerAll(any(), any(), anyString())).thenReturn(Flux.error(
+                new AdmissionRejectedException("Too many batches running, please retry later", true, 60)));
+
+        MvcResult result = mockMvc.perform(post("/api/chat/ask-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .content("{\"questions\":[\"a\"]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "60"));
+    }
+
+    @Test
+    void testAskBatchRejectsInvalidSpaceKey() throws Exception {
+        mockMvc.perform(post("/api/chat/ask-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .content("{\"questions\":[\"a\"],\"spaceKey\":\"ENG' || true\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid space key"));
+        verify(batchAnswerService, never()).answerAll(any(), any(), anyString());
+    }
+
+    // RagService asks for admission only when it starts a generation; the mock always does, then sends the events
+    @SuppressWarnings("unchecked")
+    private void answerStreamsWith(Flux<ServerSentEvent<Object>> events) {
+        when(ragService.chatWithSourcesStream(anyString(), any(), any())).thenAnswer(invocation ->
+                Mono.defer((Supplier<Mono<ChatAdmissionService.Permit>>) invocation.getArgument(2)).thenMany(events));
+    }
+}
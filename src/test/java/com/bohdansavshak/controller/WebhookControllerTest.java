@@ -0,0 +1,182 @@
+package com.bohdansavshak.controller;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.WebhookProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import com.bohdansavshak.service.AttachmentIngestionService;
+import com.bohdansavshak.service.ConfluenceClient;
+import com.bohdansavshak.service.EmbeddingService;
+import com.bohdansavshak.service.PageChangeService;
+import com.bohdansavshak.service.RagMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Replays recorded Confluence webhook deliveries (src/test/resources/confluence/webhooks) through the endpoint
+// into the real debouncer, with Confluence and the embedding path mocked
+class WebhookControllerTest {
+    private static final String SECRET = "s3cret";
+
+    private final ConfluenceClient confluenceClient = mock(ConfluenceClient.class);
+    private final EmbeddingService embeddingService = mock(EmbeddingService.class);
+    private final WebhookProperties properties = new WebhookProperties();
+    private final ConfluenceProperties confluenceProperties = new ConfluenceProperties();
+    // Released whenever a debounced change has been applied, by storing or by removing the page
+    private final Semaphore applied = new Semaphore(0);
+    private PageChangeService pageChangeService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        properties.setDebounce(Duration.ofMillis(200));
+        properties.setSecret(SECRET);
+        pageChangeService = new PageChangeService(confluenceClient, confluenceProperties, embeddingService,
+                mock(AttachmentIngestionService.class), properties, new RagMetrics(new SimpleMeterRegistry()),
+                ObservationRegistry.NOOP, mock(IngestionJournalRepository.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(new WebhookController(pageChangeService, properties, new ObjectMapper())).build();
+        when(confluenceClient.findPageById(anyString())).thenAnswer(invocation -> Optional.of(page(invocation.getArgument(0), "ENG")));
+        // The trashed page of the recording is gone
+        when(confluenceClient.findPageById("65540")).thenReturn(Optional.empty());
+        doAnswer(invocation -> {
+            applied.release();
+            return 1;
+        }).when(embeddingService).processAndStoreConfluencePages(anyList());
+        doAnswer(invocation -> {
+            applied.release();
+            return null;
+        }).when(embeddingService).deletePage(anyString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        pageChangeService.shutdown();
+    }
+
+    @Test
+    void burstOfEventsIsCoalescedPerPage() throws Exception {
+        for (String event : recordedEvents("page-burst.jsonl")) {
+            send(event).andExpect(status().isAccepted());
+        }
+
+        // Three pages changed; once all three are applied nothing is left pending that could fetch again
+        assertTrue(applied.tryAcquire(3, 5, TimeUnit.SECONDS));
+        assertEquals(0, pageChangeService.getPendingCount());
+        // Four events for 98310 become one fetch; the trashed page is fetched too and removed on the 404
+        verify(confluenceClient, times(1)).findPageById("98310");
+        verify(confluenceClient, times(1)).findPageById("131075");
+        verify(embeddingService).deletePage("65540");
+        verify(embeddingService, never()).deletePage("98310");
+    }
+
+    @Test
+    void trashedEventForAPageThatStillExistsReindexesIt() throws Exception {
+        when(confluenceClient.findPageById("65540")).thenReturn(Optional.of(page("65540", "ENG")));
+
+        send("{\"event\":\"page_trashed\",\"page\":{\"id\":\"65540\"}}").andExpect(status().isAccepted());
+
+        assertTrue(applied.tryAcquire(1, 5, TimeUnit.SECONDS));
+        verify(embeddingService, never()).deletePage("65540");
+        verify(embeddingService).processAndStoreConfluencePages(argThat(pages -> pages.getFirst().getId().equals("65540")));
+    }
+
+    @Test
+    void pageOutsideTheConfiguredSpacesIsNotIndexed() throws Exception {
+        confluenceProperties.setSpaceKeys("ENG, OPS");
+        when(confluenceClient.findPageById("98310")).thenReturn(Optional.of(page("98310", "HR")));
+
+        send("{\"event\":\"page_updated\",\"page\":{\"id\":\"98310\"}}").andExpect(status().isAccepted());
+
+        assertTrue(applied.tryAcquire(1, 5, TimeUnit.SECONDS));
+        verify(embeddingService, never()).processAndStoreConfluencePages(anyList());
+        verify(embeddingService).deletePage("98310");
+    }
+
+    @Test
+    void unrelatedEventsAreIgnored() throws Exception {
+        send("{\"event\":\"label_added\",\"label\":{\"name\":\"runbook\"}}")
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("ignored"));
+    }
+
+    @Test
+    void eventWithAWrongSignatureIsRejected() throws Exception {
+        String event = recordedEvents("page-burst.jsonl").getFirst();
+
+        mockMvc.perform(post("/api/webhooks/confluence").contentType(MediaType.APPLICATION_JSON).content(event)
+                        .header("X-Hub-Signature", "sha256=00"))
+                .andExpect(status().isUnauthorized());
+        send(event)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.pageId").value("98310"));
+    }
+
+    @Test
+    void eventsAreRefusedWithoutAConfiguredSecret() throws Exception {
+        properties.setSecret("");
+
+        send(recordedEvents("page-burst.jsonl").getFirst()).andExpect(status().isForbidden());
+
+        verify(confluenceClient, never()).findPageById(anyString());
+    }
+
+    private ResultActions send(String event) throws Exception {
+        return mockMvc.perform(post("/api/webhooks/confluence").contentType(MediaType.APPLICATION_JSON).content(event)
+                .header("X-Hub-Signature", "sha256=" + hmac(SECRET, event)));
+    }
+
+    private static ConfluencePage page(String id, String spaceKey) {
+        ConfluencePage page = new ConfluencePage();
+        page.setId(id);
+        ConfluencePage.Space space = new ConfluencePage.Space();
+        space.setKey(spaceKey);
+        page.setSpace(space);
+        return page;
+    }
+
+    private static List<String> recordedEvents(String name) throws IOException {
+        try (InputStream in = WebhookControllerTest.class.getResourceAsStream("/confluence/webhooks/" + name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().filter(line -> !line.isBlank()).toList();
+        }
+    }
+
+    private static String hmac(String secret, String body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return HexFormat.of().formatHex(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
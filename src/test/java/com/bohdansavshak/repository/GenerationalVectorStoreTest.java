@@ -0,0 +1,135 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorGenerationProperties;
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GenerationalVectorStoreTest {
+    private static final String POINTER_SQL =
+            "SELECT generation, table_name, building_generation, building_table FROM public.vector_store_generation";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final PgVectorStore baseStore = mock(PgVectorStore.class);
+    private GenerationalVectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        when(baseStore.getDistanceType()).thenReturn(PgVectorStore.PgDistanceType.COSINE_DISTANCE);
+        VectorGenerationProperties generationProperties = new VectorGenerationProperties();
+        generationProperties.setPollInterval(Duration.ofHours(1));
+        store = new GenerationalVectorStore(baseStore, mock(EmbeddingModel.class), jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), new ObjectMapper(), ObservationRegistry.NOOP,
+                new VectorQuantizationProperties(), generationProperties, "public", "vector_store", 768);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    void generationSwitchedByAnotherInstanceIsServedAfterThePoll() {
+        when(jdbcTemplate.queryForList(POINTER_SQL))
+                .thenReturn(List.of())
+                .thenReturn(List.of(Map.of("generation", 1, "table_name", "vector_store_g1")));
+        store.initialize();
+        assertEquals(List.of("public.vector_store"), store.servingTables());
+
+        store.poll();
+
+        assertEquals(List.of("public.vector_store_g1"), store.servingTables());
+    }
+
+    @Test
+    void previousTableIsKeptUntilDropAfterHasPassed() {
+        when(jdbcTemplate.queryForList(POINTER_SQL)).thenReturn(List.of());
+        store.initialize();
+
+        store.beginFullRebuild();
+        store.commitFullRebuild();
+
+        assertEquals(List.of("public.vector_store_g1"), store.servingTables());
+        verify(jdbcTemplate).update(contains("previous_table = EXCLUDED.previous_table"), eq(1), eq("vector_store_g1"), eq("vector_store"));
+        verify(jdbcTemplate, never()).execute("TRUNCATE public.vector_store");
+
+        // The pointer still names generation 1; drop-after has passed for the previous table
+        when(jdbcTemplate.queryForList(POINTER_SQL)).thenReturn(List.of(Map.of("generation", 1, "table_name", "vector_store_g1")));
+        when(jdbcTemplate.queryForList(contains("WITH expired"), eq(String.class), any())).thenReturn(List.of("vector_store"));
+        store.poll();
+
+        verify(jdbcTemplate).execute("TRUNCATE public.vector_store");
+        assertEquals(List.of("public.vector_store_g1"), store.servingTables());
+    }
+
+    @Test
+    void tableStillWaitingFromTheSwitchBeforeIsDroppedOnTheNextSwitch() {
+        when(jdbcTemplate.queryForList(POINTER_SQL)).thenReturn(List.of(Map.of("generation", 1, "table_name", "vector_store_g1")));
+        when(jdbcTemplate.queryForList(contains("FOR UPDATE"), eq(String.class))).thenReturn(List.of("vector_store"));
+        store.initialize();
+
+        store.beginFullRebuild();
+        store.commitFullRebuild();
+
+        assertEquals(List.of("public.vector_store_g2"), store.servingTables());
+        verify(jdbcTemplate).execute("TRUNCATE public.vector_store");
+        verify(jdbcTemplate, never()).execute("DROP TABLE IF EXISTS public.vector_store_g1");
+    }
+
+    @Test
+    void rebuildPublishedByAnotherInstanceReceivesUpdatesToo() {
+        when(jdbcTemplate.queryForList(POINTER_SQL))
+                .thenReturn(List.of())
+                .thenReturn(List.of(Map.of("generation", 0, "table_name", "vector_store",
+                        "building_generation", 1, "building_table", "vector_store_g1")));
+        store.initialize();
+        store.poll();
+
+        List<String> ids = List.of(UUID.randomUUID().toString());
+        store.delete(ids);
+
+        assertEquals(List.of("public.vector_store"), store.servingTables());
+        verify(baseStore).delete(ids);
+        verify(jdbcTemplate).batchUpdate(eq("DELETE FROM public.vector_store_g1 WHERE id = ?"),
+                any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test
+    void abortedRebuildIsClearedFromThePointer() {
+        when(jdbcTemplate.queryForList(POINTER_SQL)).thenReturn(List.of());
+        store.initialize();
+
+        store.beginFullRebuild();
+        store.abortFullRebuild();
+
+        verify(jdbcTemplate).update(contains("building_table = EXCLUDED.building_table"), eq(0), eq("vector_store"),
+                eq(1), eq("vector_store_g1"));
+        verify(jdbcTemplate).update(contains("WHERE building_table = ?"), eq("vector_store_g1"));
+        // Once before creating the table, once when discarding it
+        verify(jdbcTemplate, times(2)).execute("DROP TABLE IF EXISTS public.vector_store_g1");
+    }
+}
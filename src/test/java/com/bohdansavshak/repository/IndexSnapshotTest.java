@@ -0,0 +1,81 @@
+package com.bohdansavshak.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IndexSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void chunksAndPagesRoundTrip() throws IOException {
+        Path file = directory.resolve("index.snap");
+        UUID first = UUID.randomUUID();
+        try (IndexSnapshot.Writer writer = new IndexSnapshot.Writer(file, 3, IndexSnapshot.Precision.FLOAT32, "nomic-embed-text")) {
+            writer.writeChunk(new IndexSnapshot.Chunk(first, "Deploy > Steps\n\nRun the script", "{\"spaceKey\":\"ENG\"}",
+                    new float[]{0.25f, -1.5f, 3.0f}));
+            writer.writeChunk(new IndexSnapshot.Chunk(UUID.randomUUID(), null, null, new float[]{1, 2, 3}));
+            writer.writePage(new IndexSnapshot.Page("42", "Deploy", "Deploy\n\nRun the script", "ENG", "Engineering", null, 7));
+        }
+
+        try (IndexSnapshot.Reader reader = new IndexSnapshot.Reader(file)) {
+            assertEquals(3, reader.getDimensions());
+            assertEquals("nomic-embed-text", reader.getModelName());
+            assertEquals(2, reader.getChunkCount());
+            assertEquals(1, reader.getPageCount());
+
+            IndexSnapshot.Chunk chunk = reader.chunk(0);
+            assertEquals(first, chunk.id());
+            assertEquals("Deploy > Steps\n\nRun the script", chunk.content());
+            assertEquals("{\"spaceKey\":\"ENG\"}", chunk.metadata());
+            assertArrayEquals(new float[]{0.25f, -1.5f, 3.0f}, chunk.embedding());
+            assertNull(reader.chunk(1).content());
+            assertArrayEquals(new float[]{1, 2, 3}, reader.vector(1));
+
+            assertEquals(new IndexSnapshot.Page("42", "Deploy", "Deploy\n\nRun the script", "ENG", "Engineering", null, 7),
+                    reader.page(0));
+        }
+    }
+
+    @Test
+    void float16HalvesVectorStorage() throws IOException {
+        float[] vector = new float[768];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) Math.sin(i);
+        }
+        Path full = write("full.snap", IndexSnapshot.Precision.FLOAT32, vector);
+        Path half = write("half.snap", IndexSnapshot.Precision.FLOAT16, vector);
+
+        assertEquals(768 * 2 * 100, Files.size(full) - Files.size(half), 2 * 64);
+        try (IndexSnapshot.Reader reader = new IndexSnapshot.Reader(half)) {
+            assertArrayEquals(vector, reader.vector(99), 1e-3f);
+        }
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Path file = Files.writeString(directory.resolve("notes.txt"), "not a snapshot, just some text that is long enough");
+        assertThrows(IOException.class, () -> new IndexSnapshot.Reader(file));
+    }
+
+    private Path write(String name, IndexSnapshot.Precision precision, float[] vector) throws IOException {
+        Path file = directory.resolve(name);
+        try (IndexSnapshot.Writer writer = new IndexSnapshot.Writer(file, vector.length, precision, "nomic-embed-text")) {
+            for (int i = 0; i < 100; i++) {
+                writer.writeChunk(new IndexSnapshot.Chunk(UUID.randomUUID(), "chunk " + i, "{}", vector));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,139 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.model.ConfluencePage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs the queue's SQL against a real Postgres; skipped where Docker is not available
+@Testcontainers(disabledWithoutDocker = true)
+class IngestionQueueRepositoryTest {
+    private static final Duration LEASE = Duration.ofMinutes(2);
+    private static final Duration BACKOFF = Duration.ofMinutes(1);
+    private static final int MAX_ATTEMPTS = 2;
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private JdbcTemplate jdbcTemplate;
+    private IngestionQueueRepository queue;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()));
+        jdbcTemplate.execute("DROP TABLE IF EXISTS ingestion_work_queue");
+        queue = new IngestionQueueRepository(jdbcTemplate);
+        queue.createTableIfMissing();
+    }
+
+    @Test
+    void claimsNeverReturnTheSamePageTwice() {
+        queue.enqueue(pages("1", "2", "3"));
+
+        List<String> first = ids(queue.claim("a", 2, LEASE, MAX_ATTEMPTS));
+        List<String> second = ids(queue.claim("b", 2, LEASE, MAX_ATTEMPTS));
+
+        assertEquals(List.of("1", "2"), first);
+        assertEquals(List.of("3"), second);
+        assertTrue(queue.claim("c", 2, LEASE, MAX_ATTEMPTS).isEmpty());
+    }
+
+    @Test
+    void completedPageIsDoneUnlessItWasEnqueuedAgainMeanwhile() {
+        queue.enqueue(pages("1", "2"));
+        queue.claim("a", 2, LEASE, MAX_ATTEMPTS);
+        // Changed in Confluence while being embedded
+        queue.enqueue(pages("2"));
+
+        queue.complete("a", List.of("1", "2"));
+
+        assertEquals("done", state("1"));
+        assertEquals("pending", state("2"));
+        assertEquals(0, attempts("2"));
+    }
+
+    @Test
+    void failedPageBacksOffAndFailsOnTheLastAttempt() {
+        queue.enqueue(pages("1"));
+        queue.claim("a", 1, LEASE, MAX_ATTEMPTS);
+
+        queue.fail("a", List.of("1"), "boom", MAX_ATTEMPTS, BACKOFF);
+
+        assertEquals("pending", state("1"));
+        assertTrue(queue.claim("a", 1, LEASE, MAX_ATTEMPTS).isEmpty(), "claimable before the backoff passed");
+        jdbcTemplate.update("UPDATE ingestion_work_queue SET available_at = now()");
+        assertEquals(2, queue.claim("a", 1, LEASE, MAX_ATTEMPTS).getFirst().attempts());
+
+        queue.fail("a", List.of("1"), "boom again", MAX_ATTEMPTS, BACKOFF);
+
+        assertEquals("failed", state("1"));
+        assertEquals(Map.of("failed", 1L), queue.countsByState());
+    }
+
+    @Test
+    void expiredLeaseIsReclaimedAndTheOldOwnerCanNoLongerComplete() {
+        queue.enqueue(pages("1"));
+        queue.claim("a", 1, LEASE, MAX_ATTEMPTS);
+        jdbcTemplate.update("UPDATE ingestion_work_queue SET lease_expires_at = now() - interval '1 second'");
+
+        assertEquals(List.of("1"), ids(queue.claim("b", 1, LEASE, MAX_ATTEMPTS)));
+        queue.complete("a", List.of("1"));
+
+        assertEquals("leased", state("1"));
+        assertEquals("b", jdbcTemplate.queryForObject("SELECT lease_owner FROM ingestion_work_queue", String.class));
+    }
+
+    @Test
+    void heartbeatRenewsOnlyPagesInProgressAndYoungerThanTheMaximumAge() {
+        queue.enqueue(pages("1", "2", "3"));
+        queue.claim("a", 3, Duration.ofSeconds(10), MAX_ATTEMPTS);
+        // Claimed long ago by a batch that never finished
+        jdbcTemplate.update("UPDATE ingestion_work_queue SET leased_at = now() - interval '2 hours' WHERE page_id = '3'");
+
+        int renewed = queue.heartbeat("a", List.of("1", "3"), LEASE, Duration.ofHours(1));
+
+        assertEquals(1, renewed);
+        assertTrue(secondsLeft("1") > 60);
+        // Not being processed any more, or too old: left to expire
+        assertTrue(secondsLeft("2") <= 10);
+        assertTrue(secondsLeft("3") <= 10);
+        assertEquals(0, queue.heartbeat("b", List.of("1"), LEASE, Duration.ofHours(1)));
+    }
+
+    private String state(String pageId) {
+        return jdbcTemplate.queryForObject("SELECT state FROM ingestion_work_queue WHERE page_id = ?", String.class, pageId);
+    }
+
+    private int attempts(String pageId) {
+        return jdbcTemplate.queryForObject("SELECT attempts FROM ingestion_work_queue WHERE page_id = ?", Integer.class, pageId);
+    }
+
+    private double secondsLeft(String pageId) {
+        return jdbcTemplate.queryForObject("SELECT extract(epoch FROM lease_expires_at - now()) FROM ingestion_work_queue WHERE page_id = ?",
+                Double.class, pageId);
+    }
+
+    private static List<String> ids(List<IngestionQueueRepository.QueuedPage> claimed) {
+        return claimed.stream().map(IngestionQueueRepository.QueuedPage::pageId).sorted().toList();
+    }
+
+    private static List<ConfluencePage> pages(String... ids) {
+        return Arrays.stream(ids).map(id -> {
+            ConfluencePage page = new ConfluencePage();
+            page.setId(id);
+            return page;
+        }).toList();
+    }
+}
@@ -0,0 +1,47 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PgVectorSearchTest {
+
+    @Test
+    void filterIsBoundInsteadOfWrittenIntoTheStatement() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1, 0, 0});
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        PgVectorSearch search = new PgVectorSearch(embeddingModel, jdbcTemplate, transactionTemplate, new ObjectMapper(),
+                new VectorQuantizationProperties(), PgVectorStore.PgDistanceType.COSINE_DISTANCE, 3);
+        String filter = "$.spaceKey == \"ENG\") || true || ('";
+
+        search.search(List.of("public.vector_store"), SearchRequest.builder().query("deploy").topK(4).build(), filter);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> parameters = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), parameters.capture());
+        assertFalse(sql.getValue().contains(filter));
+        assertEquals(filter, parameters.getValue()[1]);
+    }
+}
@@ -0,0 +1,54 @@
+package com.bohdansavshak.repository;
+
+import com.bohdansavshak.config.VectorQuantizationProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpacePartitionedVectorStoreTest {
+
+    private final FilterExpressionBuilder filter = new FilterExpressionBuilder();
+
+    @Test
+    void spaceFiltersSelectPartitions() {
+        assertEquals(Set.of("ENG"), SpacePartitionedVectorStore.spacesOf(filter.eq("spaceKey", "ENG").build()));
+        assertEquals(Set.of("ENG", "HR"), SpacePartitionedVectorStore.spacesOf(filter.in("spaceKey", "ENG", "HR").build()));
+        assertEquals(Set.of("ENG"), SpacePartitionedVectorStore.spacesOf(
+                filter.and(filter.eq("type", "confluence-page"), filter.eq("spaceKey", "ENG")).build()));
+    }
+
+    @Test
+    void otherFiltersSearchEveryPartition() {
+        assertNull(SpacePartitionedVectorStore.spacesOf(filter.in("pageId", "1", "2").build()));
+        assertNull(SpacePartitionedVectorStore.spacesOf(
+                filter.or(filter.eq("spaceKey", "ENG"), filter.eq("type", "confluence-page")).build()));
+    }
+
+    @Test
+    void tableNamesAreSafeIdentifiers() {
+        SpacePartitionedVectorStore store = new SpacePartitionedVectorStore(null, null, null, null, null,
+                new VectorQuantizationProperties(), "public", "vector_store", 768, PgVectorStore.PgDistanceType.COSINE_DISTANCE);
+
+        assertEquals("vector_store_eng", store.candidateTableName("ENG"));
+        assertTrue(store.candidateTableName("~jdoe").matches("vector_store__jdoe_[0-9a-f]{8}"));
+    }
+
+    @Test
+    void keysThatSanitizeAlikeGetDistinctTables() {
+        SpacePartitionedVectorStore store = new SpacePartitionedVectorStore(null, null, null, null, null,
+                new VectorQuantizationProperties(), "public", "vector_store", 768, PgVectorStore.PgDistanceType.COSINE_DISTANCE);
+
+        assertNotEquals(store.candidateTableName("~j.doe"), store.candidateTableName("~j-doe"));
+        assertNotEquals(store.candidateTableName("~jdoe"), store.candidateTableName("~JDOE"));
+        String longKey = "~" + "a".repeat(60);
+        assertNotEquals(store.candidateTableName(longKey), store.candidateTableName(longKey + "b"));
+        assertTrue(store.candidateTableName(longKey).length() + "_next".length() < 64);
+    }
+}
@@ -0,0 +1,121 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class AttachmentIngestionServiceTest {
+
+    private final ConfluenceClient confluenceClient = mock(ConfluenceClient.class);
+    private final IngestionJournalRepository journal = mock(IngestionJournalRepository.class);
+    private final IngestionProperties properties = new IngestionProperties();
+    private AttachmentIngestionService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void pageListedWithoutAttachmentsIsSkipped() {
+        service = newService();
+
+        service.submit(page("1", 0));
+
+        verifyNoInteractions(confluenceClient, journal);
+    }
+
+    @Test
+    void fullQueueMakesTheSubmitterWaitInsteadOfDroppingPages() throws InterruptedException {
+        properties.setAttachmentWorkers(1);
+        properties.setAttachmentQueueCapacity(1);
+        service = newService();
+        CountDownLatch listingStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(confluenceClient.getAttachments(anyString())).thenAnswer(invocation -> {
+            listingStarted.countDown();
+            release.await();
+            return List.of();
+        });
+
+        service.submit(page("1", 3));
+        assertTrue(listingStarted.await(5, TimeUnit.SECONDS));
+        service.submit(page("2", 3));
+        CountDownLatch thirdSubmitted = new CountDownLatch(1);
+        Thread.ofVirtual().start(() -> {
+            service.submit(page("3", 3));
+            thirdSubmitted.countDown();
+        });
+
+        // One task is running and one queued, so the third submit waits
+        assertFalse(thirdSubmitted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(thirdSubmitted.await(5, TimeUnit.SECONDS));
+        verify(confluenceClient, timeout(5000)).getAttachments("3");
+        verify(confluenceClient, timeout(5000)).getAttachments("2");
+    }
+
+    @Test
+    void failedAttachmentListingIsCountedOnceThePageIsDone() throws InterruptedException {
+        service = newService();
+        when(confluenceClient.getAttachments("1")).thenThrow(new IllegalStateException("Confluence unavailable"));
+
+        service.submit(page("1", 2));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getPendingCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, service.getPendingCount());
+        assertEquals(1, service.getFailedCount());
+    }
+
+    @Test
+    void attachmentCountIsReadFromTheChildrenExpansion() throws Exception {
+        String json = """
+                {"id":"7","title":"Runbook","children":{"attachment":{"results":[],"start":0,"limit":25,"size":0}}}
+                """;
+
+        ConfluencePage page = new ConfluenceContentParser().parsePage(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(0, page.getAttachmentCount());
+        assertEquals("Runbook", page.getTitle());
+    }
+
+    private AttachmentIngestionService newService() {
+        return new AttachmentIngestionService(confluenceClient, mock(EmbeddingService.class),
+                mock(AttachmentTextExtractor.class), properties, new RagMetrics(new SimpleMeterRegistry()),
+                ObservationRegistry.NOOP, journal);
+    }
+
+    private static ConfluencePage page(String id, int attachmentCount) {
+        ConfluencePage page = new ConfluencePage();
+        page.setId(id);
+        page.setTitle("Page " + id);
+        page.setAttachmentCount(attachmentCount);
+        return page;
+    }
+}
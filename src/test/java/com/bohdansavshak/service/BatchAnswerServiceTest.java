@@ -0,0 +1,127 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.AdmissionProperties;
+import com.bohdansavshak.config.BatchProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchAnswerServiceTest {
+
+    private final RagService ragService = mock(RagService.class);
+    private final EmbeddingModel ollama = mock(EmbeddingModel.class);
+    private final PrecomputedEmbeddingModel embeddingModel = new PrecomputedEmbeddingModel(ollama);
+    private final BatchProperties properties = new BatchProperties();
+    private BatchAnswerService batchAnswerService;
+
+    @BeforeEach
+    void setUp() {
+        AdmissionProperties admissionProperties = new AdmissionProperties();
+        admissionProperties.setMaxConcurrent(2);
+        ChatAdmissionService admissionService = new ChatAdmissionService(admissionProperties, mock(RagMetrics.class));
+        batchAnswerService = new BatchAnswerService(ragService, embeddingModel, admissionService, properties);
+
+        when(ollama.embed(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                .map(text -> new float[]{text.hashCode()})
+                .toList());
+        when(ragService.retrieve(anyString(), eq("ENG"))).thenReturn(List.of(new Document("context")));
+        when(ragService.answerFromContext(anyString(), anyList())).thenAnswer(invocation ->
+                new RagService.ChatWithSourcesResponse("answer to " + invocation.getArgument(0), List.of()));
+    }
+
+    @Test
+    void everyQuestionIsAnsweredAndEmbeddedInOneCall() {
+        List<String> questions = List.of("Where is the VPN guide?", "Who approves releases?", " ", "Where is the VPN guide?");
+
+        List<BatchAnswerService.BatchAnswer> answers = batchAnswerService.answerAll(questions, "ENG", "nightly")
+                .collectSortedList(Comparator.comparingInt(BatchAnswerService.BatchAnswer::index))
+                .block();
+
+        assertEquals(4, answers.size());
+        assertEquals("answer to Who approves releases?", answers.get(1).answer());
+        assertNull(answers.get(1).error());
+        assertEquals("Question cannot be empty", answers.get(2).error());
+        assertEquals("answer to Where is the VPN guide?", answers.get(3).answer());
+        verify(ollama, times(1)).embed(anyList());
+        verify(ollama).embed(List.of("Where is the VPN guide?", "Who approves releases?"));
+    }
+
+    @Test
+    void precomputedQueriesAreServedWithoutTheModelUntilForgotten() {
+        embeddingModel.precompute(List.of("a", "b"));
+
+        assertArrayEquals(new float[]{"b".hashCode()}, embeddingModel.embed("b"));
+        verify(ollama, times(1)).embed(anyList());
+
+        embeddingModel.forget(List.of("a", "b"));
+        when(ollama.call(org.mockito.ArgumentMatchers.any())).thenThrow(new IllegalStateException("called the model"));
+        assertThrows(IllegalStateException.class, () -> embeddingModel.embed("b"));
+    }
+
+    @Test
+    void oversizedAndExcessBatchesAreRejectedUpFront() {
+        properties.setMaxQuestions(2);
+        assertThrows(IllegalArgumentException.class,
+                () -> batchAnswerService.answerAll(Arrays.asList("a", "b", "c"), null, "nightly"));
+
+        // Running batches are counted once subscribed
+        properties.setMaxQuestions(10);
+        CountDownLatch embedding = new CountDownLatch(1);
+        when(ollama.embed(anyList())).thenAnswer(invocation -> {
+            embedding.await(5, TimeUnit.SECONDS);
+            return List.of(new float[]{1});
+        });
+        batchAnswerService.answerAll(List.of("unsubscribed"), null, "nightly");
+        Disposable first = batchAnswerService.answerAll(List.of("a"), null, "nightly").subscribe();
+        Disposable second = batchAnswerService.answerAll(List.of("b"), null, "nightly").subscribe();
+        assertThrows(AdmissionRejectedException.class, () -> batchAnswerService.answerAll(List.of("c"), null, "nightly").blockLast());
+        embedding.countDown();
+        first.dispose();
+        second.dispose();
+    }
+
+    @Test
+    void questionTurnedAwayByAdmissionAsksAgain() {
+        ChatAdmissionService admissionService = mock(ChatAdmissionService.class);
+        ChatAdmissionService.Ticket ticket = mock(ChatAdmissionService.Ticket.class);
+        ChatAdmissionService.Permit permit = mock(ChatAdmissionService.Permit.class);
+        when(admissionService.enqueue(anyString(), any()))
+                .thenThrow(new AdmissionRejectedException("Too many pending requests, please retry later", true, 1))
+                .thenReturn(ticket);
+        when(admissionService.awaitPermit(ticket)).thenReturn(Mono.just(permit));
+        properties.setAdmissionRetryDelay(Duration.ofMillis(10));
+        BatchAnswerService service = new BatchAnswerService(ragService, embeddingModel, admissionService, properties);
+
+        List<BatchAnswerService.BatchAnswer> answers = service.answerAll(List.of("Who approves releases?"), "ENG", "nightly")
+                .collectList()
+                .block();
+
+        assertEquals("answer to Who approves releases?", answers.getFirst().answer());
+        verify(admissionService, times(2)).enqueue(anyString(), any());
+        verify(permit).close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.AdmissionProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ChatAdmissionServiceTest {
+
+    private AdmissionProperties properties;
+    private ChatAdmissionService admissionService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AdmissionProperties();
+        properties.setMaxConcurrent(1);
+        properties.setMaxQueued(4);
+        properties.setMaxQueuedPerClient(2);
+        properties.setMaxWait(Duration.ofMillis(50));
+        admissionService = new ChatAdmissionService(properties, mock(RagMetrics.class));
+    }
+
+    @Test
+    void waitingRequestsAreServedByPriorityThenRoundRobinBetweenClients() {
+        ChatAdmissionService.Permit running = admissionService.acquire("a", ChatAdmissionService.Priority.STANDARD);
+
+        List<String> order = new ArrayList<>();
+        enqueue("a", ChatAdmissionService.Priority.BATCH, "a-batch", order);
+        enqueue("a", ChatAdmissionService.Priority.INTERACTIVE, "a-1", order);
+        enqueue("a", ChatAdmissionService.Priority.INTERACTIVE, "a-2", order);
+        enqueue("b", ChatAdmissionService.Priority.INTERACTIVE, "b-1", order);
+
+        running.close();
+        assertEquals(List.of("a-1", "b-1", "a-2", "a-batch"), order);
+        assertEquals(0, admissionService.getInFlightCount());
+        assertEquals(0, admissionService.getQueuedCount());
+    }
+
+    @Test
+    void rejectsWhenClientQueueIsFull() {
+        admissionService.acquire("a", ChatAdmissionService.Priority.STANDARD);
+        admissionService.enqueue("a", ChatAdmissionService.Priority.STANDARD);
+        admissionService.enqueue("a", ChatAdmissionService.Priority.STANDARD);
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> admissionService.enqueue("a", ChatAdmissionService.Priority.STANDARD));
+        assertTrue(rejected.isQueueFull());
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+
+        // Another client still gets a place in the queue
+        assertNotNull(admissionService.enqueue("b", ChatAdmissionService.Priority.STANDARD));
+    }
+
+    @Test
+    void timedOutWaitLeavesTheQueue() {
+        admissionService.acquire("a", ChatAdmissionService.Priority.STANDARD);
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> admissionService.acquire("b", ChatAdmissionService.Priority.STANDARD));
+        assertFalse(rejected.isQueueFull());
+        assertEquals(0, admissionService.getQueuedCount());
+    }
+
+    // Each granted permit records its label and is released right away, handing the slot to the next waiter
+    private void enqueue(String clientId, ChatAdmissionService.Priority priority, String label, List<String> order) {
+        ChatAdmissionService.Ticket ticket = admissionService.enqueue(clientId, priority);
+        admissionService.awaitPermit(ticket).subscribe(permit -> {
+            order.add(label);
+            permit.close();
+        });
+    }
+}
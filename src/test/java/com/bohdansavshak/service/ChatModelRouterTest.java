@@ -0,0 +1,40 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ChatRoutingProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChatModelRouterTest {
+
+    private ChatRoutingProperties properties;
+    private ChatModelRouter router;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatRoutingProperties();
+        properties.setEnabled(true);
+        properties.setFastModel("llama3.2:1b");
+        properties.setMaxFastWords(8);
+        router = new ChatModelRouter(properties);
+    }
+
+    @Test
+    void shortLookupQuestionGoesToFastModel() {
+        assertEquals("llama3.2:1b", router.route("Where is the VPN setup guide?"));
+    }
+
+    @Test
+    void longOrSynthesisQuestionsKeepDefaultModel() {
+        assertNull(router.route("Why did we move to Kubernetes?"));
+        assertNull(router.route("What should a new backend engineer read during the first two weeks here?"));
+    }
+
+    @Test
+    void disabledRouterKeepsDefaultModel() {
+        properties.setEnabled(false);
+        assertNull(router.route("Where is the VPN setup guide?"));
+    }
+}
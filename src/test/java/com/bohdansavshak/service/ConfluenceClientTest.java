@@ -0,0 +1,168 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.model.ConfluenceAttachment;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConfluenceClientTest {
+    private static final Pattern START = Pattern.compile("start=(\\d+)");
+
+    private final List<Integer> requestedStarts = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ConfluenceProperties properties = new ConfluenceProperties();
+    private HttpServer server;
+    private ConfluenceClient client;
+    private volatile boolean stallBody;
+    private final AtomicInteger truncatedResponses = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/rest/api/content", this::listing);
+        server.createContext("/download", exchange -> {
+            try (exchange) {
+                // Chunked, so the client can't tell the size up front
+                exchange.sendResponseHeaders(200, 0);
+                exchange.getResponseBody().write(new byte[4096]);
+            }
+        });
+        server.start();
+
+        properties.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        properties.setPageSize(2);
+        properties.setMaxRetries(0);
+        properties.setReadTimeout(Duration.ofMillis(300));
+        client = new ConfluenceClient(properties, new ConfluenceContentParser(), ObservationRegistry.NOOP);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void bodyThatStopsArrivingFailsTheCrawl() {
+        stallBody = true;
+
+        ConfluenceFetchException error = assertThrows(ConfluenceFetchException.class,
+                () -> client.forEachPageInSpace("ENG", page -> { }));
+
+        assertInstanceOf(HttpTimeoutException.class, rootCause(error));
+    }
+
+    @Test
+    void resumedCrawlStartsOnePageOfResultsBeforeTheSavedOffset() {
+        List<Integer> advanced = new ArrayList<>();
+        List<String> pageIds = new ArrayList<>();
+
+        client.forEachPageInSpace("ENG", page -> pageIds.add(page.getId()), new ConfluenceClient.CrawlCursor() {
+            @Override
+            public int startOf(String query) {
+                return 4;
+            }
+
+            @Override
+            public void advance(String query, int nextStart) {
+                advanced.add(nextStart);
+            }
+        });
+
+        assertEquals(List.of(2, 4), requestedStarts);
+        assertEquals(List.of("2", "3", "4"), pageIds);
+        assertEquals(List.of(4), advanced);
+    }
+
+    @Test
+    void connectionDroppedWhileReadingTheBodyIsRetried() {
+        properties.setMaxRetries(1);
+        properties.setRetryBackoff(Duration.ofMillis(1));
+        truncatedResponses.set(1);
+        List<String> pageIds = new ArrayList<>();
+
+        client.forEachPageInSpace("ENG", page -> pageIds.add(page.getId()));
+
+        // Pages of the broken response are not handed over, only those of the retried one
+        assertEquals(List.of(0, 0, 2, 4), requestedStarts);
+        assertEquals(List.of("0", "1", "2", "3", "4"), pageIds);
+    }
+
+    @Test
+    void downloadLargerThanTheLimitIsRejectedWhileStreaming(@TempDir Path dir) {
+        ConfluenceAttachment attachment = new ConfluenceAttachment();
+        attachment.setId("att1");
+        attachment.setDownloadPath("/download/att1");
+
+        assertThrows(AttachmentTooLargeException.class,
+                () -> client.downloadAttachment(attachment, dir.resolve("att1"), 1024));
+    }
+
+    // Five pages, listed two at a time
+    private void listing(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Matcher matcher = START.matcher(exchange.getRequestURI().getQuery());
+            int start = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+            requestedStarts.add(start);
+
+            List<String> results = new ArrayList<>();
+            for (int id = start; id < Math.min(start + 2, 5); id++) {
+                results.add("{\"id\":\"" + id + "\",\"title\":\"Page " + id + "\",\"version\":{\"number\":1}}");
+            }
+            byte[] body = ("{\"results\":[" + String.join(",", results) + "],\"size\":" + results.size() + "}")
+                    .getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            if (truncatedResponses.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body, 0, body.length - 5);
+                return;
+            }
+            exchange.sendResponseHeaders(200, stallBody ? 0 : body.length);
+            OutputStream out = exchange.getResponseBody();
+            if (stallBody) {
+                out.write(body, 0, 10);
+                out.flush();
+                release.await();
+                return;
+            }
+            out.write(body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Throwable rootCause(Throwable error) {
+        while (error.getCause() != null && !(error instanceof HttpTimeoutException)) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
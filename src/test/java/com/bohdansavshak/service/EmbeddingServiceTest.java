@@ -0,0 +1,125 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.DocumentEmbeddingBulkRepository;
+import com.bohdansavshak.repository.DocumentEmbeddingRepository;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingServiceTest {
+
+    private final EmbeddingModel ollama = mock(EmbeddingModel.class);
+    private final VectorStore vectorStore = mock(VectorStore.class);
+    private final DocumentEmbeddingBulkRepository bulkRepository = mock(DocumentEmbeddingBulkRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final IngestionJournalRepository journal = mock(IngestionJournalRepository.class);
+    private EmbeddingService embeddingService;
+
+    @BeforeEach
+    void setUp() {
+        when(ollama.embed(anyList(), any(), any())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                .map(document -> new float[]{1, 0})
+                .toList());
+        embeddingService = new EmbeddingService(mock(DocumentEmbeddingRepository.class), bulkRepository, vectorStore,
+                new PrecomputedEmbeddingModel(ollama), new TransactionTemplate(transactionManager),
+                new StorageFormatExtractor(), new DocumentChunker(), new IngestionProperties(),
+                new RagMetrics(new SimpleMeterRegistry()), new PageCatalog(new ConfluenceProperties(), new IngestionProperties(), bulkRepository),
+                journal);
+    }
+
+    @Test
+    void pageListedTwiceInABatchIsStoredOnce() {
+        int stored = embeddingService.processAndStoreConfluencePages(List.of(page("42", 1, "<p>Old</p>"),
+                page("7", 3, "<p>Other</p>"), page("42", 2, "<p>New</p>")));
+
+        assertEquals(2, stored);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentEmbedding>> rows = ArgumentCaptor.forClass(List.class);
+        verify(bulkRepository).upsertAll(rows.capture());
+        assertEquals(List.of("42", "7"), rows.getValue().stream().map(DocumentEmbedding::getConfluencePageId).toList());
+        assertEquals(2, rows.getValue().getFirst().getVersion());
+    }
+
+    @Test
+    void pagesAreEmbeddedBeforeTheTransactionOpens() {
+        embeddingService.processAndStoreConfluencePages(List.of(page("42", 1, "<p>Run the deploy script</p>")));
+
+        InOrder order = inOrder(ollama, transactionManager, vectorStore);
+        order.verify(ollama).embed(anyList(), any(), any());
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(vectorStore).delete(any(Filter.Expression.class));
+        order.verify(vectorStore).add(anyList());
+        order.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void oldVectorsAreDeletedByThePageIdInTheirMetadata() {
+        // Stored under ENG before, listed without a space now
+        when(bulkRepository.findSpaceKeys(List.of("42"))).thenReturn(Set.of("ENG"));
+
+        embeddingService.processAndStoreConfluencePages(List.of(page("42", 1, "<p>Run the deploy script</p>")));
+
+        ArgumentCaptor<Filter.Expression> filter = ArgumentCaptor.forClass(Filter.Expression.class);
+        verify(vectorStore).delete(filter.capture());
+        assertEquals(Filter.ExpressionType.AND, filter.getValue().type());
+        Filter.Expression spaces = (Filter.Expression) filter.getValue().left();
+        assertEquals(new Filter.Key("spaceKey"), spaces.left());
+        assertEquals(Set.of("ENG", "UNKNOWN"), Set.copyOf((List<?>) ((Filter.Value) spaces.right()).value()));
+        Filter.Expression ids = (Filter.Expression) filter.getValue().right();
+        assertEquals(new Filter.Key("id"), ids.left());
+        assertEquals(List.of("42"), ((Filter.Value) ids.right()).value());
+        ArgumentCaptor<List<Document>> documents = ArgumentCaptor.forClass(List.class);
+        verify(vectorStore).add(documents.capture());
+        assertEquals("42", documents.getValue().getFirst().getMetadata().get("id"));
+    }
+
+    @Test
+    void pageWithoutContentIsJournaledAsApplied() {
+        int stored = embeddingService.processAndStoreConfluencePages(List.of(page("42", 3, "<p></p>")));
+
+        assertEquals(0, stored);
+        verify(journal).recordApplied(List.of(new IngestionJournalRepository.Entry("42", IngestionJournalRepository.KIND_PAGE,
+                IngestionJournalRepository.UPSERT, 3)));
+        verify(journal, never()).recordPending(anyList());
+    }
+
+    private static ConfluencePage page(String id, int version, String storage) {
+        ConfluencePage page = new ConfluencePage();
+        page.setId(id);
+        page.setTitle("Page " + id);
+        ConfluencePage.Storage body = new ConfluencePage.Storage();
+        body.setValue(storage);
+        ConfluencePage.Body pageBody = new ConfluencePage.Body();
+        pageBody.setStorage(body);
+        page.setBody(pageBody);
+        ConfluencePage.Version pageVersion = new ConfluencePage.Version();
+        pageVersion.setNumber(version);
+        page.setVersion(pageVersion);
+        return page;
+    }
+}
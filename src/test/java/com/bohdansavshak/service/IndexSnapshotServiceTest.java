@@ -0,0 +1,103 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.repository.DocumentEmbeddingBulkRepository;
+import com.bohdansavshak.repository.IndexSnapshot;
+import com.bohdansavshak.repository.RebuildableVectorStore;
+import com.bohdansavshak.repository.VectorSnapshotRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.ai.model.ollama.autoconfigure.OllamaEmbeddingProperties;
+import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreProperties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IndexSnapshotServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final VectorSnapshotRepository snapshotRepository = mock(VectorSnapshotRepository.class);
+    private final RebuildableVectorStore vectorStore = mock(RebuildableVectorStore.class);
+    private final IngestionProperties ingestionProperties = new IngestionProperties();
+    private IndexSnapshotService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ingestionProperties.setSnapshotDir(directory.toString());
+        PgVectorStoreProperties vectorStoreProperties = new PgVectorStoreProperties();
+        vectorStoreProperties.setDimensions(3);
+        OllamaEmbeddingProperties embeddingProperties = new OllamaEmbeddingProperties();
+        embeddingProperties.setModel("nomic-embed-text");
+        when(snapshotRepository.withImportLock(any()))
+                .thenAnswer(invocation -> invocation.<VectorSnapshotRepository.ImportAction<?>>getArgument(0).run());
+        when(vectorStore.writeTable(anyString())).thenReturn("public.vector_store_g1");
+        service = new IndexSnapshotService(snapshotRepository, vectorStore,
+                new PageCatalog(new ConfluenceProperties(), ingestionProperties, mock(DocumentEmbeddingBulkRepository.class)),
+                ingestionProperties, vectorStoreProperties, embeddingProperties, new ObjectMapper(),
+                new RagMetrics(new SimpleMeterRegistry()));
+
+        try (IndexSnapshot.Writer writer = new IndexSnapshot.Writer(directory.resolve("index.snap"), 3,
+                IndexSnapshot.Precision.FLOAT32, "nomic-embed-text")) {
+            writer.writeChunk(new IndexSnapshot.Chunk(UUID.randomUUID(), "Run the script", "{\"spaceKey\":\"ENG\"}",
+                    new float[]{1, 2, 3}));
+            writer.writePage(new IndexSnapshot.Page("42", "Deploy", "Run the script", "ENG", "Engineering", null, 7));
+        }
+    }
+
+    @Test
+    void pageMetadataIsReplacedOnlyAfterTheVectorsAreSwitched() throws IOException {
+        service.importSnapshot("index.snap");
+
+        InOrder order = inOrder(snapshotRepository, vectorStore);
+        order.verify(snapshotRepository).beginPageImport();
+        order.verify(snapshotRepository).stagePages(List.of(
+                new IndexSnapshot.Page("42", "Deploy", "Run the script", "ENG", "Engineering", null, 7)));
+        order.verify(vectorStore).commitFullRebuild();
+        order.verify(snapshotRepository).commitPageImport();
+    }
+
+    @Test
+    void failedImportLeavesThePageMetadataAlone() {
+        doThrow(new IllegalStateException("index build failed")).when(vectorStore).commitFullRebuild();
+
+        assertThrows(IllegalStateException.class, () -> service.importSnapshot("index.snap"));
+
+        verify(vectorStore).abortFullRebuild();
+        verify(snapshotRepository).abortPageImport();
+        verify(snapshotRepository, never()).commitPageImport();
+    }
+
+    @Test
+    void bootstrapChecksForAnEmptyIndexUnderTheImportLock() throws IOException {
+        ingestionProperties.setSnapshotBootstrap("index.snap");
+        when(vectorStore.servingTables()).thenReturn(List.of("public.vector_store"));
+        when(snapshotRepository.isEmpty(List.of("public.vector_store"))).thenReturn(false);
+
+        service.bootstrap();
+
+        InOrder order = inOrder(snapshotRepository);
+        order.verify(snapshotRepository).withImportLock(any());
+        order.verify(snapshotRepository).isEmpty(anyList());
+        verify(vectorStore, never()).beginFullRebuild();
+    }
+}
@@ -0,0 +1,76 @@
+package com.bohdansavshak.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionEmbeddingModelTest {
+
+    @Test
+    void sharedPoolRunsAtMostMaxInFlightIngestionCalls() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        EmbeddingModel queryModel = mock(EmbeddingModel.class);
+        when(queryModel.call(any())).thenAnswer(invocation -> {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            release.await(5, TimeUnit.SECONDS);
+            running.decrementAndGet();
+            return new EmbeddingResponse(List.of(new Embedding(new float[]{1}, 0)));
+        });
+        IngestionEmbeddingModel ingestion = IngestionEmbeddingModel.shared(queryModel, 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                calls.add(executor.submit(() -> ingestion.call(new EmbeddingRequest(List.of("page"), null))));
+            }
+            Thread.sleep(200);
+            assertEquals(2, running.get());
+            release.countDown();
+            for (Future<?> call : calls) {
+                call.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, mostRunning.get());
+    }
+
+    @Test
+    void documentsGoToTheIngestionModelAndQueriesToTheQueryModel() {
+        EmbeddingModel queryModel = mock(EmbeddingModel.class);
+        EmbeddingModel ingestionModel = mock(EmbeddingModel.class);
+        when(ingestionModel.embed(any(List.class), any(), any())).thenReturn(List.of(new float[]{1, 0}));
+        when(queryModel.call(any())).thenReturn(new EmbeddingResponse(List.of(new Embedding(new float[]{0, 1}, 0))));
+        PrecomputedEmbeddingModel model = new PrecomputedEmbeddingModel(queryModel, ingestionModel);
+
+        model.precomputeDocuments(List.of(new Document("Run the deploy script")));
+        float[] query = model.embed("How do I deploy?");
+
+        assertEquals(0, query[0]);
+        assertTrue(model.embed("Run the deploy script")[0] > 0);
+        verify(ingestionModel, never()).call(any());
+    }
+}
@@ -0,0 +1,63 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.model.ConfluencePage;
+import com.bohdansavshak.repository.IngestionJournalRepository;
+import com.bohdansavshak.repository.IngestionJournalRepository.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionJournalReplayerTest {
+
+    private final IngestionJournalRepository journal = mock(IngestionJournalRepository.class);
+    private final ConfluenceClient confluenceClient = mock(ConfluenceClient.class);
+    private final EmbeddingService embeddingService = mock(EmbeddingService.class);
+    private final AttachmentIngestionService attachmentIngestionService = mock(AttachmentIngestionService.class);
+
+    @Test
+    void replayDeletesPagesThatAreGoneOrOutsideTheConfiguredSpaces() {
+        ConfluenceProperties confluenceProperties = new ConfluenceProperties();
+        confluenceProperties.setSpaceKeys("ENG, HR");
+        IngestionJournalReplayer replayer = new IngestionJournalReplayer(journal, confluenceClient, embeddingService,
+                attachmentIngestionService, confluenceProperties, new IngestionProperties(), mock(RagMetrics.class));
+        when(journal.claimStale(any(), anyInt())).thenReturn(List.of(
+                new Entry("1", IngestionJournalRepository.KIND_PAGE, IngestionJournalRepository.UPSERT, 2),
+                new Entry("2", IngestionJournalRepository.KIND_PAGE, IngestionJournalRepository.UPSERT, 2),
+                new Entry("3", IngestionJournalRepository.KIND_PAGE, IngestionJournalRepository.UPSERT, 2),
+                new Entry("2", IngestionJournalRepository.KIND_ATTACHMENTS, IngestionJournalRepository.UPSERT, 2)
+        )).thenReturn(List.of());
+        ConfluencePage indexed = page("1", "ENG");
+        ConfluencePage moved = page("2", "SALES");
+        when(confluenceClient.getPages(List.of("1", "2", "3"))).thenReturn(List.of(indexed, moved));
+        when(confluenceClient.getPages(List.of("2"))).thenReturn(List.of(moved));
+
+        replayer.replay();
+
+        verify(embeddingService).processAndStoreConfluencePages(List.of(indexed));
+        verify(embeddingService, never()).deletePage("1");
+        verify(embeddingService, times(2)).deletePage("2");
+        verify(embeddingService).deletePage("3");
+        verify(attachmentIngestionService, never()).submit(any());
+        verify(journal).markApplied(IngestionJournalRepository.KIND_ATTACHMENTS, List.of("2"));
+    }
+
+    private static ConfluencePage page(String id, String spaceKey) {
+        ConfluencePage page = new ConfluencePage();
+        page.setId(id);
+        page.setTitle("Page " + id);
+        ConfluencePage.Space space = new ConfluencePage.Space();
+        space.setKey(spaceKey);
+        page.setSpace(space);
+        return page;
+    }
+}
@@ -0,0 +1,132 @@
+package com.bohdansavshak.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class OllamaEndpointPoolTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void callsGoToTheNodeWithFewestInFlight() throws Exception {
+        OllamaEndpointPool<String> pool = pool(fakeOllama(), fakeOllama());
+        assertEquals(2, List.of(pool.execute(node -> node), pool.execute(node -> node)).stream().distinct().count());
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<String> busyNode = new AtomicReference<>();
+        CompletableFuture<String> busy = CompletableFuture.supplyAsync(() -> pool.execute(node -> {
+            busyNode.set(node);
+            started.countDown();
+            await(release);
+            return node;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 3; i++) {
+            assertNotEquals(busyNode.get(), pool.execute(node -> node));
+        }
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void unreachableNodeIsSkippedUntilItsHealthCheckPasses() throws Exception {
+        String down = fakeOllama();
+        String up = fakeOllama();
+        OllamaEndpointPool<String> pool = pool(down, up);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(up, pool.execute(node -> {
+                if (node.equals(down)) {
+                    throw new ResourceAccessException("Connection refused");
+                }
+                return node;
+            }));
+        }
+        assertFalse(pool.getEndpoints().getFirst().isHealthy());
+
+        pool.checkHealth();
+        assertTrue(pool.getEndpoints().getFirst().isHealthy());
+
+        servers.getFirst().stop(0);
+        pool.checkHealth();
+        assertFalse(pool.getEndpoints().getFirst().isHealthy());
+        assertTrue(pool.getEndpoints().getLast().isHealthy());
+    }
+
+    @Test
+    void streamFailsOverOnlyBeforeItsFirstElement() {
+        String down = fakeOllama();
+        String up = fakeOllama();
+        OllamaEndpointPool<String> pool = pool(down, up);
+
+        List<String> tokens = pool.stream(node -> node.equals(down)
+                        ? Flux.<String>error(new ResourceAccessException("Connection refused"))
+                        : Flux.just("Use", " the VPN"))
+                .collectList()
+                .block();
+        assertEquals(List.of("Use", " the VPN"), tokens);
+
+        Flux<String> broken = pool.stream(node -> Flux.just("Use").concatWith(Flux.error(new ResourceAccessException("reset"))));
+        assertEquals(1, broken.onErrorResume(error -> Flux.empty()).collectList().block().size());
+        assertEquals(0, pool.getEndpoints().stream().mapToInt(OllamaEndpointPool.Endpoint::getOutstanding).sum());
+    }
+
+    private OllamaEndpointPool<String> pool(String... urls) {
+        List<OllamaEndpointPool.Endpoint<String>> endpoints = new ArrayList<>();
+        for (String url : urls) {
+            endpoints.add(new OllamaEndpointPool.Endpoint<>(url, url));
+        }
+        return new OllamaEndpointPool<>("chat", endpoints, Duration.ZERO, Duration.ofSeconds(2), mock(RagMetrics.class));
+    }
+
+    private String fakeOllama() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/tags", exchange -> {
+                byte[] body = "{\"models\":[]}".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+            server.start();
+            servers.add(server);
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
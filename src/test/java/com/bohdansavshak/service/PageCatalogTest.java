@@ -0,0 +1,107 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ConfluenceProperties;
+import com.bohdansavshak.config.IngestionProperties;
+import com.bohdansavshak.entity.DocumentEmbedding;
+import com.bohdansavshak.repository.DocumentEmbeddingBulkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PageCatalogTest {
+
+    private final DocumentEmbeddingBulkRepository bulkRepository = mock(DocumentEmbeddingBulkRepository.class);
+    private PageCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        ConfluenceProperties properties = new ConfluenceProperties();
+        properties.setBaseUrl("http://confluence.example.com");
+        catalog = new PageCatalog(properties, new IngestionProperties(), bulkRepository);
+    }
+
+    @Test
+    void chunksOfOnePageResolveToOneCatalogEntry() {
+        DocumentEmbedding page = DocumentEmbedding.create("123", "Onboarding", null, "HR", "Human Resources");
+        page.setVersion(7);
+        DocumentEmbedding attachment = DocumentEmbedding.create("att9", "handbook.pdf", null, "HR", "Human Resources");
+        attachment.setParentPageId("123");
+        catalog.putAll(List.of(page, attachment));
+
+        List<RagService.SourcePage> sources = catalog.sourcesFor(List.of(chunk("123"), chunk("att9"), chunk("123")));
+
+        assertEquals(2, sources.size());
+        assertEquals("http://confluence.example.com/pages/viewpage.action?pageId=123", sources.get(0).getUrl());
+        assertEquals(7, sources.get(0).getVersion());
+        // Attachments link to their page
+        assertEquals("http://confluence.example.com/pages/viewpage.action?pageId=123", sources.get(1).getUrl());
+    }
+
+    @Test
+    void unknownPageIsBuiltFromMetadataWithoutBeingCached() {
+        List<RagService.SourcePage> sources = catalog.sourcesFor(List.of(chunk("456"), chunk("456")));
+
+        // Two chunks of the page give one source even though each was built separately
+        assertEquals(1, sources.size());
+        assertEquals("Page 456", sources.getFirst().getTitle());
+        assertEquals(0, catalog.size());
+    }
+
+    @Test
+    void refreshPicksUpRowsChangedSinceTheNewestSeenAndDropsRemovedOnes() {
+        LocalDateTime loadedAt = LocalDateTime.of(2026, 1, 1, 12, 0);
+        when(bulkRepository.findAllWithoutContent()).thenReturn(List.of(row("1", "Old title", loadedAt), row("2", "Gone", loadedAt)));
+        catalog.load();
+        when(bulkRepository.findChangedSinceWithoutContent(loadedAt.minusMinutes(2)))
+                .thenReturn(List.of(row("1", "New title", loadedAt.plusMinutes(1)), row("3", "Added elsewhere", loadedAt.plusMinutes(1))));
+        when(bulkRepository.findDeletedSince(any())).thenReturn(new HashSet<>(Set.of("2")));
+
+        catalog.refresh();
+
+        verify(bulkRepository).findChangedSinceWithoutContent(loadedAt.minusMinutes(2));
+        verify(bulkRepository, never()).findAllPageIds();
+        assertEquals(2, catalog.size());
+        List<RagService.SourcePage> sources = catalog.sourcesFor(List.of(chunk("1"), chunk("3")));
+        assertEquals("New title", sources.get(0).getTitle());
+        assertEquals("Added elsewhere", sources.get(1).getTitle());
+        catalog.shutdown();
+    }
+
+    @Test
+    void pageDeletedAndStoredAgainSinceTheLastRefreshStaysInTheCatalog() {
+        LocalDateTime loadedAt = LocalDateTime.of(2026, 1, 1, 12, 0);
+        when(bulkRepository.findAllWithoutContent()).thenReturn(List.of(row("1", "Deploy", loadedAt)));
+        catalog.load();
+        when(bulkRepository.findDeletedSince(any())).thenReturn(new HashSet<>(Set.of("1")));
+        when(bulkRepository.findChangedSinceWithoutContent(any())).thenReturn(List.of(row("1", "Deploy v2", loadedAt.plusMinutes(1))));
+
+        catalog.refresh();
+
+        assertEquals(1, catalog.size());
+        assertEquals("Deploy v2", catalog.sourcesFor(List.of(chunk("1"))).getFirst().getTitle());
+        catalog.shutdown();
+    }
+
+    private static DocumentEmbedding row(String id, String title, LocalDateTime updatedAt) {
+        DocumentEmbedding row = DocumentEmbedding.create(id, title, null, "HR", "Human Resources");
+        row.setUpdatedAt(updatedAt);
+        return row;
+    }
+
+    private static Document chunk(String id) {
+        return new Document("text", Map.of("id", id, "title", "Page " + id, "spaceKey", "HR", "spaceName", "Human Resources"));
+    }
+}
@@ -0,0 +1,56 @@
+package com.bohdansavshak.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PinnedDocumentsVectorStoreTest {
+
+    private final VectorStore delegate = mock(VectorStore.class);
+    private final PinnedDocumentsVectorStore store = new PinnedDocumentsVectorStore(delegate);
+
+    @Test
+    void identicalQuestionsFindTheDocumentsPinnedForTheirOwnRequest() {
+        List<Document> prefetched = List.of(new Document("prefetched"));
+        List<Document> searched = List.of(new Document("searched"));
+        String first = store.pin(prefetched);
+        String second = store.pin(searched);
+
+        assertEquals(prefetched, store.similaritySearch(advisorRequest("Where is the VPN guide?", first)));
+        assertEquals(searched, store.similaritySearch(advisorRequest("Where is the VPN guide?", second)));
+        verify(delegate, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void unpinnedTokenSearchesWithoutTheTokenFilter() {
+        List<Document> found = List.of(new Document("found"));
+        when(delegate.similaritySearch(any(SearchRequest.class))).thenAnswer(invocation -> {
+            assertNull(invocation.<SearchRequest>getArgument(0).getFilterExpression());
+            return found;
+        });
+        String token = store.pin(List.of());
+        store.unpin(token);
+
+        assertEquals(found, store.similaritySearch(advisorRequest("Who approves releases?", token)));
+    }
+
+    // What QuestionAnswerAdvisor builds from the filter expression put in the advisor context
+    private static SearchRequest advisorRequest(String question, String token) {
+        return SearchRequest.builder()
+                .query(question)
+                .filterExpression(new FilterExpressionTextParser().parse(PinnedDocumentsVectorStore.filterFor(token)))
+                .build();
+    }
+}
@@ -0,0 +1,150 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.AdmissionProperties;
+import com.bohdansavshak.config.ChatStreamingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RagServiceTest {
+
+    private final ChatStreamingProperties streamingProperties = new ChatStreamingProperties();
+    private final ChatAdmissionService admissionService =
+            new ChatAdmissionService(new AdmissionProperties(), new RagMetrics(new SimpleMeterRegistry()));
+    private final AtomicInteger admissions = new AtomicInteger();
+    private final AtomicInteger generations = new AtomicInteger();
+    private Sinks.Many<ServerSentEvent<Object>> generation;
+
+    @Test
+    void tokensAreCoalescedIntoFramesOfAtMostMaxFrameTokens() {
+        streamingProperties.setMaxFrameTokens(3);
+
+        StepVerifier.create(ragService().frames(Flux.just("The", " VPN", " guide", " is", " here")))
+                .expectNext("\"The VPN guide\"")
+                .expectNext("\" is here\"")
+                .verifyComplete();
+    }
+
+    @Test
+    void zeroWindowSendsEveryToken() {
+        streamingProperties.setCoalesceWindow(Duration.ZERO);
+
+        StepVerifier.create(ragService().frames(Flux.just("a", "b")))
+                .expectNext("\"a\"", "\"b\"")
+                .verifyComplete();
+    }
+
+    @Test
+    void framesAreJsonStringLiterals() {
+        assertEquals("\"line 1\\nsays \\\"hi\\\" \\\\ ok\"", RagService.jsonString("line 1\nsays \"hi\" \\ ok"));
+    }
+
+    @Test
+    void identicalQuestionsShareOneGenerationAndOnePermit() {
+        RagService ragService = coalescingRagService();
+
+        Flux<ServerSentEvent<Object>> first = ragService.chatWithSourcesStream("Where is the VPN guide?", null, this::admit);
+        Flux<ServerSentEvent<Object>> second = ragService.chatWithSourcesStream("where is the VPN guide", null, this::admit);
+        Disposable a = first.subscribe();
+        Disposable b = second.subscribe();
+
+        assertEquals(1, admissions.get());
+        assertEquals(1, generations.get());
+        assertEquals(1, admissionService.getInFlightCount());
+        a.dispose();
+        b.dispose();
+    }
+
+    @Test
+    void permitIsReleasedWhenTheSharedGenerationEndsNotWhenTheFirstCallerLeaves() {
+        RagService ragService = coalescingRagService();
+        List<Object> received = new ArrayList<>();
+
+        Disposable first = ragService.chatWithSourcesStream("Who approves releases?", null, this::admit).subscribe();
+        ragService.chatWithSourcesStream("Who approves releases?", null, this::admit)
+                .subscribe(event -> received.add(event.data()));
+        first.dispose();
+
+        assertEquals(1, admissionService.getInFlightCount());
+        generation.tryEmitNext(ServerSentEvent.builder().event("chunk").data("\"The release manager\"").build());
+        generation.tryEmitComplete();
+        assertEquals(List.of("\"The release manager\""), received);
+        assertEquals(0, admissionService.getInFlightCount());
+    }
+
+    @Test
+    void latecomersStartTheirOwnGenerationOnceHalfTheReplayBufferIsUsed() {
+        streamingProperties.setMaxReplayFrames(4);
+        RagService ragService = coalescingRagService();
+
+        Disposable first = ragService.chatWithSourcesStream("Where is the VPN guide?", null, this::admit).subscribe();
+        Sinks.Many<ServerSentEvent<Object>> firstGeneration = generation;
+        firstGeneration.tryEmitNext(ServerSentEvent.builder().event("sources").data("[]").build());
+        Disposable joined = ragService.chatWithSourcesStream("Where is the VPN guide?", null, this::admit).subscribe();
+        firstGeneration.tryEmitNext(ServerSentEvent.builder().event("chunk").data("\"Use\"").build());
+        Disposable late = ragService.chatWithSourcesStream("Where is the VPN guide?", null, this::admit).subscribe();
+
+        assertEquals(2, generations.get());
+        assertEquals(2, admissions.get());
+        first.dispose();
+        joined.dispose();
+        late.dispose();
+        assertEquals(0, admissionService.getInFlightCount());
+    }
+
+    @Test
+    void streamThatIsNeverSubscribedTakesNoSlot() {
+        RagService ragService = coalescingRagService();
+
+        ragService.chatWithSourcesStream("Where is the VPN guide?", null, this::admit);
+
+        assertEquals(0, admissions.get());
+        assertEquals(0, admissionService.getInFlightCount());
+    }
+
+    private Mono<ChatAdmissionService.Permit> admit() {
+        admissions.incrementAndGet();
+        return admissionService.awaitPermit(admissionService.enqueue("client", ChatAdmissionService.Priority.INTERACTIVE));
+    }
+
+    // Every generation is a sink the test drives by hand
+    private RagService coalescingRagService() {
+        ChatClient.Builder builder = mock(ChatClient.Builder.class, RETURNS_SELF);
+        when(builder.clone()).thenReturn(builder);
+        return new RagService(mock(VectorStore.class), builder, mock(ChatMemory.class), null,
+                new RagMetrics(new SimpleMeterRegistry()), null, streamingProperties) {
+            @Override
+            Flux<ServerSentEvent<Object>> generateStream(String userQuestion, CompletableFuture<List<Document>> prefetched) {
+                generations.incrementAndGet();
+                generation = Sinks.many().unicast().onBackpressureBuffer();
+                return generation.asFlux();
+            }
+        };
+    }
+
+    private RagService ragService() {
+        ChatClient.Builder builder = mock(ChatClient.Builder.class, RETURNS_SELF);
+        when(builder.clone()).thenReturn(builder);
+        return new RagService(mock(VectorStore.class), builder, mock(ChatMemory.class), null, null, null, streamingProperties);
+    }
+}
@@ -0,0 +1,65 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.PrefetchProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RetrievalPrefetchServiceTest {
+
+    private final RagService ragService = mock(RagService.class);
+    private final RagMetrics ragMetrics = mock(RagMetrics.class);
+    private final PrefetchProperties properties = new PrefetchProperties();
+    private RetrievalPrefetchService prefetchService;
+
+    @AfterEach
+    void tearDown() {
+        prefetchService.shutdown();
+    }
+
+    @Test
+    void sentQuestionReusesTheSessionsPrefetch() {
+        prefetchService = new RetrievalPrefetchService(ragService, properties, ragMetrics);
+        List<Document> documents = List.of(new Document("VPN guide"));
+        when(ragService.retrieve(anyString(), isNull())).thenReturn(documents);
+
+        assertTrue(prefetchService.prefetch("session-1", "Where is the VPN guide"));
+        assertTrue(prefetchService.prefetch("session-1", "where is the vpn guide"));
+
+        assertNull(prefetchService.take("session-2", "Where is the VPN guide?"));
+        assertEquals(documents, prefetchService.take("session-1", "Where is the VPN guide?").join());
+        assertNull(prefetchService.take("session-1", "Where is the VPN guide?"));
+        verify(ragService, times(1)).retrieve(anyString(), isNull());
+        verify(ragMetrics).countPrefetch("hit");
+    }
+
+    @Test
+    void differentOrExpiredQuestionsAreNotReused() throws InterruptedException {
+        properties.setTtl(Duration.ofMillis(50));
+        prefetchService = new RetrievalPrefetchService(ragService, properties, ragMetrics);
+        when(ragService.retrieve(anyString(), isNull())).thenReturn(List.of());
+
+        assertFalse(prefetchService.prefetch("session-1", "VPN"));
+        prefetchService.prefetch("session-1", "Where is the VPN");
+        assertNull(prefetchService.take("session-1", "Where is the VPN guide?"));
+
+        prefetchService.prefetch("session-1", "Where is the VPN guide?");
+        Thread.sleep(100);
+        assertNull(prefetchService.take("session-1", "Where is the VPN guide?"));
+        verify(ragMetrics, times(2)).countPrefetch("miss");
+    }
+}
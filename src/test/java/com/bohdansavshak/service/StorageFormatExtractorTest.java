@@ -0,0 +1,61 @@
+package com.bohdansavshak.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageFormatExtractorTest {
+
+    private final StorageFormatExtractor extractor = new StorageFormatExtractor();
+
+    @Test
+    void testDropsMacroParametersAndResourceIdentifiers() {
+        String storage = "<p>Before</p>"
+                + "<ac:structured-macro ac:name=\"info\"><ac:parameter ac:name=\"title\">Hidden title</ac:parameter>"
+                + "<ac:rich-text-body><p>Visible body</p></ac:rich-text-body></ac:structured-macro>"
+                + "<p><ac:image><ri:attachment ri:filename=\"diagram.png\" /></ac:image>After</p>";
+
+        String text = extractor.extract(storage).getText();
+
+        assertEquals("Before\nVisible body\nAfter", text);
+    }
+
+    @Test
+    void testKeepsCodeBlockWhitespace() {
+        String storage = "<ac:structured-macro ac:name=\"code\"><ac:parameter ac:name=\"language\">java</ac:parameter>"
+                + "<ac:plain-text-body><![CDATA[if (a) {\n    b();\n}]]></ac:plain-text-body></ac:structured-macro>";
+
+        String text = extractor.extract(storage).getText();
+
+        assertEquals("if (a) {\n    b();\n}", text);
+    }
+
+    @Test
+    void testKeepsTableRowsOnOneLine() {
+        String storage = "<table><tbody><tr><th>Name</th><th>Value</th></tr>"
+                + "<tr><td><p>timeout</p></td><td>30&nbsp;s</td></tr></tbody></table>";
+
+        String text = extractor.extract(storage).getText();
+
+        assertEquals("Name | Value\ntimeout | 30 s", text);
+    }
+
+    @Test
+    void testRecordsHeadingOffsets() {
+        String storage = "<p>Intro &amp; scope</p><h1>Setup</h1><p>Install it.</p><h2>Usage</h2><p>Run it.</p>";
+
+        StorageFormatExtractor.ExtractedText extracted = extractor.extract(storage);
+        String text = extracted.getText();
+        List<StorageFormatExtractor.Heading> headings = extracted.getHeadings();
+
+        assertEquals("Intro & scope\n\nSetup\nInstall it.\n\nUsage\nRun it.", text);
+        assertEquals(2, headings.size());
+        assertEquals("Setup", headings.get(0).getTitle());
+        assertEquals(1, headings.get(0).getLevel());
+        assertTrue(text.startsWith("Setup", headings.get(0).getOffset()));
+        assertEquals("Usage", headings.get(1).getTitle());
+        assertTrue(text.startsWith("Usage", headings.get(1).getOffset()));
+    }
+}
@@ -0,0 +1,76 @@
+package com.bohdansavshak.service;
+
+import com.bohdansavshak.config.ChatRoutingProperties;
+import com.bohdansavshak.config.WarmupProperties;
+import com.bohdansavshak.repository.IndexPrewarmRepository;
+import com.bohdansavshak.repository.RebuildableVectorStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WarmupServiceTest {
+
+    private final RagService ragService = mock(RagService.class);
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private final RebuildableVectorStore vectorStore = mock(RebuildableVectorStore.class);
+    private final IndexPrewarmRepository prewarmRepository = mock(IndexPrewarmRepository.class);
+    private final WarmupProperties properties = new WarmupProperties();
+    private WarmupService warmupService;
+
+    @BeforeEach
+    void setUp() {
+        properties.setQueries(List.of("Where is the VPN guide?"));
+        properties.setIterations(3);
+        when(vectorStore.servingTables()).thenReturn(List.of("public.vector_store"));
+        warmupService = new WarmupService(ragService, null, embeddingModel, vectorStore, prewarmRepository,
+                properties, new ChatRoutingProperties());
+    }
+
+    @Test
+    void notReadyUntilWarmUpHasRun() {
+        when(prewarmRepository.prewarm(List.of("public.vector_store"))).thenReturn(128L);
+
+        assertEquals(Status.OUT_OF_SERVICE, warmupService.health().getStatus());
+        warmupService.warmUp();
+
+        assertEquals(Status.UP, warmupService.health().getStatus());
+        verify(embeddingModel).embed("warm-up");
+        verify(ragService).warmUp("Where is the VPN guide?", true);
+        verify(ragService, times(2)).warmUp("Where is the VPN guide?", false);
+        verify(prewarmRepository, never()).sampleTitles(20);
+    }
+
+    @Test
+    void sampledSearchesReplacePgPrewarmWhenItIsMissing() {
+        when(prewarmRepository.prewarm(List.of("public.vector_store"))).thenReturn(-1L);
+        when(prewarmRepository.sampleTitles(20)).thenReturn(List.of("Onboarding", "Deploy"));
+
+        warmupService.warmUp();
+
+        verify(ragService).warmUp("Onboarding", false);
+        verify(ragService).warmUp("Deploy", false);
+    }
+
+    @Test
+    void failureStillReportsReady() {
+        when(embeddingModel.embed(anyString())).thenThrow(new IllegalStateException("Ollama is down"));
+
+        warmupService.warmUp();
+
+        assertEquals(Status.UP, warmupService.health().getStatus());
+        assertEquals("Ollama is down", warmupService.health().getDetails().get("failure"));
+        verify(ragService, never()).warmUp(anyString(), anyBoolean());
+    }
+}